@@ -0,0 +1,147 @@
+package com.conveyal.osmlib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The OSM data shared by the benchmarks: the Bangor, Maine extract used by the tests, optionally scaled up by making
+ * several copies of it. Each copy has its IDs offset beyond those of the previous one and its coordinates shifted
+ * north, so the scaled data remains sorted, internally consistent and spread over more tiles, with the same
+ * distribution of tags and way lengths as real data. Loading the data is not part of any measurement.
+ */
+public class BenchmarkData implements OSMEntitySource {
+
+    public static final String BANGOR = "./src/test/resources/bangor_maine.osm.pbf";
+
+    /** How far north each copy of the data is shifted, in degrees. The extract is about 0.2 degrees tall. */
+    private static final double COPY_SHIFT_DEGREES = 0.25;
+
+    public final List<Long> nodeIds = new ArrayList<>();
+    public final List<Node> nodes = new ArrayList<>();
+    public final List<Long> wayIds = new ArrayList<>();
+    public final List<Way> ways = new ArrayList<>();
+    public final List<Long> relationIds = new ArrayList<>();
+    public final List<Relation> relations = new ArrayList<>();
+
+    /** @return the Bangor extract repeated the given number of times. */
+    public static BenchmarkData load (int copies) {
+        BenchmarkData original = new BenchmarkData();
+        try {
+            OSMEntitySource.forFile(BANGOR).copyTo(original.collector());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (copies == 1) return original;
+        BenchmarkData scaled = new BenchmarkData();
+        long nodeStride = original.nodeIds.get(original.nodeIds.size() - 1) + 1;
+        long wayStride = original.wayIds.get(original.wayIds.size() - 1) + 1;
+        long relationStride = original.relationIds.get(original.relationIds.size() - 1) + 1;
+        for (int c = 0; c < copies; c++) {
+            int latShift = (int) (c * COPY_SHIFT_DEGREES * 1e7);
+            for (int i = 0; i < original.nodes.size(); i++) {
+                Node node = new Node();
+                node.fixedLat = original.nodes.get(i).fixedLat + latShift;
+                node.fixedLon = original.nodes.get(i).fixedLon;
+                node.tags = original.nodes.get(i).tags;
+                scaled.nodeIds.add(original.nodeIds.get(i) + c * nodeStride);
+                scaled.nodes.add(node);
+            }
+            for (int i = 0; i < original.ways.size(); i++) {
+                Way way = new Way();
+                way.tags = original.ways.get(i).tags;
+                way.nodes = original.ways.get(i).nodes.clone();
+                for (int n = 0; n < way.nodes.length; n++) {
+                    way.nodes[n] += c * nodeStride;
+                }
+                scaled.wayIds.add(original.wayIds.get(i) + c * wayStride);
+                scaled.ways.add(way);
+            }
+            for (int i = 0; i < original.relations.size(); i++) {
+                Relation relation = new Relation();
+                relation.tags = original.relations.get(i).tags;
+                for (Relation.Member member : original.relations.get(i).members) {
+                    Relation.Member copy = new Relation.Member();
+                    copy.type = member.type;
+                    copy.role = member.role;
+                    long stride = member.type == OSMEntity.Type.NODE ? nodeStride :
+                                  member.type == OSMEntity.Type.WAY ? wayStride : relationStride;
+                    copy.id = member.id + c * stride;
+                    relation.members.add(copy);
+                }
+                scaled.relationIds.add(original.relationIds.get(i) + c * relationStride);
+                scaled.relations.add(relation);
+            }
+        }
+        return scaled;
+    }
+
+    /** Replay the data in memory, so benchmarks of sinks do not also measure decoding. */
+    @Override
+    public void copyTo (OSMEntitySink sink) throws IOException {
+        sink.writeBegin();
+        for (int i = 0; i < nodes.size(); i++) sink.writeNode(nodeIds.get(i), nodes.get(i));
+        for (int i = 0; i < ways.size(); i++) sink.writeWay(wayIds.get(i), ways.get(i));
+        for (int i = 0; i < relations.size(); i++) sink.writeRelation(relationIds.get(i), relations.get(i));
+        sink.writeEnd();
+    }
+
+    /** @return the data encoded in PBF format. */
+    public byte[] toPbf () {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        copyOrThrow(new PBFOutput(bytes));
+        return bytes.toByteArray();
+    }
+
+    /** @return the data encoded in VEX format. */
+    public byte[] toVex () {
+        return toVex(BlockCodec.DEFLATE);
+    }
+
+    public byte[] toVex (BlockCodec codec) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        VexOutput vexOutput = new VexOutput(bytes);
+        vexOutput.setCodec(codec);
+        copyOrThrow(vexOutput);
+        return bytes.toByteArray();
+    }
+
+    /** @return an OSM on the heap holding the data, with the tile index built. */
+    public OSM toOSM () {
+        OSM osm = new OSM(OSM.ON_HEAP);
+        osm.tileIndexing = true;
+        copyOrThrow(osm);
+        return osm;
+    }
+
+    private void copyOrThrow (OSMEntitySink sink) {
+        try {
+            copyTo(sink);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private OSMEntitySink collector () {
+        return new OSMEntitySink() {
+            @Override public void writeBegin () { }
+            @Override public void setReplicationTimestamp (long secondsSinceEpoch) { }
+            @Override public void writeNode (long id, Node node) {
+                nodeIds.add(id);
+                nodes.add(node);
+            }
+            @Override public void writeWay (long id, Way way) {
+                wayIds.add(id);
+                ways.add(way);
+            }
+            @Override public void writeRelation (long id, Relation relation) {
+                relationIds.add(id);
+                relations.add(relation);
+            }
+            @Override public void writeEnd () { }
+        };
+    }
+
+}
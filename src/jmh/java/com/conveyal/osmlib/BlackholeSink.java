@@ -0,0 +1,73 @@
+package com.conveyal.osmlib;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A sink that hands everything it receives to a JMH blackhole, so decoding benchmarks measure only the source and
+ * the JIT cannot eliminate any of the decoding work. Views are consumed by ID and tag count, as a typical filter
+ * would read them.
+ */
+public class BlackholeSink implements OSMEntitySink, OSMEntityViewSink {
+
+    private final Blackhole blackhole;
+
+    public long count = 0;
+
+    public BlackholeSink (Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void writeBegin () { }
+
+    @Override
+    public void setReplicationTimestamp (long secondsSinceEpoch) {
+        blackhole.consume(secondsSinceEpoch);
+    }
+
+    @Override
+    public void writeNode (long id, Node node) {
+        blackhole.consume(id);
+        blackhole.consume(node);
+        count += 1;
+    }
+
+    @Override
+    public void writeWay (long id, Way way) {
+        blackhole.consume(id);
+        blackhole.consume(way);
+        count += 1;
+    }
+
+    @Override
+    public void writeRelation (long id, Relation relation) {
+        blackhole.consume(id);
+        blackhole.consume(relation);
+        count += 1;
+    }
+
+    @Override
+    public void writeNode (NodeView node) {
+        consumeView(node);
+    }
+
+    @Override
+    public void writeWay (WayView way) {
+        consumeView(way);
+    }
+
+    @Override
+    public void writeRelation (RelationView relation) {
+        consumeView(relation);
+    }
+
+    private void consumeView (OSMEntityView view) {
+        blackhole.consume(view.getId());
+        blackhole.consume(view.getTagCount());
+        count += 1;
+    }
+
+    @Override
+    public void writeEnd () { }
+
+}
@@ -0,0 +1,96 @@
+package com.conveyal.osmlib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-file decoding and encoding throughput of the PBF and VEX formats, to and from memory so that disk speed does
+ * not enter into it. One operation is the entire dataset; divide the entity count logged at setup by the score for a
+ * per-entity rate. The copies parameter scales the Bangor extract up to show how throughput holds as data grows.
+ * The codec parameter applies to VEX only, PBF is always deflated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+public class CodecBenchmark {
+
+    @Param({"1", "8"})
+    public int copies;
+
+    /** A BlockCodec name, see BlockCodec.forName. */
+    @Param({"deflate", "lz4"})
+    public String codec;
+
+    private BlockCodec blockCodec;
+
+    private BenchmarkData data;
+    private byte[] pbf;
+    private byte[] vex;
+
+    @Setup
+    public void setup () {
+        data = BenchmarkData.load(copies);
+        blockCodec = BlockCodec.forName(codec);
+        pbf = data.toPbf();
+        vex = data.toVex(blockCodec);
+        System.out.printf("%d entities, %d bytes of PBF, %d bytes of VEX.%n",
+                data.nodes.size() + data.ways.size() + data.relations.size(), pbf.length, vex.length);
+    }
+
+    @Benchmark
+    public long decodePbf (Blackhole blackhole) throws IOException {
+        BlackholeSink sink = new BlackholeSink(blackhole);
+        new PBFInput(new ByteArrayInputStream(pbf)).copyTo(sink);
+        return sink.count;
+    }
+
+    @Benchmark
+    public long decodeVex (Blackhole blackhole) throws IOException {
+        BlackholeSink sink = new BlackholeSink(blackhole);
+        new VexInput(new ByteArrayInputStream(vex)).copyTo(sink);
+        return sink.count;
+    }
+
+    /** Decoding VEX into entity views, which does not materialize entities the sink does not retain. */
+    @Benchmark
+    public long decodeVexViews (Blackhole blackhole) throws IOException {
+        BlackholeSink sink = new BlackholeSink(blackhole);
+        new VexInput(new ByteArrayInputStream(vex)).copyViewsTo(sink);
+        return sink.count;
+    }
+
+    @Benchmark
+    public int encodePbf () throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(pbf.length);
+        data.copyTo(new PBFOutput(bytes));
+        return bytes.size();
+    }
+
+    @Benchmark
+    public int encodeVex () throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(vex.length);
+        VexOutput vexOutput = new VexOutput(bytes);
+        vexOutput.setCodec(blockCodec);
+        data.copyTo(vexOutput);
+        return bytes.size();
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.conveyal.osmlib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The operations behind extracts: tracking node IDs in a NodeTracker, and pulling all entities in a bounding box out
+ * of a tile-indexed OSM with TileOSMSource. The tracker is exercised with the node references of real ways in order,
+ * and looked up at random real and missing IDs. The bounding box covers downtown Bangor in the first copy of the data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+public class QueryBenchmark {
+
+    private static final int N_LOOKUPS = 4096;
+
+    @Param({"1", "8"})
+    public int copies;
+
+    /** The node references of all ways, in the order they would be added while making an extract. */
+    private long[] wayNodeRefs;
+
+    private NodeTracker fullTracker;
+
+    /** IDs to look up in the tracker, about half of which are present. */
+    private final long[] lookups = new long[N_LOOKUPS];
+
+    private OSM osm;
+
+    @Setup
+    public void setup () {
+        BenchmarkData data = BenchmarkData.load(copies);
+        int n = 0;
+        for (Way way : data.ways) n += way.nodes.length;
+        wayNodeRefs = new long[n];
+        n = 0;
+        for (Way way : data.ways) {
+            System.arraycopy(way.nodes, 0, wayNodeRefs, n, way.nodes.length);
+            n += way.nodes.length;
+        }
+        fullTracker = new NodeTracker();
+        fullTracker.addAll(wayNodeRefs);
+        Random random = new Random(42);
+        long maxId = data.nodeIds.get(data.nodeIds.size() - 1);
+        for (int i = 0; i < N_LOOKUPS; i++) {
+            lookups[i] = random.nextBoolean() ? wayNodeRefs[random.nextInt(wayNodeRefs.length)]
+                                              : (long) (random.nextDouble() * maxId);
+        }
+        osm = data.toOSM();
+    }
+
+    /** Scores are per complete pass over all way node references, as when building an extract. */
+    @Benchmark
+    public int nodeTrackerAdd () {
+        NodeTracker tracker = new NodeTracker();
+        for (long ref : wayNodeRefs) tracker.add(ref);
+        return tracker.cardinality();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_LOOKUPS)
+    public void nodeTrackerContains (Blackhole blackhole) {
+        for (long id : lookups) blackhole.consume(fullTracker.contains(id));
+    }
+
+    @Benchmark
+    public long tileBoundingBox (Blackhole blackhole) throws IOException {
+        TileOSMSource source = new TileOSMSource(osm);
+        source.setBoundingBox(44.79, -68.79, 44.82, -68.75);
+        BlackholeSink sink = new BlackholeSink(blackhole);
+        source.copyTo(sink);
+        return sink.count;
+    }
+
+}
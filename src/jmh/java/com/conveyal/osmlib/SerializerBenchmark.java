@@ -0,0 +1,93 @@
+package com.conveyal.osmlib;
+
+import com.conveyal.osmlib.serializer.NodeSerializer;
+import com.conveyal.osmlib.serializer.WaySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The MapDB serializers for nodes and ways, which are on the path of every read and write to a disk-backed OSM.
+ * Each operation cycles through the real entities of the Bangor extract one at a time, so scores are per entity.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+    private final NodeSerializer nodeSerializer = new NodeSerializer();
+    private final WaySerializer waySerializer = new WaySerializer();
+
+    private List<Node> nodes;
+    private List<Way> ways;
+    private final List<byte[]> serializedNodes = new ArrayList<>();
+    private final List<byte[]> serializedWays = new ArrayList<>();
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private int nodeIndex = 0;
+    private int wayIndex = 0;
+
+    @Setup
+    public void setup () throws IOException {
+        BenchmarkData data = BenchmarkData.load(1);
+        nodes = data.nodes;
+        ways = data.ways;
+        for (Node node : nodes) {
+            buffer.reset();
+            nodeSerializer.serialize(new DataOutputStream(buffer), node);
+            serializedNodes.add(buffer.toByteArray());
+        }
+        for (Way way : ways) {
+            buffer.reset();
+            waySerializer.serialize(new DataOutputStream(buffer), way);
+            serializedWays.add(buffer.toByteArray());
+        }
+    }
+
+    @Benchmark
+    public int serializeNode () throws IOException {
+        if (++nodeIndex == nodes.size()) nodeIndex = 0;
+        buffer.reset();
+        nodeSerializer.serialize(new DataOutputStream(buffer), nodes.get(nodeIndex));
+        return buffer.size();
+    }
+
+    @Benchmark
+    public Node deserializeNode () throws IOException {
+        if (++nodeIndex == nodes.size()) nodeIndex = 0;
+        byte[] bytes = serializedNodes.get(nodeIndex);
+        return nodeSerializer.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length);
+    }
+
+    @Benchmark
+    public int serializeWay () throws IOException {
+        if (++wayIndex == ways.size()) wayIndex = 0;
+        buffer.reset();
+        waySerializer.serialize(new DataOutputStream(buffer), ways.get(wayIndex));
+        return buffer.size();
+    }
+
+    @Benchmark
+    public Way deserializeWay () throws IOException {
+        if (++wayIndex == ways.size()) wayIndex = 0;
+        byte[] bytes = serializedWays.get(wayIndex);
+        return waySerializer.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length);
+    }
+
+}
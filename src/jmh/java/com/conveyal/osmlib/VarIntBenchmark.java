@@ -0,0 +1,96 @@
+package com.conveyal.osmlib;
+
+import com.conveyal.osmlib.serializer.VarInt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Encoding and decoding of varints, through both the MapDB serializer helpers (DataInput/DataOutput) and the streams
+ * used by the VEX format. The values are deltas like those between successive node IDs and coordinates, mostly one
+ * to three bytes long with the occasional large jump. Scores are per value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VarIntBenchmark {
+
+    private static final int N_VALUES = 4096;
+
+    private final long[] values = new long[N_VALUES];
+
+    /** The values encoded as zigzag varints. */
+    private byte[] encoded;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(N_VALUES * 10);
+
+    @Setup
+    public void setup () throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < N_VALUES; i++) {
+            values[i] = random.nextInt(10) == 0 ? random.nextLong() >> 20 : random.nextInt(20000) - 10000;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : values) VarInt.writeSInt64NoTag(out, value);
+        encoded = bytes.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_VALUES)
+    public int encodeDataOutput () throws IOException {
+        buffer.reset();
+        DataOutputStream out = new DataOutputStream(buffer);
+        for (long value : values) VarInt.writeSInt64NoTag(out, value);
+        return buffer.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_VALUES)
+    public int encodeVarIntOutputStream () throws IOException {
+        buffer.reset();
+        VarIntOutputStream out = new VarIntOutputStream(buffer);
+        for (long value : values) out.writeSInt64(value);
+        return buffer.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_VALUES)
+    public void decodeDataInput (Blackhole blackhole) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        for (int i = 0; i < N_VALUES; i++) blackhole.consume(VarInt.readSInt64(in));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_VALUES)
+    public void decodeVarIntInputStream (Blackhole blackhole) throws IOException {
+        VarIntInputStream in = new VarIntInputStream(new ByteArrayInputStream(encoded));
+        for (int i = 0; i < N_VALUES; i++) blackhole.consume(in.readSInt64());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_VALUES)
+    public void decodeVarIntBuffer (Blackhole blackhole) {
+        VarIntBuffer in = new VarIntBuffer();
+        in.reset(encoded, 0);
+        for (int i = 0; i < N_VALUES; i++) blackhole.consume(in.readSInt64());
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.conveyal.osmlib;
+
+import com.conveyal.osmlib.metrics.MetricsRegistry;
+import com.conveyal.osmlib.metrics.Timer;
+import gnu.trove.procedure.TLongObjectProcedure;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+
+/**
+ * An EntityMap backed by a sorted map, usually a MapDB BTreeMap. The BTree itself stores and deserializes its keys
+ * as Long objects, so the primitive accessors only save callers from boxing, and iteration still goes through the
+ * BTree's own entries. See TroveEntityMap for a table that avoids boxing entirely.
+ */
+public class BTreeEntityMap<T extends OSMEntity> implements EntityMap<T> {
+
+    private final NavigableMap<Long, T> map;
+
+    private final Timer putTimer;
+
+    public BTreeEntityMap (NavigableMap<Long, T> map) {
+        this(map, MetricsRegistry.NONE.timer(null));
+    }
+
+    /**
+     * @param putTimer records the latency of every put(long, T), which includes serialization and any BTree node
+     * splits. With MapDB's asynchronous writes enabled, it does not include the write to disk.
+     */
+    public BTreeEntityMap (NavigableMap<Long, T> map, Timer putTimer) {
+        this.map = map;
+        this.putTimer = putTimer;
+    }
+
+    @Override
+    public T get (long id) {
+        return map.get(id);
+    }
+
+    @Override
+    public T put (long id, T entity) {
+        long start = putTimer.start();
+        T previous = map.put(id, entity);
+        putTimer.stop(start);
+        return previous;
+    }
+
+    /** The whole batch is timed at once, and each put in it is recorded with the mean latency of the batch. */
+    @Override
+    public void putBatch (long[] ids, T[] entities, int count) {
+        if (count == 0) return;
+        long start = putTimer.start();
+        for (int i = 0; i < count; i++) {
+            map.put(ids[i], entities[i]);
+        }
+        long meanNanos = (System.nanoTime() - start) / count;
+        for (int i = 0; i < count; i++) {
+            putTimer.recordNanos(meanNanos);
+        }
+    }
+
+    @Override
+    public T remove (long id) {
+        return map.remove(id);
+    }
+
+    @Override
+    public boolean containsKey (long id) {
+        return map.containsKey(id);
+    }
+
+    @Override
+    public boolean forEachEntry (TLongObjectProcedure<? super T> procedure) {
+        return forEach(map, procedure);
+    }
+
+    @Override
+    public boolean forEachEntryInRange (long minId, long maxId, TLongObjectProcedure<? super T> procedure) {
+        if (minId > maxId) return true;
+        return forEach(map.subMap(minId, true, maxId, true), procedure);
+    }
+
+    private static <T> boolean forEach (NavigableMap<Long, T> map, TLongObjectProcedure<? super T> procedure) {
+        for (Map.Entry<Long, T> entry : map.entrySet()) {
+            if (!procedure.execute(entry.getKey(), entry.getValue())) return false;
+        }
+        return true;
+    }
+
+    // Plain Map methods are passed through to the underlying map, except for puts which go through put(long, T) so
+    // that they are all timed.
+
+    @Override
+    public T get (Object key) {
+        return map.get(key);
+    }
+
+    @Override
+    public T put (Long key, T value) {
+        return put(key.longValue(), value);
+    }
+
+    @Override
+    public T remove (Object key) {
+        return map.remove(key);
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue (Object value) {
+        return map.containsValue(value);
+    }
+
+    @Override
+    public void putAll (Map<? extends Long, ? extends T> m) {
+        for (Entry<? extends Long, ? extends T> entry : m.entrySet()) {
+            put(entry.getKey().longValue(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void clear () {
+        map.clear();
+    }
+
+    @Override
+    public int size () {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty () {
+        return map.isEmpty();
+    }
+
+    @Override
+    public Set<Long> keySet () {
+        return map.keySet();
+    }
+
+    @Override
+    public Collection<T> values () {
+        return map.values();
+    }
+
+    @Override
+    public Set<Entry<Long, T>> entrySet () {
+        return map.entrySet();
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.conveyal.osmlib;
+
+import java.io.IOException;
+
+/**
+ * An OSMEntitySink that groups the entities it receives into batches for an OSMEntityBatchSink, so that batch sinks
+ * can be fed by sources that only produce one entity at a time. A batch is handed on when it reaches the batch size,
+ * when entities of another type arrive, and at the end of the stream.
+ */
+public class BatchingSink implements OSMEntitySink {
+
+    public static final int DEFAULT_BATCH_SIZE = 8000;
+
+    private final OSMEntityBatchSink batchSink;
+
+    private final int batchSize;
+
+    private final NodeBatch nodes = new NodeBatch();
+
+    private final WayBatch ways = new WayBatch();
+
+    private final RelationBatch relations = new RelationBatch();
+
+    public BatchingSink (OSMEntityBatchSink batchSink) {
+        this(batchSink, DEFAULT_BATCH_SIZE);
+    }
+
+    public BatchingSink (OSMEntityBatchSink batchSink, int batchSize) {
+        this.batchSink = batchSink;
+        this.batchSize = batchSize;
+    }
+
+    /** Hand on any entities not yet passed to the batch sink. */
+    private void flush () throws IOException {
+        if (nodes.size > 0) {
+            batchSink.writeNodes(nodes);
+            nodes.clear();
+        }
+        if (ways.size > 0) {
+            batchSink.writeWays(ways);
+            ways.clear();
+        }
+        if (relations.size > 0) {
+            batchSink.writeRelations(relations);
+            relations.clear();
+        }
+    }
+
+    @Override
+    public void writeBegin() throws IOException {
+        batchSink.writeBegin();
+    }
+
+    @Override
+    public void setReplicationTimestamp(long secondsSinceEpoch) {
+        batchSink.setReplicationTimestamp(secondsSinceEpoch);
+    }
+
+    @Override
+    public void writeNode(long id, Node node) throws IOException {
+        if (ways.size > 0 || relations.size > 0) flush();
+        nodes.add(id, node);
+        if (nodes.size >= batchSize) flush();
+    }
+
+    @Override
+    public void writeWay(long id, Way way) throws IOException {
+        if (nodes.size > 0 || relations.size > 0) flush();
+        ways.add(id, way);
+        if (ways.size >= batchSize) flush();
+    }
+
+    @Override
+    public void writeRelation(long id, Relation relation) throws IOException {
+        if (nodes.size > 0 || ways.size > 0) flush();
+        relations.add(id, relation);
+        if (relations.size >= batchSize) flush();
+    }
+
+    @Override
+    public void writeEnd() throws IOException {
+        flush();
+        batchSink.writeEnd();
+    }
+
+}
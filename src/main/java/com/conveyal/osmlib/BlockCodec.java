@@ -0,0 +1,76 @@
+package com.conveyal.osmlib;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compresses and decompresses whole blocks of encoded entities held in byte arrays. VEX blocks record which codec
+ * they were compressed with, so any codec can be read back. PBF blobs can only be deflated or stored uncompressed.
+ *
+ * Implementations must be threadsafe, as a single codec is shared by the encoding and writing threads.
+ */
+public interface BlockCodec {
+
+    /* Codec IDs recorded in the flags of VEX version 2 blocks. Zero is deflate, so that blocks without the ID are. */
+    int DEFLATE_ID = 0;
+    int STORE_ID = 1;
+    int LZ4_ID = 2;
+
+    /** Deflate at the zlib default level, the codec used unless another one is chosen. */
+    BlockCodec DEFLATE = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+
+    /** No compression, for when I/O is cheap and CPU time is not. */
+    BlockCodec STORE = new StoreCodec();
+
+    /** LZ4 block compression, several times faster than deflate in both directions for somewhat bigger output. */
+    BlockCodec LZ4 = new LZ4Codec();
+
+    /** @return the ID of this codec as recorded in VEX block headers. */
+    int getId ();
+
+    /** @return the largest size the given number of bytes can take once compressed with this codec. */
+    int maxCompressedLength (int length);
+
+    /**
+     * Compress the first length bytes of the input into the output array.
+     * @return the number of compressed bytes, or -1 if they would not fit in the output array.
+     */
+    int compress (byte[] input, int length, byte[] output);
+
+    /**
+     * Decompress the first length bytes of the input into the output array.
+     * @return the number of decompressed bytes.
+     * @throws RuntimeException if the input is corrupted or does not decompress into the output array.
+     */
+    int decompress (byte[] input, int length, byte[] output);
+
+    /** @return a codec deflating at the given zlib level, from Deflater.NO_COMPRESSION (0) to BEST_COMPRESSION (9). */
+    static BlockCodec deflate (int level) {
+        return new DeflateCodec(level);
+    }
+
+    /** @return the codec with the given ID, as read from a VEX block header. */
+    static BlockCodec forId (int id) {
+        switch (id) {
+            case DEFLATE_ID: return DEFLATE;
+            case STORE_ID: return STORE;
+            case LZ4_ID: return LZ4;
+            default: throw new RuntimeException("Unrecognized block codec " + id + ", the data may be corrupted.");
+        }
+    }
+
+    /** @return the codec with the given name: deflate, deflate:level (e.g. deflate:9), store or lz4. */
+    static BlockCodec forName (String name) {
+        if (name.equals("deflate")) return DEFLATE;
+        if (name.equals("store")) return STORE;
+        if (name.equals("lz4")) return LZ4;
+        if (name.startsWith("deflate:")) {
+            try {
+                return deflate(Integer.parseInt(name.substring("deflate:".length())));
+            } catch (NumberFormatException e) {
+                // Fall through to the error below.
+            }
+        }
+        throw new IllegalArgumentException("Unknown codec '" + name + "', expected deflate, deflate:level, store or lz4.");
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.conveyal.osmlib;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A NodeTracker that can be safely read and written by several threads at once, for example by parallel loaders
+ * or by HTTP request threads. The map of blocks is a concurrent map, and access to each block is synchronized on
+ * that block, so threads working on IDs with different high-order 32 bits never contend with each other.
+ *
+ * Bulk operations lock one block at a time, so they are atomic with respect to each block but not to the whole set.
+ * When this tracker is the argument of a bulk operation on another tracker, each of its blocks is copied under lock
+ * before being read. Iteration also proceeds over copies of the blocks.
+ */
+public class ConcurrentNodeTracker extends NodeTracker {
+
+    public ConcurrentNodeTracker() {
+        super(new ConcurrentHashMap<>());
+    }
+
+    @Override
+    public void add(long x) {
+        RoaringBitmap block = getOrCreateBlock(highIndex(x));
+        synchronized (block) {
+            block.add(lowIndex(x));
+        }
+    }
+
+    @Override
+    protected void addToBlock(int high, int[] lows, int n) {
+        RoaringBitmap block = getOrCreateBlock(high);
+        synchronized (block) {
+            for (int i = 0; i < n; i++) {
+                block.add(lows[i]);
+            }
+        }
+    }
+
+    @Override
+    public void remove(long x) {
+        RoaringBitmap block = blocks.get(highIndex(x));
+        if (block != null) {
+            synchronized (block) {
+                block.remove(lowIndex(x));
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(long x) {
+        RoaringBitmap block = blocks.get(highIndex(x));
+        if (block == null) return false;
+        synchronized (block) {
+            return block.contains(lowIndex(x));
+        }
+    }
+
+    @Override
+    public void or(NodeTracker other) {
+        for (int high : other.highIndexes()) {
+            RoaringBitmap otherBlock = other.readBlock(high);
+            if (otherBlock != null) {
+                RoaringBitmap block = getOrCreateBlock(high);
+                synchronized (block) {
+                    block.or(otherBlock);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void and(NodeTracker other) {
+        for (Map.Entry<Integer, RoaringBitmap> entry : blocks.entrySet()) {
+            RoaringBitmap otherBlock = other.readBlock(entry.getKey());
+            RoaringBitmap block = entry.getValue();
+            synchronized (block) {
+                if (otherBlock == null) {
+                    block.clear();
+                } else {
+                    block.and(otherBlock);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void andNot(NodeTracker other) {
+        for (Map.Entry<Integer, RoaringBitmap> entry : blocks.entrySet()) {
+            RoaringBitmap otherBlock = other.readBlock(entry.getKey());
+            if (otherBlock != null) {
+                RoaringBitmap block = entry.getValue();
+                synchronized (block) {
+                    block.andNot(otherBlock);
+                }
+            }
+        }
+    }
+
+    /**
+     * Empty blocks are retained rather than removed, because another thread may be about to add to a block it has
+     * already looked up.
+     */
+    @Override
+    public void runOptimize() {
+        for (RoaringBitmap block : blocks.values()) {
+            synchronized (block) {
+                block.runOptimize();
+            }
+        }
+    }
+
+    @Override
+    public NodeTracker copy() {
+        NodeTracker copy = new ConcurrentNodeTracker();
+        copy.or(this);
+        return copy;
+    }
+
+    /** Returns a copy of the block made while holding its lock, so it can be read without further locking. */
+    @Override
+    protected RoaringBitmap readBlock(int high) {
+        RoaringBitmap block = blocks.get(high);
+        if (block == null) return null;
+        synchronized (block) {
+            return block.clone();
+        }
+    }
+
+}
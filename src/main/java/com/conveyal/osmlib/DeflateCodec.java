@@ -0,0 +1,88 @@
+package com.conveyal.osmlib;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses blocks with deflate in a zlib wrapper. This is the zlib_data of PBF blobs, and the only compression
+ * available in VEX version 1. The level trades speed for size, and only matters when compressing.
+ */
+public class DeflateCodec implements BlockCodec {
+
+    private final int level;
+
+    public DeflateCodec (int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Deflate level must be between 0 and 9, or -1 for the default.");
+        }
+        this.level = level;
+    }
+
+    public int getLevel () {
+        return level;
+    }
+
+    @Override
+    public int getId () {
+        return DEFLATE_ID;
+    }
+
+    /** Deflate can make incompressible data slightly larger: zlib adds a few bytes per 16kB stored block, a header. */
+    @Override
+    public int maxCompressedLength (int length) {
+        return length + length / 1000 + 64;
+    }
+
+    @Override
+    public int compress (byte[] input, int length, byte[] output) {
+        int pos = 0;
+        // Do not compress an empty data block, it will spin forever trying to fill the zero-length output buffer.
+        if (length > 0) {
+            Deflater deflater = new Deflater(level, false); // include gzip header and checksum
+            try {
+                deflater.setInput(input, 0, length);
+                deflater.finish(); // There will be no more input after this byte array.
+                while (!deflater.finished()) {
+                    pos += deflater.deflate(output, pos, output.length - pos, Deflater.SYNC_FLUSH);
+                    if (pos >= output.length) {
+                        return -1; // compressed output is bigger than buffer, store uncompressed
+                    }
+                }
+            } finally {
+                deflater.end(); // Free the native memory now rather than when the Deflater is garbage collected.
+            }
+        }
+        return pos;
+    }
+
+    @Override
+    public int decompress (byte[] input, int length, byte[] output) {
+        // Empty blocks are not compressed at all, see above.
+        if (length == 0) return 0;
+        int pos = 0;
+        Inflater inflater = new Inflater();
+        inflater.setInput(input, 0, length);
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(output, pos, output.length - pos);
+                if (n == 0 && (pos == output.length || inflater.needsInput() || inflater.needsDictionary())) {
+                    // Otherwise this would loop forever.
+                    throw new RuntimeException("Block is truncated or larger than " + output.length + " bytes.");
+                }
+                pos += n;
+            }
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Block could not be inflated, it is probably corrupted.", e);
+        } finally {
+            inflater.end();
+        }
+        return pos;
+    }
+
+    @Override
+    public String toString () {
+        return "deflate:" + level;
+    }
+
+}
@@ -1,5 +1,8 @@
 package com.conveyal.osmlib;
 
+import com.conveyal.osmlib.metrics.MeteredInputStream;
+import com.conveyal.osmlib.metrics.Metrics;
+import com.conveyal.osmlib.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,12 +27,20 @@ public class DeflatedBlockReader implements Runnable {
 
     private final Thread thread;
 
+    /** Time the consumer spends waiting for a block. If this is high, reading and inflating is the bottleneck. */
+    private final Timer consumerWait = Metrics.timer("vex.reader.consumer_wait");
+
+    /** Time the reader thread spends waiting to hand off a block. If this is high, the consumer is the bottleneck. */
+    private final Timer producerWait = Metrics.timer("vex.reader.producer_wait");
+
+    private final VEXBlock.Instruments instruments = new VEXBlock.Instruments();
+
     /**
      * Construct a new DeflatedBlockReader, which then runs itself in a parallel thread.
      * @param upstream the InputStream it will read from
      */
     public DeflatedBlockReader(InputStream upstream) {
-        this.upstream = upstream;
+        this.upstream = new MeteredInputStream(upstream, Metrics.counter("vex.bytes_read"));
         thread = new Thread(this);
         thread.start();
     }
@@ -40,7 +51,9 @@ public class DeflatedBlockReader implements Runnable {
      */
     public VEXBlock nextBlock() {
         try {
+            long start = consumerWait.start();
             VEXBlock block = synchronousQueue.take();
+            consumerWait.stop(start);
             return block;
         } catch (InterruptedException e) {
             LOG.error("Interrupted while waiting for a block to become available. This shouldn't happen.");
@@ -53,13 +66,15 @@ public class DeflatedBlockReader implements Runnable {
         try {
             while (true) {
                 VEXBlock block = new VEXBlock();
-                block.readDeflated(upstream);
+                block.readDeflated(upstream, instruments);
                 if (block.entityType == VexFormat.VEX_NONE) {
                     // There are no more blocks, end of file.
                     synchronousQueue.put(VEXBlock.END_BLOCK);
                     break;
                 } else {
+                    long start = producerWait.start();
                     synchronousQueue.put(block);
+                    producerWait.stop(start);
                 }
             }
             upstream.close();
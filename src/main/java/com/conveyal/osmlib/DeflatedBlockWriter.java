@@ -1,5 +1,7 @@
 package com.conveyal.osmlib;
 
+import com.conveyal.osmlib.metrics.Metrics;
+import com.conveyal.osmlib.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,7 +20,8 @@ import java.util.concurrent.SynchronousQueue;
  * OutputStream, preceded by the specified header bytes, the number of messages, and the number of compressed bytes.
  *
  * Java's ByteArrayOutputStream makes a copy when you fetch its backing byte array. Here, the output buffer and
- * compression process are integrated directly, avoiding this copy step.
+ * compression process are integrated directly, avoiding this copy step. Encoders should write varints and strings
+ * straight into the buffer through getEncoder() rather than a byte at a time through the OutputStream methods.
  */
 public class DeflatedBlockWriter extends OutputStream implements Runnable {
 
@@ -37,22 +40,86 @@ public class DeflatedBlockWriter extends OutputStream implements Runnable {
 
     private int currentEntityType;
 
-    private byte[] buffer;
+    /** The VEX format version of the blocks written. */
+    private final int version;
 
-    private int pos = 0;
+    /** Writes into the buffer of the block under construction. */
+    private final VarIntEncoder encoder = new VarIntEncoder(VEXBlock.BUFFER_SIZE);
+
+    /** The strings of the block under construction, or null if strings are written inline (VEX version 1). */
+    private final StringTable stringTable;
+
+    /** The size the string table will take at the head of the block, with room for the longest possible count. */
+    private int stringTableBytes;
+
+    /** The number of columns in a columnar node block, which are followed by the tags in the main buffer. */
+    public static final int N_NODE_COLUMNS = 3;
+
+    /** Whether node blocks should be written column by column, which is only possible from version 2 onward. */
+    private boolean columnarNodes;
+
+    /** Whether the block under construction is columnar, i.e. entities write into the columns as well. */
+    private boolean columnar = false;
+
+    /** Each column is accumulated separately, then copied into the block ahead of the main buffer. */
+    private final VarIntEncoder[] columns = new VarIntEncoder[N_NODE_COLUMNS];
+
+    /** The position in each column where the entity currently being written began. */
+    private final int[] columnStarts = new int[N_NODE_COLUMNS];
+
+    /** The position in the buffer where the entity currently being written began. */
+    private int entityStart = 0;
 
     private int nEntitiesInBlock = 0;
 
+    /** The ID of the entity under construction, and the range of IDs of the entities in the block. */
+    private long entityId, minId, maxId;
+
+    /** Compresses the blocks, in the writer thread. */
+    private BlockCodec codec = BlockCodec.DEFLATE;
+
+    /** The blocks written so far, to be written out as a footer at the end. Null if no index was requested. */
+    private VexIndex index;
+
+    /** The number of bytes written downstream so far, used only by the writer thread. */
+    private long bytesWritten = 0;
+
     private final Thread blockWriterThread;
 
+    /** Time the encoder spends waiting to hand off a block. If this is high, deflating and writing is the bottleneck. */
+    private final Timer producerWait = Metrics.timer("vex.writer.producer_wait");
+
+    /** Time the writer thread spends waiting for a block. If this is high, encoding is the bottleneck. */
+    private final Timer consumerWait = Metrics.timer("vex.writer.consumer_wait");
+
+    private final VEXBlock.Instruments instruments = new VEXBlock.Instruments();
+
     /**
      * Create a DeflatedBlockWriter that writes deflated data to the given OutputStream.
      * Starts up a separate thread running the blockWriter's compression/writing loop.
      */
     public DeflatedBlockWriter(OutputStream downstream) {
+        this(downstream, VexFormat.CURRENT_VERSION);
+    }
+
+    /** Create a DeflatedBlockWriter producing blocks in the given version of the VEX format. */
+    public DeflatedBlockWriter(OutputStream downstream, int version) {
+        if (version != VexFormat.VERSION_1 && version != VexFormat.VERSION_2) {
+            throw new IllegalArgumentException("Unsupported VEX format version " + version);
+        }
         this.downstream = downstream;
-        buffer = new byte[VEXBlock.BUFFER_SIZE];
+        this.version = version;
         currentEntityType = VexFormat.VEX_NONE;
+        if (version >= VexFormat.VERSION_2) {
+            stringTable = new StringTable();
+            clearStringTable();
+            columnarNodes = true;
+        } else {
+            stringTable = null;
+        }
+        for (int c = 0; c < N_NODE_COLUMNS; c++) {
+            columns[c] = new VarIntEncoder(MAX_MESSAGE_SIZE);
+        }
         blockWriterThread = new Thread(this);
         blockWriterThread.start();
     }
@@ -63,7 +130,9 @@ public class DeflatedBlockWriter extends OutputStream implements Runnable {
      */
     private void handOff(VEXBlock vexBlock) {
         try {
+            long start = producerWait.start();
             synchronousQueue.put(vexBlock);
+            producerWait.stop(start);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -80,9 +149,16 @@ public class DeflatedBlockWriter extends OutputStream implements Runnable {
 
         while (true) {
             try {
+                long start = consumerWait.start();
                 VEXBlock block = synchronousQueue.take(); // block until work is available
+                consumerWait.stop(start);
                 if (block == VEXBlock.END_BLOCK) break;
-                block.writeDeflated(downstream);
+                int length = block.writeDeflated(downstream, instruments);
+                if (index != null) {
+                    index.add(new VexIndex.Entry(bytesWritten, length, block.entityType, block.nEntities,
+                            block.minId, block.maxId));
+                }
+                bytesWritten += length;
             } catch (InterruptedException ex) {
                 // Preferably, we'd like to use a thread interrupt to tell the thread to shut down when there's no more
                 // input. It should finish writing the last block before exiting.
@@ -98,6 +174,9 @@ public class DeflatedBlockWriter extends OutputStream implements Runnable {
         // Or at least this is what piped streams impose.
         // See https://techtavern.wordpress.com/2008/07/16/whats-this-ioexception-write-end-dead/
         try {
+            if (index != null) {
+                index.write(downstream, bytesWritten);
+            }
             downstream.flush();
             downstream.close();
         } catch (IOException e) {
@@ -117,16 +196,144 @@ public class DeflatedBlockWriter extends OutputStream implements Runnable {
         }
     }
 
-    /** Affects the header that will be prepended to subsequent blocks when they are written out. */
+    /**
+     * Affects the header that will be prepended to subsequent blocks when they are written out, and whether they are
+     * columnar. Must only be called between blocks.
+     */
     public void setEntityType(int entityType) {
         currentEntityType = entityType;
+        columnar = columnarNodes && entityType == VexFormat.VEX_NODE;
+    }
+
+    /**
+     * Choose whether node blocks are written column by column (the default from version 2 onward) or with the fields
+     * of each node together. Takes effect at the next call to setEntityType.
+     */
+    public void setColumnarNodes(boolean columnarNodes) {
+        if (columnarNodes && stringTable == null) {
+            throw new IllegalStateException("Columnar node blocks require VEX format version 2 or later.");
+        }
+        this.columnarNodes = columnarNodes;
     }
 
-    /** Add a byte to the message fragment currently being constructed, flushing out a block as needed. */
+    /**
+     * Choose how the blocks are compressed, deflate by default. Any codec other than deflate requires version 2.
+     * Takes effect from the next block.
+     */
+    public void setCodec(BlockCodec codec) {
+        if (version < VexFormat.VERSION_2 && codec.getId() != BlockCodec.DEFLATE_ID) {
+            throw new IllegalStateException("Codecs other than deflate require VEX format version 2 or later.");
+        }
+        this.codec = codec;
+    }
+
+    /**
+     * Write a VexIndex of all the blocks after the last one, for random access to the file. Must be called before
+     * the first block is ended. Only version 2 readers recognize the index.
+     */
+    public void setWriteIndex(boolean writeIndex) {
+        if (writeIndex && version < VexFormat.VERSION_2) {
+            throw new IllegalStateException("The block index requires VEX format version 2 or later.");
+        }
+        // Handing off blocks through the synchronous queue makes this visible to the writer thread.
+        index = writeIndex ? new VexIndex() : null;
+    }
+
+    /** @return true if the entities of the current block must write their fields into the columns. */
+    public boolean isColumnar() {
+        return columnar;
+    }
+
+    /** @return the encoder for the given column of the current block, the main encoder holding whatever follows. */
+    public VarIntEncoder getColumn(int column) {
+        return columns[column];
+    }
+
+    /** @return the encoder writing into the current block, which remains the same from one block to the next. */
+    public VarIntEncoder getEncoder() {
+        return encoder;
+    }
+
+    /** @return true if strings must be written as codes from getStringCode() rather than inline. */
+    public boolean hasStringTable() {
+        return stringTable != null;
+    }
+
+    /** @return the index of the given string in the table of the current block, adding it to the table if needed. */
+    public int getStringCode(String string) {
+        int size = stringTable.size();
+        int code = stringTable.getCode(string);
+        if (code == size) {
+            stringTableBytes += VarIntEncoder.stringSize(string);
+        }
+        return code;
+    }
+
+    private void clearStringTable() {
+        stringTable.clear();
+        // The count, then the empty string which always has code zero.
+        stringTableBytes = 5 + 1;
+    }
+
+    /** @return the size of the current block so far, including its string table and columns. */
+    private int blockSize() {
+        int size = encoder.position() + (stringTable == null ? 0 : stringTableBytes);
+        if (columnar) {
+            for (VarIntEncoder column : columns) {
+                size += column.position();
+            }
+        }
+        return size;
+    }
+
+    /** Add a byte to the message fragment currently being constructed. */
     @Override
     public void write (int b) {
-        // TODO catch out of range exceptions and warn that the message was too big.
-        buffer[pos++] = (byte) b;
+        encoder.writeByte(b);
+    }
+
+    @Override
+    public void write (byte[] bytes, int offset, int length) {
+        encoder.writeBytes(bytes, offset, length);
+    }
+
+    /**
+     * Declare that the entity with the given ID begins at the current position, so that it can be discarded if it
+     * proves too big.
+     */
+    public void beginEntity(long id) {
+        entityId = id;
+        entityStart = encoder.position();
+        for (int c = 0; c < N_NODE_COLUMNS; c++) {
+            columnStarts[c] = columns[c].position();
+        }
+    }
+
+    /**
+     * @return true if the entity under construction has made the block bigger than readers accept. The buffer grows
+     * to hold it anyway, so it can be discarded and written again into a new block.
+     */
+    public boolean entityOverflows() {
+        return blockSize() > VEXBlock.BUFFER_SIZE;
+    }
+
+    /** @return true if the entity under construction is the first one in its block. */
+    public boolean isFirstEntity() {
+        return nEntitiesInBlock == 0;
+    }
+
+    /**
+     * Remove the entity under construction from the buffer. Any strings it added to the table stay there unused,
+     * unless the block is otherwise empty.
+     */
+    public void discardEntity() {
+        encoder.position(entityStart);
+        for (int c = 0; c < N_NODE_COLUMNS; c++) {
+            columns[c].position(columnStarts[c]);
+        }
+        if (stringTable != null && nEntitiesInBlock == 0) {
+            clearStringTable();
+        }
     }
 
     /**
@@ -135,8 +342,14 @@ public class DeflatedBlockWriter extends OutputStream implements Runnable {
      * @return whether a new block will be started after this message
      */
     public boolean endEntity() {
+        if (nEntitiesInBlock == 0) {
+            minId = maxId = entityId;
+        } else {
+            minId = Math.min(minId, entityId);
+            maxId = Math.max(maxId, entityId);
+        }
         nEntitiesInBlock += 1;
-        if (pos > buffer.length - MAX_MESSAGE_SIZE) {
+        if (blockSize() > VEXBlock.BUFFER_SIZE - MAX_MESSAGE_SIZE) {
             endBlock();
             return true;
         }
@@ -153,17 +366,43 @@ public class DeflatedBlockWriter extends OutputStream implements Runnable {
 
             // Make a VEX block object to pass off to the compression/writer thread
             VEXBlock block = new VEXBlock();
-            block.data = buffer;
-            block.nBytes = pos;
+            block.version = version;
             block.entityType = currentEntityType;
             block.nEntities = nEntitiesInBlock;
+            block.minId = minId;
+            block.maxId = maxId;
+            block.codec = codec;
+            if (stringTable == null) {
+                block.data = encoder.getBuffer();
+                block.nBytes = encoder.position();
+            } else {
+                // The table and columns are only complete once all the entities have been written, so they are copied
+                // into the block ahead of the rest. Copying costs far less than deflating, and the buffers are reused.
+                block.flags = VexFormat.FLAG_STRING_TABLE;
+                VarIntEncoder blockEncoder = new VarIntEncoder(blockSize());
+                blockEncoder.writeUInt32(stringTable.size());
+                for (int code = 0; code < stringTable.size(); code++) {
+                    blockEncoder.writeString(stringTable.getString(code));
+                }
+                if (columnar) {
+                    block.flags |= VexFormat.FLAG_COLUMNAR;
+                    for (VarIntEncoder column : columns) {
+                        blockEncoder.writeBytes(column.getBuffer(), 0, column.position());
+                        column.position(0);
+                    }
+                }
+                blockEncoder.writeBytes(encoder.getBuffer(), 0, encoder.position());
+                block.data = blockEncoder.getBuffer();
+                block.nBytes = blockEncoder.position();
+                clearStringTable();
+            }
 
             // Give this block to the compression/writer thread synchronously (call blocks until thread is ready)
             handOff(block);
 
-            // Create a new buffer and reset the position and message counters
-            buffer = new byte[VEXBlock.BUFFER_SIZE];
-            pos = 0;
+            // Reset the position and message counters, with a new buffer if the old one now belongs to the block
+            encoder.reset(stringTable == null ? new byte[VEXBlock.BUFFER_SIZE] : encoder.getBuffer());
+            entityStart = 0;
             nEntitiesInBlock = 0;
 
         }
@@ -0,0 +1,438 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.procedure.TLongObjectProcedure;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-through cache of recently used entities in front of one of the OSM tables. Fetching an entity from MapDB
+ * deserializes it again on every call, even when the same popular ways and nodes are requested over and over by
+ * extracts of the same area. This keeps the most recently used entities in a least-recently-used list, bounded by
+ * both a number of entries and an estimate of the memory they occupy.
+ *
+ * All writes must go through this map rather than the underlying one, so the cache entry can be invalidated.
+ * Entities are returned as the cached instances themselves, so callers must not modify an entity they have read
+ * without putting it back into the map afterward.
+ *
+ * The cache is threadsafe as long as the underlying map is. Large caches are split by ID into several segments, each
+ * with its own lock and its own least-recently-used list, so that threads reading different entities rarely wait
+ * for one another. Entities are loaded outside the locks, so a slow read from disk does not block other threads.
+ */
+public class EntityCache<T extends OSMEntity> implements EntityMap<T> {
+
+    private static final int NONE = -1;
+
+    /** The most segments a cache is split into, which must be a power of two. */
+    private static final int MAX_SEGMENTS = 16;
+
+    /** Each segment holds at least this many entities, so that small caches keep an exact LRU order. */
+    private static final int MIN_SEGMENT_ENTRIES = 1024;
+
+    private final EntityMap<T> store;
+
+    private final Segment[] segments;
+
+    /**
+     * @param store the map to read entities from and write entities to.
+     * @param maxEntries the maximum number of entities to keep in memory.
+     * @param maxBytes the maximum estimated size in bytes of all the entities kept in memory.
+     */
+    @SuppressWarnings("unchecked")
+    public EntityCache(EntityMap<T> store, int maxEntries, long maxBytes) {
+        if (maxEntries < 1) throw new IllegalArgumentException("Cache must hold at least one entity.");
+        this.store = store;
+        int nSegments = 1;
+        while (nSegments < MAX_SEGMENTS && maxEntries / (nSegments * 2) >= MIN_SEGMENT_ENTRIES) {
+            nSegments *= 2;
+        }
+        segments = (Segment[]) Array.newInstance(Segment.class, nSegments);
+        for (int i = 0; i < nSegments; i++) {
+            segments[i] = new Segment(maxEntries / nSegments, maxBytes / nSegments);
+        }
+    }
+
+    private Segment segmentFor(long id) {
+        // Spread the bits of the ID, so that runs of consecutive IDs are shared out among the segments.
+        long h = id * 0x9E3779B97F4A7C15L;
+        return segments[(int) (h >>> 32) & (segments.length - 1)];
+    }
+
+    /** Fetch an entity by its primitive ID, from memory if possible and otherwise from the underlying map. */
+    public T get(long id) {
+        Segment segment = segmentFor(id);
+        long loadGeneration;
+        synchronized (segment) {
+            T cached = segment.lookup(id);
+            if (cached != null) return cached;
+            loadGeneration = segment.generation;
+        }
+        T entity = store.get(id);
+        if (entity != null) {
+            synchronized (segment) {
+                // Any write to this entity since the lookup has changed the generation, and the entity read from the
+                // store may be stale, so it is only returned and not cached.
+                if (segment.generation == loadGeneration && !segment.slotForId.containsKey(id)) {
+                    segment.insert(id, entity);
+                }
+            }
+        }
+        return entity;
+    }
+
+    @Override
+    public T get(Object key) {
+        return key instanceof Long ? get(((Long) key).longValue()) : null;
+    }
+
+    // Writes go to the underlying map before the cache entry is invalidated. A read that starts after the
+    // invalidation then sees the new entity in the store, and one that started before it finds the generation has
+    // moved on and does not cache what it loaded.
+
+    @Override
+    public T put(long id, T entity) {
+        T previous = store.put(id, entity);
+        invalidate(id);
+        return previous;
+    }
+
+    @Override
+    public T put(Long id, T entity) {
+        return put(id.longValue(), entity);
+    }
+
+    @Override
+    public void putBatch(long[] ids, T[] entities, int count) {
+        store.putBatch(ids, entities, count);
+        for (int i = 0; i < count; i++) {
+            invalidate(ids[i]);
+        }
+    }
+
+    @Override
+    public T remove(long id) {
+        T previous = store.remove(id);
+        invalidate(id);
+        return previous;
+    }
+
+    @Override
+    public T remove(Object key) {
+        return key instanceof Long ? remove(((Long) key).longValue()) : null;
+    }
+
+    @Override
+    public void putAll(Map<? extends Long, ? extends T> map) {
+        for (Entry<? extends Long, ? extends T> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        store.clear();
+        clearCache();
+    }
+
+    /** Drop the cached copy of the given entity if there is one, without changing the underlying map. */
+    public void invalidate(long id) {
+        Segment segment = segmentFor(id);
+        synchronized (segment) {
+            segment.invalidate(id);
+        }
+    }
+
+    /** Drop all cached entities, without changing the underlying map. */
+    public void clearCache() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public boolean containsKey(long id) {
+        Segment segment = segmentFor(id);
+        synchronized (segment) {
+            if (segment.slotForId.containsKey(id)) return true;
+        }
+        return store.containsKey(id);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Long && containsKey(((Long) key).longValue());
+    }
+
+    // Operations over the whole table are passed through to the underlying map, so that a bulk scan does not
+    // evict all the popular entities from the cache.
+
+    @Override
+    public boolean forEachEntry(TLongObjectProcedure<? super T> procedure) {
+        return store.forEachEntry(procedure);
+    }
+
+    @Override
+    public boolean forEachEntryInRange(long minId, long maxId, TLongObjectProcedure<? super T> procedure) {
+        return store.forEachEntryInRange(minId, maxId, procedure);
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return store.isEmpty();
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return store.containsValue(value);
+    }
+
+    /** Removing keys through the returned set bypasses the cache. */
+    @Override
+    public Set<Long> keySet() {
+        return store.keySet();
+    }
+
+    /** Modifying entities through the returned collection bypasses the cache. */
+    @Override
+    public Collection<T> values() {
+        return store.values();
+    }
+
+    /** Modifying entities through the returned set bypasses the cache. */
+    @Override
+    public Set<Entry<Long, T>> entrySet() {
+        return store.entrySet();
+    }
+
+    public long getHitCount() {
+        long total = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total += segment.hits;
+            }
+        }
+        return total;
+    }
+
+    public long getMissCount() {
+        long total = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total += segment.misses;
+            }
+        }
+        return total;
+    }
+
+    public long getEvictionCount() {
+        long total = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total += segment.evictions;
+            }
+        }
+        return total;
+    }
+
+    /** @return the number of entities currently held in memory. */
+    public int getCachedCount() {
+        int total = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total += segment.slotForId.size();
+            }
+        }
+        return total;
+    }
+
+    /** @return the estimated size in bytes of the entities currently held in memory. */
+    public long getCachedBytes() {
+        long total = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total += segment.totalBytes;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        long hits = getHitCount();
+        long requests = hits + getMissCount();
+        return String.format("%d entities (%d kB), %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                getCachedCount(), getCachedBytes() / 1024, hits, requests - hits,
+                requests == 0 ? 0 : hits * 100.0 / requests, getEvictionCount());
+    }
+
+    /**
+     * The cached entities whose IDs fall in one segment, with their own least-recently-used list. All access to a
+     * segment must be synchronized on it.
+     */
+    private class Segment {
+
+        private final int maxEntries;
+
+        private final long maxBytes;
+
+        /** Map from entity IDs to their slots in the arrays below. */
+        private final TLongIntMap slotForId = new TLongIntHashMap(64, 0.5f, Long.MIN_VALUE, NONE);
+
+        // Each slot holds one cached entity, and slots are linked into a list from most to least recently used.
+        private long[] ids;
+        private Object[] entities;
+        private int[] bytes;
+        private int[] prev;
+        private int[] next;
+
+        private int head = NONE;
+        private int tail = NONE;
+        private int nSlotsUsed = 0;
+        private int freeSlot = NONE;
+        private long totalBytes = 0;
+
+        /** Incremented on every write, so an entity loaded concurrently with a write is not cached in a stale state. */
+        private long generation = 0;
+
+        private long hits = 0;
+        private long misses = 0;
+        private long evictions = 0;
+
+        private Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+            int initialSlots = Math.min(maxEntries, 1024);
+            ids = new long[initialSlots];
+            entities = new Object[initialSlots];
+            bytes = new int[initialSlots];
+            prev = new int[initialSlots];
+            next = new int[initialSlots];
+        }
+
+        /** @return the cached entity with the given ID, or null if it is not in memory. */
+        @SuppressWarnings("unchecked")
+        private T lookup(long id) {
+            int slot = slotForId.get(id);
+            if (slot == NONE) {
+                misses += 1;
+                return null;
+            }
+            hits += 1;
+            moveToHead(slot);
+            return (T) entities[slot];
+        }
+
+        private void invalidate(long id) {
+            generation += 1;
+            int slot = slotForId.remove(id);
+            if (slot != NONE) {
+                unlink(slot);
+                freeSlot(slot);
+            }
+        }
+
+        private void clear() {
+            generation += 1;
+            slotForId.clear();
+            Arrays.fill(entities, null);
+            head = tail = freeSlot = NONE;
+            nSlotsUsed = 0;
+            totalBytes = 0;
+        }
+
+        private void insert(long id, T entity) {
+            int entityBytes = estimateBytes(entity);
+            if (entityBytes > maxBytes) return;
+            while (tail != NONE && (slotForId.size() >= maxEntries || totalBytes + entityBytes > maxBytes)) {
+                int evicted = tail;
+                slotForId.remove(ids[evicted]);
+                unlink(evicted);
+                freeSlot(evicted);
+                evictions += 1;
+            }
+            int slot = allocateSlot();
+            ids[slot] = id;
+            entities[slot] = entity;
+            bytes[slot] = entityBytes;
+            totalBytes += entityBytes;
+            slotForId.put(id, slot);
+            linkAtHead(slot);
+        }
+
+        private int allocateSlot() {
+            if (freeSlot != NONE) {
+                // Free slots are chained through the next array.
+                int slot = freeSlot;
+                freeSlot = next[slot];
+                return slot;
+            }
+            if (nSlotsUsed == ids.length) {
+                int newLength = (int) Math.min((long) ids.length * 2, maxEntries);
+                ids = Arrays.copyOf(ids, newLength);
+                entities = Arrays.copyOf(entities, newLength);
+                bytes = Arrays.copyOf(bytes, newLength);
+                prev = Arrays.copyOf(prev, newLength);
+                next = Arrays.copyOf(next, newLength);
+            }
+            return nSlotsUsed++;
+        }
+
+        private void freeSlot(int slot) {
+            entities[slot] = null;
+            totalBytes -= bytes[slot];
+            next[slot] = freeSlot;
+            freeSlot = slot;
+        }
+
+        private void moveToHead(int slot) {
+            if (slot != head) {
+                unlink(slot);
+                linkAtHead(slot);
+            }
+        }
+
+        private void linkAtHead(int slot) {
+            prev[slot] = NONE;
+            next[slot] = head;
+            if (head != NONE) prev[head] = slot;
+            head = slot;
+            if (tail == NONE) tail = slot;
+        }
+
+        private void unlink(int slot) {
+            if (prev[slot] != NONE) next[prev[slot]] = next[slot];
+            else head = next[slot];
+            if (next[slot] != NONE) prev[next[slot]] = prev[slot];
+            else tail = prev[slot];
+        }
+
+    }
+
+    /** A rough estimate of the heap memory used by an entity, including its tags but not the shared tag strings. */
+    static int estimateBytes(OSMEntity entity) {
+        int bytes = 32;
+        if (entity.tags != null) {
+            bytes += 32 + entity.tags.size() * 8;
+        }
+        if (entity instanceof Way) {
+            long[] nodes = ((Way) entity).nodes;
+            if (nodes != null) bytes += 16 + nodes.length * 8;
+        } else if (entity instanceof Relation) {
+            bytes += 32 + ((Relation) entity).members.size() * 48;
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.procedure.TLongObjectProcedure;
+
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * A table of OSM entities keyed on their IDs, with accessors that take primitive long IDs so that callers do not need
+ * to box every ID they look up, and iteration methods that do not create a Map.Entry for every entity.
+ * This is still a Map&lt;Long, T&gt; so it can be used anywhere the OSM tables were used before.
+ *
+ * The iteration methods visit entities in ascending ID order and stop early if the procedure returns false.
+ * Their return value is false if iteration was stopped early, as in Trove.
+ */
+public interface EntityMap<T extends OSMEntity> extends Map<Long, T> {
+
+    /** @return the entity with the given ID, or null if there is no such entity. */
+    T get (long id);
+
+    /** Store the given entity under the given ID, returning the entity previously stored there (if any). */
+    T put (long id, T entity);
+
+    /**
+     * Store the first count entities of the given array under the IDs at the same positions, e.g. a block of
+     * entities from a batch source. Tables may override this to amortize their work over the whole batch.
+     */
+    default void putBatch (long[] ids, T[] entities, int count) {
+        for (int i = 0; i < count; i++) {
+            put(ids[i], entities[i]);
+        }
+    }
+
+    T remove (long id);
+
+    boolean containsKey (long id);
+
+    /** Call the given procedure on every entity in this table, in ascending ID order. */
+    boolean forEachEntry (TLongObjectProcedure<? super T> procedure);
+
+    /** Call the given procedure on every entity with an ID in the range [minId, maxId], in ascending ID order. */
+    boolean forEachEntryInRange (long minId, long maxId, TLongObjectProcedure<? super T> procedure);
+
+    /**
+     * @return the given map if it is already an EntityMap, otherwise an EntityMap view of it. Writes through the view
+     * go to the given map.
+     */
+    static <T extends OSMEntity> EntityMap<T> of (Map<Long, T> map) {
+        if (map instanceof EntityMap) return (EntityMap<T>) map;
+        if (map instanceof NavigableMap) return new BTreeEntityMap<>((NavigableMap<Long, T>) map);
+        return new MapEntityMap<>(map);
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.conveyal.osmlib;
+
+/**
+ * An OSM entity together with its ID, which is not stored in the entity itself. This is the element type of the
+ * pull-based iterators and streams over OSM entity sources.
+ */
+public class EntityRecord {
+
+    public final long id;
+
+    public final OSMEntity entity;
+
+    public EntityRecord (long id, OSMEntity entity) {
+        this.id = id;
+        this.entity = entity;
+    }
+
+    public OSMEntity.Type getType () {
+        return entity.getType();
+    }
+
+    @Override
+    public String toString () {
+        return getType() + " " + id;
+    }
+
+}
@@ -0,0 +1,203 @@
+package com.conveyal.osmlib;
+
+/**
+ * A compact implementation of the LZ4 block format (https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md),
+ * without any dependency. The data is a series of sequences, each made of a run of literal bytes followed by a copy
+ * of earlier output. A token byte holds the literal and match lengths (4 bits each, extended with extra bytes of 255
+ * when they do not fit), and each match is given as a two-byte little-endian distance back into the output.
+ *
+ * Compression is greedy, with a single hash table of recent 4-byte sequences and no search for better matches, and
+ * it speeds up over incompressible stretches by skipping ahead. This is what makes LZ4 several times faster than
+ * deflate in both directions, for output that is typically a third to a half bigger.
+ *
+ * Stateless and threadsafe.
+ */
+public class LZ4Codec implements BlockCodec {
+
+    private static final int MIN_MATCH = 4;
+
+    /** The format requires the last bytes of a block to be literals, and the last match to start before them. */
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+
+    private static final int MAX_DISTANCE = 0xFFFF;
+
+    private static final int HASH_LOG = 14;
+
+    /** How quickly the compressor skips ahead when it finds no matches: one more byte every 2^SKIP_TRIGGER misses. */
+    private static final int SKIP_TRIGGER = 6;
+
+    @Override
+    public int getId () {
+        return LZ4_ID;
+    }
+
+    @Override
+    public int maxCompressedLength (int length) {
+        return length + length / 255 + 16;
+    }
+
+    private static int readInt (byte[] data, int pos) {
+        return (data[pos] & 0xFF) | (data[pos + 1] & 0xFF) << 8 | (data[pos + 2] & 0xFF) << 16 | data[pos + 3] << 24;
+    }
+
+    private static int hash (int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    @Override
+    public int compress (byte[] input, int length, byte[] output) {
+        // Positions of recent sequences by hash. Position zero doubles as "none", matches are verified anyway.
+        int[] table = new int[1 << HASH_LOG];
+        int anchor = 0; // The start of the literals not yet written out.
+        int op = 0;
+        int ip = 0;
+        int matchLimit = length - LAST_LITERALS;
+        int ipLimit = length - MF_LIMIT;
+        int misses = 1 << SKIP_TRIGGER;
+        while (ip < ipLimit) {
+            int sequence = readInt(input, ip);
+            int h = hash(sequence);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref >= ip || ip - ref > MAX_DISTANCE || readInt(input, ref) != sequence) {
+                ip += misses++ >>> SKIP_TRIGGER;
+                continue;
+            }
+            misses = 1 << SKIP_TRIGGER;
+            // Extend the match backward over any literals, then forward as far as it goes.
+            while (ip > anchor && ref > 0 && input[ip - 1] == input[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < matchLimit && input[ip + matchLength] == input[ref + matchLength]) {
+                matchLength++;
+            }
+            op = writeSequence(input, anchor, ip - anchor, ip - ref, matchLength, output, op);
+            if (op < 0) return -1;
+            ip += matchLength;
+            anchor = ip;
+            // Index a position inside the match, which helps with runs of similar records.
+            if (ip - 2 < ipLimit) {
+                table[hash(readInt(input, ip - 2))] = ip - 2;
+            }
+        }
+        // The remaining bytes are written out as literals, with no match after them.
+        return writeSequence(input, anchor, length - anchor, 0, 0, output, op);
+    }
+
+    /**
+     * Write a token, the literals and, unless matchLength is zero, the distance and length of a match.
+     * @return the new position in the output, or -1 if the sequence does not fit.
+     */
+    private static int writeSequence (byte[] input, int literalStart, int nLiterals, int distance, int matchLength,
+                                      byte[] output, int op) {
+        if (op + 1 + nLiterals / 255 + 1 + nLiterals + 2 + matchLength / 255 + 1 > output.length) {
+            return -1;
+        }
+        int tokenPos = op++;
+        int token;
+        if (nLiterals >= 15) {
+            token = 15 << 4;
+            op = writeLengthBytes(nLiterals - 15, output, op);
+        } else {
+            token = nLiterals << 4;
+        }
+        System.arraycopy(input, literalStart, output, op, nLiterals);
+        op += nLiterals;
+        if (matchLength > 0) {
+            output[op++] = (byte) distance;
+            output[op++] = (byte) (distance >>> 8);
+            int extraLength = matchLength - MIN_MATCH;
+            if (extraLength >= 15) {
+                token |= 15;
+                op = writeLengthBytes(extraLength - 15, output, op);
+            } else {
+                token |= extraLength;
+            }
+        }
+        output[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLengthBytes (int length, byte[] output, int op) {
+        while (length >= 255) {
+            output[op++] = (byte) 255;
+            length -= 255;
+        }
+        output[op++] = (byte) length;
+        return op;
+    }
+
+    @Override
+    public int decompress (byte[] input, int length, byte[] output) {
+        int ip = 0;
+        int op = 0;
+        while (true) {
+            if (ip >= length) throw truncated();
+            int token = input[ip++] & 0xFF;
+            int nLiterals = token >>> 4;
+            if (nLiterals == 15) {
+                int b;
+                do {
+                    if (ip >= length) throw truncated();
+                    b = input[ip++] & 0xFF;
+                    nLiterals += b;
+                } while (b == 255);
+            }
+            if (nLiterals > length - ip) throw truncated();
+            if (nLiterals > output.length - op) throw tooLong(output);
+            System.arraycopy(input, ip, output, op, nLiterals);
+            ip += nLiterals;
+            op += nLiterals;
+            if (ip >= length) {
+                // The last sequence has literals only.
+                return op;
+            }
+            if (ip + 2 > length) throw truncated();
+            int distance = (input[ip] & 0xFF) | (input[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            if (distance == 0 || distance > op) {
+                throw new RuntimeException("LZ4 block refers to data before its start, it is probably corrupted.");
+            }
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= length) throw truncated();
+                    b = input[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > output.length - op) {
+                throw tooLong(output);
+            }
+            int ref = op - distance;
+            if (distance >= matchLength) {
+                System.arraycopy(output, ref, output, op, matchLength);
+                op += matchLength;
+            } else {
+                // The match overlaps its own output, e.g. a run of a repeated byte, and must be copied in order.
+                for (int end = op + matchLength; op < end; ) {
+                    output[op++] = output[ref++];
+                }
+            }
+        }
+    }
+
+    private static RuntimeException truncated () {
+        return new RuntimeException("LZ4 block is truncated, it is probably corrupted.");
+    }
+
+    private static RuntimeException tooLong (byte[] output) {
+        return new RuntimeException("LZ4 block is larger than " + output.length + " bytes.");
+    }
+
+    @Override
+    public String toString () {
+        return "lz4";
+    }
+
+}
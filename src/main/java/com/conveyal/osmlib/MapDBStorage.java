@@ -0,0 +1,221 @@
+package com.conveyal.osmlib;
+
+import com.conveyal.osmlib.metrics.Metrics;
+import com.conveyal.osmlib.serializer.NodeSerializer;
+import com.conveyal.osmlib.serializer.RelationSerializer;
+import com.conveyal.osmlib.serializer.StringDictionary;
+import com.conveyal.osmlib.serializer.WaySerializer;
+import org.mapdb.Atomic;
+import org.mapdb.BTreeKeySerializer;
+import org.mapdb.BTreeMap;
+import org.mapdb.Bind;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Fun;
+import org.mapdb.Fun.Tuple3;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.NavigableSet;
+
+/**
+ * OSM storage in MapDB BTrees, either in a file or in off-heap memory.
+ * Using DB TreeMaps is often not any slower than memory. HashMaps are both bigger and slower because our keys
+ * are so small: a hashmap needs to store both the long key and its hash.
+ */
+public class MapDBStorage implements OSMStorage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MapDBStorage.class);
+
+    private final DB db;
+
+    private final EntityMap<Node> nodes;
+    private final EntityMap<Way> ways;
+    private final EntityMap<Relation> relations;
+
+    private final NavigableSet<Tuple3<Integer, Integer, Long>> index;
+    private final NavigableSet<Fun.Tuple2<Long, Long>> relationsByWay;
+    private final NavigableSet<Fun.Tuple2<Long, Long>> relationsByNode;
+    private final NavigableSet<Fun.Tuple2<Long, Long>> relationsByRelation;
+
+    private final Atomic.Long timestamp;
+    private final Atomic.Long sequenceNumber;
+
+    /** If true we are reading already filled OSM mapdv **/
+    private boolean reading = false;
+
+    /**
+     * @param diskPath the file in which to save the data, null for a temp file, or OSM.IN_MEMORY for off-heap memory.
+     * An existing file whose name ends in .db or .mapdb is reopened rather than overwritten.
+     */
+    public MapDBStorage (String diskPath) {
+        DBMaker dbMaker;
+        if (diskPath == null) {
+            LOG.info("OSM will be stored in a temporary file.");
+            dbMaker = DBMaker.newTempFileDB().deleteFilesAfterClose();
+        } else {
+            if (diskPath.equals(OSM.IN_MEMORY)) {
+                LOG.info("OSM will be stored in memory.");
+                // 'direct' means off-heap memory, no garbage collection overhead
+                dbMaker = DBMaker.newMemoryDirectDB();
+            } else {
+                File dp = new File(diskPath);
+                reading = (diskPath.endsWith(".mapdb") || diskPath.endsWith(".db")) && dp.exists();
+                if (reading) {
+                    LOG.info("Reading OSM DB from: {}", diskPath);
+                } else {
+                    LOG.info("OSM will be stored in file {}.", diskPath);
+                }
+                dbMaker = DBMaker.newFileDB(dp);
+            }
+        }
+
+
+        if (reading) {
+            db = dbMaker
+                .transactionDisable()
+                .compressionEnable()
+                //.cacheLRUEnable()
+                //.cacheSize(1000)
+                .mmapFileEnableIfSupported()
+                .make();
+        } else {
+            // Compression has no appreciable effect on speed but reduces file size by about 16 percent.
+            // Hash table cache (eviction by collision) is on by default with a size of 32k records.
+            // http://www.mapdb.org/doc/caches.html
+            // Our objects do not have semantic hash and equals functions, but I suppose it's the table keys that are hashed
+            // not the values.
+            db = dbMaker.asyncWriteEnable()
+                .transactionDisable()
+                //.cacheDisable()
+                .compressionEnable()
+                .mmapFileEnableIfSupported()
+                .closeOnJvmShutdown()
+                .make();
+        }
+
+        if (db.getAll().isEmpty()) {
+            LOG.info("No OSM tables exist yet, they will be created.");
+        }
+
+        // Tag strings are coded using a dictionary of common strings. The serializers are saved in the DB catalog
+        // along with their dictionary, so a DB that is reopened keeps using whatever dictionary it was created with.
+        StringDictionary dictionary = StringDictionary.defaultDictionary();
+
+        nodes = new BTreeEntityMap<>(db.createTreeMap("nodes")
+                .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
+                .valueSerializer(new NodeSerializer(dictionary))
+                .makeOrGet(), Metrics.timer("mapdb.put.nodes"));
+
+        ways = new BTreeEntityMap<>(db.createTreeMap("ways")
+                .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
+                .valueSerializer(new WaySerializer(dictionary))
+                .makeOrGet(), Metrics.timer("mapdb.put.ways"));
+
+        // need as btreemap below to bind function
+        BTreeMap<Long, Relation> relations = db.createTreeMap("relations")
+                .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
+                .valueSerializer(new RelationSerializer(dictionary))
+                .makeOrGet();
+        this.relations = new BTreeEntityMap<>(relations, Metrics.timer("mapdb.put.relations"));
+
+        // Serializer delta-compresses the tuple as a whole and variable-width packs ints,
+        // but does not recursively delta-code its elements.
+        index = db.createTreeSet("spatial_index")
+                .serializer(BTreeKeySerializer.TUPLE3)
+                .makeOrGet();
+
+        relationsByWay = db.createTreeSet("relations_by_way")
+                .serializer(BTreeKeySerializer.TUPLE2)
+                .makeOrGet();
+
+        relationsByNode = db.createTreeSet("relations_by_node")
+                .serializer(BTreeKeySerializer.TUPLE2)
+                .makeOrGet();
+
+        relationsByRelation = db.createTreeSet("relations_by_relation")
+                .serializer(BTreeKeySerializer.TUPLE2)
+                .makeOrGet();
+
+        Bind.secondaryKeys(relations, relationsByNode,
+                (k, r) -> r.members.stream().filter(m -> m.type == OSMEntity.Type.NODE).map(m -> m.id).toArray(i -> new Long[i]));
+
+        Bind.secondaryKeys(relations, relationsByWay,
+                (k, r) -> r.members.stream().filter(m -> m.type == OSMEntity.Type.WAY).map(m -> m.id).toArray(i -> new Long[i]));
+
+        Bind.secondaryKeys(relations, relationsByRelation,
+                (k, r) -> r.members.stream().filter(m -> m.type == OSMEntity.Type.RELATION).map(m -> m.id).toArray(i -> new Long[i]));
+
+        // GetAtomicLong() will create the atomic long entry if it doesn't exist
+        timestamp = db.getAtomicLong("timestamp");
+        sequenceNumber = db.getAtomicLong("sequence_number");
+    }
+
+    @Override
+    public EntityMap<Node> getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public EntityMap<Way> getWays() {
+        return ways;
+    }
+
+    @Override
+    public EntityMap<Relation> getRelations() {
+        return relations;
+    }
+
+    @Override
+    public NavigableSet<Tuple3<Integer, Integer, Long>> getSpatialIndex() {
+        return index;
+    }
+
+    @Override
+    public NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByWay() {
+        return relationsByWay;
+    }
+
+    @Override
+    public NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByNode() {
+        return relationsByNode;
+    }
+
+    @Override
+    public NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByRelation() {
+        return relationsByRelation;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp.get();
+    }
+
+    @Override
+    public void setTimestamp(long secondsSinceEpoch) {
+        timestamp.set(secondsSinceEpoch);
+    }
+
+    @Override
+    public long getSequenceNumber() {
+        return sequenceNumber.get();
+    }
+
+    @Override
+    public void setSequenceNumber(long sequenceNumber) {
+        this.sequenceNumber.set(sequenceNumber);
+    }
+
+    @Override
+    public boolean isReopened() {
+        return reading;
+    }
+
+    /** Close the database file to ensure clean shutdown and avoid leaving the async write thread running. */
+    @Override
+    public void close() {
+        db.close();
+    }
+
+}
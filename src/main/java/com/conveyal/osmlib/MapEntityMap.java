@@ -0,0 +1,95 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.procedure.TLongObjectProcedure;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A view of a plain unsorted Map as an EntityMap, for when a caller has assigned an ordinary Map to one of the OSM
+ * tables. Every ID is boxed as in the underlying map, and ordered iteration sorts all the keys on every call, so this
+ * is only meant to keep such code working. Sorted maps are wrapped in a BTreeEntityMap instead.
+ */
+class MapEntityMap<T extends OSMEntity> extends AbstractMap<Long, T> implements EntityMap<T> {
+
+    private final Map<Long, T> map;
+
+    MapEntityMap (Map<Long, T> map) {
+        this.map = map;
+    }
+
+    @Override
+    public T get (long id) {
+        return map.get(id);
+    }
+
+    @Override
+    public T put (long id, T entity) {
+        return map.put(id, entity);
+    }
+
+    @Override
+    public T remove (long id) {
+        return map.remove(id);
+    }
+
+    @Override
+    public boolean containsKey (long id) {
+        return map.containsKey(id);
+    }
+
+    @Override
+    public boolean forEachEntry (TLongObjectProcedure<? super T> procedure) {
+        return forEachEntryInRange(Long.MIN_VALUE, Long.MAX_VALUE, procedure);
+    }
+
+    @Override
+    public boolean forEachEntryInRange (long minId, long maxId, TLongObjectProcedure<? super T> procedure) {
+        long[] ids = map.keySet().stream().mapToLong(Long::longValue).filter(id -> id >= minId && id <= maxId).toArray();
+        Arrays.sort(ids);
+        for (long id : ids) {
+            if (!procedure.execute(id, map.get(id))) return false;
+        }
+        return true;
+    }
+
+    // Plain Map methods are passed through to the underlying map.
+
+    @Override
+    public T get (Object key) {
+        return map.get(key);
+    }
+
+    @Override
+    public T put (Long key, T value) {
+        return map.put(key, value);
+    }
+
+    @Override
+    public T remove (Object key) {
+        return map.remove(key);
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public void clear () {
+        map.clear();
+    }
+
+    @Override
+    public int size () {
+        return map.size();
+    }
+
+    @Override
+    public Set<Entry<Long, T>> entrySet () {
+        return map.entrySet();
+    }
+
+}
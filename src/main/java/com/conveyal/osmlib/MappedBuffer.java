@@ -0,0 +1,72 @@
+package com.conveyal.osmlib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only memory mapping of a whole file, addressed by long positions. A single MappedByteBuffer cannot exceed
+ * 2GB, so the file is mapped in fixed-size chunks. Chunks are a multiple of 16 bytes long, so fixed-width values
+ * aligned to their own size never straddle two chunks. Only absolute reads are used, so this is threadsafe.
+ */
+class MappedBuffer implements Closeable {
+
+    private static final int CHUNK_BITS = 30;
+
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    private final RandomAccessFile file;
+
+    private final MappedByteBuffer[] chunks;
+
+    private final long size;
+
+    /** For tests, a buffer of the given size with no file behind it, whose reads must all be overridden. */
+    MappedBuffer (long size) {
+        this.file = null;
+        this.chunks = new MappedByteBuffer[0];
+        this.size = size;
+    }
+
+    MappedBuffer (File inputFile) throws IOException {
+        file = new RandomAccessFile(inputFile, "r");
+        size = file.length();
+        FileChannel channel = file.getChannel();
+        chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+        for (int c = 0; c < chunks.length; c++) {
+            long start = c * CHUNK_SIZE;
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+        }
+    }
+
+    long size () {
+        return size;
+    }
+
+    byte get (long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & (CHUNK_SIZE - 1)));
+    }
+
+    /** The position must be a multiple of 4. */
+    int getInt (long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].getInt((int) (position & (CHUNK_SIZE - 1)));
+    }
+
+    /** The position must be a multiple of 8. */
+    long getLong (long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & (CHUNK_SIZE - 1)));
+    }
+
+    /**
+     * Close the underlying file. The mappings themselves remain valid until they are garbage collected, but this
+     * buffer should not be used after it is closed.
+     */
+    @Override
+    public void close () throws IOException {
+        if (file != null) file.close();
+    }
+
+}
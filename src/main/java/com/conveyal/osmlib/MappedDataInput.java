@@ -0,0 +1,115 @@
+package com.conveyal.osmlib;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A DataInput reading sequentially from a MappedBuffer, so that entities in a snapshot can be decoded by the same
+ * serializers that are used with MapDB, straight out of the mapped file. It is cheap to create one per entity read.
+ * This is not threadsafe, but any number of instances can read the same buffer at once.
+ */
+class MappedDataInput implements DataInput {
+
+    private final MappedBuffer buffer;
+
+    private long position;
+
+    MappedDataInput (MappedBuffer buffer, long position) {
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    long getPosition () {
+        return position;
+    }
+
+    void setPosition (long position) {
+        this.position = position;
+    }
+
+    @Override
+    public byte readByte () throws IOException {
+        if (position >= buffer.size()) throw new EOFException();
+        return buffer.get(position++);
+    }
+
+    @Override
+    public void readFully (byte[] bytes) throws IOException {
+        readFully(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void readFully (byte[] bytes, int offset, int length) throws IOException {
+        if (position + length > buffer.size()) throw new EOFException();
+        for (int i = 0; i < length; i++) {
+            bytes[offset + i] = buffer.get(position++);
+        }
+    }
+
+    @Override
+    public int skipBytes (int n) {
+        int skipped = (int) Math.max(0, Math.min(n, buffer.size() - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean readBoolean () throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public int readUnsignedByte () throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort () throws IOException {
+        return (short) readUnsignedShort();
+    }
+
+    @Override
+    public int readUnsignedShort () throws IOException {
+        return (readUnsignedByte() << 8) | readUnsignedByte();
+    }
+
+    @Override
+    public char readChar () throws IOException {
+        return (char) readUnsignedShort();
+    }
+
+    // Entity payloads are not aligned, so multi-byte values are assembled from single bytes (big-endian).
+
+    @Override
+    public int readInt () throws IOException {
+        return (readUnsignedByte() << 24) | (readUnsignedByte() << 16) | (readUnsignedByte() << 8) | readUnsignedByte();
+    }
+
+    @Override
+    public long readLong () throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public float readFloat () throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble () throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    @Override
+    public String readLine () {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String readUTF () throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+}
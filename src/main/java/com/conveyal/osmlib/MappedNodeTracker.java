@@ -0,0 +1,133 @@
+package com.conveyal.osmlib;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A read-only NodeTracker that answers queries directly from a memory-mapped file written by NodeTracker.write().
+ * The bitmaps are never copied onto the heap, so several processes can share one large set of node IDs through
+ * the operating system's page cache. Any operation that would modify the set throws UnsupportedOperationException.
+ * It can be used as the argument of bulk set operations on other NodeTrackers, and is safe for concurrent reads.
+ */
+public class MappedNodeTracker extends NodeTracker implements Closeable {
+
+    private final RandomAccessFile file;
+
+    private final Map<Integer, ImmutableRoaringBitmap> mappedBlocks = new HashMap<>();
+
+    private final long cardinality;
+
+    public MappedNodeTracker(File inputFile) throws IOException {
+        file = new RandomAccessFile(inputFile, "r");
+        int nBlocks = readHeader(file);
+        // The header has already been validated, so we can go back and pick up the total cardinality.
+        file.seek(HEADER.length + 4);
+        cardinality = file.readLong();
+        file.readInt();
+        FileChannel channel = file.getChannel();
+        for (int b = 0; b < nBlocks; b++) {
+            int high = file.readInt();
+            int nBytes = file.readInt();
+            long position = file.getFilePointer();
+            // Each block is mapped separately, which sidesteps the 2GB limit on the size of a single mapping.
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, nBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            mappedBlocks.put(high, new ImmutableRoaringBitmap(buffer));
+            file.seek(position + nBytes);
+        }
+    }
+
+    @Override
+    public boolean contains(long x) {
+        ImmutableRoaringBitmap block = mappedBlocks.get(highIndex(x));
+        return block != null && block.contains(lowIndex(x));
+    }
+
+    /** The cardinality is read from the file header rather than being recomputed from the blocks. */
+    @Override
+    public int cardinality() {
+        return (int) cardinality;
+    }
+
+    @Override
+    protected Collection<Integer> highIndexes() {
+        return mappedBlocks.keySet();
+    }
+
+    @Override
+    protected IntIterator lowIterator(int high) {
+        ImmutableRoaringBitmap block = mappedBlocks.get(high);
+        return block == null ? null : block.getIntIterator();
+    }
+
+    /** Returns a heap copy of the mapped block, for use in bulk operations that modify another NodeTracker. */
+    @Override
+    protected RoaringBitmap readBlock(int high) {
+        ImmutableRoaringBitmap block = mappedBlocks.get(high);
+        return block == null ? null : block.toRoaringBitmap();
+    }
+
+    @Override
+    public NodeTracker copy() {
+        NodeTracker copy = new NodeTracker();
+        copy.or(this);
+        return copy;
+    }
+
+    @Override
+    public void add(long x) {
+        throw new UnsupportedOperationException("Memory-mapped NodeTrackers are read-only.");
+    }
+
+    @Override
+    protected void addToBlock(int high, int[] lows, int n) {
+        throw new UnsupportedOperationException("Memory-mapped NodeTrackers are read-only.");
+    }
+
+    @Override
+    public void remove(long x) {
+        throw new UnsupportedOperationException("Memory-mapped NodeTrackers are read-only.");
+    }
+
+    @Override
+    public void and(NodeTracker other) {
+        throw new UnsupportedOperationException("Memory-mapped NodeTrackers are read-only.");
+    }
+
+    @Override
+    public void andNot(NodeTracker other) {
+        throw new UnsupportedOperationException("Memory-mapped NodeTrackers are read-only.");
+    }
+
+    @Override
+    public void runOptimize() {
+        throw new UnsupportedOperationException("Memory-mapped NodeTrackers are read-only.");
+    }
+
+    @Override
+    protected RoaringBitmap getOrCreateBlock(int high) {
+        throw new UnsupportedOperationException("Memory-mapped NodeTrackers are read-only.");
+    }
+
+    /**
+     * Close the underlying file. The mappings themselves remain valid until they are garbage collected, but this
+     * tracker should not be used after it is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+}
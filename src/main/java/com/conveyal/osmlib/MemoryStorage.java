@@ -0,0 +1,139 @@
+package com.conveyal.osmlib;
+
+import org.mapdb.Fun;
+import org.mapdb.Fun.Tuple3;
+
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * OSM storage held entirely on the heap, with entities in Trove primitive hash maps and never serialized.
+ * This is the fastest storage for small extracts that fit comfortably in memory, and is lost when the JVM exits.
+ * Way node lists, which make up most of the data, are held delta-coded in a PackedWayMap.
+ *
+ * Unlike MapDBStorage this is not threadsafe, so it should not be read by some threads while others apply updates.
+ */
+public class MemoryStorage implements OSMStorage {
+
+    private final EntityMap<Node> nodes = new TroveEntityMap<>();
+    private final EntityMap<Way> ways = new PackedWayMap();
+    private final EntityMap<Relation> relations = new RelationMap();
+
+    private final NavigableSet<Tuple3<Integer, Integer, Long>> index = new TreeSet<>();
+    private final NavigableSet<Fun.Tuple2<Long, Long>> relationsByWay = new TreeSet<>();
+    private final NavigableSet<Fun.Tuple2<Long, Long>> relationsByNode = new TreeSet<>();
+    private final NavigableSet<Fun.Tuple2<Long, Long>> relationsByRelation = new TreeSet<>();
+
+    private long timestamp = 0;
+    private long sequenceNumber = 0;
+
+    /**
+     * A table of relations that keeps the reverse indexes up to date, as MapDB's secondary key bindings do in
+     * MapDBStorage. Relations removed through the entry set iterator are not removed from the indexes.
+     */
+    private class RelationMap extends TroveEntityMap<Relation> {
+
+        @Override
+        public Relation put (long id, Relation relation) {
+            Relation previous = super.put(id, relation);
+            if (previous != null) updateIndexes(id, previous, false);
+            updateIndexes(id, relation, true);
+            return previous;
+        }
+
+        @Override
+        public Relation remove (long id) {
+            Relation previous = super.remove(id);
+            if (previous != null) updateIndexes(id, previous, false);
+            return previous;
+        }
+
+        @Override
+        public void clear () {
+            super.clear();
+            relationsByWay.clear();
+            relationsByNode.clear();
+            relationsByRelation.clear();
+        }
+
+        private void updateIndexes (long relationId, Relation relation, boolean add) {
+            for (Relation.Member member : relation.members) {
+                NavigableSet<Fun.Tuple2<Long, Long>> index;
+                if (member.type == OSMEntity.Type.NODE) index = relationsByNode;
+                else if (member.type == OSMEntity.Type.WAY) index = relationsByWay;
+                else index = relationsByRelation;
+                Fun.Tuple2<Long, Long> tuple = new Fun.Tuple2<>(member.id, relationId);
+                if (add) index.add(tuple);
+                else index.remove(tuple);
+            }
+        }
+
+    }
+
+    @Override
+    public EntityMap<Node> getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public EntityMap<Way> getWays() {
+        return ways;
+    }
+
+    @Override
+    public EntityMap<Relation> getRelations() {
+        return relations;
+    }
+
+    @Override
+    public NavigableSet<Tuple3<Integer, Integer, Long>> getSpatialIndex() {
+        return index;
+    }
+
+    @Override
+    public NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByWay() {
+        return relationsByWay;
+    }
+
+    @Override
+    public NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByNode() {
+        return relationsByNode;
+    }
+
+    @Override
+    public NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByRelation() {
+        return relationsByRelation;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public void setTimestamp(long secondsSinceEpoch) {
+        timestamp = secondsSinceEpoch;
+    }
+
+    @Override
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    @Override
+    public void setSequenceNumber(long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /** Memory storage always starts out empty. */
+    @Override
+    public boolean isReopened() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, the garbage collector will take care of everything.
+    }
+
+}
@@ -0,0 +1,257 @@
+package com.conveyal.osmlib;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+/**
+ * An OSMEntitySource that combines several other sources, such as neighboring regional extracts, into a single
+ * stream of entities. Each source is read in its own thread, so decoding the inputs uses as many cores as there
+ * are sources, while the downstream sink receives all entities from the calling thread.
+ *
+ * The inputs are combined with a k-way merge on (entity type, ID), so if every input is sorted the way PBF files
+ * usually are (nodes, then ways, then relations, each in ascending ID order) the output is sorted too, which is
+ * the fastest way to fill a BTree. Entities that appear in more than one input (e.g. nodes and ways crossing the
+ * border between two extracts) then arrive together and only the first copy is passed on. Unsorted inputs are
+ * still accepted, but any duplicates they contain will be passed on and overwrite one another in the sink.
+ *
+ * The replication timestamp passed on is the oldest one among the inputs: replication updates must start from there
+ * to bring every part of the merged data up to date.
+ */
+public class MergedOSMSource implements OSMEntitySource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MergedOSMSource.class);
+
+    /** Entities are handed between threads in batches of this size, to avoid contention on the queues. */
+    private static final int BATCH_SIZE = 4096;
+
+    /** How many batches each source may decode ahead of the merge. */
+    private static final int QUEUE_BATCHES = 8;
+
+    private final List<OSMEntitySource> sources;
+
+    public MergedOSMSource (List<OSMEntitySource> sources) {
+        this.sources = sources;
+    }
+
+    /** @return a source merging all the given files, each of which must be in a format known to OSMEntitySource. */
+    public static MergedOSMSource forFiles (List<String> paths) {
+        List<OSMEntitySource> sources = new ArrayList<>();
+        for (String path : paths) {
+            OSMEntitySource source = OSMEntitySource.forFile(path);
+            if (source == null) {
+                throw new IllegalArgumentException("Unrecognized OSM file format: " + path);
+            }
+            sources.add(source);
+        }
+        return new MergedOSMSource(sources);
+    }
+
+    @Override
+    public void copyTo (OSMEntitySink sink) throws IOException {
+        List<SourceReader> readers = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            readers.add(new SourceReader(sources.get(i), "osm-source-" + i));
+        }
+        try {
+            // Once every source has produced its first entity (or finished), all their headers have been read.
+            PriorityQueue<SourceReader> heads = new PriorityQueue<>(Math.max(1, readers.size()));
+            for (SourceReader reader : readers) {
+                if (reader.advance()) heads.add(reader);
+            }
+            long timestamp = 0;
+            for (SourceReader reader : readers) {
+                if (reader.timestamp > 0 && (timestamp == 0 || reader.timestamp < timestamp)) {
+                    timestamp = reader.timestamp;
+                }
+            }
+            if (timestamp > 0) {
+                sink.setReplicationTimestamp(timestamp);
+            }
+            sink.writeBegin();
+            int lastType = -1;
+            long lastId = 0;
+            long nDuplicates = 0;
+            boolean sorted = true;
+            while (!heads.isEmpty()) {
+                SourceReader reader = heads.poll();
+                int type = reader.type;
+                long id = reader.id;
+                if (type == lastType && id == lastId) {
+                    nDuplicates += 1;
+                } else {
+                    if (sorted && (type < lastType || (type == lastType && id < lastId))) {
+                        LOG.warn("Inputs are not sorted by type and ID, duplicate entities may not be detected.");
+                        sorted = false;
+                    }
+                    switch (type) {
+                        case 0: sink.writeNode(id, (Node) reader.entity); break;
+                        case 1: sink.writeWay(id, (Way) reader.entity); break;
+                        case 2: sink.writeRelation(id, (Relation) reader.entity); break;
+                    }
+                    lastType = type;
+                    lastId = id;
+                }
+                if (reader.advance()) heads.add(reader);
+            }
+            sink.writeEnd();
+            LOG.info("Merged {} sources, skipping {} duplicate entities.", readers.size(), nDuplicates);
+        } finally {
+            // Stop any sources still running if the merge failed part way through.
+            for (SourceReader reader : readers) {
+                reader.thread.interrupt();
+            }
+        }
+    }
+
+    /** A group of entities passed from a source thread to the merge. The last batch may carry an error instead. */
+    private static class Batch {
+        final int[] types = new int[BATCH_SIZE];
+        final long[] ids = new long[BATCH_SIZE];
+        final OSMEntity[] entities = new OSMEntity[BATCH_SIZE];
+        int size = 0;
+        boolean last = false;
+        Throwable error = null;
+    }
+
+    /**
+     * Runs one source in its own thread, acting as the sink for that source and queueing up its entities for the
+     * merge. On the merge side it exposes the current entity (type, ID and entity) from that source.
+     */
+    private static class SourceReader implements OSMEntitySink, Runnable, Comparable<SourceReader> {
+
+        final OSMEntitySource source;
+        final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        final Thread thread;
+
+        /** The replication timestamp of this source, set from the source thread before its first entity. */
+        volatile long timestamp = 0;
+
+        /** The batch being filled by the source thread. */
+        Batch writing = new Batch();
+
+        /** The batch being consumed by the merge, and the position of the current entity within it. */
+        Batch reading = null;
+        int position = 0;
+
+        /** The current entity from this source, as seen by the merge. */
+        int type;
+        long id;
+        OSMEntity entity;
+
+        SourceReader (OSMEntitySource source, String name) {
+            this.source = source;
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run () {
+            try {
+                source.copyTo(this);
+                writing.last = true;
+            } catch (CancellationException e) {
+                return;
+            } catch (Throwable t) {
+                writing.last = true;
+                writing.error = t;
+            }
+            try {
+                queue.put(writing);
+            } catch (InterruptedException e) {
+                // The merge has been abandoned, nobody is waiting for this batch.
+            }
+        }
+
+        /**
+         * Move on to the next entity from this source, blocking until it has been decoded.
+         * @return false if this source has no more entities.
+         */
+        boolean advance () throws IOException {
+            while (reading == null || position >= reading.size) {
+                if (reading != null && reading.last) {
+                    return false;
+                }
+                try {
+                    reading = queue.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while merging OSM sources.");
+                }
+                position = 0;
+                if (reading.error != null) {
+                    throw new IOException("Error while reading one of the merged OSM sources.", reading.error);
+                }
+            }
+            type = reading.types[position];
+            id = reading.ids[position];
+            entity = reading.entities[position];
+            reading.entities[position] = null;
+            position += 1;
+            return true;
+        }
+
+        /** Order by type then ID, consistent with the order in which sources produce entities. */
+        @Override
+        public int compareTo (SourceReader other) {
+            if (type != other.type) return Integer.compare(type, other.type);
+            return Long.compare(id, other.id);
+        }
+
+        private void add (int type, long id, OSMEntity entity) throws IOException {
+            writing.types[writing.size] = type;
+            writing.ids[writing.size] = id;
+            writing.entities[writing.size] = entity;
+            writing.size += 1;
+            if (writing.size == BATCH_SIZE) {
+                try {
+                    queue.put(writing);
+                } catch (InterruptedException e) {
+                    // Unchecked, because some sources catch and log IOExceptions from their sink and carry on.
+                    throw new CancellationException("Merge of OSM sources was abandoned.");
+                }
+                writing = new Batch();
+            }
+        }
+
+        @Override
+        public void writeBegin () {
+            // Do nothing.
+        }
+
+        @Override
+        public void setReplicationTimestamp (long secondsSinceEpoch) {
+            timestamp = secondsSinceEpoch;
+        }
+
+        @Override
+        public void writeNode (long id, Node node) throws IOException {
+            add(0, id, node);
+        }
+
+        @Override
+        public void writeWay (long id, Way way) throws IOException {
+            add(1, id, way);
+        }
+
+        @Override
+        public void writeRelation (long id, Relation relation) throws IOException {
+            add(2, id, relation);
+        }
+
+        @Override
+        public void writeEnd () {
+            // Do nothing. The final batch is queued once the source returns.
+        }
+
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.conveyal.osmlib;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A block of nodes in columnar form: parallel arrays of IDs, fixed-precision coordinates and tags, of which the first
+ * size entries are in use. Sources fill one batch per decoded block and reuse it for the next block, so a batch is
+ * only valid during the call it is passed to.
+ */
+public class NodeBatch {
+
+    public int size = 0;
+
+    public long[] ids = new long[0];
+
+    public int[] fixedLats = new int[0];
+
+    public int[] fixedLons = new int[0];
+
+    /** The tags of each node, null for untagged nodes as in OSMEntity. */
+    public List<OSMEntity.Tag>[] tags = newTagArray(0);
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static List<OSMEntity.Tag>[] newTagArray (int length) {
+        return (List<OSMEntity.Tag>[]) new List[length];
+    }
+
+    /** Empty this batch, releasing the tags it references. */
+    public void clear () {
+        Arrays.fill(tags, 0, size, null);
+        size = 0;
+    }
+
+    /** Make room for at least the given number of nodes, e.g. before a decoder fills the arrays directly. */
+    public void ensureCapacity (int capacity) {
+        if (ids.length < capacity) {
+            int newLength = Math.max(capacity, Math.max(1024, ids.length * 2));
+            ids = Arrays.copyOf(ids, newLength);
+            fixedLats = Arrays.copyOf(fixedLats, newLength);
+            fixedLons = Arrays.copyOf(fixedLons, newLength);
+            tags = Arrays.copyOf(tags, newLength);
+        }
+    }
+
+    public void add (long id, int fixedLat, int fixedLon, List<OSMEntity.Tag> nodeTags) {
+        ensureCapacity(size + 1);
+        ids[size] = id;
+        fixedLats[size] = fixedLat;
+        fixedLons[size] = fixedLon;
+        tags[size] = nodeTags;
+        size += 1;
+    }
+
+    public void add (long id, Node node) {
+        add(id, node.fixedLat, node.fixedLon, node.tags);
+    }
+
+    /** @return a new Node object for the node at the given position in this batch. */
+    public Node getNode (int i) {
+        Node node = new Node();
+        node.fixedLat = fixedLats[i];
+        node.fixedLon = fixedLons[i];
+        node.tags = tags[i];
+        return node;
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TLongIntProcedure;
+
+import java.util.Arrays;
+
+/**
+ * A compact counter of how many times each node is referenced by ways, complementing NodeTracker which only records
+ * whether a node has been seen. This gives the degree information needed by graph builders, e.g. to find dead ends
+ * (nodes referenced once) or degree-2 nodes that can be contracted away, without a second scan over the ways.
+ *
+ * Counts are stored as 4-bit saturating counters packed sixteen to a long, in pages covering contiguous ranges of
+ * node IDs. Pages are only allocated for ranges that contain referenced nodes. Since OSM node IDs are allocated
+ * sequentially, nodes in the same way tend to fall on the same page. Once a counter reaches MAX_COUNT it stays there,
+ * so counts of MAX_COUNT should be read as "at least MAX_COUNT".
+ *
+ * This is not threadsafe.
+ */
+public class NodeCounter {
+
+    /** The largest count that can be stored. Counters saturate at this value rather than overflowing. */
+    public static final int MAX_COUNT = 15;
+
+    private static final int BITS_PER_COUNTER = 4;
+
+    private static final int COUNTERS_PER_LONG = Long.SIZE / BITS_PER_COUNTER;
+
+    /** Each page holds counters for 2^PAGE_BITS consecutive node IDs. */
+    private static final int PAGE_BITS = 10;
+
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final TLongObjectMap<long[]> pages = new TLongObjectHashMap<>();
+
+    /**
+     * Increment the count for the given node, unless it is already saturated.
+     * @return the new count for the node.
+     */
+    public int increment (long nodeId) {
+        long[] page = getOrCreatePage(nodeId);
+        int count = get(page, nodeId);
+        if (count < MAX_COUNT) {
+            count += 1;
+            set(page, nodeId, count);
+        }
+        return count;
+    }
+
+    /** Set the count for the given node, clamping it to the range [0, MAX_COUNT]. */
+    public void setCount (long nodeId, int count) {
+        count = Math.max(0, Math.min(count, MAX_COUNT));
+        long[] page = pages.get(nodeId >> PAGE_BITS);
+        if (page == null) {
+            if (count == 0) return;
+            page = getOrCreatePage(nodeId);
+        }
+        set(page, nodeId, count);
+    }
+
+    /** @return the number of times the given node has been counted, or MAX_COUNT if the counter is saturated. */
+    public int getCount (long nodeId) {
+        long[] page = pages.get(nodeId >> PAGE_BITS);
+        return page == null ? 0 : get(page, nodeId);
+    }
+
+    /**
+     * Call the supplied procedure with the ID and count of every node with a nonzero count, in ascending ID order.
+     * Iteration stops early if the procedure returns false.
+     */
+    public void forEachCount (TLongIntProcedure procedure) {
+        long[] pageKeys = pages.keys();
+        Arrays.sort(pageKeys);
+        for (long pageKey : pageKeys) {
+            long[] page = pages.get(pageKey);
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                long nodeId = (pageKey << PAGE_BITS) | i;
+                int count = get(page, nodeId);
+                if (count > 0 && !procedure.execute(nodeId, count)) return;
+            }
+        }
+    }
+
+    /** @return the approximate number of bytes of memory used by the counters themselves. */
+    public long memoryBytes () {
+        return (long) pages.size() * (PAGE_SIZE / COUNTERS_PER_LONG) * Long.BYTES;
+    }
+
+    private long[] getOrCreatePage (long nodeId) {
+        long pageKey = nodeId >> PAGE_BITS;
+        long[] page = pages.get(pageKey);
+        if (page == null) {
+            page = new long[PAGE_SIZE / COUNTERS_PER_LONG];
+            pages.put(pageKey, page);
+        }
+        return page;
+    }
+
+    private static int get (long[] page, long nodeId) {
+        int index = (int) (nodeId & PAGE_MASK);
+        int shift = (index % COUNTERS_PER_LONG) * BITS_PER_COUNTER;
+        return (int) (page[index / COUNTERS_PER_LONG] >>> shift) & MAX_COUNT;
+    }
+
+    private static void set (long[] page, long nodeId, int count) {
+        int index = (int) (nodeId & PAGE_MASK);
+        int shift = (index % COUNTERS_PER_LONG) * BITS_PER_COUNTER;
+        int word = index / COUNTERS_PER_LONG;
+        page[word] = (page[word] & ~((long) MAX_COUNT << shift)) | ((long) count << shift);
+    }
+
+}
@@ -1,14 +1,23 @@
 package com.conveyal.osmlib;
 
-import com.google.common.collect.Maps;
+import gnu.trove.iterator.TLongIterator;
+import org.roaringbitmap.IntIterator;
 import org.roaringbitmap.RoaringBitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 
-/** 
+/**
  * A sparse bit set capable of handling 64-bit int indexes (like OSM IDs).
  * Node numbers in OSM tend to be contiguous so maybe the blocks should be bigger.
  *
@@ -20,6 +29,9 @@ import java.util.Map;
  * 32 bits to a roaringbitmap. Since the OSM IDs are concentrated towards the bottom of the long
  * space (i.e. they only need, so far, one more bit than an int provides), only a few blocks are used.
  *
+ * This class is not threadsafe. See ConcurrentNodeTracker for a variant that can be shared between threads.
+ * Subclasses that need to control access to the blocks should override the methods that touch them directly.
+ *
  * This home-made implementation is probably not particularly fast, and the library now has a 64 bit mode:
  * https://github.com/RoaringBitmap/RoaringBitmap#64-bit-integers-long
  * TODO convert to standard 64-bit extension in library
@@ -28,7 +40,22 @@ public class NodeTracker {
 
     private static final Logger LOG = LoggerFactory.getLogger(NodeTracker.class);
 
-    private Map<Integer, RoaringBitmap> blocks = new HashMap<>();
+    /** Magic bytes at the beginning of a serialized NodeTracker. */
+    protected static final byte[] HEADER = "NODETRAK".getBytes();
+
+    protected static final int FORMAT_VERSION = 1;
+
+    /** Map from the high 32 bits of the IDs to a bitmap of the low 32 bits. */
+    protected final Map<Integer, RoaringBitmap> blocks;
+
+    public NodeTracker() {
+        this(new HashMap<>());
+    }
+
+    /** Allows subclasses to supply a different kind of map (e.g. a concurrent one) to hold the blocks. */
+    protected NodeTracker(Map<Integer, RoaringBitmap> blocks) {
+        this.blocks = blocks;
+    }
 
     public void add(long x) {
         int high = highIndex(x);
@@ -44,6 +71,38 @@ public class NodeTracker {
         block.add(low);
     }
 
+    /**
+     * Add all the given IDs to this set. This is faster than calling add() repeatedly when consecutive IDs fall in
+     * the same block, because the block is only looked up once for each run of IDs sharing the same high 32 bits.
+     */
+    public void addAll(long... xs) {
+        int[] lows = new int[xs.length];
+        int i = 0;
+        while (i < xs.length) {
+            int high = highIndex(xs[i]);
+            int n = 0;
+            while (i < xs.length && highIndex(xs[i]) == high) {
+                lows[n++] = lowIndex(xs[i++]);
+            }
+            addToBlock(high, lows, n);
+        }
+    }
+
+    /** Add the first n of the given low-order ints to the block with the given high-order int. */
+    protected void addToBlock(int high, int[] lows, int n) {
+        RoaringBitmap block = getOrCreateBlock(high);
+        for (int i = 0; i < n; i++) {
+            block.add(lows[i]);
+        }
+    }
+
+    public void remove(long x) {
+        RoaringBitmap block = blocks.get(highIndex(x));
+        if (block != null) {
+            block.remove(lowIndex(x));
+        }
+    }
+
     public boolean contains(long x) {
         int high = highIndex(x);
         RoaringBitmap block = blocks.get(high);
@@ -57,16 +116,192 @@ public class NodeTracker {
 
     public int cardinality () {
         // cardinality is the sum of the cardinality of all member bitmaps
-        return blocks.values().stream()
+        return highIndexes().stream()
+                .map(this::readBlock)
+                .filter(Objects::nonNull)
                 .mapToInt(RoaringBitmap::getCardinality)
                 .sum();
     }
 
-    private static int highIndex (long key) {
+    /** Add every ID in the other set to this one (union). */
+    public void or(NodeTracker other) {
+        for (int high : other.highIndexes()) {
+            RoaringBitmap otherBlock = other.readBlock(high);
+            if (otherBlock != null) {
+                getOrCreateBlock(high).or(otherBlock);
+            }
+        }
+    }
+
+    /** Remove any ID from this set that is not also in the other set (intersection). */
+    public void and(NodeTracker other) {
+        for (Map.Entry<Integer, RoaringBitmap> entry : blocks.entrySet()) {
+            RoaringBitmap otherBlock = other.readBlock(entry.getKey());
+            if (otherBlock == null) {
+                entry.getValue().clear();
+            } else {
+                entry.getValue().and(otherBlock);
+            }
+        }
+    }
+
+    /**
+     * Remove every ID in the other set from this one (difference). For example, the nodes that are referenced by
+     * ways but are not intersections can be found by calling andNot(intersectionNodes) on a copy of referencedNodes.
+     */
+    public void andNot(NodeTracker other) {
+        for (Map.Entry<Integer, RoaringBitmap> entry : blocks.entrySet()) {
+            RoaringBitmap otherBlock = other.readBlock(entry.getKey());
+            if (otherBlock != null) {
+                entry.getValue().andNot(otherBlock);
+            }
+        }
+    }
+
+    /**
+     * Convert the blocks to run-length encoding where that saves space, and drop any empty blocks. This is worth
+     * calling once a large set is finished being built, as OSM IDs often come in long contiguous runs.
+     */
+    public void runOptimize() {
+        Iterator<RoaringBitmap> blockIterator = blocks.values().iterator();
+        while (blockIterator.hasNext()) {
+            RoaringBitmap block = blockIterator.next();
+            if (block.isEmpty()) {
+                blockIterator.remove();
+            } else {
+                block.runOptimize();
+            }
+        }
+    }
+
+    /** @return a new, independent NodeTracker containing the same IDs as this one. */
+    public NodeTracker copy() {
+        NodeTracker copy = new NodeTracker();
+        copy.or(this);
+        return copy;
+    }
+
+    /**
+     * @return an iterator over all the IDs in this set in ascending numeric order. If this set is modified during
+     * iteration the results are undefined.
+     */
+    public TLongIterator iterator() {
+        int[] highs = sortedHighIndexes();
+        return new TLongIterator() {
+            int h = -1;
+            IntIterator lows = null;
+            @Override
+            public boolean hasNext() {
+                while (lows == null || !lows.hasNext()) {
+                    if (++h >= highs.length) return false;
+                    lows = lowIterator(highs[h]);
+                }
+                return true;
+            }
+            @Override
+            public long next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return ((long) highs[h] << 32) | (lows.next() & 0xFFFFFFFFL);
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Write this set out in a binary format that can be read back in with NodeTracker.read() or memory-mapped with
+     * MappedNodeTracker. Consider calling runOptimize() first, which can make the output much smaller.
+     * The format is a header (magic bytes, format version, total cardinality and number of blocks) followed by
+     * each block in ascending order, as its high-order 32 bits, its size in bytes and the block itself in the
+     * portable RoaringBitmap serialization format.
+     */
+    public void write(DataOutput out) throws IOException {
+        int[] highs = sortedHighIndexes();
+        RoaringBitmap[] highBlocks = new RoaringBitmap[highs.length];
+        long cardinality = 0;
+        for (int h = 0; h < highs.length; h++) {
+            highBlocks[h] = readBlock(highs[h]);
+            cardinality += highBlocks[h].getLongCardinality();
+        }
+        out.write(HEADER);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(cardinality);
+        out.writeInt(highs.length);
+        for (int h = 0; h < highs.length; h++) {
+            out.writeInt(highs[h]);
+            out.writeInt(highBlocks[h].serializedSizeInBytes());
+            highBlocks[h].serialize(out);
+        }
+    }
+
+    /** Read a NodeTracker into memory from a binary stream produced by NodeTracker.write(). */
+    public static NodeTracker read(DataInput in) throws IOException {
+        int nBlocks = readHeader(in);
+        NodeTracker tracker = new NodeTracker();
+        for (int b = 0; b < nBlocks; b++) {
+            int high = in.readInt();
+            in.readInt(); // Size in bytes, which is only needed for memory mapping.
+            RoaringBitmap block = new RoaringBitmap();
+            block.deserialize(in);
+            tracker.blocks.put(high, block);
+        }
+        return tracker;
+    }
+
+    /**
+     * Check the magic bytes and format version at the beginning of a serialized NodeTracker, skipping over the
+     * cardinality.
+     * @return the number of blocks that follow the header.
+     */
+    protected static int readHeader(DataInput in) throws IOException {
+        byte[] header = new byte[HEADER.length];
+        in.readFully(header);
+        if (!Arrays.equals(header, HEADER)) {
+            throw new IOException("Input does not appear to be a serialized NodeTracker.");
+        }
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported NodeTracker format version " + version);
+        }
+        in.readLong();
+        return in.readInt();
+    }
+
+    /** @return the high-order 32 bits of every block in this set, which may include some empty blocks. */
+    protected Collection<Integer> highIndexes() {
+        return blocks.keySet();
+    }
+
+    private int[] sortedHighIndexes() {
+        return highIndexes().stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /** @return an iterator over the low-order 32 bits of all IDs in the given block, in unsigned order. */
+    protected IntIterator lowIterator(int high) {
+        RoaringBitmap block = readBlock(high);
+        return block == null ? null : block.getIntIterator();
+    }
+
+    /** @return the block for the given high-order bits, creating it if it doesn't exist. */
+    protected RoaringBitmap getOrCreateBlock(int high) {
+        return blocks.computeIfAbsent(high, h -> new RoaringBitmap());
+    }
+
+    /**
+     * @return a bitmap of the block for the given high-order bits that is safe for another NodeTracker to read
+     * (or null if there is no such block). Subclasses may return a copy here.
+     */
+    protected RoaringBitmap readBlock(int high) {
+        return blocks.get(high);
+    }
+
+    protected static int highIndex (long key) {
         return (int) (key >> 32);
     }
 
-    private static int lowIndex (long key) {
+    protected static int lowIndex (long key) {
         // this truncation can change the sign of the int, but roaringbitmaps treats ints as unsigned, so that's
         // not a problem.
         return (int) key;
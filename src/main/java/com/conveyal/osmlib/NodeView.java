@@ -0,0 +1,51 @@
+package com.conveyal.osmlib;
+
+/**
+ * A reusable view of a node in an encoded block. The coordinates are decoded while scanning the block anyway (they
+ * are delta coded from one node to the next), so they are available without further work. See OSMEntityView.
+ */
+public class NodeView extends OSMEntityView {
+
+    private int fixedLat;
+
+    private int fixedLon;
+
+    NodeView () { }
+
+    void reset (byte[] data, long id, int tagsPosition, int fixedLat, int fixedLon) {
+        reset(data, id, tagsPosition);
+        this.fixedLat = fixedLat;
+        this.fixedLon = fixedLon;
+    }
+
+    public int getFixedLat () {
+        return fixedLat;
+    }
+
+    public int getFixedLon () {
+        return fixedLon;
+    }
+
+    public double getLat () {
+        return fixedLat / 1e7;
+    }
+
+    public double getLon () {
+        return fixedLon / 1e7;
+    }
+
+    @Override
+    public OSMEntity.Type getType () {
+        return OSMEntity.Type.NODE;
+    }
+
+    @Override
+    public Node copy () {
+        Node node = new Node();
+        node.fixedLat = fixedLat;
+        node.fixedLon = fixedLon;
+        copyTagsTo(node);
+        return node;
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongLongMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TLongProcedure;
+
+/**
+ * A reverse index from node IDs to the IDs of the ways that reference them, used to find which ways are affected
+ * when a node is moved by a replication diff.
+ *
+ * The vast majority of nodes are referenced by a single way, so the first reference to each node is stored in a
+ * primitive long-to-long map, and only the additional references of shared (intersection) nodes spill over into
+ * a second map of lists. A way that references the same node more than once (e.g. a closed loop) is recorded once
+ * per reference, so the number of entries for a node is the number of times it is referenced by ways.
+ *
+ * This is not threadsafe, it should only be modified by a single loading or updating thread.
+ */
+public class NodeWayIndex {
+
+    private static final long NO_WAY = -1L;
+
+    /** The first way referencing each node. */
+    private final TLongLongMap firstWay = new TLongLongHashMap(1000, 0.5f, NO_WAY, NO_WAY);
+
+    /** Any additional ways referencing nodes that are referenced more than once. */
+    private final TLongObjectMap<TLongList> otherWays = new TLongObjectHashMap<>();
+
+    /** Record that the given way references each of the given nodes. */
+    public void addWay (long wayId, long[] nodeIds) {
+        for (long nodeId : nodeIds) {
+            add(nodeId, wayId);
+        }
+    }
+
+    /** Remove the references from the given way to each of the given nodes. */
+    public void removeWay (long wayId, long[] nodeIds) {
+        for (long nodeId : nodeIds) {
+            remove(nodeId, wayId);
+        }
+    }
+
+    /** Record a single reference from the given way to the given node. */
+    public void add (long nodeId, long wayId) {
+        long first = firstWay.putIfAbsent(nodeId, wayId);
+        if (first != NO_WAY) {
+            TLongList others = otherWays.get(nodeId);
+            if (others == null) {
+                others = new TLongArrayList(2);
+                otherWays.put(nodeId, others);
+            }
+            others.add(wayId);
+        }
+    }
+
+    /** Remove a single reference from the given way to the given node, if it exists. */
+    public void remove (long nodeId, long wayId) {
+        TLongList others = otherWays.get(nodeId);
+        if (firstWay.get(nodeId) == wayId) {
+            if (others == null) {
+                firstWay.remove(nodeId);
+            } else {
+                // Promote the last of the other references into the first slot.
+                firstWay.put(nodeId, others.removeAt(others.size() - 1));
+            }
+        } else if (others != null) {
+            others.remove(wayId);
+        }
+        if (others != null && others.isEmpty()) {
+            otherWays.remove(nodeId);
+        }
+    }
+
+    /** @return the number of references to the given node by ways. */
+    public int referenceCount (long nodeId) {
+        if (!firstWay.containsKey(nodeId)) return 0;
+        TLongList others = otherWays.get(nodeId);
+        return others == null ? 1 : others.size() + 1;
+    }
+
+    /**
+     * Call the supplied procedure once for each reference to the given node. A way that references the node more
+     * than once will be supplied more than once. Iteration stops early if the procedure returns false.
+     */
+    public void forEachWay (long nodeId, TLongProcedure procedure) {
+        long first = firstWay.get(nodeId);
+        if (first == NO_WAY) return;
+        if (!procedure.execute(first)) return;
+        TLongList others = otherWays.get(nodeId);
+        if (others != null) {
+            others.forEach(procedure);
+        }
+    }
+
+    /** @return the IDs of all ways referencing the given node, with one entry per reference. */
+    public long[] getWays (long nodeId) {
+        TLongList ways = new TLongArrayList();
+        forEachWay(nodeId, ways::add);
+        return ways.toArray();
+    }
+
+    /** @return the number of distinct nodes that are referenced by at least one way. */
+    public int size () {
+        return firstWay.size();
+    }
+
+}
@@ -1,31 +1,46 @@
 package com.conveyal.osmlib;
 
-import com.conveyal.osmlib.serializer.NodeSerializer;
-import com.conveyal.osmlib.serializer.WaySerializer;
-import org.mapdb.*;
+import gnu.trove.procedure.TLongObjectProcedure;
+import org.mapdb.Fun;
 import org.mapdb.Fun.Tuple3;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
+import java.util.stream.Stream;
 
 /**
  * osm-lib representation of a subset of OpenStreetMap. One or more OSM files (e.g. PBF) can be loaded into this
  * object, which serves as a simple in-process database for fetching and iterating over OSM elements.
- * Using DB TreeMaps is often not any slower than memory. HashMaps are both bigger and slower because our keys
- * are so small: a hashmap needs to store both the long key and its hash.
+ * The tables themselves are provided by an OSMStorage, by default a MapDBStorage.
+ * Sources that decode whole blocks of entities load them through the batch sink methods, one table put per block.
  *
- * FIXME rename this to OSMStorage or OSMDatabase
+ * FIXME rename this to OSMDatabase
  */
-public class OSM implements OSMEntitySource, OSMEntitySink {
+public class OSM implements OSMEntitySource, OSMEntitySink, OSMEntityBatchSink {
 
     private static final Logger LOG = LoggerFactory.getLogger(OSM.class);
 
+    /** Special value of the diskPath constructor parameter to store everything in off-heap memory. */
+    public static final String IN_MEMORY = "__MEMORY__";
+
+    /**
+     * Special value of the diskPath constructor parameter to use a MemoryStorage, which holds entities on the heap
+     * without serializing them at all. This is the fastest option when the data fits comfortably in the heap.
+     */
+    public static final String ON_HEAP = "__HEAP__";
+
+    /*
+     * The tables are held by the storage as EntityMaps, which getNodes(), getWays() and getRelations() return without
+     * boxing. Any other Map assigned to these fields is wrapped in an EntityMap view when it is used.
+     */
     public Map<Long, Node> nodes;
     public Map<Long, Way> ways;
     public Map<Long, Relation> relations;
@@ -48,14 +63,17 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
     /** The nodes which are referenced more than once by ways in this OSM. */
     public NodeTracker intersectionNodes = new NodeTracker();
 
-    /** The MapDB backing this OSM, if any. */
-    DB db = null;
+    /**
+     * How many times each node is referenced by (non-building) ways, i.e. its degree in the street graph.
+     * Only populated if referenceCounting is true.
+     */
+    public NodeCounter nodeReferenceCounts = new NodeCounter();
 
-    /** The timestamp in seconds since the Epoch of the last replication update applied. */
-    Atomic.Long timestamp;
+    /** A reverse index from nodes to the ways that reference them, only populated if nodeWayIndexing is true. */
+    public NodeWayIndex waysByNode = new NodeWayIndex();
 
-    /** The sequence number of the last replication patch applied. */
-    Atomic.Long sequenceNumber;
+    /** The storage holding the tables above, which are fetched from it once when this OSM is constructed. */
+    public final OSMStorage storage;
 
     /* If true, insert all incoming ways in the index table. */
     public boolean tileIndexing = false;
@@ -63,146 +81,110 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
     /* If true, track which nodes are referenced by more than one way. */
     public boolean intersectionDetection = false;
 
-    /** If true we are reading already filled OSM mapdv **/
-    private boolean reading = false;
+    /* If true, also count how many times each node is referenced when detecting intersections. */
+    public boolean referenceCounting = false;
+
+    /*
+     * If true, maintain a reverse index from nodes to the ways that reference them. This allows diffs to re-index
+     * exactly the ways affected by a moved node, and to keep intersectionNodes up to date as ways change.
+     */
+    public boolean nodeWayIndexing = false;
+
+    /* Entity objects made from the columns of the batch being loaded, reused from one batch to the next. */
+    private Node[] batchNodes = new Node[0];
+    private Way[] batchWays = new Way[0];
 
     /**
-     * Construct a new MapDB-based random-access OSM data store.
-     * If diskPath is null, OSM will be loaded into a temporary file and deleted on shutdown.
-     * If diskPath is the string "__MEMORY__" the OSM will be stored entirely in memory. 
-     * 
+     * Construct a new random-access OSM data store.
+     * If diskPath is null, OSM will be loaded into a temporary MapDB file and deleted on shutdown.
+     * If diskPath is the string "__MEMORY__" the OSM will be stored entirely in off-heap memory.
+     * If diskPath is the string "__HEAP__" the OSM will be stored on the heap in unserialized form.
+     * Otherwise it will be stored in a MapDB in the given file.
+     *
      * @param diskPath - the file in which to save the data, null for a temp file, or "__MEMORY__" for in-memory.
      */
     public OSM (String diskPath) {
-        DBMaker dbMaker;
-        if (diskPath == null) {
-            LOG.info("OSM will be stored in a temporary file.");
-            dbMaker = DBMaker.newTempFileDB().deleteFilesAfterClose();
-        } else {
-            if (diskPath.equals("__MEMORY__")) {
-                LOG.info("OSM will be stored in memory.");
-                // 'direct' means off-heap memory, no garbage collection overhead
-                dbMaker = DBMaker.newMemoryDirectDB(); 
-            } else {
-                File dp = new File(diskPath);
-                reading = (diskPath.endsWith(".mapdb") || diskPath.endsWith(".db")) && dp.exists();
-                if (reading) {
-                    LOG.info("Reading OSM DB from: {}", diskPath);
-                } else {
-                    LOG.info("OSM will be stored in file {}.", diskPath);
-                }
-                dbMaker = DBMaker.newFileDB(dp);
-            }
-        }
+        this(ON_HEAP.equals(diskPath) ? new MemoryStorage() : new MapDBStorage(diskPath));
+    }
 
+    /** @return a new random-access OSM data store on top of the given storage backend. */
+    public static OSM forStorage (OSMStorage storage) {
+        return new OSM(storage);
+    }
 
-        if (reading) {
-            db = dbMaker
-                .transactionDisable()
-                .compressionEnable()
-                //.cacheLRUEnable()
-                //.cacheSize(1000)
-                .mmapFileEnableIfSupported()
-                .make();
-        } else {
-            // Compression has no appreciable effect on speed but reduces file size by about 16 percent.
-            // Hash table cache (eviction by collision) is on by default with a size of 32k records.
-            // http://www.mapdb.org/doc/caches.html
-            // Our objects do not have semantic hash and equals functions, but I suppose it's the table keys that are hashed
-            // not the values.
-            db = dbMaker.asyncWriteEnable()
-                .transactionDisable()
-                //.cacheDisable()
-                .compressionEnable()
-                .mmapFileEnableIfSupported()
-                .closeOnJvmShutdown()
-                .make();
+    // This is private so that new OSM(null) is not ambiguous.
+    private OSM (OSMStorage storage) {
+        this.storage = storage;
+        nodes = storage.getNodes();
+        ways = storage.getWays();
+        relations = storage.getRelations();
+        index = storage.getSpatialIndex();
+        relationsByWay = storage.getRelationsByWay();
+        relationsByNode = storage.getRelationsByNode();
+        relationsByRelation = storage.getRelationsByRelation();
+    }
+
+    // TODO put these read/write methods on all sources/sinks
+    public void readFromFile(String filePath) {
+        if (rebuildIfReopened()) return;
+        try {
+            LOG.info("Reading OSM from file '{}'.", filePath);
+            OSMEntitySource source = OSMEntitySource.forFile(filePath);
+            source.copyTo(this);
+        } catch (Exception ex) {
+            throw new RuntimeException("Error occurred while parsing OSM file " + filePath, ex);
         }
+    }
 
-        if (db.getAll().isEmpty()) {
-            LOG.info("No OSM tables exist yet, they will be created.");
+    /**
+     * Load several files at once, e.g. neighboring country extracts, reading each of them in a separate thread.
+     * Entities present in more than one file are only stored once, and the oldest replication timestamp among the
+     * files is kept, so that replication updates will bring all of the data up to date.
+     */
+    public void readFromFiles(List<String> filePaths) {
+        if (rebuildIfReopened()) return;
+        try {
+            LOG.info("Reading OSM from files {}.", filePaths);
+            MergedOSMSource.forFiles(filePaths).copyTo(this);
+        } catch (Exception ex) {
+            throw new RuntimeException("Error occurred while parsing OSM files " + filePaths, ex);
         }
-        
-        nodes = db.createTreeMap("nodes")
-                .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
-                .valueSerializer(new NodeSerializer())
-                .makeOrGet();
-        
-        ways =  db.createTreeMap("ways")
-                .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
-                .valueSerializer(new WaySerializer())
-                .makeOrGet();
-
-        // need as btreemap below to bind function
-        BTreeMap<Long, Relation> relations = db.createTreeMap("relations")
-                .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
-                .makeOrGet();
-        this.relations = relations;
-
-        // Serializer delta-compresses the tuple as a whole and variable-width packs ints,
-        // but does not recursively delta-code its elements.
-        index = db.createTreeSet("spatial_index")
-                .serializer(BTreeKeySerializer.TUPLE3) 
-                .makeOrGet();
-
-        relationsByWay = db.createTreeSet("relations_by_way")
-                .serializer(BTreeKeySerializer.TUPLE2)
-                .makeOrGet();
-
-        relationsByNode = db.createTreeSet("relations_by_node")
-                .serializer(BTreeKeySerializer.TUPLE2)
-                .makeOrGet();
-
-        relationsByRelation = db.createTreeSet("relations_by_relation")
-                .serializer(BTreeKeySerializer.TUPLE2)
-                .makeOrGet();
-
-        Bind.secondaryKeys(relations, relationsByNode,
-                (k, r) -> r.members.stream().filter(m -> m.type == OSMEntity.Type.NODE).map(m -> m.id).toArray(i -> new Long[i]));
-
-        Bind.secondaryKeys(relations, relationsByWay,
-                (k, r) -> r.members.stream().filter(m -> m.type == OSMEntity.Type.WAY).map(m -> m.id).toArray(i -> new Long[i]));
-
-        Bind.secondaryKeys(relations, relationsByRelation,
-                (k, r) -> r.members.stream().filter(m -> m.type == OSMEntity.Type.RELATION).map(m -> m.id).toArray(i -> new Long[i]));
-
-        // GetAtomicLong() will create the atomic long entry if it doesn't exist
-        timestamp = db.getAtomicLong("timestamp");
-        sequenceNumber = db.getAtomicLong("sequence_number");
     }
 
-    // TODO put these read/write methods on all sources/sinks
-    public void readFromFile(String filePath) {
-        if (reading && !nodes.isEmpty()) {
+    /**
+     * If this OSM was opened on existing data, rebuild the in-memory indexes that are not persisted.
+     * @return true if the storage already contains data, in which case no files should be loaded.
+     */
+    private boolean rebuildIfReopened() {
+        if (storage.isReopened() && !nodes.isEmpty()) {
             LOG.info("Not reading from file since database is already filled!");
+            if (nodeWayIndexing) {
+                // The reverse index is held in memory, so it must be rebuilt when an existing database is reopened.
+                LOG.info("Indexing ways by node...");
+                getWays().forEachEntry((wayId, way) -> {
+                    waysByNode.addWay(wayId, way.nodes);
+                    return true;
+                });
+                LOG.info("Done indexing ways by node.");
+            }
             if (intersectionDetection) {
                 // We need to rebuild intersectionNodes since it isn't saved in mapDB
                 // and without it edge creation is wrong (since edges aren't split in intersections)
                 // FIXME this takes two minutes on NL OSM. We should probably save the intersections in a MapDB table.
                 LOG.info("Detecting intersections...");
-                for (Way way : ways.values()) {
-                    if (way.hasTag("building")) continue;
-                    for (long nodeId : way.nodes) {
-                        if (referencedNodes.contains(nodeId)) {
-                            intersectionNodes.add(nodeId);
-                        } else {
-                            referencedNodes.add(nodeId);
-                        }
-                    }
+                getWays().forEachEntry((wayId, way) -> {
+                    if (!way.hasTag("building")) detectIntersections(way);
+                    return true;
+                });
+                // referencedNodes isn't needed after intersectionNodes is built, unless diffs will be maintaining it.
+                if (!nodeWayIndexing) {
+                    referencedNodes = null;
                 }
-                //referenceNodes isn't needed after intersectionNodes is built
-                referencedNodes = null;
                 LOG.info("Done detecting intersections.");
             }
-            return;
-        }
-        try {
-            LOG.info("Reading OSM from file '{}'.", filePath);
-            OSMEntitySource source = OSMEntitySource.forFile(filePath);
-            source.copyTo(this);
-        } catch (Exception ex) {
-            throw new RuntimeException("Error occurred while parsing OSM file " + filePath, ex);
+            return true;
         }
+        return false;
     }
 
     public void readFromUrl(String urlString) {
@@ -260,23 +242,103 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
     /** Write the contents of this OSM MapDB out to an OSM entity sink (from OSMEntitySource interface). */
     @Override
     public void copyTo (OSMEntitySink sink) throws IOException {
-        sink.setReplicationTimestamp(timestamp.get());
+        long timestamp = storage.getTimestamp();
+        sink.setReplicationTimestamp(timestamp);
         sink.writeBegin();
-        if (timestamp.get() > 0) {
-            sink.setReplicationTimestamp(timestamp.get());
-        }
-        for (Map.Entry<Long, Node> nodeEntry : this.nodes.entrySet()) {
-            sink.writeNode(nodeEntry.getKey(), nodeEntry.getValue());
+        if (timestamp > 0) {
+            sink.setReplicationTimestamp(timestamp);
         }
-        for (Map.Entry<Long, Way> wayEntry : this.ways.entrySet()) {
-            sink.writeWay(wayEntry.getKey(), wayEntry.getValue());
-        }
-        for (Map.Entry<Long, Relation> relationEntry : this.relations.entrySet()) {
-            sink.writeRelation(relationEntry.getKey(), relationEntry.getValue());
+        // Trove procedures cannot throw checked exceptions, so IOExceptions are smuggled out of the loops unchecked.
+        try {
+            getNodes().forEachEntry((id, node) -> {
+                try {
+                    sink.writeNode(id, node);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            });
+            getWays().forEachEntry((id, way) -> {
+                try {
+                    sink.writeWay(id, way);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            });
+            getRelations().forEachEntry((id, relation) -> {
+                try {
+                    sink.writeRelation(id, relation);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
         sink.writeEnd();
     }
 
+    /**
+     * @return a stream of all the entities in this database, nodes then ways then relations. Unlike the streams of
+     * other sources this reads the tables directly with no background thread, and the entities of each type are in
+     * the iteration order of their table. Parallel streams split each table in chunks.
+     */
+    @Override
+    public Stream<EntityRecord> stream () {
+        return Stream.concat(Stream.concat(records(nodes), records(ways)), records(relations));
+    }
+
+    private static Stream<EntityRecord> records (Map<Long, ? extends OSMEntity> entities) {
+        return entities.entrySet().stream().map(entry -> new EntityRecord(entry.getKey(), entry.getValue()));
+    }
+
+    /** @return the nodes table as an EntityMap, whose primitive accessors and iteration methods do not box IDs. */
+    public EntityMap<Node> getNodes () {
+        return EntityMap.of(nodes);
+    }
+
+    /** @return the ways table as an EntityMap, whose primitive accessors and iteration methods do not box IDs. */
+    public EntityMap<Way> getWays () {
+        return EntityMap.of(ways);
+    }
+
+    /** @return the relations table as an EntityMap, whose primitive accessors and iteration methods do not box IDs. */
+    public EntityMap<Relation> getRelations () {
+        return EntityMap.of(relations);
+    }
+
+    /** @return the node with the given ID, or null if there is no such node. This does not box the ID. */
+    public Node getNode (long nodeId) {
+        return getNodes().get(nodeId);
+    }
+
+    /** @return the way with the given ID, or null if there is no such way. This does not box the ID. */
+    public Way getWay (long wayId) {
+        return getWays().get(wayId);
+    }
+
+    /** @return the relation with the given ID, or null if there is no such relation. This does not box the ID. */
+    public Relation getRelation (long relationId) {
+        return getRelations().get(relationId);
+    }
+
+    /** Call the given procedure on every node in ascending ID order, until it returns false. */
+    public boolean forEachNode (TLongObjectProcedure<? super Node> procedure) {
+        return getNodes().forEachEntry(procedure);
+    }
+
+    /** Call the given procedure on every way in ascending ID order, until it returns false. */
+    public boolean forEachWay (TLongObjectProcedure<? super Way> procedure) {
+        return getWays().forEachEntry(procedure);
+    }
+
+    /** Call the given procedure on every relation in ascending ID order, until it returns false. */
+    public boolean forEachRelation (TLongObjectProcedure<? super Relation> procedure) {
+        return getRelations().forEachEntry(procedure);
+    }
+
 
     /**
      * Insert the given way into the tile-based spatial index, based on its current node locations in the database.
@@ -296,7 +358,16 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
     }
 
     public void unIndexWay(long wayId) {
-        Way way = ways.get(wayId);
+        unIndexWay(wayId, null);
+    }
+
+    /**
+     * Remove the given way from the tile-based spatial index, based on its current node locations in the database.
+     * This must be called before the way or its first node are changed, otherwise the index entry can't be located.
+     * If the way object is not supplied it will be looked up by its ID.
+     */
+    public void unIndexWay(long wayId, Way way) {
+        if (way == null) way = getWays().get(wayId);
         if (way == null) {
             LOG.debug("Attempted to remove way {} from the spatial index, but it is not currently in the database.", wayId);
         } else {
@@ -307,12 +378,86 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
         }
     }
 
+    /**
+     * Record which of the nodes of the given way have been referenced more than once, and optionally count the
+     * references to each node in the same pass.
+     */
+    private void detectIntersections(Way way) {
+        for (long nodeId : way.nodes) {
+            if (referencedNodes.contains(nodeId)) {
+                intersectionNodes.add(nodeId);
+            } else {
+                referencedNodes.add(nodeId);
+            }
+            if (referenceCounting) {
+                nodeReferenceCounts.increment(nodeId);
+            }
+        }
+    }
+
+    /**
+     * Record the references from the given way to its nodes in the reverse node-way index, updating the
+     * intersection status of each of those nodes. The way should already be present in the ways table.
+     * This is used when applying diffs, and does nothing unless nodeWayIndexing is enabled.
+     */
+    public void referenceNodes(long wayId, Way way) {
+        if (!nodeWayIndexing) return;
+        waysByNode.addWay(wayId, way.nodes);
+        for (long nodeId : way.nodes) {
+            updateIntersection(nodeId);
+        }
+    }
+
+    /**
+     * Remove the references from the given way to its nodes from the reverse node-way index, updating the
+     * intersection status of each of those nodes. This is used when applying diffs, and does nothing unless
+     * nodeWayIndexing is enabled.
+     */
+    public void unreferenceNodes(long wayId, Way way) {
+        if (!nodeWayIndexing) return;
+        waysByNode.removeWay(wayId, way.nodes);
+        for (long nodeId : way.nodes) {
+            updateIntersection(nodeId);
+        }
+    }
+
+    /**
+     * Recompute whether a single node is an intersection from the reverse node-way index. As in initial loading,
+     * a node is an intersection if it is referenced more than once by ways that are not buildings.
+     */
+    private void updateIntersection(long nodeId) {
+        if (!intersectionDetection) return;
+        int[] nReferences = new int[1];
+        waysByNode.forEachWay(nodeId, wayId -> {
+            Way way = getWays().get(wayId);
+            if (way != null && !way.hasTag("building")) {
+                nReferences[0] += 1;
+            }
+            return true; // continue iteration
+        });
+        if (nReferences[0] > 1) {
+            intersectionNodes.add(nodeId);
+        } else {
+            intersectionNodes.remove(nodeId);
+        }
+        if (referenceCounting) {
+            nodeReferenceCounts.setCount(nodeId, nReferences[0]);
+        }
+        if (referencedNodes != null) {
+            if (nReferences[0] > 0) {
+                referencedNodes.add(nodeId);
+            } else {
+                referencedNodes.remove(nodeId);
+            }
+        }
+    }
+
     /** @return null if the way is not in the database and therefore can't be located. */
     private WebMercatorTile tileForWay (long wayId, Way way) {
-        if (way == null) way = ways.get(wayId); // Way object was not supplied, fetch it from the database.
+        if (way == null) way = getWays().get(wayId); // Way object was not supplied, fetch it from the database.
         if (way == null) return null; // Way does not exist anymore in the database, ignore it.
         long firstNodeId = way.nodes[0];
-        Node firstNode = this.nodes.get(firstNodeId);
+        Node firstNode = getNodes().get(firstNodeId);
         if (firstNode == null) {
             LOG.debug("Leaving way {} out of the index. It references node {} that was not (yet) provided.",
                       wayId, firstNodeId);
@@ -335,30 +480,47 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
 
     @Override
     public void setReplicationTimestamp(long secondsSinceEpoch) {
-        // TODO handle the case where multiple files are loaded (oldest timestamp should be used)
-        timestamp.set(secondsSinceEpoch);
+        // When several files are loaded at once, MergedOSMSource passes on only the oldest of their timestamps.
+        storage.setTimestamp(secondsSinceEpoch);
+    }
+
+    /** @return the timestamp in seconds since the Epoch of the last replication update applied. */
+    public long getReplicationTimestamp() {
+        return storage.getTimestamp();
+    }
+
+    /** @return the sequence number of the last replication patch applied. */
+    public long getSequenceNumber() {
+        return storage.getSequenceNumber();
+    }
+
+    public void setSequenceNumber(long sequenceNumber) {
+        storage.setSequenceNumber(sequenceNumber);
     }
 
     @Override
     public void writeNode(long id, Node node) {
-        this.nodes.put(id, node);
+        getNodes().put(id, node);
     }
 
     @Override
     public void writeWay(long id, Way way) {
-
         // Insert the way into the MapDB table.
-        this.ways.put(id, way);
+        getWays().put(id, way);
+        indexNewWay(id, way);
+    }
+
+    /** Update the optional indexes for a way that has just been loaded into the ways table. */
+    private void indexNewWay(long id, Way way) {
 
         // Optionally track which nodes are referenced by more than one way.
         if (intersectionDetection && !way.hasTag("building")) {
-            for (long nodeId : way.nodes) {
-                if (referencedNodes.contains(nodeId)) {
-                    intersectionNodes.add(nodeId);
-                } else {
-                    referencedNodes.add(nodeId);
-                }
-            }
+            detectIntersections(way);
+        }
+
+        // Optionally record which ways reference each node, so diffs can find the ways affected by a moved node.
+        if (nodeWayIndexing) {
+            waysByNode.addWay(id, way.nodes);
         }
 
         // Insert the way into the tile-based spatial index according to its first node.
@@ -370,7 +532,41 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
 
     @Override
     public void writeRelation(long id, Relation relation) {
-        this.relations.put(id, relation);
+        getRelations().put(id, relation);
+    }
+
+    @Override
+    public void writeNodes(NodeBatch batch) {
+        if (batchNodes.length < batch.size) batchNodes = new Node[batch.size];
+        for (int i = 0; i < batch.size; i++) {
+            batchNodes[i] = batch.getNode(i);
+        }
+        getNodes().putBatch(batch.ids, batchNodes, batch.size);
+        Arrays.fill(batchNodes, 0, batch.size, null);
+    }
+
+    /**
+     * The whole batch is put into the ways table at once, then the intersections, node-way index and spatial index
+     * are all updated in a single pass over the batch.
+     */
+    @Override
+    public void writeWays(WayBatch batch) {
+        if (batchWays.length < batch.size) batchWays = new Way[batch.size];
+        for (int i = 0; i < batch.size; i++) {
+            batchWays[i] = batch.getWay(i);
+        }
+        getWays().putBatch(batch.ids, batchWays, batch.size);
+        if (intersectionDetection || nodeWayIndexing || tileIndexing) {
+            for (int i = 0; i < batch.size; i++) {
+                indexNewWay(batch.ids[i], batchWays[i]);
+            }
+        }
+        Arrays.fill(batchWays, 0, batch.size, null);
+    }
+
+    @Override
+    public void writeRelations(RelationBatch batch) {
+        getRelations().putBatch(batch.ids, batch.relations, batch.size);
     }
 
     @Override
@@ -378,9 +574,38 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
         // Do nothing.
     }
 
-    /** Close the database file to ensure clean shutdown and avoid leaving the async write thread running. */
+    /**
+     * Put a read-through cache of recently used entities in front of each of the nodes, ways and relations tables,
+     * so that entities fetched repeatedly (e.g. by extracts of popular areas) are not deserialized on every fetch.
+     * Each table gets its own cache with the given limits. Writes through these maps (including those made when
+     * applying diffs) invalidate the cached entities. This has no effect if the tables are already cached.
+     *
+     * @param maxEntries the maximum number of entities of each type to keep in memory.
+     * @param maxBytes the maximum estimated number of bytes used by the cached entities of each type.
+     */
+    public void enableEntityCache (int maxEntries, long maxBytes) {
+        if (nodes instanceof EntityCache) return;
+        nodes = new EntityCache<>(getNodes(), maxEntries, maxBytes);
+        ways = new EntityCache<>(getWays(), maxEntries, maxBytes);
+        relations = new EntityCache<>(getRelations(), maxEntries, maxBytes);
+        LOG.info("Caching up to {} entities or {} MB of each type.", maxEntries, maxBytes / 1024 / 1024);
+    }
+
+    /**
+     * Log the hit and miss statistics of the entity caches at debug level, if they are enabled. This is cheap enough
+     * to call after every extract, as the statistics are only gathered when debug logging is on.
+     */
+    public void logCacheStatistics () {
+        if (nodes instanceof EntityCache && LOG.isDebugEnabled()) {
+            LOG.debug("Node cache: {}", nodes);
+            LOG.debug("Way cache: {}", ways);
+            LOG.debug("Relation cache: {}", relations);
+        }
+    }
+
+    /** Close the storage to ensure clean shutdown, e.g. to avoid leaving the MapDB async write thread running. */
     public void close() {
-        db.close();
+        storage.close();
     }
 
 }
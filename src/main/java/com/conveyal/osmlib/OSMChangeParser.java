@@ -74,30 +74,60 @@ public class OSMChangeParser extends DefaultHandler {
             return;
         } else if (qName.equalsIgnoreCase("NODE")) {
             if (inDelete) {
-                osm.nodes.remove(id);
+                osm.getNodes().remove(id);
             } else {
-                osm.nodes.put(id, (Node) entity);
+                Node node = (Node) entity;
+                if (osm.nodeWayIndexing) {
+                    unIndexWaysForMovedNode(id, node);
+                }
+                osm.getNodes().put(id, node);
             }
         } else if (qName.equalsIgnoreCase("WAY")) {
+            // Remove any previous version of the way from the indexes before replacing or removing it.
+            // This allows the unindex methods to locate the way using its old first node.
+            Way oldWay = osm.getWays().get(id);
+            if (oldWay != null) {
+                osm.unIndexWay(id, oldWay);
+                osm.unreferenceNodes(id, oldWay);
+            }
             if (inDelete) {
-                // Remove from index before removing the way itself. This allows the remove method to locate the way.
-                osm.unIndexWay(id);
-                osm.ways.remove(id);
+                osm.getWays().remove(id);
             } else {
                 Way way = ((Way)entity);
                 way.nodes = nodeRefs.toArray();
-                osm.ways.put(id, way);
+                osm.getWays().put(id, way);
+                osm.referenceNodes(id, way);
                 waysModified.add(id); // record that this way was modified for later re-indexing.
             }
         } else if (qName.equalsIgnoreCase("RELATION")) {
             if (inDelete) {
-                osm.relations.remove(id);
+                osm.getRelations().remove(id);
             } else {
-                osm.relations.put(id, (Relation) entity);
+                osm.getRelations().put(id, (Relation) entity);
             }
         }
     }
 
+    /**
+     * If the given node is being moved, remove all ways that begin at that node from the spatial index while the
+     * node is still at its old location, and record them for re-indexing at the end of the diff.
+     */
+    private void unIndexWaysForMovedNode(long nodeId, Node node) {
+        Node oldNode = osm.getNodes().get(nodeId);
+        if (oldNode == null || (oldNode.fixedLat == node.fixedLat && oldNode.fixedLon == node.fixedLon)) {
+            return;
+        }
+        osm.waysByNode.forEachWay(nodeId, wayId -> {
+            Way way = osm.getWays().get(wayId);
+            // Ways are indexed according to their first node only.
+            if (way != null && way.nodes.length > 0 && way.nodes[0] == nodeId) {
+                osm.unIndexWay(wayId, way);
+                waysModified.add(wayId);
+            }
+            return true; // continue iteration
+        });
+    }
+
     @Override
     public void startDocument() {
         waysModified.clear();
@@ -110,9 +140,8 @@ public class OSMChangeParser extends DefaultHandler {
         // After the entire diff has been applied, re-index all the ways that were added or modified.
         if (!waysModified.isEmpty()) {
             LOG.debug("Indexing modified ways...");
+            // The old versions of these ways were already removed from the index as the diff was applied.
             for (int w = 0; w < waysModified.size(); w++) {
-                // TODO unless we are doing snapshots and transactions, we should unindex after indexing the new one?
-                osm.unIndexWay(id);
                 osm.indexWay(waysModified.get(w), null);
             }
         }
@@ -1,9 +1,8 @@
 package com.conveyal.osmlib;
 
-import com.beust.jcommander.internal.Lists;
-
 import java.io.Serializable;
 import java.util.List;
+import java.util.Objects;
 
 public abstract class OSMEntity implements Serializable {
 
@@ -13,10 +12,18 @@ public abstract class OSMEntity implements Serializable {
         NODE, WAY, RELATION;
     }
 
+    /**
+     * The tags on this entity, or null if it has none. Tags added through addTag() are held in a compact TagList.
+     * Tags are immutable, so a tag is changed by replacing it with tags.set().
+     */
     public List<Tag> tags;
 
+    /**
+     * An immutable key-value pair. A TagList does not hold Tag objects but builds them on demand, so changing a tag
+     * in place could not change the list it came from.
+     */
     public static class Tag implements Serializable {
-        public String key, value;
+        public final String key, value;
         public Tag (String key, String value) {
             this.key = key;
             this.value = value != null ? value : "";
@@ -34,11 +41,19 @@ public abstract class OSMEntity implements Serializable {
             return this.key.equals(otherTag.key) && this.value.equals(otherTag.value);
         }
 
+        @Override
+        public int hashCode () {
+            return Objects.hash(key, value);
+        }
+
     }
 
     /** Return the tag value for the given key. Returns null if the tag key is not present. */
     public String getTag(String key) {
         if (tags == null) return null;
+        if (tags instanceof TagList) {
+            return ((TagList) tags).getValue(key);
+        }
         for (Tag tag : tags) {
             if (tag.key.equals(key)) {
                 return tag.value;
@@ -83,18 +98,23 @@ public abstract class OSMEntity implements Serializable {
 
     public void addTag (String key, String value) {
         if (tags == null) {
-            tags = Lists.newArrayList();
+            tags = new TagList();
+        }
+        if (tags instanceof TagList) {
+            ((TagList) tags).add(key, value);
+        } else {
+            tags.add(new Tag(key, value));
         }
-        tags.add(new Tag(key, value));
     }
 
     public void addOrReplaceTag (String key, String value) {
         if (tags == null) {
-            tags = Lists.newArrayList();
+            tags = new TagList();
         }
-        for (Tag tag : tags) {
+        for (int i = 0; i < tags.size(); i++) {
+            Tag tag = tags.get(i);
             if (tag.key.equalsIgnoreCase(key)) {
-                tag.value = value;
+                tags.set(i, new Tag(tag.key, value));
                 return;
             }
         }
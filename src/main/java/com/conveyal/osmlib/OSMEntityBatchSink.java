@@ -0,0 +1,68 @@
+package com.conveyal.osmlib;
+
+import java.io.IOException;
+
+/**
+ * A sink receiving whole blocks of entities at once in columnar batches, rather than one call per entity. This lets
+ * a sink amortize its work over a block, e.g. by sorting the block before inserting it or encoding a column at a time.
+ * Sources produce one batch per decoded block. Batches are reused, so a batch is only valid during the call it is
+ * passed to. Batches arrive in the same order as entities do with OSMEntitySink: nodes, then ways, then relations.
+ *
+ * Any OSMEntitySink can receive batches through forSink(), and any batch sink can receive single entities through a
+ * BatchingSink.
+ */
+public interface OSMEntityBatchSink {
+
+    public void writeBegin() throws IOException;
+
+    public void setReplicationTimestamp(long secondsSinceEpoch);
+
+    public void writeNodes(NodeBatch nodes) throws IOException;
+
+    public void writeWays(WayBatch ways) throws IOException;
+
+    public void writeRelations(RelationBatch relations) throws IOException;
+
+    public void writeEnd() throws IOException;
+
+    /**
+     * @return a batch sink that passes the entities in each batch one by one to the given ordinary sink, or the sink
+     * itself if it can already receive batches.
+     */
+    public static OSMEntityBatchSink forSink (OSMEntitySink sink) {
+        if (sink instanceof OSMEntityBatchSink) return (OSMEntityBatchSink) sink;
+        return new OSMEntityBatchSink() {
+            @Override
+            public void writeBegin() throws IOException {
+                sink.writeBegin();
+            }
+            @Override
+            public void setReplicationTimestamp(long secondsSinceEpoch) {
+                sink.setReplicationTimestamp(secondsSinceEpoch);
+            }
+            @Override
+            public void writeNodes(NodeBatch nodes) throws IOException {
+                for (int i = 0; i < nodes.size; i++) {
+                    sink.writeNode(nodes.ids[i], nodes.getNode(i));
+                }
+            }
+            @Override
+            public void writeWays(WayBatch ways) throws IOException {
+                for (int i = 0; i < ways.size; i++) {
+                    sink.writeWay(ways.ids[i], ways.getWay(i));
+                }
+            }
+            @Override
+            public void writeRelations(RelationBatch relations) throws IOException {
+                for (int i = 0; i < relations.size; i++) {
+                    sink.writeRelation(relations.ids[i], relations.relations[i]);
+                }
+            }
+            @Override
+            public void writeEnd() throws IOException {
+                sink.writeEnd();
+            }
+        };
+    }
+
+}
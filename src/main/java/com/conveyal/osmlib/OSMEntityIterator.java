@@ -0,0 +1,206 @@
+package com.conveyal.osmlib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+/**
+ * A pull-based iterator over the entities of a push-based OSMEntitySource. The source is run in a background thread
+ * that pushes one block of entities at a time (a batch from copyBatchesTo) into a short queue, so the source reads
+ * ahead a little while the consumer works, and stops when the queue is full.
+ *
+ * If iteration is abandoned before the end, close() must be called to stop the background thread. The spliterator()
+ * of this iterator splits on block boundaries, so parallel streams process whole blocks on different cores.
+ */
+public class OSMEntityIterator implements Iterator<EntityRecord>, Closeable {
+
+    /** The number of decoded blocks the source may read ahead of the consumer. */
+    private static final int QUEUE_BLOCKS = 4;
+
+    private static final EntityRecord[] END = new EntityRecord[0];
+
+    private final BlockingQueue<EntityRecord[]> queue = new ArrayBlockingQueue<>(QUEUE_BLOCKS);
+
+    private final Thread thread;
+
+    /** An exception thrown by the source, to be rethrown in the consuming thread once earlier blocks are consumed. */
+    private volatile Throwable error = null;
+
+    private EntityRecord[] block = END;
+
+    private int position = 0;
+
+    private boolean finished = false;
+
+    public OSMEntityIterator (OSMEntitySource source) {
+        thread = new Thread(() -> {
+            try {
+                source.copyBatchesTo(new QueueingSink());
+            } catch (CancellationException e) {
+                return; // The iterator was closed.
+            } catch (Throwable t) {
+                error = t;
+            }
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                // The iterator was closed, nobody is waiting for the end.
+            }
+        }, "osm-entity-iterator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Converts each batch from the source into an array of records and queues it up for the consumer. */
+    private class QueueingSink implements OSMEntityBatchSink {
+
+        /**
+         * This throws an unchecked exception when the iterator is closed, because some sources catch and log
+         * IOExceptions from their sink and carry on reading.
+         */
+        private void put (EntityRecord[] records) {
+            try {
+                queue.put(records);
+            } catch (InterruptedException e) {
+                throw new CancellationException("OSM entity iterator was closed.");
+            }
+        }
+
+        @Override
+        public void writeBegin () {
+            // Do nothing.
+        }
+
+        @Override
+        public void setReplicationTimestamp (long secondsSinceEpoch) {
+            // Do nothing.
+        }
+
+        @Override
+        public void writeNodes (NodeBatch nodes) {
+            EntityRecord[] records = new EntityRecord[nodes.size];
+            for (int i = 0; i < nodes.size; i++) {
+                records[i] = new EntityRecord(nodes.ids[i], nodes.getNode(i));
+            }
+            put(records);
+        }
+
+        @Override
+        public void writeWays (WayBatch ways) {
+            EntityRecord[] records = new EntityRecord[ways.size];
+            for (int i = 0; i < ways.size; i++) {
+                records[i] = new EntityRecord(ways.ids[i], ways.getWay(i));
+            }
+            put(records);
+        }
+
+        @Override
+        public void writeRelations (RelationBatch relations) {
+            EntityRecord[] records = new EntityRecord[relations.size];
+            for (int i = 0; i < relations.size; i++) {
+                records[i] = new EntityRecord(relations.ids[i], relations.relations[i]);
+            }
+            put(records);
+        }
+
+        @Override
+        public void writeEnd () {
+            // Do nothing, the end marker is queued once the source returns.
+        }
+
+    }
+
+    /** Wait for the next block from the source. @return the block, or null if there are no more blocks. */
+    private EntityRecord[] takeBlock () {
+        if (finished) return null;
+        EntityRecord[] records;
+        try {
+            records = queue.take();
+        } catch (InterruptedException e) {
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for OSM entities."));
+        }
+        if (records == END) {
+            finished = true;
+            if (error instanceof IOException) {
+                throw new UncheckedIOException((IOException) error);
+            } else if (error != null) {
+                throw new RuntimeException("Error occurred while reading OSM entities.", error);
+            }
+            return null;
+        }
+        return records;
+    }
+
+    /** @return the rest of the current block if any remains, otherwise the next block, or null at the end. */
+    EntityRecord[] nextBlock () {
+        if (position < block.length) {
+            EntityRecord[] rest = Arrays.copyOfRange(block, position, block.length);
+            position = block.length;
+            return rest;
+        }
+        return takeBlock();
+    }
+
+    @Override
+    public boolean hasNext () {
+        while (position >= block.length) {
+            EntityRecord[] next = takeBlock();
+            if (next == null) return false;
+            block = next;
+            position = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public EntityRecord next () {
+        if (!hasNext()) throw new NoSuchElementException();
+        return block[position++];
+    }
+
+    /**
+     * @return a spliterator over the remaining entities. Splitting it hands off the next whole block, so parallel
+     * streams process separate blocks on separate cores while this iterator's thread keeps decoding.
+     */
+    public Spliterator<EntityRecord> spliterator () {
+        return new Spliterator<EntityRecord>() {
+            @Override
+            public boolean tryAdvance (Consumer<? super EntityRecord> action) {
+                if (!hasNext()) return false;
+                action.accept(next());
+                return true;
+            }
+            @Override
+            public Spliterator<EntityRecord> trySplit () {
+                EntityRecord[] records = nextBlock();
+                return records == null ? null : Spliterators.spliterator(records, characteristics());
+            }
+            @Override
+            public long estimateSize () {
+                return Long.MAX_VALUE;
+            }
+            @Override
+            public int characteristics () {
+                return ORDERED | NONNULL | IMMUTABLE;
+            }
+        };
+    }
+
+    /** Stop reading the source. Iterating further has undefined results. */
+    @Override
+    public void close () {
+        finished = true;
+        thread.interrupt();
+    }
+
+}
@@ -5,6 +5,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An interface for classes that read in OSM entities from somewhere and pipe them into an OSMEntitySink.
@@ -16,6 +18,31 @@ public interface OSMEntitySource {
     /** Read the OSM entities from this source and pump them through to the sink. */
     public abstract void copyTo (OSMEntitySink sink) throws IOException;
 
+    /**
+     * Read the OSM entities from this source and pump them through to the given sink in batches. Sources that decode
+     * blocks of entities hand each block through whole, the others have their entities grouped by a BatchingSink.
+     */
+    public default void copyBatchesTo (OSMEntityBatchSink sink) throws IOException {
+        copyTo(new BatchingSink(sink));
+    }
+
+    /**
+     * @return a pull-based iterator over the entities of this source, which is read in a background thread.
+     * The iterator must be closed if it is not read to the end.
+     */
+    public default OSMEntityIterator iterator () {
+        return new OSMEntityIterator(this);
+    }
+
+    /**
+     * @return a stream of the entities of this source, nodes then ways then relations. Parallel streams split the
+     * entities on block boundaries. The stream must be closed if it is not consumed to the end, e.g. with anyMatch.
+     */
+    public default Stream<EntityRecord> stream () {
+        OSMEntityIterator iterator = iterator();
+        return StreamSupport.stream(iterator.spliterator(), false).onClose(iterator::close);
+    }
+
     public static OSMEntitySource forUrl (String urlString) {
         try {
             URL url = new URL(urlString);
@@ -0,0 +1,176 @@
+package com.conveyal.osmlib;
+
+import java.util.Arrays;
+
+/**
+ * A lightweight, reusable view of one OSM entity that is still in its encoded form, in the buffer of a decompressed
+ * VEX block. Only the position of each field is recorded when the view is moved onto an entity, and the tags (and
+ * relation members) are only decoded when they are accessed. Sinks that look at only a few fields of each entity,
+ * such as filters and counters, then allocate next to nothing per entity.
+ *
+ * A single view instance is moved from one entity to the next, so a view is only valid until the sink method it was
+ * passed to returns. Call copy() to obtain an ordinary entity that can be retained.
+ */
+public abstract class OSMEntityView {
+
+    final VarIntBuffer in = new VarIntBuffer();
+
+    /** The decompressed block containing the entity in view. */
+    byte[] data;
+
+    /** The string table of that block, or null if the block has its strings inline (VEX version 1). */
+    private String[] strings;
+
+    private long id;
+
+    /** The position of the tag count of the current entity in the data. */
+    private int tagsPosition;
+
+    /** Keys and values of the current entity interleaved, once decoded. A negative nTags means not decoded yet. */
+    private String[] tagStrings = new String[16];
+
+    private int nTags = -1;
+
+    // Views are only created by sources in this package.
+    OSMEntityView () { }
+
+    /** Move this view onto another entity. Called by the source as it scans through a block. */
+    void reset (byte[] data, long id, int tagsPosition) {
+        this.data = data;
+        this.id = id;
+        this.tagsPosition = tagsPosition;
+        this.nTags = -1;
+    }
+
+    /** Set the string table of the block the following entities are in. Called by the source at each block. */
+    void setStrings (String[] strings) {
+        this.strings = strings;
+    }
+
+    /* Strings are read through these methods, which handle both inline strings and indexes into the string table. */
+
+    String readString () {
+        return strings == null ? in.readString() : strings[in.readUInt32()];
+    }
+
+    void skipString () {
+        if (strings == null) {
+            in.skipString();
+        } else {
+            in.readUInt32();
+        }
+    }
+
+    boolean readStringEquals (String other) {
+        return strings == null ? in.readStringEquals(other) : other.equals(strings[in.readUInt32()]);
+    }
+
+    public long getId () {
+        return id;
+    }
+
+    public abstract OSMEntity.Type getType ();
+
+    /** @return a new entity with all the fields of the one currently in view, which may be retained. */
+    public abstract OSMEntity copy ();
+
+    private void decodeTags () {
+        if (nTags >= 0) return;
+        in.reset(data, tagsPosition);
+        int n = in.readUInt32();
+        if (tagStrings.length < n * 2) {
+            tagStrings = new String[n * 2];
+        }
+        for (int i = 0; i < n * 2; i++) {
+            tagStrings[i] = readString();
+        }
+        nTags = n;
+    }
+
+    public int getTagCount () {
+        if (nTags >= 0) return nTags;
+        in.reset(data, tagsPosition);
+        return in.readUInt32();
+    }
+
+    public boolean hasNoTags () {
+        return getTagCount() == 0;
+    }
+
+    public String getTagKey (int i) {
+        decodeTags();
+        if (i >= nTags) throw new IndexOutOfBoundsException();
+        return tagStrings[i * 2];
+    }
+
+    public String getTagValue (int i) {
+        decodeTags();
+        if (i >= nTags) throw new IndexOutOfBoundsException();
+        return tagStrings[i * 2 + 1];
+    }
+
+    /**
+     * @return true if the entity has a tag with the given key. Unless the tags have already been decoded, this
+     * compares the key against the encoded bytes (or the block's string table) without decoding any strings.
+     */
+    public boolean hasTag (String key) {
+        return findTag(key) >= 0;
+    }
+
+    /** @return the value of the tag with the given key, or null if there is no such tag. */
+    public String getTag (String key) {
+        int position = findTag(key);
+        if (position < 0) return null;
+        if (nTags >= 0) return tagStrings[position * 2 + 1];
+        in.reset(data, position);
+        return readString();
+    }
+
+    /** @return true if the entity has the given tag, comparing the encoded bytes where possible. */
+    public boolean hasTag (String key, String value) {
+        int position = findTag(key);
+        if (position < 0) return false;
+        if (nTags >= 0) return value.equals(tagStrings[position * 2 + 1]);
+        in.reset(data, position);
+        return readStringEquals(value);
+    }
+
+    /**
+     * @return if the tags are already decoded, the index of the tag with the given key. Otherwise the position in the
+     * data of the value of that tag. In both cases a negative number if the entity has no such tag.
+     */
+    private int findTag (String key) {
+        if (nTags >= 0) {
+            for (int i = 0; i < nTags; i++) {
+                if (key.equals(tagStrings[i * 2])) return i;
+            }
+            return -1;
+        }
+        in.reset(data, tagsPosition);
+        int n = in.readUInt32();
+        for (int i = 0; i < n; i++) {
+            if (readStringEquals(key)) return in.position();
+            skipString();
+        }
+        return -1;
+    }
+
+    /** Copy the tags of the entity in view onto the given entity. */
+    void copyTagsTo (OSMEntity entity) {
+        decodeTags();
+        if (nTags > 0) {
+            TagList tags = new TagList(nTags);
+            for (int i = 0; i < nTags; i++) {
+                tags.add(tagStrings[i * 2], tagStrings[i * 2 + 1]);
+            }
+            entity.tags = tags;
+        }
+    }
+
+    @Override
+    public String toString () {
+        decodeTags();
+        return String.format("%s %d %s", getType(), id, Arrays.asList(tagStrings).subList(0, nTags * 2));
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.conveyal.osmlib;
+
+import java.io.IOException;
+
+/**
+ * A sink receiving entities as views of their encoded form rather than as entity objects, which avoids materializing
+ * entities whose fields the sink will never read. The views are reused, so a view is only valid during the call it is
+ * passed to. Call copy() on a view to keep the entity. Entities arrive in the same order as with OSMEntitySink.
+ */
+public interface OSMEntityViewSink {
+
+    public void writeBegin() throws IOException;
+
+    public void setReplicationTimestamp(long secondsSinceEpoch);
+
+    public void writeNode(NodeView node) throws IOException;
+
+    public void writeWay(WayView way) throws IOException;
+
+    public void writeRelation(RelationView relation) throws IOException;
+
+    public void writeEnd() throws IOException;
+
+    /** @return a view sink that copies every entity it receives into the given ordinary sink. */
+    public static OSMEntityViewSink copying (OSMEntitySink sink) {
+        return new OSMEntityViewSink() {
+            @Override
+            public void writeBegin() throws IOException {
+                sink.writeBegin();
+            }
+            @Override
+            public void setReplicationTimestamp(long secondsSinceEpoch) {
+                sink.setReplicationTimestamp(secondsSinceEpoch);
+            }
+            @Override
+            public void writeNode(NodeView node) throws IOException {
+                sink.writeNode(node.getId(), node.copy());
+            }
+            @Override
+            public void writeWay(WayView way) throws IOException {
+                sink.writeWay(way.getId(), way.copy());
+            }
+            @Override
+            public void writeRelation(RelationView relation) throws IOException {
+                sink.writeRelation(relation.getId(), relation.copy());
+            }
+            @Override
+            public void writeEnd() throws IOException {
+                sink.writeEnd();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.conveyal.osmlib;
+
+import org.mapdb.Fun;
+import org.mapdb.Fun.Tuple3;
+
+import java.util.NavigableSet;
+
+/**
+ * The tables behind an OSM object: the entities themselves, the spatial and reverse indexes over them, and a little
+ * metadata about replication. OSM does not care how these are stored, so the storage can be chosen to suit the
+ * workload (e.g. a MapDB file for a whole planet, or plain heap collections for a small extract) or benchmarked
+ * against alternatives without changing any other code.
+ *
+ * The relation reverse indexes contain (memberId, relationId) tuples, and must be kept up to date by the storage
+ * itself whenever a relation is put into or removed from the relations table.
+ */
+public interface OSMStorage {
+
+    EntityMap<Node> getNodes();
+
+    EntityMap<Way> getWays();
+
+    EntityMap<Relation> getRelations();
+
+    /** A tile-based spatial index of (x_tile, y_tile, wayId) tuples. This is maintained by OSM, not the storage. */
+    NavigableSet<Tuple3<Integer, Integer, Long>> getSpatialIndex();
+
+    /** An index of which relations reference a way. */
+    NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByWay();
+
+    /** An index of which relations reference a node. */
+    NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByNode();
+
+    /** An index of which relations reference a relation. */
+    NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByRelation();
+
+    /** @return the timestamp in seconds since the Epoch of the last replication update applied. */
+    long getTimestamp();
+
+    void setTimestamp(long secondsSinceEpoch);
+
+    /** @return the sequence number of the last replication patch applied. */
+    long getSequenceNumber();
+
+    void setSequenceNumber(long sequenceNumber);
+
+    /** @return true if this storage was opened on data that already existed, which should not be loaded again. */
+    boolean isReopened();
+
+    /** Release any resources held by this storage, such as open files and background threads. */
+    void close();
+
+}
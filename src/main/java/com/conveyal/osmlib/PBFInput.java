@@ -13,8 +13,13 @@ package com.conveyal.osmlib;
  */
 
 import com.conveyal.osmlib.OSMEntity.Type;
+import com.conveyal.osmlib.metrics.Counter;
+import com.conveyal.osmlib.metrics.MeteredInputStream;
+import com.conveyal.osmlib.metrics.Metrics;
+import com.conveyal.osmlib.metrics.Timer;
 import org.openstreetmap.osmosis.osmbinary.BinaryParser;
 import org.openstreetmap.osmosis.osmbinary.Osmformat;
+import org.openstreetmap.osmosis.osmbinary.file.FileBlock;
 import org.openstreetmap.osmosis.osmbinary.file.BlockInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,14 +42,23 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
     private long wayCount = 0;
     private long relationCount = 0;
     private InputStream inputStream;
-    private OSMEntitySink entitySink;
+    private OSMEntityBatchSink entitySink;
+
+    /* Each block of entities is decoded into one of these batches, which are reused from one block to the next. */
+    private final NodeBatch nodeBatch = new NodeBatch();
+    private final WayBatch wayBatch = new WayBatch();
+    private final RelationBatch relationBatch = new RelationBatch();
+
+    private final SourceMetrics metrics = new SourceMetrics();
+    private final Counter blocksRead = Metrics.counter("pbf.blocks");
+    private final Timer blockDecode = Metrics.timer("pbf.block_decode");
 
     private static final String[] retainKeys = new String[] {
         "highway", "parking", "bicycle", "name"
     };
 
     public PBFInput(InputStream inputStream) {
-        this.inputStream = inputStream;
+        this.inputStream = new MeteredInputStream(inputStream, Metrics.counter("pbf.bytes_read"));
     }
 
     // Accepting all tags increases size by about 15 percent when storing all elements.
@@ -72,7 +86,11 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
                     String val = getStringById(n.getVals(k));
                     if (retainTag(key)) node.addTag(key, val);
                 }
-                entitySink.writeNode(n.getId(), node);
+                nodeBatch.add(n.getId(), node);
+            }
+            // The parser calls this for every primitive group, most of which contain no plain nodes.
+            if (nodeBatch.size > 0) {
+                metrics.writeNodes(entitySink, nodeBatch);
             }
         } catch (IOException ex) {
             LOG.error("An I/O exception occurred in the OSM entity sink.");
@@ -82,7 +100,8 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
 
     /**
      * Nodes are usually stored this way. Dense nodes use parallel arrays (a column store) to defeat typical
-     * Protobuf message structure.
+     * Protobuf message structure. The nodes are decoded straight into the columns of a NodeBatch, without creating
+     * Node objects, and the whole block is handed to the sink at once.
      */
     @Override
     protected void parseDense(Osmformat.DenseNodes nodes) {
@@ -93,14 +112,13 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
                 if (nodeCount++ % 5000000 == 0) {
                     LOG.info("node {}", human(nodeCount));
                 }
-                Node node = new Node();
                 long id = nodes.getId(n) + lastId;
                 long lat = nodes.getLat(n) + lastLat;
                 long lon = nodes.getLon(n) + lastLon;
                 lastId = id;
                 lastLat = lat;
                 lastLon = lon;
-                node.setLatLon(parseLat(lat), parseLon(lon));
+                TagList tags = null;
                 // Check whether any node has tags.
                 if (nodes.getKeysValsCount() > 0) {
                     while (nodes.getKeysVals(kv) != 0) {
@@ -108,11 +126,18 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
                         int vid = nodes.getKeysVals(kv++);
                         String key = getStringById(kid);
                         String val = getStringById(vid);
-                        if (retainTag(key)) node.addTag(key, val);
+                        if (retainTag(key)) {
+                            if (tags == null) tags = new TagList();
+                            tags.add(key, val);
+                        }
                     }
                     kv++; // Skip over the '0' delimiter.
                 }
-                entitySink.writeNode(id, node);
+                // Same conversion to fixed precision as Node.setLatLon.
+                nodeBatch.add(id, (int) (parseLat(lat) * 1e7), (int) (parseLon(lon) * 1e7), tags);
+            }
+            if (nodeBatch.size > 0) {
+                metrics.writeNodes(entitySink, nodeBatch);
             }
         } catch (IOException ex) {
             LOG.error("An I/O exception occurred in the OSM entity sink.");
@@ -143,7 +168,10 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
                     nodes[n] = ref;
                 }
                 way.nodes = nodes;
-                entitySink.writeWay(w.getId(), way);
+                wayBatch.add(w.getId(), way);
+            }
+            if (wayBatch.size > 0) {
+                metrics.writeWays(entitySink, wayBatch);
             }
         } catch (IOException ex) {
             LOG.error("An I/O exception occurred in the OSM entity sink.");
@@ -187,7 +215,10 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
                     }
                     rel.members.add(member);
                 }
-                entitySink.writeRelation(r.getId(), rel);
+                relationBatch.add(r.getId(), rel);
+            }
+            if (relationBatch.size > 0) {
+                metrics.writeRelations(entitySink, relationBatch);
             }
         } catch (IOException ex) {
             LOG.error("An I/O exception occurred in the OSM entity sink.");
@@ -195,6 +226,18 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
         }
     }
 
+    /**
+     * The parser has already inflated the block when this is called, so the time recorded is that of decoding the
+     * protobuf messages and writing the entities to the sink.
+     */
+    @Override
+    public void handleBlock(FileBlock message) {
+        long start = blockDecode.start();
+        super.handleBlock(message);
+        blockDecode.stop(start);
+        blocksRead.increment();
+    }
+
     @Override
     public void parse(Osmformat.HeaderBlock block) {
         for (String s : block.getRequiredFeaturesList()) {
@@ -232,6 +275,12 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
 
     @Override
     public void copyTo(OSMEntitySink sink) throws IOException {
+        copyBatchesTo(OSMEntityBatchSink.forSink(sink));
+    }
+
+    /** Read the OSM entities from this source and pass them to the given sink, one batch per PBF block. */
+    @Override
+    public void copyBatchesTo(OSMEntityBatchSink sink) throws IOException {
         entitySink = sink;
         entitySink.writeBegin();
         new BlockInputStream(inputStream, this).process();
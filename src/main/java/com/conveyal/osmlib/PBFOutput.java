@@ -1,5 +1,6 @@
 package com.conveyal.osmlib;
 
+import com.conveyal.osmlib.metrics.FlightEvents;
 import com.google.common.primitives.Ints;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.GeneratedMessageV3;
@@ -11,7 +12,6 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.concurrent.SynchronousQueue;
-import java.util.zip.Deflater;
 
 /**
  * Consumes OSM entity objects and writes a stream of PBF data blocks to the specified output stream.
@@ -45,11 +45,26 @@ public class PBFOutput implements OSMEntitySink, Runnable {
 
     private Thread writerThread = null;
 
+    /** Compresses the blobs. PBF only allows deflate (zlib_data) or storing them uncompressed (raw). */
+    private BlockCodec codec = BlockCodec.DEFLATE;
+
     /** Construct a new PBF output encoder which writes to the given downstream OutputStream. */
     public PBFOutput(OutputStream downstream) {
         this.downstream = downstream;
     }
 
+    /**
+     * Choose how blobs are compressed: deflate at any level (the default level unless otherwise chosen), or
+     * BlockCodec.STORE to leave them uncompressed. PBF readers do not all accept other codecs, so they are refused.
+     * Must be called before writing begins.
+     */
+    public void setCodec(BlockCodec codec) {
+        if (codec.getId() != BlockCodec.DEFLATE_ID && codec.getId() != BlockCodec.STORE_ID) {
+            throw new IllegalArgumentException("PBF blobs can only be deflated or stored, not compressed with " + codec);
+        }
+        this.codec = codec;
+    }
+
     /** Reset the inter-entity delta coding values and set up a new block. */
     private void beginBlock(OSMEntity.Type eType) throws IOException {
         prevId = prevFixedLat = prevFixedLon = nEntitiesInBlock = 0;
@@ -83,6 +98,7 @@ public class PBFOutput implements OSMEntitySink, Runnable {
     private void writeOneBlob(GeneratedMessageV3 block) {
 
         // FIXME lotsa big copies going on here
+        Object event = FlightEvents.beginBlobWrite();
 
         String blobTypeString;
         if (block instanceof Osmformat.HeaderBlock) {
@@ -95,10 +111,16 @@ public class PBFOutput implements OSMEntitySink, Runnable {
 
         Fileformat.Blob.Builder blobBuilder = Fileformat.Blob.newBuilder();
         byte[] serializedBlock = block.toByteArray();
-        byte[] deflatedBlock = new byte[serializedBlock.length];
-        int deflatedSize = deflate(serializedBlock, deflatedBlock);
+        int deflatedSize = -1;
+        byte[] deflatedBlock = null;
+        if (codec.getId() == BlockCodec.DEFLATE_ID) {
+            deflatedBlock = new byte[serializedBlock.length];
+            deflatedSize = codec.compress(serializedBlock, serializedBlock.length, deflatedBlock);
+            if (deflatedSize < 0) {
+                LOG.debug("Deflate did not reduce the size of a block. Saving it uncompressed.");
+            }
+        }
         if (deflatedSize < 0) {
-            LOG.debug("Deflate did not reduce the size of a block. Saving it uncompressed.");
             blobBuilder.setRaw(ByteString.copyFrom(serializedBlock));
         } else {
             blobBuilder.setZlibData(ByteString.copyFrom(deflatedBlock, 0, deflatedSize));
@@ -117,7 +139,22 @@ public class PBFOutput implements OSMEntitySink, Runnable {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        if (event != null) {
+            FlightEvents.commitBlobWrite(event, blobTypeString, countEntities(block), serializedBlock.length,
+                    serializedBlob.length);
+        }
+
+    }
 
+    private static int countEntities(GeneratedMessageV3 block) {
+        int n = 0;
+        if (block instanceof Osmformat.PrimitiveBlock) {
+            for (Osmformat.PrimitiveGroup group : ((Osmformat.PrimitiveBlock) block).getPrimitivegroupList()) {
+                n += group.getDense().getIdCount() + group.getNodesCount() + group.getWaysCount()
+                        + group.getRelationsCount();
+            }
+        }
+        return n;
     }
 
     /**
@@ -136,25 +173,20 @@ public class PBFOutput implements OSMEntitySink, Runnable {
     }
 
     /**
-     * Deflate the given input data buffer into the given output byte buffer.
-     * Used in both PBF and VEX output.
+     * Deflate the given input data buffer into the given output byte buffer, at the default level.
+     * See BlockCodec for other levels and codecs.
      * @return the deflated size of the data, or -1 if deflate did not reduce the data size.
      */
     public static int deflate (byte[] input, byte[] output) {
-        int pos = 0;
-        // Do not compress an empty data block, it will spin forever trying to fill the zero-length output buffer.
-        if (input.length > 0) {
-            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, false); // include gzip header and checksum
-            deflater.setInput(input, 0, input.length);
-            deflater.finish(); // There will be no more input after this byte array.
-            while (!deflater.finished()) {
-                pos += deflater.deflate(output, pos, output.length - pos, Deflater.SYNC_FLUSH);
-                if (pos >= input.length) {
-                    return -1; // compressed output is bigger than buffer, store uncompressed
-                }
-            }
-        }
-        return pos;
+        return deflate(input, input.length, output);
+    }
+
+    /**
+     * Deflate the first length bytes of the input into the output array.
+     * @return the number of compressed bytes, or -1 if they would not fit in the output array.
+     */
+    public static int deflate (byte[] input, int length, byte[] output) {
+        return BlockCodec.DEFLATE.compress(input, length, output);
     }
 
     /* OSM DATA SINK INTERFACE */
@@ -218,9 +250,8 @@ public class PBFOutput implements OSMEntitySink, Runnable {
         /* Tags for a whole dense node block are stored as: key, val, key, val, 0, key, val, key, val, 0 */
         if (node.tags != null) {
             for (OSMEntity.Tag tag : node.tags) {
-                if (tag.value == null) tag.value = "";
                 int keyCode = stringTable.getCode(tag.key);
-                int valCode = stringTable.getCode(tag.value);
+                int valCode = stringTable.getCode(tag.value == null ? "" : tag.value);
                 denseNodesBuilder.addKeysVals(keyCode);
                 denseNodesBuilder.addKeysVals(valCode);
             }
@@ -238,9 +269,8 @@ public class PBFOutput implements OSMEntitySink, Runnable {
         /* Tags */
         if (way.tags != null) {
             for (OSMEntity.Tag tag : way.tags) {
-                if (tag.value == null) tag.value = "";
                 builder.addKeys(stringTable.getCode(tag.key));
-                builder.addVals(stringTable.getCode(tag.value));
+                builder.addVals(stringTable.getCode(tag.value == null ? "" : tag.value));
             }
         }
 
@@ -265,9 +295,8 @@ public class PBFOutput implements OSMEntitySink, Runnable {
         /* Tags */
         if (relation.tags != null) {
             for (OSMEntity.Tag tag : relation.tags) {
-                if (tag.value == null) tag.value = "";
                 builder.addKeys(stringTable.getCode(tag.key));
-                builder.addVals(stringTable.getCode(tag.value));
+                builder.addVals(stringTable.getCode(tag.value == null ? "" : tag.value));
             }
         }
 
@@ -0,0 +1,179 @@
+package com.conveyal.osmlib;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * An immutable list of node IDs, such as the nodes of a way, packed into a single byte array. Consecutive nodes of
+ * a way usually have nearby IDs, so each ID is stored as a zigzag varint delta from the previous one, which takes one
+ * to three bytes instead of the eight of a long. This is the same trick WaySerializer uses on disk, applied in memory.
+ *
+ * Every CHECKPOINT_INTERVAL IDs the delta chain restarts from zero, and the position of each such checkpoint is
+ * recorded, so random access only decodes at most CHECKPOINT_INTERVAL values. The layout is: the number of IDs as an
+ * unsigned varint, then the 4-byte offset of every checkpoint except the first, then the deltas.
+ */
+public final class PackedNodeList implements Iterable<Long> {
+
+    static final int CHECKPOINT_INTERVAL = 16;
+
+    private final byte[] bytes;
+
+    private final int size;
+
+    /** The position in the byte array of the first delta, just after the checkpoint offsets. */
+    private final int dataStart;
+
+    private PackedNodeList (byte[] bytes) {
+        this.bytes = bytes;
+        int pos = 0;
+        int size = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[pos++];
+            size |= (b & 0x7F) << shift;
+            if (b >= 0) break;
+        }
+        this.size = size;
+        this.dataStart = pos + nCheckpointOffsets(size) * 4;
+    }
+
+    /** Wrap bytes produced by pack(), e.g. held by a table that stores the bytes alone to save an object header. */
+    static PackedNodeList wrap (byte[] bytes) {
+        return new PackedNodeList(bytes);
+    }
+
+    /** @return the packed bytes backing this list, which must not be modified. */
+    byte[] getBytes () {
+        return bytes;
+    }
+
+    /** The first checkpoint is always at the beginning of the data, so its offset is not stored. */
+    private static int nCheckpointOffsets (int size) {
+        return Math.max(0, (size - 1) / CHECKPOINT_INTERVAL);
+    }
+
+    /** @return the given node IDs in packed form. */
+    public static PackedNodeList pack (long[] nodes) {
+        // Reserve space for the worst case (ten bytes per varint) and trim afterward.
+        byte[] buffer = new byte[5 + nCheckpointOffsets(nodes.length) * 4 + nodes.length * 10];
+        int pos = writeVarLong(buffer, 0, nodes.length);
+        int checkpointStart = pos;
+        int dataStart = pos + nCheckpointOffsets(nodes.length) * 4;
+        pos = dataStart;
+        long previous = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            if (i % CHECKPOINT_INTERVAL == 0) {
+                if (i > 0) {
+                    int offset = pos - dataStart;
+                    int p = checkpointStart + (i / CHECKPOINT_INTERVAL - 1) * 4;
+                    buffer[p] = (byte) (offset >>> 24);
+                    buffer[p + 1] = (byte) (offset >>> 16);
+                    buffer[p + 2] = (byte) (offset >>> 8);
+                    buffer[p + 3] = (byte) offset;
+                }
+                previous = 0;
+            }
+            long delta = nodes[i] - previous;
+            pos = writeVarLong(buffer, pos, (delta << 1) ^ (delta >> 63));
+            previous = nodes[i];
+        }
+        return new PackedNodeList(Arrays.copyOf(buffer, pos));
+    }
+
+    private static int writeVarLong (byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    public int size () {
+        return size;
+    }
+
+    /** @return the node ID at the given position in the list. */
+    public long get (int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for packed list of size " + size);
+        }
+        int checkpoint = index / CHECKPOINT_INTERVAL;
+        int pos = dataStart;
+        if (checkpoint > 0) {
+            int p = dataStart - nCheckpointOffsets(size) * 4 + (checkpoint - 1) * 4;
+            pos += ((bytes[p] & 0xFF) << 24) | ((bytes[p + 1] & 0xFF) << 16) | ((bytes[p + 2] & 0xFF) << 8)
+                    | (bytes[p + 3] & 0xFF);
+        }
+        long value = 0;
+        for (int i = checkpoint * CHECKPOINT_INTERVAL; i <= index; i++) {
+            long zigzag = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            value += (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        return value;
+    }
+
+    /** @return an iterator decoding the node IDs in order, without boxing them if nextLong() is used. */
+    @Override
+    public PrimitiveIterator.OfLong iterator () {
+        return new PrimitiveIterator.OfLong() {
+            int index = 0;
+            int pos = dataStart;
+            long value = 0;
+            @Override
+            public boolean hasNext () {
+                return index < size;
+            }
+            @Override
+            public long nextLong () {
+                if (index >= size) throw new NoSuchElementException();
+                if (index % CHECKPOINT_INTERVAL == 0) value = 0;
+                long zigzag = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = bytes[pos++];
+                    zigzag |= (long) (b & 0x7F) << shift;
+                    if (b >= 0) break;
+                }
+                value += (zigzag >>> 1) ^ -(zigzag & 1);
+                index += 1;
+                return value;
+            }
+        };
+    }
+
+    /** @return all the node IDs unpacked into a new array, suitable for the nodes field of a Way. */
+    public long[] toArray () {
+        long[] nodes = new long[size];
+        PrimitiveIterator.OfLong iterator = iterator();
+        for (int i = 0; i < size; i++) {
+            nodes[i] = iterator.nextLong();
+        }
+        return nodes;
+    }
+
+    /** @return a rough estimate of the heap space used by this list, including its object headers. */
+    public int estimateBytes () {
+        return 24 + 16 + bytes.length;
+    }
+
+    @Override
+    public boolean equals (Object other) {
+        return other instanceof PackedNodeList && Arrays.equals(bytes, ((PackedNodeList) other).bytes);
+    }
+
+    @Override
+    public int hashCode () {
+        return Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public String toString () {
+        return Arrays.toString(toArray());
+    }
+
+}
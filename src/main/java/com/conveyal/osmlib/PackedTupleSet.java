@@ -0,0 +1,220 @@
+package com.conveyal.osmlib;
+
+import org.mapdb.Fun;
+
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * A read-only NavigableSet view of MapDB tuples packed into a memory-mapped file as sorted fixed-width 16-byte
+ * records, as in the index files of a snapshot. Range queries are binary searches over the records, and a subset is
+ * just a narrower range of record numbers over the same file. Tuples are only created as they are iterated over.
+ *
+ * Bounds may use null and Fun.HI as wildcards, exactly as with the MapDB sets the indexes are copied from.
+ * Any operation that would modify the set throws UnsupportedOperationException.
+ */
+class PackedTupleSet<E extends Comparable<E>> extends AbstractSet<E> implements NavigableSet<E> {
+
+    static final int RECORD_BYTES = 16;
+
+    /** Converts the record at a given position in a buffer into a tuple. */
+    interface Decoder<E> {
+        E decode (MappedBuffer buffer, long position);
+    }
+
+    /** Records of (int, int, long), as in the spatial index. */
+    static final Decoder<Fun.Tuple3<Integer, Integer, Long>> TUPLE3 = (buffer, position) ->
+            new Fun.Tuple3<>(buffer.getInt(position), buffer.getInt(position + 4), buffer.getLong(position + 8));
+
+    /** Records of (long, long), as in the relation reverse indexes. */
+    static final Decoder<Fun.Tuple2<Long, Long>> TUPLE2 = (buffer, position) ->
+            new Fun.Tuple2<>(buffer.getLong(position), buffer.getLong(position + 8));
+
+    private final MappedBuffer buffer;
+
+    private final Decoder<E> decoder;
+
+    /** This view covers the records numbered from (inclusive) to to (exclusive). */
+    private final int from, to;
+
+    PackedTupleSet (MappedBuffer buffer, Decoder<E> decoder) {
+        this(buffer, decoder, 0, (int) (buffer.size() / RECORD_BYTES));
+    }
+
+    private PackedTupleSet (MappedBuffer buffer, Decoder<E> decoder, int from, int to) {
+        this.buffer = buffer;
+        this.decoder = decoder;
+        this.from = from;
+        this.to = Math.max(from, to);
+    }
+
+    private E get (int index) {
+        return decoder.decode(buffer, (long) index * RECORD_BYTES);
+    }
+
+    /**
+     * @return the first record number in this view whose tuple is greater than (or equal to, if inclusive) the given
+     * tuple, or the end of the view if there is no such record.
+     */
+    private int search (E e, boolean inclusive) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int c = get(mid).compareTo(e);
+            if (c < 0 || (c == 0 && !inclusive)) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private PackedTupleSet<E> range (int newFrom, int newTo) {
+        return new PackedTupleSet<>(buffer, decoder, newFrom, newTo);
+    }
+
+    @Override
+    public int size () {
+        return to - from;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean contains (Object o) {
+        int index = search((E) o, true);
+        return index < to && get(index).compareTo((E) o) == 0;
+    }
+
+    @Override
+    public Iterator<E> iterator () {
+        return new Iterator<E>() {
+            int i = from;
+            @Override
+            public boolean hasNext () {
+                return i < to;
+            }
+            @Override
+            public E next () {
+                if (i >= to) throw new NoSuchElementException();
+                return get(i++);
+            }
+        };
+    }
+
+    @Override
+    public Iterator<E> descendingIterator () {
+        return new Iterator<E>() {
+            int i = to - 1;
+            @Override
+            public boolean hasNext () {
+                return i >= from;
+            }
+            @Override
+            public E next () {
+                if (i < from) throw new NoSuchElementException();
+                return get(i--);
+            }
+        };
+    }
+
+    @Override
+    public E lower (E e) {
+        int index = search(e, true) - 1;
+        return index >= from ? get(index) : null;
+    }
+
+    @Override
+    public E floor (E e) {
+        int index = search(e, false) - 1;
+        return index >= from ? get(index) : null;
+    }
+
+    @Override
+    public E ceiling (E e) {
+        int index = search(e, true);
+        return index < to ? get(index) : null;
+    }
+
+    @Override
+    public E higher (E e) {
+        int index = search(e, false);
+        return index < to ? get(index) : null;
+    }
+
+    @Override
+    public E first () {
+        if (isEmpty()) throw new NoSuchElementException();
+        return get(from);
+    }
+
+    @Override
+    public E last () {
+        if (isEmpty()) throw new NoSuchElementException();
+        return get(to - 1);
+    }
+
+    @Override
+    public NavigableSet<E> subSet (E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+        return range(search(fromElement, fromInclusive), search(toElement, !toInclusive));
+    }
+
+    @Override
+    public NavigableSet<E> headSet (E toElement, boolean inclusive) {
+        return range(from, search(toElement, !inclusive));
+    }
+
+    @Override
+    public NavigableSet<E> tailSet (E fromElement, boolean inclusive) {
+        return range(search(fromElement, inclusive), to);
+    }
+
+    @Override
+    public SortedSet<E> subSet (E fromElement, E toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public SortedSet<E> headSet (E toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public SortedSet<E> tailSet (E fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    /** Tuples are in their natural order. */
+    @Override
+    public Comparator<? super E> comparator () {
+        return null;
+    }
+
+    @Override
+    public NavigableSet<E> descendingSet () {
+        throw new UnsupportedOperationException("Descending views of snapshot indexes are not supported.");
+    }
+
+    @Override
+    public E pollFirst () {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    public E pollLast () {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    public boolean add (E e) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    public boolean remove (Object o) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.procedure.TLongObjectProcedure;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A table of ways on the heap that keeps the node list of each way in a PackedNodeList rather than a long[],
+ * which takes around a quarter of the space for typical OSM data. Ways are packed when they are put into the table,
+ * and every fetch returns a new Way with its nodes unpacked and its own copy of the tags, so callers never see the
+ * packed form and changing a fetched way does not change the table (just as with MapDB).
+ *
+ * This wraps another table, which holds the packed ways. It is as threadsafe as the wrapped table.
+ */
+public class PackedWayMap extends AbstractMap<Long, Way> implements EntityMap<Way> {
+
+    private final EntityMap<Way> packedWays;
+
+    /**
+     * The form in which ways are held in the wrapped table. The nodes field inherited from Way is left null, and only
+     * the bytes of the PackedNodeList are kept, which saves an object per way.
+     */
+    private static class PackedWay extends Way {
+        private static final long serialVersionUID = 1L;
+        byte[] packedNodes;
+    }
+
+    /** Create a packed table of ways in a new Trove hash map. */
+    public PackedWayMap () {
+        this(new TroveEntityMap<>());
+    }
+
+    public PackedWayMap (EntityMap<Way> packedWays) {
+        this.packedWays = packedWays;
+    }
+
+    private static Way pack (Way way) {
+        if (way == null) return null;
+        PackedWay packed = new PackedWay();
+        packed.tags = TagList.copyOf(way.tags);
+        if (way.nodes != null) packed.packedNodes = PackedNodeList.pack(way.nodes).getBytes();
+        return packed;
+    }
+
+    private static Way unpack (Way way) {
+        if (way == null) return null;
+        Way unpacked = new Way();
+        unpacked.tags = TagList.copyOf(way.tags);
+        byte[] packedNodes = ((PackedWay) way).packedNodes;
+        if (packedNodes != null) unpacked.nodes = PackedNodeList.wrap(packedNodes).toArray();
+        return unpacked;
+    }
+
+    /** @return the packed node list of the given way without unpacking it, or null if there is no such way. */
+    public PackedNodeList getNodes (long id) {
+        Way way = packedWays.get(id);
+        if (way == null || ((PackedWay) way).packedNodes == null) return null;
+        return PackedNodeList.wrap(((PackedWay) way).packedNodes);
+    }
+
+    @Override
+    public Way get (long id) {
+        return unpack(packedWays.get(id));
+    }
+
+    @Override
+    public Way put (long id, Way way) {
+        return unpack(packedWays.put(id, pack(way)));
+    }
+
+    @Override
+    public Way remove (long id) {
+        return unpack(packedWays.remove(id));
+    }
+
+    @Override
+    public boolean containsKey (long id) {
+        return packedWays.containsKey(id);
+    }
+
+    @Override
+    public boolean forEachEntry (TLongObjectProcedure<? super Way> procedure) {
+        return packedWays.forEachEntry((id, way) -> procedure.execute(id, unpack(way)));
+    }
+
+    @Override
+    public boolean forEachEntryInRange (long minId, long maxId, TLongObjectProcedure<? super Way> procedure) {
+        return packedWays.forEachEntryInRange(minId, maxId, (id, way) -> procedure.execute(id, unpack(way)));
+    }
+
+    @Override
+    public Way get (Object key) {
+        return key instanceof Long ? get(((Long) key).longValue()) : null;
+    }
+
+    @Override
+    public Way put (Long key, Way value) {
+        return put(key.longValue(), value);
+    }
+
+    @Override
+    public Way remove (Object key) {
+        return key instanceof Long ? remove(((Long) key).longValue()) : null;
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        return key instanceof Long && containsKey(((Long) key).longValue());
+    }
+
+    @Override
+    public void clear () {
+        packedWays.clear();
+    }
+
+    @Override
+    public int size () {
+        return packedWays.size();
+    }
+
+    @Override
+    public Set<Entry<Long, Way>> entrySet () {
+        return new AbstractSet<Entry<Long, Way>>() {
+            @Override
+            public Iterator<Entry<Long, Way>> iterator () {
+                Iterator<Entry<Long, Way>> iterator = packedWays.entrySet().iterator();
+                return new Iterator<Entry<Long, Way>>() {
+                    @Override
+                    public boolean hasNext () {
+                        return iterator.hasNext();
+                    }
+                    @Override
+                    public Entry<Long, Way> next () {
+                        Entry<Long, Way> entry = iterator.next();
+                        return new SimpleImmutableEntry<>(entry.getKey(), unpack(entry.getValue()));
+                    }
+                    @Override
+                    public void remove () {
+                        iterator.remove();
+                    }
+                };
+            }
+            @Override
+            public int size () {
+                return packedWays.size();
+            }
+        };
+    }
+
+}
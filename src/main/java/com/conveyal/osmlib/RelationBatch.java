@@ -0,0 +1,35 @@
+package com.conveyal.osmlib;
+
+import java.util.Arrays;
+
+/**
+ * A block of relations, of which the first size entries are in use. Relations are few and their members are
+ * irregular, so unlike nodes and ways they are simply batched as objects. Sources reuse a batch from one block to the
+ * next, so a batch is only valid during the call it is passed to, but the relations it holds may be retained.
+ */
+public class RelationBatch {
+
+    public int size = 0;
+
+    public long[] ids = new long[0];
+
+    public Relation[] relations = new Relation[0];
+
+    /** Empty this batch, releasing the relations it references. */
+    public void clear () {
+        Arrays.fill(relations, 0, size, null);
+        size = 0;
+    }
+
+    public void add (long id, Relation relation) {
+        if (size == ids.length) {
+            int newLength = Math.max(64, size * 2);
+            ids = Arrays.copyOf(ids, newLength);
+            relations = Arrays.copyOf(relations, newLength);
+        }
+        ids[size] = id;
+        relations[size] = relation;
+        size += 1;
+    }
+
+}
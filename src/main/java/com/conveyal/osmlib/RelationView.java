@@ -0,0 +1,93 @@
+package com.conveyal.osmlib;
+
+/**
+ * A reusable view of a relation in an encoded block. Members are only decoded if they are accessed, and then the
+ * member IDs and types are decoded into buffers reused from one relation to the next. See OSMEntityView.
+ */
+public class RelationView extends OSMEntityView {
+
+    private static final OSMEntity.Type[] MEMBER_TYPES = OSMEntity.Type.values();
+
+    /** The position of the member count in the data. */
+    private int membersPosition;
+
+    private int nMembers = -1;
+
+    private long[] memberIds = new long[64];
+
+    private byte[] memberTypes = new byte[64];
+
+    /** The position in the data of the role of each member. */
+    private int[] rolePositions = new int[64];
+
+    RelationView () { }
+
+    void reset (byte[] data, long id, int tagsPosition, int membersPosition) {
+        reset(data, id, tagsPosition);
+        this.membersPosition = membersPosition;
+        this.nMembers = -1;
+    }
+
+    private void decodeMembers () {
+        if (nMembers >= 0) return;
+        in.reset(data, membersPosition);
+        int n = in.readUInt32();
+        if (memberIds.length < n) {
+            memberIds = new long[n];
+            memberTypes = new byte[n];
+            rolePositions = new int[n];
+        }
+        for (int i = 0; i < n; i++) {
+            memberIds[i] = in.readSInt64();
+            memberTypes[i] = (byte) in.readUInt32();
+            rolePositions[i] = in.position();
+            skipString();
+        }
+        nMembers = n;
+    }
+
+    public int getMemberCount () {
+        decodeMembers();
+        return nMembers;
+    }
+
+    public long getMemberId (int i) {
+        decodeMembers();
+        if (i >= nMembers) throw new IndexOutOfBoundsException();
+        return memberIds[i];
+    }
+
+    public OSMEntity.Type getMemberType (int i) {
+        decodeMembers();
+        if (i >= nMembers) throw new IndexOutOfBoundsException();
+        return MEMBER_TYPES[memberTypes[i]];
+    }
+
+    public String getMemberRole (int i) {
+        decodeMembers();
+        if (i >= nMembers) throw new IndexOutOfBoundsException();
+        in.reset(data, rolePositions[i]);
+        return readString();
+    }
+
+    @Override
+    public OSMEntity.Type getType () {
+        return OSMEntity.Type.RELATION;
+    }
+
+    @Override
+    public Relation copy () {
+        Relation relation = new Relation();
+        int n = getMemberCount();
+        for (int i = 0; i < n; i++) {
+            Relation.Member member = new Relation.Member();
+            member.id = memberIds[i];
+            member.type = MEMBER_TYPES[memberTypes[i]];
+            member.role = getMemberRole(i);
+            relation.members.add(member);
+        }
+        copyTagsTo(relation);
+        return relation;
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.procedure.TLongObjectProcedure;
+import org.mapdb.Serializer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only table of entities in a snapshot, made of three memory-mapped files: the entity IDs as a sorted array
+ * of longs, the offset of each entity's payload in the data file (with one extra offset marking the end), and the
+ * payloads themselves as written by the MapDB serializers. Fetching an entity is a binary search followed by
+ * decoding the payload straight out of the mapped data file.
+ *
+ * Any operation that would modify the table throws UnsupportedOperationException. Reads are threadsafe.
+ */
+class SnapshotEntityMap<T extends OSMEntity> extends AbstractMap<Long, T> implements EntityMap<T> {
+
+    private final MappedBuffer ids;
+
+    private final MappedBuffer offsets;
+
+    private final MappedBuffer data;
+
+    private final Serializer<T> serializer;
+
+    /** The number of entities, which can exceed the range of an int for a planet node table. */
+    private final long size;
+
+    SnapshotEntityMap (MappedBuffer ids, MappedBuffer offsets, MappedBuffer data, Serializer<T> serializer) {
+        this.ids = ids;
+        this.offsets = offsets;
+        this.data = data;
+        this.serializer = serializer;
+        this.size = ids.size() / Long.BYTES;
+    }
+
+    /** @return the index of the given ID in the ID array, or -(insertion point) - 1 if it is not present. */
+    private long indexOf (long id) {
+        long low = 0;
+        long high = size - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long midId = ids.getLong(mid * Long.BYTES);
+            if (midId < id) low = mid + 1;
+            else if (midId > id) high = mid - 1;
+            else return mid;
+        }
+        return -(low + 1);
+    }
+
+    private T decode (long index, MappedDataInput in) {
+        long start = offsets.getLong(index * Long.BYTES);
+        long end = offsets.getLong((index + 1) * Long.BYTES);
+        in.setPosition(start);
+        try {
+            return serializer.deserialize(in, (int) (end - start));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public T get (long id) {
+        long index = indexOf(id);
+        return index < 0 ? null : decode(index, new MappedDataInput(data, 0));
+    }
+
+    @Override
+    public boolean containsKey (long id) {
+        return indexOf(id) >= 0;
+    }
+
+    @Override
+    public boolean forEachEntry (TLongObjectProcedure<? super T> procedure) {
+        return forEachIndex(0, size, procedure);
+    }
+
+    @Override
+    public boolean forEachEntryInRange (long minId, long maxId, TLongObjectProcedure<? super T> procedure) {
+        long from = indexOf(minId);
+        if (from < 0) from = -(from + 1);
+        long to = indexOf(maxId);
+        to = to < 0 ? -(to + 1) : to + 1;
+        return forEachIndex(from, to, procedure);
+    }
+
+    private boolean forEachIndex (long from, long to, TLongObjectProcedure<? super T> procedure) {
+        MappedDataInput in = new MappedDataInput(data, 0);
+        for (long i = from; i < to; i++) {
+            if (!procedure.execute(ids.getLong(i * Long.BYTES), decode(i, in))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public T put (long id, T entity) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    public T remove (long id) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    public T get (Object key) {
+        return key instanceof Long ? get(((Long) key).longValue()) : null;
+    }
+
+    @Override
+    public T put (Long key, T value) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    public T remove (Object key) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        return key instanceof Long && containsKey(((Long) key).longValue());
+    }
+
+    /** As the Map contract requires, this is Integer.MAX_VALUE for tables with more entities than that. */
+    @Override
+    public int size () {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty () {
+        return size == 0;
+    }
+
+    @Override
+    public Set<Entry<Long, T>> entrySet () {
+        return new AbstractSet<Entry<Long, T>>() {
+            @Override
+            public Iterator<Entry<Long, T>> iterator () {
+                MappedDataInput in = new MappedDataInput(data, 0);
+                return new Iterator<Entry<Long, T>>() {
+                    long i = 0;
+                    @Override
+                    public boolean hasNext () {
+                        return i < size;
+                    }
+                    @Override
+                    public Entry<Long, T> next () {
+                        if (i >= size) throw new NoSuchElementException();
+                        Entry<Long, T> entry = new SimpleImmutableEntry<>(ids.getLong(i * Long.BYTES), decode(i, in));
+                        i += 1;
+                        return entry;
+                    }
+                };
+            }
+            @Override
+            public int size () {
+                return SnapshotEntityMap.this.size();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,267 @@
+package com.conveyal.osmlib;
+
+import com.conveyal.osmlib.serializer.NodeSerializer;
+import com.conveyal.osmlib.serializer.RelationSerializer;
+import com.conveyal.osmlib.serializer.StringDictionary;
+import com.conveyal.osmlib.serializer.WaySerializer;
+import org.mapdb.Fun;
+import org.mapdb.Fun.Tuple3;
+import org.mapdb.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableSet;
+
+/**
+ * Read-only OSM storage over a snapshot: a directory of flat files written by SnapshotStorage.write() and
+ * memory-mapped when opened. For serving extracts we never write to the database, so none of MapDB's BTree pages,
+ * record headers and compression are needed. Each entity table is a sorted array of IDs, an array of offsets and
+ * the serialized entities, and each index is a sorted array of packed tuples. Opening a snapshot only maps the files,
+ * so startup is immediate, and several processes serving the same snapshot share it through the OS page cache.
+ *
+ * Any operation that would modify the data throws UnsupportedOperationException. Reads are threadsafe.
+ */
+public class SnapshotStorage implements OSMStorage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotStorage.class);
+
+    /** Magic bytes at the beginning of the snapshot metadata file. */
+    private static final byte[] HEADER = "OSMSNAPS".getBytes();
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String META_FILE = "snapshot.meta";
+
+    private final List<Closeable> buffers = new ArrayList<>();
+
+    private final EntityMap<Node> nodes;
+    private final EntityMap<Way> ways;
+    private final EntityMap<Relation> relations;
+
+    private final NavigableSet<Tuple3<Integer, Integer, Long>> index;
+    private final NavigableSet<Fun.Tuple2<Long, Long>> relationsByWay;
+    private final NavigableSet<Fun.Tuple2<Long, Long>> relationsByNode;
+    private final NavigableSet<Fun.Tuple2<Long, Long>> relationsByRelation;
+
+    private final long timestamp;
+    private final long sequenceNumber;
+
+    /** @return true if the given directory appears to contain a snapshot. */
+    public static boolean isSnapshot (File directory) {
+        return new File(directory, META_FILE).isFile();
+    }
+
+    /** Open the snapshot in the given directory, which must have been written by SnapshotStorage.write(). */
+    public SnapshotStorage (File directory) throws IOException {
+        StringDictionary dictionary;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(directory, META_FILE))))) {
+            byte[] header = new byte[HEADER.length];
+            in.readFully(header);
+            if (!Arrays.equals(header, HEADER)) {
+                throw new IOException("Directory does not appear to contain an OSM snapshot: " + directory);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported OSM snapshot format version " + version);
+            }
+            timestamp = in.readLong();
+            sequenceNumber = in.readLong();
+            int nStrings = in.readInt();
+            List<String> strings = new ArrayList<>(nStrings);
+            for (int i = 0; i < nStrings; i++) {
+                strings.add(in.readUTF());
+            }
+            dictionary = new StringDictionary(strings);
+        }
+        nodes = openTable(directory, "nodes", new NodeSerializer(dictionary));
+        ways = openTable(directory, "ways", new WaySerializer(dictionary));
+        relations = openTable(directory, "relations", new RelationSerializer(dictionary));
+        index = new PackedTupleSet<>(map(directory, "spatial_index.keys"), PackedTupleSet.TUPLE3);
+        relationsByWay = new PackedTupleSet<>(map(directory, "relations_by_way.keys"), PackedTupleSet.TUPLE2);
+        relationsByNode = new PackedTupleSet<>(map(directory, "relations_by_node.keys"), PackedTupleSet.TUPLE2);
+        relationsByRelation = new PackedTupleSet<>(map(directory, "relations_by_relation.keys"), PackedTupleSet.TUPLE2);
+        LOG.info("Opened OSM snapshot in {} with {} nodes, {} ways and {} relations.", directory,
+                nodes.size(), ways.size(), relations.size());
+    }
+
+    private MappedBuffer map (File directory, String fileName) throws IOException {
+        MappedBuffer buffer = new MappedBuffer(new File(directory, fileName));
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    private <T extends OSMEntity> EntityMap<T> openTable (File directory, String table, Serializer<T> serializer)
+            throws IOException {
+        return new SnapshotEntityMap<>(map(directory, table + ".ids"), map(directory, table + ".offsets"),
+                map(directory, table + ".data"), serializer);
+    }
+
+    /**
+     * Write the contents of the given OSM out as a snapshot in the given directory, which will be created if needed.
+     * Tag strings are coded with the default dictionary, which is saved with the snapshot. The spatial index is
+     * only included if the OSM has one, i.e. if it was loaded with tileIndexing enabled.
+     */
+    public static void write (OSM osm, File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create snapshot directory " + directory);
+        }
+        LOG.info("Writing OSM snapshot to {}.", directory);
+        StringDictionary dictionary = StringDictionary.defaultDictionary();
+        try (DataOutputStream out = openOutput(directory, META_FILE)) {
+            out.write(HEADER);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(osm.getReplicationTimestamp());
+            out.writeLong(osm.getSequenceNumber());
+            out.writeInt(dictionary.size());
+            for (int i = 0; i < dictionary.size(); i++) {
+                out.writeUTF(dictionary.getString(i));
+            }
+        }
+        writeTable(directory, "nodes", osm.getNodes(), new NodeSerializer(dictionary));
+        writeTable(directory, "ways", osm.getWays(), new WaySerializer(dictionary));
+        writeTable(directory, "relations", osm.getRelations(), new RelationSerializer(dictionary));
+        try (DataOutputStream out = openOutput(directory, "spatial_index.keys")) {
+            for (Tuple3<Integer, Integer, Long> tuple : osm.index) {
+                out.writeInt(tuple.a);
+                out.writeInt(tuple.b);
+                out.writeLong(tuple.c);
+            }
+        }
+        writeIndex(directory, "relations_by_way", osm.relationsByWay);
+        writeIndex(directory, "relations_by_node", osm.relationsByNode);
+        writeIndex(directory, "relations_by_relation", osm.relationsByRelation);
+        LOG.info("Done writing OSM snapshot.");
+    }
+
+    /** The ID and offset arrays are written alongside the payloads, since entities are visited in ID order. */
+    private static <T extends OSMEntity> void writeTable (File directory, String table, EntityMap<T> entities,
+            Serializer<T> serializer) throws IOException {
+        try (DataOutputStream ids = openOutput(directory, table + ".ids");
+             DataOutputStream offsets = openOutput(directory, table + ".offsets");
+             DataOutputStream data = openOutput(directory, table + ".data")) {
+            ByteArrayOutputStream entityBytes = new ByteArrayOutputStream();
+            DataOutputStream entityOut = new DataOutputStream(entityBytes);
+            long[] offset = new long[1];
+            try {
+                entities.forEachEntry((id, entity) -> {
+                    try {
+                        entityBytes.reset();
+                        serializer.serialize(entityOut, entity);
+                        ids.writeLong(id);
+                        offsets.writeLong(offset[0]);
+                        entityBytes.writeTo(data);
+                        offset[0] += entityBytes.size();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return true;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            offsets.writeLong(offset[0]);
+        }
+    }
+
+    private static void writeIndex (File directory, String name, NavigableSet<Fun.Tuple2<Long, Long>> index)
+            throws IOException {
+        try (DataOutputStream out = openOutput(directory, name + ".keys")) {
+            for (Fun.Tuple2<Long, Long> tuple : index) {
+                out.writeLong(tuple.a);
+                out.writeLong(tuple.b);
+            }
+        }
+    }
+
+    private static DataOutputStream openOutput (File directory, String fileName) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, fileName))));
+    }
+
+    @Override
+    public EntityMap<Node> getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public EntityMap<Way> getWays() {
+        return ways;
+    }
+
+    @Override
+    public EntityMap<Relation> getRelations() {
+        return relations;
+    }
+
+    @Override
+    public NavigableSet<Tuple3<Integer, Integer, Long>> getSpatialIndex() {
+        return index;
+    }
+
+    @Override
+    public NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByWay() {
+        return relationsByWay;
+    }
+
+    @Override
+    public NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByNode() {
+        return relationsByNode;
+    }
+
+    @Override
+    public NavigableSet<Fun.Tuple2<Long, Long>> getRelationsByRelation() {
+        return relationsByRelation;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public void setTimestamp(long secondsSinceEpoch) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    @Override
+    public void setSequenceNumber(long sequenceNumber) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    /** A snapshot always contains existing data. */
+    @Override
+    public boolean isReopened() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (Closeable buffer : buffers) {
+            try {
+                buffer.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close snapshot file: {}", e.toString());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.conveyal.osmlib;
+
+import com.conveyal.osmlib.metrics.Counter;
+import com.conveyal.osmlib.metrics.Metrics;
+import com.conveyal.osmlib.metrics.Timer;
+
+import java.io.IOException;
+
+/**
+ * Hands batches of decoded entities to a sink on behalf of a source, counting the entities of each type and timing
+ * the sink. Comparing the sink time to the total time spent loading shows whether decoding or storage is the
+ * bottleneck. The metrics are shared by all sources, whatever their format.
+ */
+class SourceMetrics {
+
+    private final Counter nodes = Metrics.counter("input.nodes");
+    private final Counter ways = Metrics.counter("input.ways");
+    private final Counter relations = Metrics.counter("input.relations");
+    private final Timer sinkWrite = Metrics.timer("input.sink_write");
+
+    void writeNodes (OSMEntityBatchSink sink, NodeBatch batch) throws IOException {
+        long start = sinkWrite.start();
+        sink.writeNodes(batch);
+        sinkWrite.stop(start);
+        nodes.increment(batch.size);
+        batch.clear();
+    }
+
+    void writeWays (OSMEntityBatchSink sink, WayBatch batch) throws IOException {
+        long start = sinkWrite.start();
+        sink.writeWays(batch);
+        sinkWrite.stop(start);
+        ways.increment(batch.size);
+        batch.clear();
+    }
+
+    void writeRelations (OSMEntityBatchSink sink, RelationBatch batch) throws IOException {
+        long start = sinkWrite.start();
+        sink.writeRelations(batch);
+        sinkWrite.stop(start);
+        relations.increment(batch.size);
+        batch.clear();
+    }
+
+}
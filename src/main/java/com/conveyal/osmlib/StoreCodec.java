@@ -0,0 +1,37 @@
+package com.conveyal.osmlib;
+
+/** Stores blocks as they are, without compression, e.g. for intermediate files on fast local disks. */
+public class StoreCodec implements BlockCodec {
+
+    @Override
+    public int getId () {
+        return STORE_ID;
+    }
+
+    @Override
+    public int maxCompressedLength (int length) {
+        return length;
+    }
+
+    @Override
+    public int compress (byte[] input, int length, byte[] output) {
+        if (length > output.length) return -1;
+        System.arraycopy(input, 0, output, 0, length);
+        return length;
+    }
+
+    @Override
+    public int decompress (byte[] input, int length, byte[] output) {
+        if (length > output.length) {
+            throw new RuntimeException("Block is larger than " + output.length + " bytes.");
+        }
+        System.arraycopy(input, 0, output, 0, length);
+        return length;
+    }
+
+    @Override
+    public String toString () {
+        return "store";
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.conveyal.osmlib;
+
+import com.conveyal.osmlib.serializer.StringDictionary;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Maps short UTF-8 byte sequences to String instances, so that the tag keys, values and roles that recur throughout
+ * OSM data are decoded and allocated once rather than every time they are read. This is a direct-mapped table: each
+ * byte sequence has a single slot determined by its hash, and a new string simply replaces whatever was in its slot.
+ * Lookups therefore cost one hash and one comparison over the bytes, which is no more than decoding them would.
+ *
+ * The table can be seeded with the strings of a StringDictionary, which are then never replaced. Those strings are
+ * returned as the dictionary's own instances, the same ones the MapDB serializers return.
+ *
+ * Not threadsafe. Each decoder should have its own cache.
+ */
+public class StringCache {
+
+    /** Longer strings, such as names and notes, rarely repeat closely enough to be worth caching. */
+    public static final int MAX_LENGTH = 32;
+
+    public static final int DEFAULT_SIZE = 4096;
+
+    private final byte[][] keys;
+
+    private final String[] values;
+
+    /** Slots holding dictionary strings, which are never replaced. */
+    private final boolean[] pinned;
+
+    private final int mask;
+
+    /** @param size the number of slots, which will be rounded up to a power of two. */
+    public StringCache (int size) {
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        keys = new byte[capacity][];
+        values = new String[capacity];
+        pinned = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    public StringCache () {
+        this(DEFAULT_SIZE);
+    }
+
+    /** The default dictionary is loaded once, the first time a cache needs it. */
+    private static class DefaultDictionary {
+        static final StringDictionary INSTANCE = StringDictionary.defaultDictionary();
+    }
+
+    /** @return a cache pre-filled with the strings of StringDictionary.defaultDictionary(). */
+    public static StringCache withDefaultDictionary () {
+        return withDictionary(DefaultDictionary.INSTANCE);
+    }
+
+    /** @return a cache pre-filled with the given dictionary's strings, which take precedence over any others. */
+    public static StringCache withDictionary (StringDictionary dictionary) {
+        StringCache cache = new StringCache(Math.max(DEFAULT_SIZE, dictionary.size() * 4));
+        for (int code = 0; code < dictionary.size(); code++) {
+            String string = dictionary.getString(code);
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_LENGTH) continue;
+            int slot = hash(bytes, 0, bytes.length) & cache.mask;
+            if (cache.pinned[slot]) continue; // The more frequent string, which came first, keeps the slot.
+            cache.keys[slot] = bytes;
+            cache.values[slot] = string;
+            cache.pinned[slot] = true;
+        }
+        return cache;
+    }
+
+    /** @return a String equal to the given UTF-8 bytes, reusing a previous instance where possible. */
+    public String get (byte[] data, int offset, int length) {
+        if (length > MAX_LENGTH) {
+            return new String(data, offset, length, StandardCharsets.UTF_8);
+        }
+        int slot = hash(data, offset, length) & mask;
+        byte[] key = keys[slot];
+        if (key != null && equal(key, data, offset, length)) {
+            return values[slot];
+        }
+        String string = new String(data, offset, length, StandardCharsets.UTF_8);
+        if (!pinned[slot]) {
+            byte[] copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+            keys[slot] = copy;
+            values[slot] = string;
+        }
+        return string;
+    }
+
+    private static int hash (byte[] data, int offset, int length) {
+        int h = length;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + data[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equal (byte[] key, byte[] data, int offset, int length) {
+        if (key.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (key[i] != data[offset + i]) return false;
+        }
+        return true;
+    }
+
+}
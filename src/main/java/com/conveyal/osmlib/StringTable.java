@@ -9,7 +9,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Deduplicates strings and assigns them one-based integer codes, for PBF format.
+ * Deduplicates strings and assigns them one-based integer codes, for PBF format and VEX string tables.
  */
 public class StringTable {
 
@@ -33,6 +33,15 @@ public class StringTable {
         return code;
     }
 
+    /** @return the number of strings in the table, including the empty string with code zero. */
+    public int size() {
+        return stringForCode.size();
+    }
+
+    public String getString(int code) {
+        return stringForCode.get(code);
+    }
+
     public void clear() {
         stringForCode.clear();
         codeForString.clear();
@@ -8,9 +8,10 @@ import java.io.IOException;
 import java.io.PrintStream;
 
 /**
- * Used for making file-wide compression dictionaries
+ * Used for making file-wide compression dictionaries.
+ * When reading VEX it can be used as a view sink, so only the tags of each entity are decoded.
  */
-public class TagCounter implements OSMEntitySink {
+public class TagCounter implements OSMEntitySink, OSMEntityViewSink {
 
     TObjectIntHashMap<String> stringWeights = new TObjectIntHashMap<>();
 
@@ -29,10 +30,21 @@ public class TagCounter implements OSMEntitySink {
             return;
         }
         for (Tag tag : entity.tags) {
-            stringWeights.adjustOrPutValue(tag.key, tag.key.length(), tag.key.length());
-            stringWeights.adjustOrPutValue(tag.value, tag.value.length(), tag.value.length());
-            String kv = tag.toString();
-            stringWeights.adjustOrPutValue(kv, kv.length(), kv.length());
+            countTag(tag.key, tag.value);
+        }
+    }
+
+    private void countTag (String key, String value) {
+        stringWeights.adjustOrPutValue(key, key.length(), key.length());
+        stringWeights.adjustOrPutValue(value, value.length(), value.length());
+        String kv = key + "=" + value;
+        stringWeights.adjustOrPutValue(kv, kv.length(), kv.length());
+    }
+
+    private void handleView (OSMEntityView view) {
+        int nTags = view.getTagCount();
+        for (int i = 0; i < nTags; i++) {
+            countTag(view.getTagKey(i), view.getTagValue(i));
         }
     }
 
@@ -51,6 +63,21 @@ public class TagCounter implements OSMEntitySink {
         handleEntity(relation);
     }
 
+    @Override
+    public void writeNode(NodeView node) {
+        handleView(node);
+    }
+
+    @Override
+    public void writeWay(WayView way) {
+        handleView(way);
+    }
+
+    @Override
+    public void writeRelation(RelationView relation) {
+        handleView(relation);
+    }
+
     @Override
     public void writeEnd() throws IOException {
         // Output results.
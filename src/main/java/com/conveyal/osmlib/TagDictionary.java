@@ -0,0 +1,40 @@
+package com.conveyal.osmlib;
+
+import com.conveyal.osmlib.serializer.StringDictionary;
+
+/**
+ * A process-wide dictionary assigning small integer codes to the most common strings used as tag keys and values, so
+ * that TagLists can store each common tag as a pair of ints and compare keys by code rather than with String.equals().
+ * Every coded string is stored only once, no matter how many entities use it.
+ *
+ * The dictionary is fixed: it holds the common OSM keys, values and roles of StringDictionary.defaultDictionary() and
+ * is never added to from input data, so rare strings (names, house numbers, notes...) are never retained beyond the
+ * entities that use them and every OSM instance in the process codes strings the same way. TagLists store any
+ * strings that have no code inline.
+ *
+ * Codes are only meaningful within a single JVM and must never be written to disk or sent over the wire.
+ * The dictionary is immutable and safe to use from any thread.
+ */
+public abstract class TagDictionary {
+
+    /** The code returned for a string that is not in the dictionary. */
+    public static final int NONE = -1;
+
+    private static final StringDictionary dictionary = StringDictionary.defaultDictionary();
+
+    /** @return the code for the given string, or NONE if it is not in the dictionary. */
+    public static int getCode (String string) {
+        return dictionary.getCode(string);
+    }
+
+    /** @return the string for a code that was previously returned by getCode. */
+    public static String getString (int code) {
+        return dictionary.getString(code);
+    }
+
+    /** @return the number of strings that have codes. */
+    public static int size () {
+        return dictionary.size();
+    }
+
+}
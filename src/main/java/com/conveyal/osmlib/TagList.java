@@ -0,0 +1,234 @@
+package com.conveyal.osmlib;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A compact list of OSM tags, used as the default implementation of OSMEntity.tags.
+ *
+ * Rather than holding a Tag object and two Strings per tag, each common key and value is stored as an int code from
+ * the fixed TagDictionary, so a common tag costs eight bytes and its strings are shared among all entities. Looking
+ * up a common key compares int codes instead of calling String.equals(). Strings that are not in the dictionary are
+ * held in a parallel array of inline strings, which is only allocated when needed.
+ *
+ * The list does not hold Tag objects, so those returned by get() and by iteration are made on demand. Tags are
+ * immutable, so use set() or setValue() to change a tag in place. Null keys and values are stored as empty strings.
+ *
+ * This is not threadsafe.
+ */
+public class TagList extends AbstractList<OSMEntity.Tag> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Key and value codes for each tag, interleaved. Negative codes mean the string is in the inline array. */
+    private transient int[] codes;
+
+    /** Strings that have no code, at the same positions as their entries in the codes array. Usually null. */
+    private transient String[] inline;
+
+    private transient int size;
+
+    public TagList () {
+        this(4);
+    }
+
+    public TagList (int capacity) {
+        codes = new int[Math.max(capacity, 1) * 2];
+    }
+
+    /** Make an independent copy of the given list, without decoding or coding any strings. */
+    public TagList (TagList other) {
+        codes = Arrays.copyOf(other.codes, Math.max(other.size, 1) * 2);
+        if (other.inline != null) inline = Arrays.copyOf(other.inline, codes.length);
+        size = other.size;
+    }
+
+    /** @return an independent TagList holding the same tags as the given list, or null if it is null. */
+    public static TagList copyOf (List<OSMEntity.Tag> tags) {
+        if (tags == null) return null;
+        if (tags instanceof TagList) return new TagList((TagList) tags);
+        TagList copy = new TagList(tags.size());
+        for (OSMEntity.Tag tag : tags) {
+            copy.add(tag.key, tag.value);
+        }
+        return copy;
+    }
+
+    @Override
+    public int size () {
+        return size;
+    }
+
+    @Override
+    public OSMEntity.Tag get (int index) {
+        checkIndex(index);
+        return new OSMEntity.Tag(getString(index * 2), getString(index * 2 + 1));
+    }
+
+    /** @return the key of the tag at the given index, without allocating a Tag. */
+    public String getKey (int index) {
+        checkIndex(index);
+        return getString(index * 2);
+    }
+
+    /** @return the value of the tag at the given index, without allocating a Tag. */
+    public String getValue (int index) {
+        checkIndex(index);
+        return getString(index * 2 + 1);
+    }
+
+    /** @return the value of the first tag with the given key, or null if there is no such tag. */
+    public String getValue (String key) {
+        int index = indexOfKey(key);
+        return index < 0 ? null : getString(index * 2 + 1);
+    }
+
+    /** @return the index of the first tag with the given key, or -1 if there is no such tag. */
+    public int indexOfKey (String key) {
+        if (key == null) key = "";
+        int keyCode = TagDictionary.getCode(key);
+        if (keyCode != TagDictionary.NONE) {
+            // A string that has a code is always stored as that code, so only the codes need to be checked.
+            for (int i = 0; i < size; i++) {
+                if (codes[i * 2] == keyCode) return i;
+            }
+        } else if (inline != null) {
+            for (int i = 0; i < size; i++) {
+                if (codes[i * 2] < 0 && key.equals(inline[i * 2])) return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Append a tag to the end of this list without allocating a Tag. */
+    public void add (String key, String value) {
+        if (size * 2 == codes.length) {
+            codes = Arrays.copyOf(codes, codes.length * 2);
+            if (inline != null) inline = Arrays.copyOf(inline, codes.length);
+        }
+        setString(size * 2, key);
+        setString(size * 2 + 1, value);
+        size += 1;
+        modCount += 1;
+    }
+
+    @Override
+    public void add (int index, OSMEntity.Tag tag) {
+        if (index < 0 || index > size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        add(tag.key, tag.value);
+        if (index < size - 1) {
+            // Rotate the new tag from the end of the list into place.
+            int[] newCodes = { codes[size * 2 - 2], codes[size * 2 - 1] };
+            System.arraycopy(codes, index * 2, codes, index * 2 + 2, (size - 1 - index) * 2);
+            codes[index * 2] = newCodes[0];
+            codes[index * 2 + 1] = newCodes[1];
+            if (inline != null) {
+                String[] newInline = { inline[size * 2 - 2], inline[size * 2 - 1] };
+                System.arraycopy(inline, index * 2, inline, index * 2 + 2, (size - 1 - index) * 2);
+                inline[index * 2] = newInline[0];
+                inline[index * 2 + 1] = newInline[1];
+            }
+        }
+    }
+
+    @Override
+    public OSMEntity.Tag set (int index, OSMEntity.Tag tag) {
+        OSMEntity.Tag previous = get(index);
+        setString(index * 2, tag.key);
+        setString(index * 2 + 1, tag.value);
+        return previous;
+    }
+
+    /** Replace the value of the tag at the given index, leaving its key unchanged. */
+    public void setValue (int index, String value) {
+        checkIndex(index);
+        setString(index * 2 + 1, value);
+    }
+
+    @Override
+    public OSMEntity.Tag remove (int index) {
+        OSMEntity.Tag previous = get(index);
+        int nMoved = (size - 1 - index) * 2;
+        System.arraycopy(codes, index * 2 + 2, codes, index * 2, nMoved);
+        if (inline != null) {
+            System.arraycopy(inline, index * 2 + 2, inline, index * 2, nMoved);
+            inline[size * 2 - 2] = null;
+            inline[size * 2 - 1] = null;
+        }
+        size -= 1;
+        modCount += 1;
+        return previous;
+    }
+
+    @Override
+    public void clear () {
+        if (inline != null) Arrays.fill(inline, null);
+        size = 0;
+        modCount += 1;
+    }
+
+    /**
+     * Within one JVM every string has exactly one representation (its code, or inline if it has none), so two
+     * TagLists can be compared without decoding any strings.
+     */
+    @Override
+    public boolean equals (Object other) {
+        if (!(other instanceof TagList)) return super.equals(other);
+        TagList otherList = (TagList) other;
+        if (otherList.size != size) return false;
+        for (int i = 0; i < size * 2; i++) {
+            if (codes[i] != otherList.codes[i]) return false;
+            if (codes[i] < 0 && !Objects.equals(inline[i], otherList.inline[i])) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode () {
+        return super.hashCode();
+    }
+
+    private String getString (int position) {
+        int code = codes[position];
+        return code < 0 ? inline[position] : TagDictionary.getString(code);
+    }
+
+    private void setString (int position, String string) {
+        if (string == null) string = "";
+        int code = TagDictionary.getCode(string);
+        codes[position] = code;
+        if (code < 0) {
+            if (inline == null) inline = new String[codes.length];
+            inline[position] = string;
+        } else if (inline != null) {
+            inline[position] = null;
+        }
+    }
+
+    private void checkIndex (int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    /** Codes are only valid within one JVM, so tags are serialized as strings and coded again when deserialized. */
+    private void writeObject (ObjectOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size * 2; i++) {
+            out.writeObject(getString(i));
+        }
+    }
+
+    private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+        int nTags = in.readInt();
+        codes = new int[Math.max(nTags, 1) * 2];
+        for (int i = 0; i < nTags; i++) {
+            add((String) in.readObject(), (String) in.readObject());
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+package com.conveyal.osmlib;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An OSMEntitySink that forwards everything it receives to several other sinks, so that one decoding pass over a
+ * source can e.g. fill a database, write a PBF file and count tags at once. Each downstream sink runs in its own
+ * thread, fed through its own bounded queue, so the sinks work in parallel and a slow sink only holds back the
+ * source once its queue is full.
+ *
+ * Entities are grouped into chunks before being queued, and every downstream sink receives the very same entity
+ * objects, so sinks must not modify the entities they receive. If any downstream sink fails, the others carry on
+ * and the failure is reported by writeEnd(). Every sink that was begun, including one that failed, gets a final call
+ * to writeEnd() so it can flush and close its output.
+ *
+ * If the source fails before calling writeEnd(), the tee must be closed to stop the downstream threads, which would
+ * otherwise wait for more input forever. Closing after writeEnd() does nothing, so the tee can simply be used in a
+ * try-with-resources block.
+ */
+public class TeeSink implements OSMEntitySink, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TeeSink.class);
+
+    /** The number of entities handed to the downstream sinks at once. */
+    private static final int CHUNK_SIZE = 1024;
+
+    /** The number of chunks each downstream sink can fall behind before the source has to wait for it. */
+    private static final int QUEUE_CHUNKS = 64;
+
+    private static final int BEGIN = 0, TIMESTAMP = 1, ENTITIES = 2, END = 3, ABORT = 4;
+
+    /** One item in the queue of a downstream sink. Messages are shared between all the downstream sinks. */
+    private static class Message {
+        final int kind;
+        final long timestamp;
+        final EntityRecord[] records;
+        final int nRecords;
+        Message (int kind, long timestamp, EntityRecord[] records, int nRecords) {
+            this.kind = kind;
+            this.timestamp = timestamp;
+            this.records = records;
+            this.nRecords = nRecords;
+        }
+    }
+
+    private final List<Downstream> downstreams = new ArrayList<>();
+
+    private EntityRecord[] chunk = new EntityRecord[CHUNK_SIZE];
+
+    private int chunkSize = 0;
+
+    /** Whether writeEnd() or close() has been called, after which no more messages are sent. */
+    private boolean ended = false;
+
+    public TeeSink (OSMEntitySink... sinks) {
+        this(Arrays.asList(sinks));
+    }
+
+    public TeeSink (List<OSMEntitySink> sinks) {
+        for (int i = 0; i < sinks.size(); i++) {
+            downstreams.add(new Downstream(sinks.get(i), "tee-sink-" + i));
+        }
+    }
+
+    /** A downstream sink, the queue feeding it and the thread pumping messages from the queue into it. */
+    private static class Downstream implements Runnable {
+
+        final OSMEntitySink sink;
+        final BlockingQueue<Message> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+        final Thread thread;
+
+        /** The first exception thrown by the sink, after which the remaining messages are discarded. */
+        volatile Throwable error = null;
+
+        /** Set when the tee is closed early, so that queued entities are discarded rather than delivered. */
+        volatile boolean aborted = false;
+
+        /** Whether writeBegin() was called on the sink, so it has output to finish. */
+        boolean begun = false;
+
+        Downstream (OSMEntitySink sink, String name) {
+            this.sink = sink;
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run () {
+            while (true) {
+                Message message;
+                try {
+                    message = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (message.kind == END || message.kind == ABORT) {
+                    finish();
+                    return;
+                }
+                // A queued BEGIN is still delivered after an abort, so the sink can then close its output.
+                if (error == null && !(aborted && message.kind == ENTITIES)) {
+                    try {
+                        deliver(message);
+                    } catch (Throwable t) {
+                        LOG.error("Sink {} failed, discarding the rest of its input: {}", sink, t.toString());
+                        error = t;
+                    }
+                }
+            }
+        }
+
+        /** End the sink's output, even if the sink failed or the input was cut short, so its streams are closed. */
+        private void finish () {
+            if (!begun) return;
+            try {
+                sink.writeEnd();
+            } catch (Throwable t) {
+                if (error == null) {
+                    LOG.error("Sink {} failed at the end of its input: {}", sink, t.toString());
+                    error = t;
+                } else {
+                    LOG.warn("Sink {} also failed while finishing its output: {}", sink, t.toString());
+                }
+            }
+        }
+
+        private void deliver (Message message) throws IOException {
+            switch (message.kind) {
+                case BEGIN:
+                    begun = true;
+                    sink.writeBegin();
+                    break;
+                case TIMESTAMP:
+                    sink.setReplicationTimestamp(message.timestamp);
+                    break;
+                case ENTITIES:
+                    for (int i = 0; i < message.nRecords; i++) {
+                        EntityRecord record = message.records[i];
+                        switch (record.getType()) {
+                            case NODE: sink.writeNode(record.id, (Node) record.entity); break;
+                            case WAY: sink.writeWay(record.id, (Way) record.entity); break;
+                            case RELATION: sink.writeRelation(record.id, (Relation) record.entity); break;
+                        }
+                    }
+                    break;
+            }
+        }
+
+    }
+
+    /** Send a message to every downstream sink, waiting for space in their queues if needed. */
+    private void send (Message message) {
+        for (Downstream downstream : downstreams) {
+            try {
+                downstream.queue.put(message);
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted while feeding downstream sinks.", e);
+            }
+        }
+    }
+
+    private void flush () {
+        if (chunkSize > 0) {
+            send(new Message(ENTITIES, 0, chunk, chunkSize));
+            // The chunk now belongs to the downstream threads.
+            chunk = new EntityRecord[CHUNK_SIZE];
+            chunkSize = 0;
+        }
+    }
+
+    private void add (long id, OSMEntity entity) {
+        chunk[chunkSize++] = new EntityRecord(id, entity);
+        if (chunkSize == CHUNK_SIZE) flush();
+    }
+
+    @Override
+    public void writeBegin () {
+        send(new Message(BEGIN, 0, null, 0));
+    }
+
+    @Override
+    public void setReplicationTimestamp (long secondsSinceEpoch) {
+        flush();
+        send(new Message(TIMESTAMP, secondsSinceEpoch, null, 0));
+    }
+
+    @Override
+    public void writeNode (long id, Node node) {
+        add(id, node);
+    }
+
+    @Override
+    public void writeWay (long id, Way way) {
+        add(id, way);
+    }
+
+    @Override
+    public void writeRelation (long id, Relation relation) {
+        add(id, relation);
+    }
+
+    /** Wait for all the downstream sinks to finish, then report the failure of any of them. */
+    @Override
+    public void writeEnd () throws IOException {
+        if (ended) throw new IllegalStateException("TeeSink has already been ended or closed.");
+        ended = true;
+        flush();
+        send(new Message(END, 0, null, 0));
+        join();
+        for (Downstream downstream : downstreams) {
+            if (downstream.error instanceof IOException) {
+                throw (IOException) downstream.error;
+            } else if (downstream.error != null) {
+                throw new RuntimeException("Downstream sink failed.", downstream.error);
+            }
+        }
+    }
+
+    /**
+     * Stop the downstream sinks without waiting for the rest of the input, discarding the entities still queued,
+     * and let each sink that was begun finish and close its output. Failures of the downstream sinks are only logged,
+     * as the failure that led to closing the tee early is the one that matters. This does nothing after writeEnd().
+     */
+    @Override
+    public void close () {
+        if (ended) return;
+        ended = true;
+        chunkSize = 0;
+        for (Downstream downstream : downstreams) {
+            downstream.aborted = true;
+        }
+        send(new Message(ABORT, 0, null, 0));
+        join();
+    }
+
+    private void join () {
+        for (Downstream downstream : downstreams) {
+            try {
+                downstream.thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted while waiting for downstream sinks.", e);
+            }
+        }
+    }
+
+}
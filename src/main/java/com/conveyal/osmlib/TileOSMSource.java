@@ -1,5 +1,6 @@
 package com.conveyal.osmlib;
 
+import com.conveyal.osmlib.metrics.FlightEvents;
 import gnu.trove.iterator.TLongIterator;
 import gnu.trove.list.TLongList;
 import gnu.trove.list.array.TLongArrayList;
@@ -52,6 +53,8 @@ public class TileOSMSource implements OSMEntitySource {
         // end the block.
         NodeTracker nodesSeen = new NodeTracker();
         TLongSet relationsSeen = new TLongHashSet();
+        Object event = FlightEvents.beginTileExtract();
+        long nNodes = 0, nWays = 0;
 
         try {
             sink.writeBegin();
@@ -68,7 +71,7 @@ public class TileOSMSource implements OSMEntitySource {
                     );
                     for (Tuple3<Integer, Integer, Long> item : xSubset) {
                         long wayId = item.c;
-                        Way way = osm.ways.get(wayId);
+                        Way way = osm.getWays().get(wayId);
                         if (way == null) {
                             LOG.error("Way {} is not available.", wayId);
                             continue;
@@ -76,12 +79,13 @@ public class TileOSMSource implements OSMEntitySource {
                         if (pass == 0) { // Nodes
                             for (long nodeId : way.nodes) {
                                 if (nodesSeen.contains(nodeId)) continue;
-                                Node node = osm.nodes.get(nodeId);
+                                Node node = osm.getNodes().get(nodeId);
                                 if (node == null) {
                                     LOG.error("Way references a node {} that was not loaded.", nodeId);
                                 } else {
                                     sink.writeNode(nodeId, node);
                                     nodesSeen.add(nodeId);
+                                    nNodes++;
 
                                     // check if this node is part of any relations
                                     Set<Fun.Tuple2<Long, Long>> relationsForNode = osm.relationsByNode.subSet(
@@ -95,6 +99,7 @@ public class TileOSMSource implements OSMEntitySource {
                             }
                         } else if (pass == 1) {
                             sink.writeWay(wayId, way);
+                            nWays++;
 
                             Set<Fun.Tuple2<Long, Long>> relationsForWay = osm.relationsByWay.subSet(
                                     new Fun.Tuple2(wayId, null),
@@ -133,10 +138,11 @@ public class TileOSMSource implements OSMEntitySource {
 
                 for (TLongIterator it = relationsSeen.iterator(); it.hasNext();) {
                     long relId = it.next();
-                    sink.writeRelation(relId, osm.relations.get(relId));
+                    sink.writeRelation(relId, osm.getRelations().get(relId));
                 }
             }
             sink.writeEnd();
+            FlightEvents.commitTileExtract(event, minX, minY, maxX, maxY, nNodes, nWays, relationsSeen.size());
         } catch (IOException ex) {
             throw new RuntimeException("I/O exception while writing tiled OSM data.", ex);
         }
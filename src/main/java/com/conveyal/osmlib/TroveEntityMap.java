@@ -0,0 +1,156 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TLongObjectProcedure;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * An EntityMap held entirely on the heap in a Trove primitive hash map, so IDs are never boxed and entities are
+ * never serialized. This is the fastest table when the data fits in memory.
+ *
+ * The hash map has no order, so to keep the ascending order promised by EntityMap, forEachEntry and
+ * forEachEntryInRange go through a sorted array of the IDs. The array is built on the first ordered iteration and
+ * kept until an ID is added or removed, so repeated range queries over an unchanging map only cost a binary search
+ * plus the entities in the range. The Map.Entry views are unordered. This is not threadsafe.
+ */
+public class TroveEntityMap<T extends OSMEntity> extends AbstractMap<Long, T> implements EntityMap<T> {
+
+    private final TLongObjectHashMap<T> map = new TLongObjectHashMap<>();
+
+    /** All the IDs in the map in ascending order, or null if they have changed since the array was last built. */
+    private long[] sortedIds;
+
+    @Override
+    public T get (long id) {
+        return map.get(id);
+    }
+
+    @Override
+    public T put (long id, T entity) {
+        T previous = map.put(id, entity);
+        // Replacing an entity does not change the set of IDs.
+        if (previous == null) sortedIds = null;
+        return previous;
+    }
+
+    /** The hash map is grown once for the whole batch, rather than rehashed several times as it fills. */
+    @Override
+    public void putBatch (long[] ids, T[] entities, int count) {
+        map.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            put(ids[i], entities[i]);
+        }
+    }
+
+    @Override
+    public T remove (long id) {
+        T previous = map.remove(id);
+        if (previous != null) sortedIds = null;
+        return previous;
+    }
+
+    @Override
+    public boolean containsKey (long id) {
+        return map.containsKey(id);
+    }
+
+    @Override
+    public boolean forEachEntry (TLongObjectProcedure<? super T> procedure) {
+        long[] ids = getSortedIds();
+        for (long id : ids) {
+            if (!procedure.execute(id, map.get(id))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean forEachEntryInRange (long minId, long maxId, TLongObjectProcedure<? super T> procedure) {
+        long[] ids = getSortedIds();
+        int i = Arrays.binarySearch(ids, minId);
+        if (i < 0) i = -(i + 1);
+        for (; i < ids.length && ids[i] <= maxId; i++) {
+            if (!procedure.execute(ids[i], map.get(ids[i]))) return false;
+        }
+        return true;
+    }
+
+    private long[] getSortedIds () {
+        long[] ids = sortedIds;
+        if (ids == null) {
+            ids = map.keys();
+            Arrays.sort(ids);
+            sortedIds = ids;
+        }
+        return ids;
+    }
+
+    // Boxed Map methods, implemented in terms of the primitive ones so subclasses only need to override those.
+
+    @Override
+    public T get (Object key) {
+        return key instanceof Long ? get(((Long) key).longValue()) : null;
+    }
+
+    @Override
+    public T put (Long key, T value) {
+        return put(key.longValue(), value);
+    }
+
+    @Override
+    public T remove (Object key) {
+        return key instanceof Long ? remove(((Long) key).longValue()) : null;
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        return key instanceof Long && containsKey(((Long) key).longValue());
+    }
+
+    @Override
+    public void clear () {
+        map.clear();
+        sortedIds = null;
+    }
+
+    @Override
+    public int size () {
+        return map.size();
+    }
+
+    @Override
+    public Set<Entry<Long, T>> entrySet () {
+        return new AbstractSet<Entry<Long, T>>() {
+            @Override
+            public Iterator<Entry<Long, T>> iterator () {
+                TLongObjectIterator<T> iterator = map.iterator();
+                return new Iterator<Entry<Long, T>>() {
+                    @Override
+                    public boolean hasNext () {
+                        return iterator.hasNext();
+                    }
+                    @Override
+                    public Entry<Long, T> next () {
+                        iterator.advance();
+                        return new SimpleImmutableEntry<>(iterator.key(), iterator.value());
+                    }
+                    @Override
+                    public void remove () {
+                        iterator.remove();
+                        sortedIds = null;
+                    }
+                };
+            }
+            @Override
+            public int size () {
+                return map.size();
+            }
+        };
+    }
+
+}
@@ -1,5 +1,8 @@
 package com.conveyal.osmlib;
 
+import com.conveyal.osmlib.metrics.FlightEvents;
+import com.conveyal.osmlib.metrics.Metrics;
+import com.conveyal.osmlib.metrics.Timer;
 import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -139,11 +142,11 @@ public class Updater implements Runnable {
             return Collections.EMPTY_LIST;
         }
         // Only check specific updates if the overall state for this timescale implies there are new ones.
-        if (latest.timestamp > osm.timestamp.get()) {
+        if (latest.timestamp > osm.getReplicationTimestamp()) {
             // Working backward, find all updates that are dated after the current database timestamp.
             for (int seq = latest.sequenceNumber; seq > 0; seq--) {
                 Diff diff = fetchState(timescale, seq);
-                if (diff == null || diff.timestamp <= osm.timestamp.get()) break;
+                if (diff == null || diff.timestamp <= osm.getReplicationTimestamp()) break;
                 workQueue.add(diff);
             }
         }
@@ -158,15 +161,23 @@ public class Updater implements Runnable {
             factory.setNamespaceAware(true);
             SAXParser saxParser = factory.newSAXParser();
             OSMChangeParser handler = new OSMChangeParser(osm);
+            Timer diffTimer = Metrics.timer("updater.diff_apply");
             for (Diff state : workQueue) {
+                long start = diffTimer.start();
+                Object event = FlightEvents.beginDiffApply();
+                int nParsedBefore = handler.nParsed;
                 LOG.info("Applying {} update for {}", state.timescale, getDateString(state.timestamp * 1000));
                 LOG.info("Requesting data from {}", state.url);
                 InputStream inputStream = new GZIPInputStream(state.url.openStream());
                 saxParser.parse(inputStream, handler);
                 // Move the DB timestamp forward to that of the update that was applied
-                osm.timestamp.set(state.timestamp);
+                osm.setReplicationTimestamp(state.timestamp);
                 // Record the last update applied so we can jump straight to the next one
                 lastApplied = state;
+                diffTimer.stop(start);
+                FlightEvents.commitDiffApply(event, state.timescale, state.sequenceNumber,
+                        handler.nParsed - nParsedBefore);
+                Metrics.counter("updater.diffs_applied").increment();
                 LOG.info(
                     "Applied {} update for {}. {} total applied.",
                     state.timescale,
@@ -188,7 +199,7 @@ public class Updater implements Runnable {
      */
     public static Thread spawnUpdateThread(OSM osm) {
         Thread updateThread = new Thread(new Updater(osm));
-        Instant initialTimestamp = Instant.ofEpochSecond(osm.timestamp.get());
+        Instant initialTimestamp = Instant.ofEpochSecond(osm.getReplicationTimestamp());
         if (initialTimestamp.isBefore(MIN_REPLICATION_INSTANT) || initialTimestamp.isAfter(MAX_REPLICATION_INSTANT)) {
             LOG.error("OSM database timestamp seems incorrect: {}", initialTimestamp.toString());
             LOG.error("Not running the minutely updater thread.");
@@ -206,13 +217,13 @@ public class Updater implements Runnable {
     @Override
     public void run() {
         while (true) {
-            // long timestamp = osm.db.getAtomicLong("timestamp").get(); // UTC
+            // long timestamp = osm.getReplicationTimestamp(); // UTC
             // If more than one year ago, complain. If more than a few minutes in the future, complain.
             long now = System.currentTimeMillis() / 1000;
-            if ((now - osm.timestamp.get()) > 60 * 60 * 24) {
+            if ((now - osm.getReplicationTimestamp()) > 60 * 60 * 24) {
                 applyDiffs(findDiffs("day"));
             }
-            if ((now - osm.timestamp.get()) > 60 * 60) {
+            if ((now - osm.getReplicationTimestamp()) > 60 * 60) {
                 applyDiffs(findDiffs("hour"));
             }
             applyDiffs(findDiffs("minute"));
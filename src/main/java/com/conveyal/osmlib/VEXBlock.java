@@ -1,15 +1,19 @@
 package com.conveyal.osmlib;
 
+import com.conveyal.osmlib.metrics.Counter;
+import com.conveyal.osmlib.metrics.FlightEvents;
+import com.conveyal.osmlib.metrics.Metrics;
+import com.conveyal.osmlib.metrics.Timer;
 import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Ints;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import java.util.Arrays;
 
 /**
  * Represents a single block of VEX data which is decompressed, but still varint encoded into a byte buffer.
@@ -31,20 +35,61 @@ public class VEXBlock {
         "VEXR".getBytes()
     };
 
+    /** Header strings for each kind of OSM entity in version 2 blocks, which are followed by a byte of flags. */
+    private static final byte[][] HEADERS_V2 = new byte[][] {
+        "VX2N".getBytes(),
+        "VX2W".getBytes(),
+        "VX2R".getBytes()
+    };
+
+    /** The flags this reader understands. A block with any other flag set cannot be decoded. */
+    private static final int SUPPORTED_FLAGS = VexFormat.FLAG_STRING_TABLE | VexFormat.FLAG_COLUMNAR;
+
+    /** The VEX format version of this block, which determines how its header and entities are encoded. */
+    public int version = VexFormat.VERSION_1;
+
+    /** The VexFormat.FLAG_* features used by this block and its codec ID, always zero in version 1. */
+    public int flags;
+
+    /** The codec the block is compressed with, which is always deflate in version 1. */
+    public BlockCodec codec = BlockCodec.DEFLATE;
+
     public int entityType;
     public int nEntities;
     public byte[] data;
     public int nBytes;
 
-    /** */
+    /** The range of entity IDs in the block, which is recorded in the index of the file but not in the block. */
+    public long minId, maxId;
+
+    /**
+     * The instruments updated for each block written or inflated. These are looked up once by each reader or writer
+     * rather than once per block.
+     */
+    static class Instruments {
+        final Timer deflate = Metrics.timer("vex.deflate");
+        final Timer inflate = Metrics.timer("vex.inflate");
+        final Counter blocksWritten = Metrics.counter("vex.blocks_written");
+        final Counter bytesWritten = Metrics.counter("vex.bytes_written");
+        final Counter blocksInflated = Metrics.counter("vex.blocks_inflated");
+    }
+
+    /**
+     * Read the next block from the given stream and decompress it with the codec given in its header.
+     * This looks up its instruments on every call, so code reading many blocks should pass its own Instruments.
+     */
     public void readDeflated(InputStream in) {
+        readDeflated(in, new Instruments());
+    }
+
+    void readDeflated(InputStream in, Instruments instruments) {
         readHeader(in);
         // Only read the compressed block if it has nonzero size and we're not at EOF
         if (entityType != VexFormat.VEX_NONE && nBytes > 0) {
             try {
                 byte[] deflatedData = new byte[nBytes];
                 ByteStreams.readFully(in, deflatedData);
-                inflate(deflatedData);
+                inflate(deflatedData, instruments);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -67,21 +112,49 @@ public class VEXBlock {
                 return;
             }
             String s = new String(fourBytes);
-            if (s.equals("VEXN")) {
+            if (Arrays.equals(fourBytes, VexIndex.MAGIC)) {
+                // The index footer follows the last block.
+                LOG.debug("Hit index footer, no more blocks to read.");
+                nBytes = 0;
+                entityType = VexFormat.VEX_NONE;
+                return;
+            }
+            if (s.startsWith("VEX")) {
+                version = VexFormat.VERSION_1;
+                flags = 0;
+                codec = BlockCodec.DEFLATE;
+            } else if (s.startsWith("VX2")) {
+                version = VexFormat.VERSION_2;
+                flags = in.read();
+                if (flags < 0) {
+                    throw new EOFException("VEX block header is truncated.");
+                }
+                codec = BlockCodec.forId((flags & VexFormat.CODEC_MASK) >>> VexFormat.CODEC_SHIFT);
+                if ((flags & ~SUPPORTED_FLAGS & ~VexFormat.CODEC_MASK) != 0) {
+                    throw new RuntimeException(String.format(
+                            "VEX block uses features unknown to this reader (flags %02x).", flags));
+                }
+            } else {
+                LOG.error("Unrecognized block type '{}', aborting VEX read.", s);
+                throw new RuntimeException("Uncrecoginzed VEX block type.");
+            }
+            char type = s.charAt(3);
+            if (type == 'N') {
                 entityType = VexFormat.VEX_NODE;
-            } else if (s.equals("VEXW")) {
+            } else if (type == 'W') {
                 entityType = VexFormat.VEX_WAY;
-            } else if (s.equals("VEXR")) {
+            } else if (type == 'R') {
                 entityType = VexFormat.VEX_RELATION;
             } else {
-                LOG.error("Unrecognized block type '{}', aborting VEX read.", entityType);
+                LOG.error("Unrecognized block type '{}', aborting VEX read.", s);
                 throw new RuntimeException("Uncrecoginzed VEX block type.");
             }
             ByteStreams.readFully(in, fourBytes);
             nEntities = Ints.fromByteArray(fourBytes);
             ByteStreams.readFully(in, fourBytes);
             nBytes = Ints.fromByteArray(fourBytes);
-            if (nBytes < 0 || nBytes > BUFFER_SIZE) {
+            // A full block of incompressible data can come out slightly bigger than the buffer it was compressed from.
+            if (nBytes < 0 || nBytes > codec.maxCompressedLength(BUFFER_SIZE)) {
                 throw new RuntimeException("Block has impossible compressed data size, it is probably corrupted.");
             }
             if (nEntities < 0 || nEntities > BUFFER_SIZE) {
@@ -92,41 +165,60 @@ public class VEXBlock {
         }
     }
 
-    public void writeDeflated(OutputStream out) {
-        byte[] deflatedData = new byte[nBytes]; // FIXME in theory, deflate could make the block larger
-        int deflatedSize = PBFOutput.deflate(data, deflatedData);
+    /**
+     * This looks up its instruments on every call, so code writing many blocks should pass its own Instruments.
+     * @return the number of bytes written, including the header.
+     */
+    public int writeDeflated(OutputStream out) {
+        return writeDeflated(out, new Instruments());
+    }
+
+    int writeDeflated(OutputStream out, Instruments instruments) {
+        // Only the bytes in use are compressed, the buffer may be bigger. Codecs can make incompressible data slightly
+        // larger, so leave room for that.
+        if (version < VexFormat.VERSION_2 && codec.getId() != BlockCodec.DEFLATE_ID) {
+            throw new IllegalStateException("VEX version 1 blocks can only be deflated.");
+        }
+        byte[] deflatedData = new byte[codec.maxCompressedLength(nBytes)];
+        long start = instruments.deflate.start();
+        int deflatedSize = codec.compress(data, nBytes, deflatedData);
+        instruments.deflate.stop(start);
         if (deflatedSize < 0) {
-            throw new RuntimeException("Deflate made a block bigger.");
+            throw new RuntimeException("Compression made a block bigger than the codec allows for.");
         }
         try {
-            // Header, number of messages and size of compressed data as two 4-byte big-endian ints, compressed data.
-            out.write(HEADERS[entityType]);
+            // Header, flags in version 2, number of messages and size of compressed data as two 4-byte big-endian
+            // ints, compressed data.
+            int headerSize = 12;
+            if (version >= VexFormat.VERSION_2) {
+                out.write(HEADERS_V2[entityType]);
+                out.write((flags & ~VexFormat.CODEC_MASK) | codec.getId() << VexFormat.CODEC_SHIFT);
+                headerSize += 1;
+            } else {
+                out.write(HEADERS[entityType]);
+            }
             out.write(Ints.toByteArray(nEntities));
             out.write(Ints.toByteArray(deflatedSize));
             out.write(deflatedData, 0, deflatedSize);
+            instruments.blocksWritten.increment();
+            instruments.bytesWritten.increment(deflatedSize + headerSize);
             LOG.debug("Wrote block of {} bytes.", deflatedSize);
             LOG.debug("Contained {} entities with type {}.", nEntities, entityType);
+            return headerSize + deflatedSize;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    /** Inflate the given byte buffer into this VEXBlock's data field. */
-    private void inflate (byte[] input) {
+    /** Decompress the given byte buffer into this VEXBlock's data field, with the codec of the block. */
+    private void inflate (byte[] input, Instruments instruments) {
+        long start = instruments.inflate.start();
+        Object event = FlightEvents.beginBlockInflate();
         data = new byte[BUFFER_SIZE];
-        int pos = 0;
-        Inflater inflater = new Inflater();
-        inflater.setInput(input, 0, input.length);
-        try {
-            while (!inflater.finished()) {
-                pos += inflater.inflate(data, pos, data.length - pos);
-            }
-        } catch (DataFormatException e) {
-            e.printStackTrace();
-            pos = 0;
-        }
-        inflater.end();
-        nBytes = pos;
+        nBytes = codec.decompress(input, input.length, data);
+        instruments.inflate.stop(start);
+        FlightEvents.commitBlockInflate(event, entityType, nEntities, input.length, nBytes);
+        instruments.blocksInflated.increment();
     }
 
 }
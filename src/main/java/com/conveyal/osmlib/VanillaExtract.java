@@ -1,5 +1,8 @@
 package com.conveyal.osmlib;
 
+import com.conveyal.osmlib.metrics.Metrics;
+import com.conveyal.osmlib.metrics.Timer;
+import com.google.common.io.CountingOutputStream;
 import org.glassfish.grizzly.http.Method;
 import org.glassfish.grizzly.http.server.HttpHandler;
 import org.glassfish.grizzly.http.server.HttpServer;
@@ -10,9 +13,15 @@ import org.glassfish.grizzly.http.util.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.BindException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -33,17 +42,69 @@ public class VanillaExtract {
 
     private static final String USAGE = "";
 
+    /** The maximum number of nodes, ways and relations each to keep deserialized in memory while serving extracts. */
+    private static final int CACHE_ENTRIES = 500_000;
+
+    private static final long CACHE_BYTES = 256L * 1024 * 1024;
+
     public static void main(String[] args) {
 
+        // A snapshot is read-only, so it is served without applying updates.
+        if (SnapshotStorage.isSnapshot(new File(args[0]))) {
+            try {
+                serve(OSM.forStorage(new SnapshotStorage(new File(args[0]))), null);
+            } catch (IOException e) {
+                LOG.error("Could not open OSM snapshot: {}", e.toString());
+            }
+            return;
+        }
+
         OSM osm = new OSM(args[0]);
 
+        if (args.length > 2 && args[1].equals("--snapshot")) {
+            try {
+                SnapshotStorage.write(osm, new File(args[2]));
+            } catch (IOException e) {
+                LOG.error("Could not write OSM snapshot: {}", e.toString());
+            }
+            osm.close();
+            return;
+        }
+
         if (args.length > 1 && args[1].startsWith("--load")) {
             osm.intersectionDetection = true;
             osm.tileIndexing = true;
             if (args[1].equalsIgnoreCase("--loadurl")) {
                 osm.readFromUrl(args[2]);
             } else {
-                osm.readFromFile(args[2]);
+                // Any files after --write receive a copy of the loaded data, in the same pass over the input.
+                List<String> inputs = new ArrayList<>(Arrays.asList(args).subList(2, args.length));
+                List<String> outputs = new ArrayList<>();
+                int write = inputs.indexOf("--write");
+                if (write >= 0) {
+                    outputs.addAll(inputs.subList(write + 1, inputs.size()));
+                    inputs = inputs.subList(0, write);
+                }
+                if (!outputs.isEmpty()) {
+                    List<OSMEntitySink> sinks = new ArrayList<>();
+                    sinks.add(osm);
+                    for (String output : outputs) {
+                        sinks.add(OSMEntitySink.forFile(output));
+                    }
+                    OSMEntitySource source = inputs.size() > 1 ? MergedOSMSource.forFiles(inputs)
+                            : OSMEntitySource.forFile(inputs.get(0));
+                    // Closing the tee stops its threads and closes the outputs if reading fails part way through.
+                    try (TeeSink tee = new TeeSink(sinks)) {
+                        source.copyTo(tee);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Error occurred while loading and writing OSM data.", e);
+                    }
+                } else if (inputs.size() > 1) {
+                    // Several files (e.g. neighboring extracts) are read in parallel and merged.
+                    osm.readFromFiles(inputs);
+                } else {
+                    osm.readFromFile(inputs.get(0));
+                }
             }
             // TODO catch writing exceptions here and shut down properly, closing OSM database.
             LOG.info("Done populating OSM database.");
@@ -51,19 +112,25 @@ public class VanillaExtract {
             return;
         }
 
-        Thread updateThread = Updater.spawnUpdateThread(osm);
+        osm.enableEntityCache(CACHE_ENTRIES, CACHE_BYTES);
+        serve(osm, Updater.spawnUpdateThread(osm));
+    }
 
+    /** Serve extracts of the given OSM over HTTP until interrupted, then stop the update thread if there is one. */
+    private static void serve(OSM osm, Thread updateThread) {
         LOG.info("Starting VEX HTTP server on port {} of interface {}", PORT, BIND_ADDRESS);
         HttpServer httpServer = new HttpServer();
         httpServer.addListener(new NetworkListener("vanilla_extract", BIND_ADDRESS, PORT));
         // Bypass Jersey etc. and add a low-level Grizzly handler.
         // As in servlets, * is needed in base path to identify the "rest" of the path.
+        // The exact match for /metrics takes precedence over the wildcard.
+        httpServer.getServerConfiguration().addHttpHandler(new MetricsHttpHandler(), "/metrics");
         httpServer.getServerConfiguration().addHttpHandler(new VexHttpHandler(osm), "/*");
         try {
             httpServer.start();
             LOG.info("VEX server running.");
             Thread.currentThread().join();
-            updateThread.interrupt();
+            if (updateThread != null) updateThread.interrupt();
         } catch (BindException be) {
             LOG.error("Cannot bind to port {}. Is it already in use?", PORT);
         } catch (IOException ioe) {
@@ -105,7 +172,10 @@ public class VanillaExtract {
             response.setContentType("application/osm");
             String uri = request.getDecodedRequestURI();
             LOG.info("VEX request: {}", uri);
-            OutputStream outStream = response.getOutputStream();
+            Timer requestTimer = Metrics.timer("extract.request");
+            long start = requestTimer.start();
+            Metrics.counter("extract.requests").increment();
+            CountingOutputStream outStream = new CountingOutputStream(response.getOutputStream());
             try {
                 int suffixIndex = uri.lastIndexOf('.');
                 String fileType = uri.substring(suffixIndex);
@@ -131,16 +201,21 @@ public class VanillaExtract {
                 tileSource.setBoundingBox(minLat, minLon, maxLat, maxLon);
                 tileSource.copyTo(sink);
                 response.setStatus(HttpStatus.OK_200);
+                requestTimer.stop(start);
+                Metrics.histogram("extract.response_bytes").record(outStream.getCount());
+                osm.logCacheStatistics();
             } catch (IllegalArgumentException ex) {
                 LOG.error("Could not process request with bad URI format {}.", uri);
                 response.setContentType("text/plain");
                 response.setStatus(HttpStatus.BAD_REQUEST_400);
                 outStream.write("URI format: /min_lat,min_lon,max_lat,max_lon[.pbf|.vex] (all coords in decimal degrees)\n".getBytes());
+                Metrics.counter("extract.bad_requests").increment();
             } catch (Exception ex) {
                 LOG.error("An internal error occurred while processing {}.", uri);
                 response.setContentType("text/plain");
                 response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
                 outStream.write("An internal error occurred.".getBytes());
+                Metrics.counter("extract.errors").increment();
                 ex.printStackTrace();
             } finally {
                 outStream.close();
@@ -148,4 +223,18 @@ public class VanillaExtract {
         }
 
     }
+
+    /** Reports the current value of all metrics as plain text, e.g. for scraping by Prometheus. */
+    private static class MetricsHttpHandler extends HttpHandler {
+
+        @Override
+        public void service(Request request, Response response) throws Exception {
+            response.setContentType("text/plain; version=0.0.4");
+            response.setStatus(HttpStatus.OK_200);
+            Writer writer = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8);
+            Metrics.registry().writeText(writer);
+            writer.close();
+        }
+
+    }
 }
@@ -0,0 +1,189 @@
+package com.conveyal.osmlib;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A cursor over a byte array of varint-encoded data, such as a decompressed VEX block. This decodes the same formats
+ * as VarIntInputStream, but works directly on the array with an index, with no virtual call per byte, and can also
+ * jump to a position and skip over strings without decoding them, which is what the entity views need.
+ *
+ * Varints are decoded with the unrolled loop used by protobuf's CodedInputStream. When at least ten bytes remain
+ * before the limit, no varint can run past the end of the data, so this fast path checks nothing but the bytes
+ * themselves. Near the limit, a slower loop checks every byte against it. Strings are decoded through a StringCache
+ * if one is supplied, so repeated keys and values are not allocated again.
+ *
+ * Instances are meant to be reused, and are not threadsafe.
+ */
+public class VarIntBuffer {
+
+    private byte[] data;
+
+    private int pos;
+
+    /** The position just after the last byte that may be read. */
+    private int limit;
+
+    private StringCache stringCache;
+
+    /** Holds the contents of direct ByteBuffers, which have no array to decode from. */
+    private byte[] copyBuffer;
+
+    public VarIntBuffer () { }
+
+    /** @param stringCache used to decode strings, or null to decode every string anew. */
+    public VarIntBuffer (StringCache stringCache) {
+        this.stringCache = stringCache;
+    }
+
+    /** Start reading the given bytes from the given position up to the end of the array. */
+    public void reset (byte[] data, int pos) {
+        reset(data, pos, data.length);
+    }
+
+    /** Start reading the given bytes from the given position, stopping before the given limit. */
+    public void reset (byte[] data, int pos, int limit) {
+        this.data = data;
+        this.pos = pos;
+        this.limit = limit;
+    }
+
+    /**
+     * Start reading the remaining bytes of the given buffer, whose position is not changed. A buffer backed by an
+     * array is read in place, while the contents of a direct buffer are first copied into an array held by this
+     * cursor. Positions are always relative to the start of the array, not of the buffer.
+     */
+    public void reset (ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            reset(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.arrayOffset() + buffer.limit());
+        } else {
+            int length = buffer.remaining();
+            if (copyBuffer == null || copyBuffer.length < length) {
+                copyBuffer = new byte[length];
+            }
+            buffer.duplicate().get(copyBuffer, 0, length);
+            reset(copyBuffer, 0, length);
+        }
+    }
+
+    public int position () {
+        return pos;
+    }
+
+    public void position (int pos) {
+        this.pos = pos;
+    }
+
+    /** @return the number of bytes left before the limit. */
+    public int remaining () {
+        return limit - pos;
+    }
+
+    public int readUInt32 () {
+        return (int) readUInt64();
+    }
+
+    public long readUInt64 () {
+        int p = pos;
+        if (limit - p < 10) {
+            return readUInt64Slow();
+        }
+        final byte[] d = data;
+        long x;
+        int y;
+        if ((y = d[p++]) >= 0) {
+            pos = p;
+            return y;
+        } else if ((y ^= (d[p++] << 7)) < 0) {
+            x = y ^ (~0 << 7);
+        } else if ((y ^= (d[p++] << 14)) >= 0) {
+            x = y ^ ((~0 << 7) ^ (~0 << 14));
+        } else if ((y ^= (d[p++] << 21)) < 0) {
+            x = y ^ ((~0 << 7) ^ (~0 << 14) ^ (~0 << 21));
+        } else if ((x = y ^ ((long) d[p++] << 28)) >= 0L) {
+            x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28);
+        } else if ((x ^= ((long) d[p++] << 35)) < 0L) {
+            x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35);
+        } else if ((x ^= ((long) d[p++] << 42)) >= 0L) {
+            x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42);
+        } else if ((x ^= ((long) d[p++] << 49)) < 0L) {
+            x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42) ^ (~0L << 49);
+        } else {
+            x ^= ((long) d[p++] << 56);
+            x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42) ^ (~0L << 49)
+                    ^ (~0L << 56);
+            if (x < 0L && d[p++] < 0L) {
+                throw malformed();
+            }
+        }
+        pos = p;
+        return x;
+    }
+
+    /** Decode a varint one byte at a time, checking each position against the limit. */
+    private long readUInt64Slow () {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                throw new ArrayIndexOutOfBoundsException("Varint runs past the end of the data, it is truncated.");
+            }
+            byte b = data[pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return result;
+        }
+        throw malformed();
+    }
+
+    private static NumberFormatException malformed () {
+        return new NumberFormatException("Malformed varint, the data is probably corrupted.");
+    }
+
+    public long readSInt64 () {
+        long n = readUInt64();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /** @return the length of the string at the current position, after checking that it fits before the limit. */
+    private int readStringLength () {
+        int length = readUInt32();
+        if (length < 0 || length > limit - pos) {
+            throw new ArrayIndexOutOfBoundsException(String.format(
+                    "String of %d bytes runs past the end of the data, it is probably corrupted.", length));
+        }
+        return length;
+    }
+
+    public String readString () {
+        int length = readStringLength();
+        String string = stringCache == null ? new String(data, pos, length, StandardCharsets.UTF_8)
+                                            : stringCache.get(data, pos, length);
+        pos += length;
+        return string;
+    }
+
+    public void skipString () {
+        int length = readStringLength();
+        pos += length;
+    }
+
+    /**
+     * Compare the string at the current position to the given one and move past it, without creating a String in
+     * the common case where the stored string is plain ASCII.
+     */
+    public boolean readStringEquals (String other) {
+        int length = readStringLength();
+        int start = pos;
+        pos += length;
+        if (length < other.length()) return false;
+        for (int i = 0; i < length; i++) {
+            byte b = data[start + i];
+            if (b < 0) {
+                // Multi-byte UTF-8 characters present, fall back on decoding the string.
+                return new String(data, start, length, StandardCharsets.UTF_8).equals(other);
+            }
+            if (i >= other.length() || b != other.charAt(i)) return false;
+        }
+        return true;
+    }
+
+}
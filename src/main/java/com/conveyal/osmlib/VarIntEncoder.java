@@ -0,0 +1,175 @@
+package com.conveyal.osmlib;
+
+import java.util.Arrays;
+
+/**
+ * Writes varints and UTF-8 strings straight into a byte array with a position cursor, the counterpart of
+ * VarIntBuffer. This produces the same encoding as VarIntOutputStream without a virtual call per byte or a temporary
+ * byte array per string. The array grows as needed, so a write never fails for lack of space: it is up to the
+ * caller to decide what to do when the data exceeds the size it intended (see DeflatedBlockWriter).
+ *
+ * Each write first makes sure there is room for the largest possible result (ten bytes for a varint, three bytes per
+ * char for a string) with a single comparison, then writes without any further checks.
+ *
+ * Not threadsafe.
+ */
+public final class VarIntEncoder {
+
+    private byte[] buffer;
+
+    private int pos = 0;
+
+    public VarIntEncoder (int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    /** Continue writing at the start of the given array, e.g. after the previous one was handed off elsewhere. */
+    public void reset (byte[] buffer) {
+        this.buffer = buffer;
+        this.pos = 0;
+    }
+
+    /** @return the array being written to. After growing, this is not the same array that was passed in. */
+    public byte[] getBuffer () {
+        return buffer;
+    }
+
+    public int position () {
+        return pos;
+    }
+
+    /** Move the cursor, e.g. back to the start of something that should not have been written. */
+    public void position (int pos) {
+        if (pos < 0 || pos > buffer.length) throw new IllegalArgumentException("Position out of range: " + pos);
+        this.pos = pos;
+    }
+
+    private void ensureSpace (int n) {
+        if (buffer.length - pos < n) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, pos + n));
+        }
+    }
+
+    public void writeByte (int b) {
+        ensureSpace(1);
+        buffer[pos++] = (byte) b;
+    }
+
+    public void writeBytes (byte[] bytes, int offset, int length) {
+        ensureSpace(length);
+        System.arraycopy(bytes, offset, buffer, pos, length);
+        pos += length;
+    }
+
+    public void writeUInt64 (long value) {
+        ensureSpace(10);
+        final byte[] b = buffer;
+        int p = pos;
+        while ((value & ~0x7FL) != 0) {
+            b[p++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        b[p++] = (byte) value;
+        pos = p;
+    }
+
+    public void writeUInt32 (int value) {
+        ensureSpace(5);
+        final byte[] b = buffer;
+        int p = pos;
+        while ((value & ~0x7F) != 0) {
+            b[p++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        b[p++] = (byte) value;
+        pos = p;
+    }
+
+    public void writeSInt64 (long value) {
+        writeUInt64((value << 1) ^ (value >> 63));
+    }
+
+    public void writeSInt32 (int value) {
+        writeUInt32((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Write the length of the string in UTF-8 bytes followed by the bytes themselves. Plain ASCII strings, which are
+     * the vast majority of OSM keys and values, are copied char by char. Anything else is encoded in a second pass,
+     * after measuring its length. Unpaired surrogates are replaced with '?' as String.getBytes() would do.
+     */
+    public void writeString (String string) {
+        int nChars = string.length();
+        ensureSpace(5 + nChars * 3);
+        int ascii = 0;
+        while (ascii < nChars && string.charAt(ascii) < 0x80) ascii++;
+        if (ascii == nChars) {
+            writeUInt32(nChars);
+            final byte[] b = buffer;
+            int p = pos;
+            for (int i = 0; i < nChars; i++) {
+                b[p++] = (byte) string.charAt(i);
+            }
+            pos = p;
+            return;
+        }
+        writeUInt32(utf8Length(string, ascii));
+        final byte[] b = buffer;
+        int p = pos;
+        for (int i = 0; i < nChars; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                b[p++] = (byte) c;
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xC0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < nChars && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                b[p++] = (byte) (0xF0 | (codePoint >> 18));
+                b[p++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                b[p++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                b[p++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                b[p++] = '?';
+            } else {
+                b[p++] = (byte) (0xE0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        pos = p;
+    }
+
+    /** @return the number of bytes writeString() will use for the given string, including its length. */
+    public static int stringSize (String string) {
+        int length = utf8Length(string, 0);
+        int size = length + 1;
+        for (int rest = length >>> 7; rest != 0; rest >>>= 7) {
+            size += 1;
+        }
+        return size;
+    }
+
+    /** @return the number of bytes needed to encode the string, whose first nAscii chars are known to be ASCII. */
+    private static int utf8Length (String string, int nAscii) {
+        int length = nAscii;
+        int nChars = string.length();
+        for (int i = nAscii; i < nChars; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < nChars && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+}
@@ -4,6 +4,34 @@ public abstract class VexFormat {
 
     public static final byte[] HEADER = "VEXFMT".getBytes();
 
+    /** The original block layout, with every string written out in full. Blocks begin with VEXN, VEXW or VEXR. */
+    public static final int VERSION_1 = 1;
+
+    /** Blocks begin with VX2N, VX2W or VX2R, followed by a byte of flags for the features the block uses. */
+    public static final int VERSION_2 = 2;
+
+    /** The version written unless an older one is requested, e.g. for readers that predate version 2. */
+    public static final int CURRENT_VERSION = VERSION_2;
+
+    /**
+     * Version 2 flag: the block begins with a table of all the distinct strings it contains, and tag keys, tag values
+     * and relation member roles are written as varint indexes into that table.
+     */
+    public static final int FLAG_STRING_TABLE = 1;
+
+    /**
+     * Version 2 flag for node blocks: after any string table come the ID deltas of all the nodes, then all their
+     * latitude deltas, then all their longitude deltas, and finally the tags of each node in turn.
+     */
+    public static final int FLAG_COLUMNAR = 2;
+
+    /**
+     * The upper four bits of the version 2 flags hold the BlockCodec ID the block was compressed with. Deflate is
+     * zero, so blocks written before codecs could be chosen read as deflated.
+     */
+    public static final int CODEC_SHIFT = 4;
+    public static final int CODEC_MASK = 0xF0;
+
     // FIXME use OSMEntity.Type or Classes themselves
     public static final int VEX_NODE = 0;
     public static final int VEX_WAY = 1;
@@ -0,0 +1,215 @@
+package com.conveyal.osmlib;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index of the blocks in a VEX file, which VexOutput can write as a footer after the last block. With the index,
+ * a VEX file on disk can be read selectively: only the blocks holding a given entity type or ID range, or a share
+ * of the blocks so that several threads can decode the file in parallel.
+ *
+ * The footer is laid out as follows, with all numbers big-endian. It is recognized by the magic at its very end.
+ *   VX2I, number of blocks (4 bytes),
+ *   for each block: offset (8 bytes), entity type (1 byte), number of entities (4 bytes), min ID, max ID (8 bytes),
+ *   offset of the footer itself (8 bytes), VX2I.
+ * A streaming reader that comes across the footer where it expects a block just stops there.
+ */
+public class VexIndex {
+
+    /** Marks the start and end of the footer, in place of the header of a block. */
+    public static final byte[] MAGIC = "VX2I".getBytes();
+
+    /** The size of each entry in the footer. */
+    private static final int ENTRY_SIZE = 8 + 1 + 4 + 8 + 8;
+
+    /** The size of the footer fields that follow the index entries. */
+    private static final int TRAILER_SIZE = 8 + 4;
+
+    /** The position, type, size and ID range of one block in a VEX file. */
+    public static class Entry {
+
+        /** The position of the block in the file. */
+        public final long offset;
+
+        /** The number of bytes the block takes in the file, header included. */
+        public final long length;
+
+        public final int entityType;
+
+        public final int nEntities;
+
+        /** The lowest and highest entity IDs in the block, which are its first and last IDs if the input is sorted. */
+        public final long minId, maxId;
+
+        public Entry (long offset, long length, int entityType, int nEntities, long minId, long maxId) {
+            this.offset = offset;
+            this.length = length;
+            this.entityType = entityType;
+            this.nEntities = nEntities;
+            this.minId = minId;
+            this.maxId = maxId;
+        }
+
+        @Override
+        public String toString () {
+            return String.format("block at %d (%d bytes): %d entities of type %d, IDs %d to %d",
+                    offset, length, nEntities, entityType, minId, maxId);
+        }
+
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /** Record a block written at the end of the file so far. */
+    void add (Entry entry) {
+        entries.add(entry);
+    }
+
+    /** @return all the blocks in the file, in file order. */
+    public List<Entry> getEntries () {
+        return entries;
+    }
+
+    /** Write this index as the footer of a VEX file, at the given position in the file. */
+    void write (OutputStream out, long offset) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.writeInt(entries.size());
+        for (Entry entry : entries) {
+            data.writeLong(entry.offset);
+            data.writeByte(entry.entityType);
+            data.writeInt(entry.nEntities);
+            data.writeLong(entry.minId);
+            data.writeLong(entry.maxId);
+        }
+        data.writeLong(offset);
+        data.write(MAGIC);
+        data.flush();
+    }
+
+    /** @return the index in the footer of the given VEX file, or null if it was written without one. */
+    public static VexIndex read (File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long fileLength = raf.length();
+            if (fileLength < TRAILER_SIZE) return null;
+            byte[] magic = new byte[MAGIC.length];
+            raf.seek(fileLength - TRAILER_SIZE);
+            long indexOffset = raf.readLong();
+            raf.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) return null;
+            if (indexOffset < 0 || indexOffset > fileLength - TRAILER_SIZE) {
+                throw new IOException("VEX index footer has an impossible offset, the file is probably corrupted.");
+            }
+            raf.seek(indexOffset);
+            raf.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("VEX index footer does not start where expected, the file is probably corrupted.");
+            }
+            int nBlocks = raf.readInt();
+            if (nBlocks < 0 || (long) nBlocks * ENTRY_SIZE > fileLength - indexOffset) {
+                throw new IOException("VEX index has an impossible number of blocks, the file is probably corrupted.");
+            }
+            // Read the entries all at once rather than with a system call per field.
+            byte[] bytes = new byte[nBlocks * ENTRY_SIZE];
+            raf.readFully(bytes);
+            DataInputStream data = new DataInputStream(ByteSource.wrap(bytes).openStream());
+            long[] offsets = new long[nBlocks + 1];
+            int[] entityTypes = new int[nBlocks];
+            int[] counts = new int[nBlocks];
+            long[] minIds = new long[nBlocks];
+            long[] maxIds = new long[nBlocks];
+            for (int i = 0; i < nBlocks; i++) {
+                offsets[i] = data.readLong();
+                entityTypes[i] = data.readByte();
+                counts[i] = data.readInt();
+                minIds[i] = data.readLong();
+                maxIds[i] = data.readLong();
+            }
+            // Each block extends to the next one, and the last one to the footer.
+            offsets[nBlocks] = indexOffset;
+            VexIndex index = new VexIndex();
+            for (int i = 0; i < nBlocks; i++) {
+                index.add(new Entry(offsets[i], offsets[i + 1] - offsets[i], entityTypes[i], counts[i],
+                        minIds[i], maxIds[i]));
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return the blocks that may contain entities of the given type with IDs in the given range (inclusive).
+     * The blocks may also contain other entities of that type just outside the range.
+     */
+    public List<Entry> select (int entityType, long minId, long maxId) {
+        List<Entry> selected = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.entityType == entityType && entry.maxId >= minId && entry.minId <= maxId) {
+                selected.add(entry);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Divide the blocks into at most the given number of runs of consecutive blocks, each with about the same
+     * number of bytes to decode.
+     */
+    public List<List<Entry>> split (int nParts) {
+        if (nParts < 1) {
+            throw new IllegalArgumentException("Cannot split a VEX file into " + nParts + " parts.");
+        }
+        long totalLength = 0;
+        for (Entry entry : entries) {
+            totalLength += entry.length;
+        }
+        List<List<Entry>> parts = new ArrayList<>();
+        List<Entry> part = new ArrayList<>();
+        long partEnd = totalLength / nParts;
+        long length = 0;
+        for (Entry entry : entries) {
+            part.add(entry);
+            length += entry.length;
+            if (length >= partEnd && parts.size() < nParts - 1) {
+                parts.add(part);
+                part = new ArrayList<>();
+                partEnd = totalLength * (parts.size() + 1) / nParts;
+            }
+        }
+        if (!part.isEmpty()) {
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    /**
+     * @return a stream over just the given blocks of the file, which must be in file order. It is readable as an
+     * ordinary VEX stream, and each stretch of consecutive blocks is opened only when it is reached.
+     */
+    public static InputStream open (File file, List<Entry> blocks) throws IOException {
+        ByteSource fileSource = Files.asByteSource(file);
+        List<ByteSource> slices = new ArrayList<>();
+        long start = -1;
+        long end = -1;
+        for (Entry entry : blocks) {
+            if (entry.offset != end) {
+                if (start >= 0) slices.add(fileSource.slice(start, end - start));
+                start = entry.offset;
+            }
+            end = entry.offset + entry.length;
+        }
+        if (start >= 0) slices.add(fileSource.slice(start, end - start));
+        return ByteSource.concat(slices).openBufferedStream();
+    }
+
+}
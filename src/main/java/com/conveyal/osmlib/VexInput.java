@@ -3,9 +3,10 @@ package com.conveyal.osmlib;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -16,17 +17,27 @@ public class VexInput implements OSMEntitySource {
 
     private static final Logger LOG = LoggerFactory.getLogger(VexInput.class);
 
-    /* For reading varints out of the decompressed VEX blocks. */
-    private VarIntInputStream vin;
+    /* For reading varints out of the decompressed VEX blocks. Common strings are decoded only once per input. */
+    private final VarIntBuffer vin = new VarIntBuffer(StringCache.withDefaultDictionary());
 
     /* Persistent values for delta coding. */
     private long id, ref, prevFixedLat, prevFixedLon;
 
+    /* The string table of the current block, or null if its strings are inline (VEX version 1). */
+    private String[] blockStrings;
+
     /* The stream of compressed VEX blocks. */
     private InputStream vexStream;
 
-    /* The OSM entities reconstructed from the VEX stream will be pushed through to this sink. */
-    private OSMEntitySink entitySink;
+    /* The OSM entities reconstructed from the VEX stream will be pushed through to this sink, a block at a time. */
+    private OSMEntityBatchSink entitySink;
+
+    /* Each block of entities is decoded into one of these batches, which are reused from one block to the next. */
+    private final NodeBatch nodeBatch = new NodeBatch();
+    private final WayBatch wayBatch = new WayBatch();
+    private final RelationBatch relationBatch = new RelationBatch();
+
+    private final SourceMetrics metrics = new SourceMetrics();
 
     private long nNodesRead = 0;
 
@@ -38,8 +49,46 @@ public class VexInput implements OSMEntitySource {
         this.vexStream = vexStream;
     }
 
+    private static VexIndex readIndex(File file) throws IOException {
+        VexIndex index = VexIndex.read(file);
+        if (index == null) {
+            throw new IOException("VEX file has no index, it must be written with VexOutput.setWriteIndex: " + file);
+        }
+        return index;
+    }
+
+    /**
+     * @return a source reading only the blocks of the given VEX file that contain entities of the given type with IDs
+     * in the given range (inclusive), found through the index at the end of the file. Entities of that type just
+     * outside the range may also be read, as blocks are read whole.
+     */
+    public static VexInput forRange(File file, int entityType, long minId, long maxId) throws IOException {
+        List<VexIndex.Entry> blocks = readIndex(file).select(entityType, minId, maxId);
+        return new VexInput(VexIndex.open(file, blocks));
+    }
+
+    /**
+     * Divide the given VEX file into at most nParts runs of consecutive blocks of about the same size, using the index
+     * at the end of the file. Each part is a source of its own, and can be decoded in its own thread (into a
+     * threadsafe sink, or a separate sink per part). Parts hold entities in file order, so if the file is sorted, each
+     * part picks up where the previous one left off.
+     */
+    public static List<VexInput> split(File file, int nParts) throws IOException {
+        List<VexInput> parts = new ArrayList<>();
+        for (List<VexIndex.Entry> blocks : readIndex(file).split(nParts)) {
+            parts.add(new VexInput(VexIndex.open(file, blocks)));
+        }
+        return parts;
+    }
+
     @Override
     public void copyTo(OSMEntitySink sink) throws IOException {
+        copyBatchesTo(OSMEntityBatchSink.forSink(sink));
+    }
+
+    /** Read the OSM entities from the VEX stream and pass them to the given sink, one batch per VEX block. */
+    @Override
+    public void copyBatchesTo(OSMEntityBatchSink sink) throws IOException {
         entitySink = sink;
         LOG.info("Reading VEX format...");
         entitySink.writeBegin();
@@ -50,9 +99,14 @@ public class VexInput implements OSMEntitySource {
             if (block == VEXBlock.END_BLOCK) {
                 break;
             }
-            vin = new VarIntInputStream(new ByteArrayInputStream(block.data));
+            vin.reset(block.data, 0, block.nBytes);
+            blockStrings = readStringTable(vin, block);
             // Decode the deflated byte stream into OSM entities and push them through to the sink.
-            readBlock(block.entityType, block.nEntities);
+            if ((block.flags & VexFormat.FLAG_COLUMNAR) != 0) {
+                readColumnarNodeBlock(block);
+            } else {
+                readBlock(block.entityType, block.nEntities);
+            }
             LOG.info("Processed {} blocks", ++n);
         }
         LOG.info("Done reading VEX format.");
@@ -60,6 +114,172 @@ public class VexInput implements OSMEntitySource {
         entitySink.writeEnd();
     }
 
+    /**
+     * Push views of the entities in the VEX stream through to the given sink, without materializing the entities.
+     * Each block is scanned only as far as needed to find where every entity starts and to resolve the delta coding,
+     * leaving tags and relation members in their encoded form until the sink asks for them.
+     */
+    public void copyViewsTo(OSMEntityViewSink sink) throws IOException {
+        LOG.info("Reading VEX format as entity views...");
+        sink.writeBegin();
+        DeflatedBlockReader blockReader = new DeflatedBlockReader(vexStream);
+        VarIntBuffer in = new VarIntBuffer(StringCache.withDefaultDictionary());
+        NodeView nodeView = new NodeView();
+        WayView wayView = new WayView();
+        RelationView relationView = new RelationView();
+        while (true) {
+            VEXBlock block = blockReader.nextBlock();
+            if (block == VEXBlock.END_BLOCK) {
+                break;
+            }
+            in.reset(block.data, 0, block.nBytes);
+            String[] strings = readStringTable(in, block);
+            nodeView.setStrings(strings);
+            wayView.setStrings(strings);
+            relationView.setStrings(strings);
+            if ((block.flags & VexFormat.FLAG_COLUMNAR) != 0) {
+                checkColumnar(block);
+                readNodeColumns(in, block.nEntities);
+                for (int i = 0; i < block.nEntities; i++) {
+                    int tagsPosition = in.position();
+                    int nTags = in.readUInt32();
+                    for (int t = 0; t < nTags * 2; t++) {
+                        skipString(in, strings);
+                    }
+                    nodeView.reset(block.data, nodeBatch.ids[i], tagsPosition,
+                            nodeBatch.fixedLats[i], nodeBatch.fixedLons[i]);
+                    nNodesRead++;
+                    sink.writeNode(nodeView);
+                }
+                continue;
+            }
+            long id = 0, ref = 0;
+            int fixedLat = 0, fixedLon = 0;
+            for (int i = 0; i < block.nEntities; i++) {
+                id += in.readSInt64();
+                int tagsPosition = in.position();
+                int nTags = in.readUInt32();
+                for (int t = 0; t < nTags * 2; t++) {
+                    skipString(in, strings);
+                }
+                switch (block.entityType) {
+                    case VexFormat.VEX_NODE:
+                        fixedLat += in.readSInt64();
+                        fixedLon += in.readSInt64();
+                        nodeView.reset(block.data, id, tagsPosition, fixedLat, fixedLon);
+                        nNodesRead++;
+                        sink.writeNode(nodeView);
+                        break;
+                    case VexFormat.VEX_WAY:
+                        int nNodes = in.readUInt32();
+                        wayView.reset(block.data, id, tagsPosition, nNodes);
+                        for (int n = 0; n < nNodes; n++) {
+                            ref += in.readSInt64();
+                            wayView.setNode(n, ref);
+                        }
+                        nWaysRead++;
+                        sink.writeWay(wayView);
+                        break;
+                    case VexFormat.VEX_RELATION:
+                        int membersPosition = in.position();
+                        int nMembers = in.readUInt32();
+                        for (int m = 0; m < nMembers; m++) {
+                            in.readUInt64();
+                            in.readUInt32();
+                            skipString(in, strings);
+                        }
+                        relationView.reset(block.data, id, tagsPosition, membersPosition);
+                        nRelationsRead++;
+                        sink.writeRelation(relationView);
+                        break;
+                    default:
+                        throw new RuntimeException("Unrecognized block type. Corrupt VEX data.");
+                }
+            }
+        }
+        LOG.info("Read {} nodes, {} ways, {} relations.", nNodesRead, nWaysRead, nRelationsRead);
+        sink.writeEnd();
+    }
+
+    /**
+     * Read the string table at the head of a block, which the tags and roles of its entities refer to by index.
+     * @return the strings in the table, or null if the block has no table and its strings are inline.
+     */
+    private static String[] readStringTable(VarIntBuffer in, VEXBlock block) {
+        if ((block.flags & VexFormat.FLAG_STRING_TABLE) == 0) {
+            return null;
+        }
+        int nStrings = in.readUInt32();
+        // Every string takes at least one byte, for its length.
+        if (nStrings < 0 || nStrings > in.remaining()) {
+            throw new RuntimeException(String.format("Block has %d strings, it is probably corrupted.", nStrings));
+        }
+        String[] strings = new String[nStrings];
+        for (int i = 0; i < nStrings; i++) {
+            strings[i] = in.readString();
+        }
+        return strings;
+    }
+
+    private static void skipString(VarIntBuffer in, String[] strings) {
+        if (strings == null) {
+            in.skipString();
+        } else {
+            in.readUInt32();
+        }
+    }
+
+    /** Read a string from the current block, either as an index into its string table or inline. */
+    private String readString() {
+        return blockStrings == null ? vin.readString() : blockStrings[vin.readUInt32()];
+    }
+
+    private static void checkColumnar(VEXBlock block) {
+        if (block.entityType != VexFormat.VEX_NODE) {
+            throw new RuntimeException("Only node blocks can be columnar. Corrupt VEX data.");
+        }
+    }
+
+    /**
+     * Decode the ID, latitude and longitude columns of a columnar node block straight into the arrays of the node
+     * batch, one tight loop per column. The tags of the nodes follow, and are left for the caller to read.
+     */
+    private void readNodeColumns(VarIntBuffer in, int nNodes) {
+        nodeBatch.ensureCapacity(nNodes);
+        long[] ids = nodeBatch.ids;
+        long id = 0;
+        for (int i = 0; i < nNodes; i++) {
+            id += in.readSInt64();
+            ids[i] = id;
+        }
+        int[] fixedLats = nodeBatch.fixedLats;
+        int fixedLat = 0;
+        for (int i = 0; i < nNodes; i++) {
+            fixedLat += (int) in.readSInt64();
+            fixedLats[i] = fixedLat;
+        }
+        int[] fixedLons = nodeBatch.fixedLons;
+        int fixedLon = 0;
+        for (int i = 0; i < nNodes; i++) {
+            fixedLon += (int) in.readSInt64();
+            fixedLons[i] = fixedLon;
+        }
+    }
+
+    /** Decode a columnar node block (see VexFormat.FLAG_COLUMNAR) and hand it through to the sink. */
+    private void readColumnarNodeBlock(VEXBlock block) throws IOException {
+        checkColumnar(block);
+        int nNodes = block.nEntities;
+        readNodeColumns(vin, nNodes);
+        List<OSMEntity.Tag>[] tags = nodeBatch.tags;
+        for (int i = 0; i < nNodes; i++) {
+            tags[i] = readTags();
+        }
+        nodeBatch.size = nNodes;
+        nNodesRead += nNodes;
+        metrics.writeNodes(entitySink, nodeBatch);
+    }
+
     public void readBlock(int entityType, int nEntitiesExpected) throws IOException {
         // Reset delta coding fields
         id = ref = prevFixedLat = prevFixedLon = 0;
@@ -80,50 +300,63 @@ public class VexInput implements OSMEntitySource {
             }
         }
         // TODO check that byte stream is exhausted, number of entities matches expected.
+        // Hand the whole block through to the sink at once.
+        switch (entityType) {
+            case VexFormat.VEX_NODE:
+                metrics.writeNodes(entitySink, nodeBatch);
+                break;
+            case VexFormat.VEX_WAY:
+                metrics.writeWays(entitySink, wayBatch);
+                break;
+            case VexFormat.VEX_RELATION:
+                metrics.writeRelations(entitySink, relationBatch);
+                break;
+        }
     }
 
     public List<OSMEntity.Tag> readTags() throws IOException {
-        OSMEntity tagged = new Node();
         int nTags = vin.readUInt32();
         if (nTags > 500) {
             throw new RuntimeException(String.format("Entity has %d tags, this looks like a corrupted file.", nTags));
         }
+        if (nTags == 0) {
+            return null;
+        }
+        TagList tags = new TagList(nTags);
         for (int i = 0; i < nTags; i++) {
-            String key = vin.readString();
-            String val = vin.readString();
-            tagged.addTag(key, val);
+            String key = readString();
+            String val = readString();
+            tags.add(key, val);
         }
-        return tagged.tags;
+        return tags;
     }
 
     public void readNode() throws IOException {
-        /* Create a new instance each time because we don't know if this is going in a MapDB or a normal Map. */
-        Node node = new Node();
+        /* Nodes are decoded straight into the columns of the batch, no Node object is created. */
         long idDelta = vin.readSInt64();
         id += idDelta;
-        node.tags = readTags();
-        node.fixedLat = (int) (prevFixedLat + vin.readSInt64());
-        node.fixedLon = (int) (prevFixedLon + vin.readSInt64());
-        prevFixedLat = node.fixedLat;
-        prevFixedLon = node.fixedLon;
+        List<OSMEntity.Tag> tags = readTags();
+        int fixedLat = (int) (prevFixedLat + vin.readSInt64());
+        int fixedLon = (int) (prevFixedLon + vin.readSInt64());
+        prevFixedLat = fixedLat;
+        prevFixedLon = fixedLon;
         nNodesRead++;
-        entitySink.writeNode(id, node);
+        nodeBatch.add(id, fixedLat, fixedLon, tags);
     }
 
     public void readWay() throws IOException {
-        /* Create a new instance each time because we don't know if this is going in a MapDB or a normal Map. */
-        Way way = new Way();
         long idDelta = vin.readSInt64();
         id += idDelta;
-        way.tags = readTags();
+        List<OSMEntity.Tag> tags = readTags();
         int nNodes = vin.readUInt32();
-        way.nodes = new long[nNodes];
+        /* Create a new array each time because we don't know if this is going in a MapDB or a normal Map. */
+        long[] nodes = new long[nNodes];
         for (int i = 0; i < nNodes; i++) {
             ref += vin.readSInt64();
-            way.nodes[i] = ref;
+            nodes[i] = ref;
         }
         nWaysRead++;
-        entitySink.writeWay(id, way);
+        wayBatch.add(id, nodes, tags);
     }
 
     private static OSMEntity.Type[] memberTypeForOrdinal = OSMEntity.Type.values();
@@ -139,11 +372,11 @@ public class VexInput implements OSMEntitySource {
             Relation.Member member = new Relation.Member();
             member.id = vin.readSInt64();
             member.type = memberTypeForOrdinal[vin.readUInt32()]; // FIXME bad, assign specific numbers
-            member.role = vin.readString();
+            member.role = readString();
             relation.members.add(member);
         }
         nRelationsRead++;
-        entitySink.writeRelation(id, relation);
+        relationBatch.add(id, relation);
         //System.out.println(id + " " + relation.toString());
     }
 
@@ -21,8 +21,8 @@ public class VexOutput implements OSMEntitySink {
     /** A message-oriented output stream that will write out blocks of VEX data when its buffer is filled. */
     private DeflatedBlockWriter blockWriter;
 
-    /** The output sink for uncompressed VEX format. */
-    private VarIntOutputStream vout;
+    /** Writes the uncompressed VEX format straight into the buffer of the block writer. */
+    private VarIntEncoder vout;
 
     /** Values retained from one entity to the next within a block for delta decoding. */
     private long prevId, prevRef, prevFixedLat, prevFixedLon;
@@ -33,9 +33,65 @@ public class VexOutput implements OSMEntitySink {
     /** The replication timestamp to apply to the output. */
     private long timestamp;
 
+    /** The number of entities that were too big to fit in a block even on their own, and were left out. */
+    private long nSkipped = 0;
+
+    /** The VexFormat version to write. */
+    private final int version;
+
+    /** Whether node blocks are written column by column, which version 2 does by default. */
+    private boolean columnarNodes;
+
+    /** Whether to write a VexIndex footer after the last block. */
+    private boolean writeIndex = false;
+
+    private BlockCodec codec = BlockCodec.DEFLATE;
+
     /** Construct a new VEX output encoder which writes to the given downstream OutputStream. */
     public VexOutput(OutputStream downstream) {
+        this(downstream, VexFormat.CURRENT_VERSION);
+    }
+
+    /** Construct a VEX output encoder writing the given VexFormat version, e.g. for readers that predate version 2. */
+    public VexOutput(OutputStream downstream, int version) {
         this.downstream = downstream;
+        this.version = version;
+        this.columnarNodes = version >= VexFormat.VERSION_2;
+    }
+
+    /**
+     * Choose whether node blocks are columnar (see VexFormat.FLAG_COLUMNAR) or keep the fields of each node together.
+     * Must be called before writing begins.
+     */
+    public void setColumnarNodes(boolean columnarNodes) {
+        if (columnarNodes) requireVersion2("Columnar node blocks");
+        this.columnarNodes = columnarNodes;
+    }
+
+    /** Check settings up front, as the block writer only sees them once its thread is running. */
+    private void requireVersion2(String feature) {
+        if (version < VexFormat.VERSION_2) {
+            throw new IllegalStateException(feature + " require VEX format version 2 or later.");
+        }
+    }
+
+    /**
+     * Choose how blocks are compressed. Deflate is the default, and the only codec version 1 allows. For intermediate
+     * files, BlockCodec.LZ4 or STORE make writing and reading much faster at the cost of size.
+     * Must be called before writing begins.
+     */
+    public void setCodec(BlockCodec codec) {
+        if (codec.getId() != BlockCodec.DEFLATE_ID) requireVersion2("Codecs other than deflate");
+        this.codec = codec;
+    }
+
+    /**
+     * Choose whether to follow the last block with a VexIndex, which allows reading the file selectively or in
+     * parallel (see VexInput.forRange and VexInput.split). Must be called before writing begins.
+     */
+    public void setWriteIndex(boolean writeIndex) {
+        if (writeIndex) requireVersion2("Block indexes");
+        this.writeIndex = writeIndex;
     }
 
     /** Reset the inter-entity delta coding values and set the entity type for a new block. */
@@ -49,25 +105,50 @@ public class VexOutput implements OSMEntitySink {
      * Writes the fields common to all OSM entities (ID and tags) and increments the entity counter.
      */
     private void beginEntity(long id, OSMEntity osmEntity) throws IOException {
+        blockWriter.beginEntity(id);
+        writeIdDelta(vout, id);
+        writeTags(osmEntity);
+    }
+
+    private void writeIdDelta(VarIntEncoder out, long id) {
         long idDelta = id - prevId;
         if (idDelta == 0) {
             LOG.error("The same entity ID is being written twice in a row. This will prematurely terminate a block.");
         }
-        vout.writeSInt64(idDelta);
+        out.writeSInt64(idDelta);
         prevId = id;
-        writeTags(osmEntity);
     }
 
     /**
      * Called at the end of each node, way, or relation. Tells the downstream block writer that it has received a
      * complete message and may now consider writing a block.
+     *
+     * Blocks are ended well before they fill up, so only an entity bigger than MAX_MESSAGE_SIZE (e.g. a relation with
+     * thousands of members) can take a block past the size readers accept. It is then removed from the block, which
+     * is ended without it, and must be written again at the start of a new block, since the delta coding restarts.
+     * An entity that does not fit even in a block of its own cannot be represented at all, and is left out.
+     *
+     * @return false if the entity was removed and must be written again.
      */
-    private void endEntity() throws IOException {
+    private boolean endEntity(long id) throws IOException {
+        if (blockWriter.entityOverflows()) {
+            blockWriter.discardEntity();
+            if (blockWriter.isFirstEntity()) {
+                LOG.error("Entity {} is too big to fit in a VEX block, it will be left out.", id);
+                nSkipped += 1;
+                beginBlock(currEntityType); // Undo any changes to the delta coding values.
+                return true;
+            }
+            blockWriter.endBlock();
+            beginBlock(currEntityType);
+            return false;
+        }
         if (blockWriter.endEntity()) {
             // The writer has signaled that a block is finished.
             // Start a new one, resetting the delta coding variables.
             beginBlock(currEntityType);
         }
+        return true;
     }
 
     /**
@@ -101,20 +182,31 @@ public class VexOutput implements OSMEntitySink {
         } else {
             vout.writeUInt32(tags.size());
             for (OSMEntity.Tag tag : tagged.tags) {
-                if (tag.value == null) tag.value = "";
-                vout.writeString(tag.key);
-                vout.writeString(tag.value);
+                writeString(tag.key);
+                writeString(tag.value == null ? "" : tag.value);
             }
         }
     }
 
+    /** Write a string as its index in the block's string table, or inline if the format version has no table. */
+    private void writeString(String string) {
+        if (blockWriter.hasStringTable()) {
+            vout.writeUInt32(blockWriter.getStringCode(string));
+        } else {
+            vout.writeString(string);
+        }
+    }
+
     /* OSM DATA SINK INTERFACE */
 
     @Override
     public void writeBegin() throws IOException {
         LOG.info("Writing VEX format...");
-        blockWriter = new DeflatedBlockWriter(downstream);
-        vout = new VarIntOutputStream(blockWriter);
+        blockWriter = new DeflatedBlockWriter(downstream, version);
+        blockWriter.setColumnarNodes(columnarNodes);
+        blockWriter.setWriteIndex(writeIndex);
+        blockWriter.setCodec(codec);
+        vout = blockWriter.getEncoder();
     }
 
     @Override
@@ -126,23 +218,46 @@ public class VexOutput implements OSMEntitySink {
     public void writeEnd() throws IOException {
         blockWriter.endBlock(); // Finish any partially-completed block.
         blockWriter.close(); // Let writing thread complete then close downstream OutputStream.
+        if (nSkipped > 0) {
+            LOG.error("{} entities were too big for a VEX block and were left out.", nSkipped);
+        }
         LOG.info("Finished writing VEX format.");
     }
 
     @Override
     public void writeNode(long id, Node node) throws IOException {
         checkBlockTransition(VexFormat.VEX_NODE);
-        beginEntity(id, node);
-        // plain ints should be fine rather than longs:
-        // 2**31 = 2147483648
-        // 180e7 = 1800000000.0
-        long fixedLat = (long) (node.fixedLat);
-        long fixedLon = (long) (node.fixedLon);
-        vout.writeSInt64(fixedLat - prevFixedLat);
-        vout.writeSInt64(fixedLon - prevFixedLon);
-        prevFixedLat = fixedLat;
-        prevFixedLon = fixedLon;
-        endEntity();
+        if (blockWriter.isColumnar()) {
+            writeNodeColumns(id, node);
+            return;
+        }
+        do {
+            beginEntity(id, node);
+            // plain ints should be fine rather than longs:
+            // 2**31 = 2147483648
+            // 180e7 = 1800000000.0
+            long fixedLat = (long) (node.fixedLat);
+            long fixedLon = (long) (node.fixedLon);
+            vout.writeSInt64(fixedLat - prevFixedLat);
+            vout.writeSInt64(fixedLon - prevFixedLon);
+            prevFixedLat = fixedLat;
+            prevFixedLon = fixedLon;
+        } while (!endEntity(id));
+    }
+
+    /** Write the ID and coordinate deltas of a node into their own columns, and the tags into the main buffer. */
+    private void writeNodeColumns(long id, Node node) throws IOException {
+        do {
+            blockWriter.beginEntity(id);
+            writeIdDelta(blockWriter.getColumn(0), id);
+            long fixedLat = node.fixedLat;
+            long fixedLon = node.fixedLon;
+            blockWriter.getColumn(1).writeSInt64(fixedLat - prevFixedLat);
+            blockWriter.getColumn(2).writeSInt64(fixedLon - prevFixedLon);
+            prevFixedLat = fixedLat;
+            prevFixedLon = fixedLon;
+            writeTags(node);
+        } while (!endEntity(id));
     }
 
     /**
@@ -152,26 +267,28 @@ public class VexOutput implements OSMEntitySink {
     @Override
     public void writeWay(long id, Way way) throws IOException {
         checkBlockTransition(VexFormat.VEX_WAY);
-        beginEntity(id, way);
-        vout.writeUInt32(way.nodes.length);
-        for (long ref : way.nodes) {
-            vout.writeSInt64(ref - prevRef);
-            prevRef = ref;
-        }
-        endEntity();
+        do {
+            beginEntity(id, way);
+            vout.writeUInt32(way.nodes.length);
+            for (long ref : way.nodes) {
+                vout.writeSInt64(ref - prevRef);
+                prevRef = ref;
+            }
+        } while (!endEntity(id));
     }
 
     @Override
     public void writeRelation(long id, Relation relation) throws IOException {
         checkBlockTransition(VexFormat.VEX_RELATION);
-        beginEntity(id, relation);
-        vout.writeUInt32(relation.members.size());
-        for (Relation.Member member : relation.members) {
-            vout.writeSInt64(member.id);
-            vout.writeUInt32(member.type.ordinal()); // FIXME ordinal is bad. assign specific codes to types.
-            vout.writeString(member.role);
-        }
-        endEntity();
+        do {
+            beginEntity(id, relation);
+            vout.writeUInt32(relation.members.size());
+            for (Relation.Member member : relation.members) {
+                vout.writeSInt64(member.id);
+                vout.writeUInt32(member.type.ordinal()); // FIXME ordinal is bad. assign specific codes to types.
+                writeString(member.role);
+            }
+        } while (!endEntity(id));
     }
 
 }
@@ -0,0 +1,54 @@
+package com.conveyal.osmlib;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A block of ways in columnar form: parallel arrays of IDs, node lists and tags, of which the first size entries are
+ * in use. Sources reuse a batch from one block to the next, so a batch is only valid during the call it is passed to,
+ * but the node arrays and tag lists it holds are never reused and may be retained.
+ */
+public class WayBatch {
+
+    public int size = 0;
+
+    public long[] ids = new long[0];
+
+    public long[][] nodes = new long[0][];
+
+    /** The tags of each way, null for untagged ways as in OSMEntity. */
+    public List<OSMEntity.Tag>[] tags = NodeBatch.newTagArray(0);
+
+    /** Empty this batch, releasing the node lists and tags it references. */
+    public void clear () {
+        Arrays.fill(nodes, 0, size, null);
+        Arrays.fill(tags, 0, size, null);
+        size = 0;
+    }
+
+    public void add (long id, long[] wayNodes, List<OSMEntity.Tag> wayTags) {
+        if (size == ids.length) {
+            int newLength = Math.max(256, size * 2);
+            ids = Arrays.copyOf(ids, newLength);
+            nodes = Arrays.copyOf(nodes, newLength);
+            tags = Arrays.copyOf(tags, newLength);
+        }
+        ids[size] = id;
+        nodes[size] = wayNodes;
+        tags[size] = wayTags;
+        size += 1;
+    }
+
+    public void add (long id, Way way) {
+        add(id, way.nodes, way.tags);
+    }
+
+    /** @return a new Way object for the way at the given position in this batch. */
+    public Way getWay (int i) {
+        Way way = new Way();
+        way.nodes = nodes[i];
+        way.tags = tags[i];
+        return way;
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.conveyal.osmlib;
+
+import java.util.Arrays;
+
+/**
+ * A reusable view of a way in an encoded block. Node references are delta coded across all the ways in a block, so
+ * they have to be summed while scanning the block anyway. They are accumulated into a buffer that is reused from one
+ * way to the next, and can be read from the view without allocation. See OSMEntityView.
+ */
+public class WayView extends OSMEntityView {
+
+    private long[] nodes = new long[256];
+
+    private int nNodes;
+
+    WayView () { }
+
+    /** Prepare to receive the given number of node references through setNode before the view is used. */
+    void reset (byte[] data, long id, int tagsPosition, int nNodes) {
+        reset(data, id, tagsPosition);
+        if (nodes.length < nNodes) {
+            nodes = new long[Math.max(nNodes, nodes.length * 2)];
+        }
+        this.nNodes = nNodes;
+    }
+
+    void setNode (int i, long nodeId) {
+        nodes[i] = nodeId;
+    }
+
+    public int getNodeCount () {
+        return nNodes;
+    }
+
+    public long getNode (int i) {
+        if (i >= nNodes) throw new IndexOutOfBoundsException();
+        return nodes[i];
+    }
+
+    @Override
+    public OSMEntity.Type getType () {
+        return OSMEntity.Type.WAY;
+    }
+
+    @Override
+    public Way copy () {
+        Way way = new Way();
+        way.nodes = Arrays.copyOf(nodes, nNodes);
+        copyTagsTo(way);
+        return way;
+    }
+
+}
@@ -1,11 +1,18 @@
 package com.conveyal.osmlib.main;
 
+import com.conveyal.osmlib.BlockCodec;
 import com.conveyal.osmlib.OSMEntitySink;
 import com.conveyal.osmlib.OSMEntitySource;
+import com.conveyal.osmlib.PBFOutput;
+import com.conveyal.osmlib.TeeSink;
+import com.conveyal.osmlib.VexOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class Converter {
 
@@ -14,23 +21,47 @@ public class Converter {
     /**
      * This main method will load a file into the osm-lib representation and write it back out as a stream,
      * without using an intermediate MapDB. File types are detected from the file name extensions.
+     * If several output files are given, they are all written at once from a single pass over the input.
+     * An optional first argument --codec=name chooses how PBF and VEX outputs are compressed (see BlockCodec.forName).
      */
     public static void main(String[] args) {
 
+        BlockCodec codec = null;
+        if (args.length > 0 && args[0].startsWith("--codec=")) {
+            codec = BlockCodec.forName(args[0].substring("--codec=".length()));
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
         // Get input and output file names
         if (args.length < 2) {
-            System.err.println("usage: Convert input.[pbf|vex] output.[pbf|vex|txt]");
+            System.err.println("usage: Convert [--codec=deflate|deflate:level|store|lz4] input.[pbf|vex] " +
+                    "output.[pbf|vex|txt] [more outputs...]");
             System.exit(0);
         }
         String inputPath = args[0];
-        String outputPath = args[1];
 
         // Pump the entities from the input file directly to the output file.
         long startTime = System.currentTimeMillis();
         try {
             OSMEntitySource source = OSMEntitySource.forFile(inputPath);
-            OSMEntitySink sink = OSMEntitySink.forFile(outputPath);
-            source.copyTo(sink);
+            List<OSMEntitySink> sinks = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                OSMEntitySink sink = OSMEntitySink.forFile(args[i]);
+                if (codec != null && sink instanceof VexOutput) {
+                    ((VexOutput) sink).setCodec(codec);
+                } else if (codec != null && sink instanceof PBFOutput) {
+                    ((PBFOutput) sink).setCodec(codec);
+                }
+                sinks.add(sink);
+            }
+            if (sinks.size() == 1) {
+                source.copyTo(sinks.get(0));
+            } else {
+                // Closing the tee stops its threads and closes the outputs if reading fails part way through.
+                try (TeeSink tee = new TeeSink(sinks)) {
+                    source.copyTo(tee);
+                }
+            }
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
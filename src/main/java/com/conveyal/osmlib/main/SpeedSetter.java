@@ -25,7 +25,7 @@ public class SpeedSetter {
                 String[] fields = line.split(",");
                 long osmWayId = Long.parseLong(fields[0]);
                 double speedKph = Double.parseDouble(fields[1]);
-                Way way = osm.ways.get(osmWayId);
+                Way way = osm.getWays().get(osmWayId);
                 // R5 currently prioritizes maxspeed:motorcar above all other maxspeed tags
                 way.addOrReplaceTag("maxspeed:motorcar", String.format("%1.1f kph", speedKph));
                 osm.ways.put(osmWayId, way);
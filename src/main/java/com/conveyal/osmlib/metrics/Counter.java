@@ -0,0 +1,12 @@
+package com.conveyal.osmlib.metrics;
+
+/** A running total, such as a number of bytes read or entities decoded. Implementations must be threadsafe. */
+public interface Counter {
+
+    void increment (long n);
+
+    default void increment () {
+        increment(1);
+    }
+
+}
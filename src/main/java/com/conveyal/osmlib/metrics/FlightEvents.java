@@ -0,0 +1,88 @@
+package com.conveyal.osmlib.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits Java Flight Recorder events from the slow stages of loading, writing and extracting OSM data, so that a
+ * recording shows them on the same timeline as GC pauses, I/O and lock contention. The events appear under the
+ * osm-lib category in JDK Mission Control.
+ *
+ * osm-lib still builds and runs on Java 8, which has no JFR API, so nothing in the main sources refers to JFR. The
+ * event classes are in JfrEvents, under src/main/java11, which the build only compiles on JDK 11 and later. It is
+ * loaded by name if it was compiled and the running JVM has the JFR API. Each stage calls a begin method before its
+ * work and the matching commit method after it. The begin methods return null when JFR is unavailable or the event is
+ * not enabled in the running recording, in which case the commit methods do nothing and the cost is a single branch.
+ */
+public class FlightEvents {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlightEvents.class);
+
+    /** The events as JfrEvents implements them. Events are passed around as Object so they need no JFR types. */
+    interface Recorder {
+        Object beginBlockInflate ();
+        void commitBlockInflate (Object event, int entityType, int nEntities, int compressedBytes, int inflatedBytes);
+        Object beginBlobWrite ();
+        void commitBlobWrite (Object event, String blobType, int nEntities, int rawBytes, int blobBytes);
+        Object beginDiffApply ();
+        void commitDiffApply (Object event, String timescale, long sequenceNumber, long nChanges);
+        Object beginTileExtract ();
+        void commitTileExtract (Object event, int minX, int minY, int maxX, int maxY,
+                                long nNodes, long nWays, long nRelations);
+    }
+
+    private static final Recorder RECORDER = loadRecorder();
+
+    public static final boolean AVAILABLE = RECORDER != null;
+
+    private static Recorder loadRecorder () {
+        try {
+            Class.forName("jdk.jfr.Event");
+        } catch (ClassNotFoundException | LinkageError e) {
+            LOG.info("Java Flight Recorder is not available, osm-lib will not emit JFR events.");
+            return null;
+        }
+        try {
+            return (Recorder) Class.forName(FlightEvents.class.getPackage().getName() + ".JfrEvents")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOG.info("osm-lib was built without JFR events (they need JDK 11 or later to compile).");
+            return null;
+        }
+    }
+
+    public static Object beginBlockInflate () {
+        return AVAILABLE ? RECORDER.beginBlockInflate() : null;
+    }
+
+    public static void commitBlockInflate (Object event, int entityType, int nEntities, int compressedBytes,
+                                           int inflatedBytes) {
+        if (event != null) RECORDER.commitBlockInflate(event, entityType, nEntities, compressedBytes, inflatedBytes);
+    }
+
+    public static Object beginBlobWrite () {
+        return AVAILABLE ? RECORDER.beginBlobWrite() : null;
+    }
+
+    public static void commitBlobWrite (Object event, String blobType, int nEntities, int rawBytes, int blobBytes) {
+        if (event != null) RECORDER.commitBlobWrite(event, blobType, nEntities, rawBytes, blobBytes);
+    }
+
+    public static Object beginDiffApply () {
+        return AVAILABLE ? RECORDER.beginDiffApply() : null;
+    }
+
+    public static void commitDiffApply (Object event, String timescale, long sequenceNumber, long nChanges) {
+        if (event != null) RECORDER.commitDiffApply(event, timescale, sequenceNumber, nChanges);
+    }
+
+    public static Object beginTileExtract () {
+        return AVAILABLE ? RECORDER.beginTileExtract() : null;
+    }
+
+    public static void commitTileExtract (Object event, int minX, int minY, int maxX, int maxY,
+                                          long nNodes, long nWays, long nRelations) {
+        if (event != null) RECORDER.commitTileExtract(event, minX, minY, maxX, maxY, nNodes, nWays, nRelations);
+    }
+
+}
@@ -0,0 +1,8 @@
+package com.conveyal.osmlib.metrics;
+
+/** The distribution of a quantity measured once per event, such as the size of a response. Threadsafe. */
+public interface Histogram {
+
+    void record (long value);
+
+}
@@ -0,0 +1,44 @@
+package com.conveyal.osmlib.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** An InputStream that adds the number of bytes read through it to a counter. */
+public class MeteredInputStream extends FilterInputStream {
+
+    private final Counter bytesRead;
+
+    public MeteredInputStream (InputStream in, Counter bytesRead) {
+        super(in);
+        this.bytesRead = bytesRead;
+    }
+
+    @Override
+    public int read () throws IOException {
+        int b = super.read();
+        if (b >= 0) bytesRead.increment();
+        return b;
+    }
+
+    @Override
+    public int read (byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) bytesRead.increment(n);
+        return n;
+    }
+
+    @Override
+    public long skip (long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) bytesRead.increment(skipped);
+        return skipped;
+    }
+
+    // Marking would make us count some bytes twice.
+    @Override
+    public boolean markSupported () {
+        return false;
+    }
+
+}
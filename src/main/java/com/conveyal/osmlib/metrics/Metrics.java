@@ -0,0 +1,34 @@
+package com.conveyal.osmlib.metrics;
+
+/**
+ * Holds the registry that all of osm-lib reports to. By default this is a SimpleMetricsRegistry, which keeps the
+ * metrics in memory for the /metrics endpoint of the extract server.
+ *
+ * Instruments are looked up when a reader, writer or table is created rather than each time they are updated, so a
+ * different registry should be installed before any data is loaded.
+ */
+public class Metrics {
+
+    private static volatile MetricsRegistry registry = new SimpleMetricsRegistry();
+
+    public static MetricsRegistry registry () {
+        return registry;
+    }
+
+    public static void setRegistry (MetricsRegistry registry) {
+        Metrics.registry = registry;
+    }
+
+    public static Counter counter (String name) {
+        return registry.counter(name);
+    }
+
+    public static Timer timer (String name) {
+        return registry.timer(name);
+    }
+
+    public static Histogram histogram (String name) {
+        return registry.histogram(name);
+    }
+
+}
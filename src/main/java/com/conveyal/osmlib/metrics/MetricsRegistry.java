@@ -0,0 +1,36 @@
+package com.conveyal.osmlib.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Hands out the named counters, timers and histograms that osm-lib updates as it reads, writes and serves data.
+ * Asking twice for the same name returns an instrument feeding the same metric. Names are lower case, with dots
+ * separating the component from the quantity, e.g. vex.blocks_inflated.
+ *
+ * Applications that already collect metrics can implement this interface to bridge osm-lib's instruments into
+ * their own system, and install it with Metrics.setRegistry().
+ */
+public interface MetricsRegistry {
+
+    Counter counter (String name);
+
+    Timer timer (String name);
+
+    Histogram histogram (String name);
+
+    /** Write the current value of every metric in a plain text format, e.g. for a /metrics HTTP endpoint. */
+    void writeText (Writer out) throws IOException;
+
+    /** A registry whose instruments do nothing, for when even the small cost of collecting metrics is unwanted. */
+    MetricsRegistry NONE = new MetricsRegistry() {
+        private final Counter counter = n -> { };
+        private final Timer timer = nanos -> { };
+        private final Histogram histogram = value -> { };
+        @Override public Counter counter (String name) { return counter; }
+        @Override public Timer timer (String name) { return timer; }
+        @Override public Histogram histogram (String name) { return histogram; }
+        @Override public void writeText (Writer out) { }
+    };
+
+}
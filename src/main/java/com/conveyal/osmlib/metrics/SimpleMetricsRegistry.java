@@ -0,0 +1,139 @@
+package com.conveyal.osmlib.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A self-contained registry keeping all metrics in memory, with no dependencies. Counters are LongAdders, so threads
+ * updating the same counter do not contend. Histograms and timers count values in power-of-two buckets, which is
+ * enough to tell a millisecond from a second and costs a few atomic increments per value, but means the quantiles
+ * reported are only upper bounds within a factor of two.
+ *
+ * The text output follows the Prometheus exposition format, with names prefixed by osmlib_ and dots replaced by
+ * underscores. Timers are reported in seconds. Rates (e.g. entities per second) are left to whatever scrapes the
+ * endpoint, which can compute them from successive counter values.
+ */
+public class SimpleMetricsRegistry implements MetricsRegistry {
+
+    private static final String PREFIX = "osmlib_";
+
+    private static final double[] QUANTILES = new double[] { 0.5, 0.9, 0.99 };
+
+    private final Map<String, SimpleCounter> counters = new ConcurrentHashMap<>();
+
+    private final Map<String, SimpleHistogram> histograms = new ConcurrentHashMap<>();
+
+    private final Map<String, SimpleHistogram> timers = new ConcurrentHashMap<>();
+
+    @Override
+    public Counter counter (String name) {
+        return counters.computeIfAbsent(name, n -> new SimpleCounter());
+    }
+
+    @Override
+    public Timer timer (String name) {
+        return timers.computeIfAbsent(name, n -> new SimpleHistogram())::record;
+    }
+
+    @Override
+    public Histogram histogram (String name) {
+        return histograms.computeIfAbsent(name, n -> new SimpleHistogram());
+    }
+
+    /** @return the current total of the given counter, or zero if nothing has been counted under that name. */
+    public long getCount (String name) {
+        SimpleCounter counter = counters.get(name);
+        return counter == null ? 0 : counter.total.sum();
+    }
+
+    /** @return the number of values recorded by the given histogram or timer. */
+    public long getHistogramCount (String name) {
+        SimpleHistogram histogram = histograms.containsKey(name) ? histograms.get(name) : timers.get(name);
+        return histogram == null ? 0 : histogram.count.sum();
+    }
+
+    @Override
+    public void writeText (Writer out) throws IOException {
+        for (Map.Entry<String, SimpleCounter> entry : new TreeMap<>(counters).entrySet()) {
+            String name = PREFIX + sanitize(entry.getKey()) + "_total";
+            out.write("# TYPE " + name + " counter\n");
+            out.write(name + " " + entry.getValue().total.sum() + "\n");
+        }
+        for (Map.Entry<String, SimpleHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            entry.getValue().writeText(out, PREFIX + sanitize(entry.getKey()), 1);
+        }
+        for (Map.Entry<String, SimpleHistogram> entry : new TreeMap<>(timers).entrySet()) {
+            entry.getValue().writeText(out, PREFIX + sanitize(entry.getKey()) + "_seconds", 1e-9);
+        }
+    }
+
+    private static String sanitize (String name) {
+        return name.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    private static class SimpleCounter implements Counter {
+
+        final LongAdder total = new LongAdder();
+
+        @Override
+        public void increment (long n) {
+            total.add(n);
+        }
+
+    }
+
+    /** Bucket i holds the values that need exactly i bits, i.e. from 2^(i-1) to 2^i - 1. Bucket 0 holds zero. */
+    private static class SimpleHistogram implements Histogram {
+
+        final AtomicLongArray buckets = new AtomicLongArray(65);
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        @Override
+        public void record (long value) {
+            if (value < 0) value = 0; // e.g. a clock adjustment during a timed operation
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /** @return an upper bound on the given quantile of the recorded values. */
+        long quantile (double q, long n) {
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    long upperBound = i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upperBound, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void writeText (Writer out, String name, double scale) throws IOException {
+            long n = count.sum();
+            out.write("# TYPE " + name + " summary\n");
+            for (double q : QUANTILES) {
+                out.write(name + "{quantile=\"" + q + "\"} " + format(quantile(q, n), scale) + "\n");
+            }
+            out.write(name + "_sum " + format(sum.sum(), scale) + "\n");
+            out.write(name + "_count " + n + "\n");
+            out.write(name + "_max " + format(max.get(), scale) + "\n");
+        }
+
+        private static String format (long value, double scale) {
+            return scale == 1 ? Long.toString(value) : Double.toString(value * scale);
+        }
+
+    }
+
+}
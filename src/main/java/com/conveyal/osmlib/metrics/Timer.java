@@ -0,0 +1,25 @@
+package com.conveyal.osmlib.metrics;
+
+/**
+ * The distribution of the durations of some operation. Usage is:
+ * <pre>
+ * long start = timer.start();
+ * doSomething();
+ * timer.stop(start);
+ * </pre>
+ * Implementations must be threadsafe.
+ */
+public interface Timer {
+
+    void recordNanos (long nanos);
+
+    default long start () {
+        return System.nanoTime();
+    }
+
+    /** Record the time elapsed since the given value returned by start(). */
+    default void stop (long start) {
+        recordNanos(System.nanoTime() - start);
+    }
+
+}
@@ -10,11 +10,25 @@ import java.io.Serializable;
 
 public class NodeSerializer implements Serializer<Node>, Serializable {
 
+    /**
+     * The dictionary used to code tag strings. This is null in serializers saved by older versions of this library,
+     * in which case all tag strings are written inline as they always were.
+     */
+    private final StringDictionary dictionary;
+
+    public NodeSerializer() {
+        this(null);
+    }
+
+    public NodeSerializer(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
     @Override
     public void serialize(DataOutput out, Node node) throws IOException {
         out.writeInt(node.fixedLat);
         out.writeInt(node.fixedLon);
-        VarInt.writeTags(out, node);
+        VarInt.writeTags(out, node, dictionary);
     }
 
     @Override
@@ -22,7 +36,7 @@ public class NodeSerializer implements Serializer<Node>, Serializable {
         Node node = new Node();
         node.fixedLat = in.readInt();
         node.fixedLon = in.readInt();
-        VarInt.readTags(in, node);
+        VarInt.readTags(in, node, dictionary);
         return node;
     }
 
@@ -0,0 +1,61 @@
+package com.conveyal.osmlib.serializer;
+
+import com.conveyal.osmlib.OSMEntity;
+import com.conveyal.osmlib.Relation;
+import org.mapdb.Serializer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Relations used to be stored with MapDB's default serializer, which writes the class and field structure of every
+ * Tag and Member object. This writes members as a type byte, a delta-coded ID and a dictionary-coded role.
+ */
+public class RelationSerializer implements Serializer<Relation>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final OSMEntity.Type[] TYPES = OSMEntity.Type.values();
+
+    private final StringDictionary dictionary;
+
+    public RelationSerializer(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void serialize(DataOutput out, Relation relation) throws IOException {
+        VarInt.writeRawVarint32(out, relation.members.size());
+        long lastId = 0;
+        for (Relation.Member member : relation.members) {
+            out.writeByte(member.type.ordinal());
+            VarInt.writeSInt64NoTag(out, member.id - lastId);
+            lastId = member.id;
+            VarInt.writeString(out, member.role == null ? "" : member.role, dictionary);
+        }
+        VarInt.writeTags(out, relation, dictionary);
+    }
+
+    @Override
+    public Relation deserialize(DataInput in, int available) throws IOException {
+        Relation relation = new Relation();
+        int nMembers = VarInt.readRawVarint32(in);
+        long lastId = 0;
+        for (int i = 0; i < nMembers; i++) {
+            Relation.Member member = new Relation.Member();
+            member.type = TYPES[in.readByte()];
+            lastId += VarInt.readSInt64(in);
+            member.id = lastId;
+            member.role = VarInt.readString(in, dictionary);
+            relation.members.add(member);
+        }
+        VarInt.readTags(in, relation, dictionary);
+        return relation;
+    }
+
+    @Override
+    public int fixedSize() { return -1; }
+
+}
@@ -0,0 +1,135 @@
+package com.conveyal.osmlib.serializer;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A fixed list of common strings (tag keys, tag values and relation roles) that the MapDB serializers write as small
+ * varint codes rather than as full UTF-8 strings. Strings that are not in the dictionary are written inline.
+ * When reading, a coded string is returned as the dictionary's own String instance, so the most common strings are
+ * neither decoded nor allocated again on every deserialization.
+ *
+ * Each coded string is written as its code plus one, and each inline string as a zero followed by the string, so
+ * the 127 most common strings take a single byte. A dictionary must never change once data has been written with it.
+ * The serializers hold a reference to their dictionary, so it is saved along with them in the MapDB catalog and is
+ * restored whenever the DB is reopened.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public class StringDictionary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The classpath resource holding the strings in the default dictionary, one per line, most frequent first. */
+    public static final String DEFAULT_RESOURCE = "/common-strings.txt";
+
+    private static final int NO_CODE = -1;
+
+    /** The strings in order of their codes. */
+    private final String[] strings;
+
+    /** Map from strings to their codes. This is not saved to the catalog, and is rebuilt on first use. */
+    private transient volatile TObjectIntMap<String> codes;
+
+    public StringDictionary (List<String> strings) {
+        this.strings = strings.toArray(new String[strings.size()]);
+    }
+
+    /** @return a dictionary of the common OSM strings in DEFAULT_RESOURCE. */
+    public static StringDictionary defaultDictionary () {
+        List<String> strings = new ArrayList<>();
+        try (InputStream stream = StringDictionary.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (stream == null) {
+                throw new RuntimeException("Resource not found: " + DEFAULT_RESOURCE);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                strings.add(line);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new StringDictionary(strings);
+    }
+
+    /**
+     * Make a dictionary containing every string that occurs at least minCount times, with the most frequent strings
+     * first so they get the shortest codes. Rarer strings are cheaper to write inline than to keep in the dictionary.
+     */
+    public static StringDictionary fromCounts (TObjectIntMap<String> counts, int minCount) {
+        List<String> strings = new ArrayList<>();
+        counts.forEachEntry((string, count) -> {
+            if (count >= minCount) strings.add(string);
+            return true;
+        });
+        strings.sort((a, b) -> Integer.compare(counts.get(b), counts.get(a)));
+        return new StringDictionary(strings);
+    }
+
+    /** @return the code for the given string, or -1 if it is not in this dictionary. */
+    public int getCode (String string) {
+        TObjectIntMap<String> codes = this.codes;
+        if (codes == null) {
+            codes = new TObjectIntHashMap<>(strings.length * 2, 0.5f, NO_CODE);
+            for (int i = 0; i < strings.length; i++) {
+                codes.putIfAbsent(strings[i], i);
+            }
+            this.codes = codes;
+        }
+        return codes.get(string);
+    }
+
+    public String getString (int code) {
+        return strings[code];
+    }
+
+    public int size () {
+        return strings.length;
+    }
+
+    public void writeString (DataOutput out, String string) throws IOException {
+        int code = getCode(string);
+        if (code == NO_CODE) {
+            VarInt.writeRawVarint32(out, 0);
+            VarInt.writeString(out, string);
+        } else {
+            VarInt.writeRawVarint32(out, code + 1);
+        }
+    }
+
+    public String readString (DataInput in) throws IOException {
+        int code = VarInt.readRawVarint32(in);
+        if (code == 0) {
+            return VarInt.readString(in);
+        }
+        if (code > strings.length) {
+            throw new IOException("String code " + (code - 1) + " is not in the dictionary.");
+        }
+        return strings[code - 1];
+    }
+
+    @Override
+    public boolean equals (Object other) {
+        return other instanceof StringDictionary && Arrays.equals(strings, ((StringDictionary) other).strings);
+    }
+
+    @Override
+    public int hashCode () {
+        return Arrays.hashCode(strings);
+    }
+
+}
@@ -31,6 +31,7 @@ package com.conveyal.osmlib.serializer;
 // OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 import com.conveyal.osmlib.OSMEntity;
+import com.conveyal.osmlib.TagList;
 import com.google.common.base.Charsets;
 
 import java.io.DataInput;
@@ -207,7 +208,6 @@ public class VarInt {
     }
 
     // WORKING WITH OSM TAGS
-    // TODO KV serializer using common tags file from VEX
 
     // For strings less that 128 characters in length, this will use only one byte more than the string itself
     public static void writeString(DataOutput out, String string) throws IOException {
@@ -223,25 +223,60 @@ public class VarInt {
         return new String(bytes, Charsets.UTF_8);
     }
 
+    /** Write a string using the given dictionary, or inline with no code if the dictionary is null. */
+    public static void writeString(DataOutput out, String string, StringDictionary dictionary) throws IOException {
+        if (dictionary == null) {
+            writeString(out, string);
+        } else {
+            dictionary.writeString(out, string);
+        }
+    }
+
+    public static String readString(DataInput in, StringDictionary dictionary) throws IOException {
+        return dictionary == null ? readString(in) : dictionary.readString(in);
+    }
+
     public static void writeTags(DataOutput out, OSMEntity tagged) throws IOException {
+        writeTags(out, tagged, null);
+    }
+
+    /**
+     * Write the tags of the given entity, coding the keys and values with the given dictionary.
+     * If the dictionary is null, all strings are written inline.
+     */
+    public static void writeTags(DataOutput out, OSMEntity tagged, StringDictionary dictionary) throws IOException {
         if (tagged.hasNoTags()) {
             writeRawVarint32(out, 0);
             return;
         }
         writeRawVarint32(out, tagged.tags.size());
+        if (tagged.tags instanceof TagList) {
+            // Avoid creating a Tag object for every tag written.
+            TagList tagList = (TagList) tagged.tags;
+            for (int i = 0; i < tagList.size(); i++) {
+                writeString(out, tagList.getKey(i), dictionary);
+                writeString(out, tagList.getValue(i), dictionary);
+            }
+            return;
+        }
         for (OSMEntity.Tag tag : tagged.tags) {
-            writeString(out, tag.key);
-            writeString(out, tag.value);
+            writeString(out, tag.key, dictionary);
+            writeString(out, tag.value, dictionary);
         }
     }
 
     public static void readTags(DataInput in, OSMEntity tagged) throws IOException {
+        readTags(in, tagged, null);
+    }
+
+    public static void readTags(DataInput in, OSMEntity tagged, StringDictionary dictionary) throws IOException {
         int nTags = readRawVarint32(in);
+        if (nTags > 0) {
+            tagged.tags = new TagList(nTags);
+        }
         for (int i = 0; i < nTags; i++) {
-            tagged.addTag(readString(in), readString(in));
+            tagged.addTag(readString(in, dictionary), readString(in, dictionary));
         }
     }
 
-
-
 }
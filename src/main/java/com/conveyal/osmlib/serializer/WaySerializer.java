@@ -11,6 +11,20 @@ import java.io.Serializable;
 /** Ideally, these serializers would be the same ones used in the VEX binary exchange format. */
 public class WaySerializer implements Serializer<Way>, Serializable {
 
+    /**
+     * The dictionary used to code tag strings. This is null in serializers saved by older versions of this library,
+     * in which case all tag strings are written inline as they always were.
+     */
+    private final StringDictionary dictionary;
+
+    public WaySerializer() {
+        this(null);
+    }
+
+    public WaySerializer(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
     /** Delta-code the series of node references, and write out all values as varints. */
     @Override
     public void serialize(DataOutput out, Way way) throws IOException {
@@ -21,7 +35,7 @@ public class WaySerializer implements Serializer<Way>, Serializable {
             VarInt.writeSInt64NoTag(out, delta);
             lastNodeId = way.nodes[i];
         }
-        VarInt.writeTags(out, way);
+        VarInt.writeTags(out, way, dictionary);
     }
 
     @Override
@@ -34,7 +48,7 @@ public class WaySerializer implements Serializer<Way>, Serializable {
             lastNodeId += VarInt.readSInt64(in);
             way.nodes[i] = lastNodeId;
         }
-        VarInt.readTags(in, way);
+        VarInt.readTags(in, way, dictionary);
         return way;
     }
 
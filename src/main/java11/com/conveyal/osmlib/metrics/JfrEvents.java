@@ -0,0 +1,150 @@
+package com.conveyal.osmlib.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The JFR event types behind FlightEvents. This class is only compiled on JDK 11 and later, and FlightEvents loads
+ * it by name after checking that the JFR API exists. Events are passed around as Object so that no other class needs
+ * to mention these types.
+ */
+class JfrEvents implements FlightEvents.Recorder {
+
+    private static final String CATEGORY = "osm-lib";
+
+    private static final String[] VEX_ENTITY_TYPES = new String[] { "node", "way", "relation" };
+
+    @Name("com.conveyal.osmlib.BlockInflate")
+    @Label("VEX Block Inflate")
+    @Category(CATEGORY)
+    @Description("A compressed VEX block was read and inflated.")
+    static class BlockInflate extends Event {
+        @Label("Entity Type") String entityType;
+        @Label("Entities") int entities;
+        @Label("Compressed Size") @DataAmount long compressedBytes;
+        @Label("Inflated Size") @DataAmount long inflatedBytes;
+    }
+
+    @Name("com.conveyal.osmlib.BlobWrite")
+    @Label("PBF Blob Write")
+    @Category(CATEGORY)
+    @Description("A PBF block was serialized, deflated and written out.")
+    static class BlobWrite extends Event {
+        @Label("Blob Type") String blobType;
+        @Label("Entities") int entities;
+        @Label("Serialized Size") @DataAmount long rawBytes;
+        @Label("Blob Size") @DataAmount long blobBytes;
+    }
+
+    @Name("com.conveyal.osmlib.DiffApply")
+    @Label("Replication Diff Apply")
+    @Category(CATEGORY)
+    @Description("A replication diff was downloaded, parsed and applied to the OSM database.")
+    static class DiffApply extends Event {
+        @Label("Timescale") String timescale;
+        @Label("Sequence Number") long sequenceNumber;
+        @Label("Changes") long changes;
+    }
+
+    @Name("com.conveyal.osmlib.TileExtract")
+    @Label("Tile Range Extract")
+    @Category(CATEGORY)
+    @Description("The entities in a range of tiles were extracted and written to a sink.")
+    static class TileExtract extends Event {
+        @Label("Min X") int minX;
+        @Label("Min Y") int minY;
+        @Label("Max X") int maxX;
+        @Label("Max Y") int maxY;
+        @Label("Nodes") long nodes;
+        @Label("Ways") long ways;
+        @Label("Relations") long relations;
+    }
+
+    /** @return the event after beginning it, or null if it would not be recorded anyway. */
+    private static <E extends Event> E begin (E event) {
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Object beginBlockInflate () {
+        return begin(new BlockInflate());
+    }
+
+    @Override
+    public void commitBlockInflate (Object e, int entityType, int nEntities, int compressedBytes, int inflatedBytes) {
+        BlockInflate event = (BlockInflate) e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.entityType = entityType >= 0 && entityType < VEX_ENTITY_TYPES.length ?
+                    VEX_ENTITY_TYPES[entityType] : Integer.toString(entityType);
+            event.entities = nEntities;
+            event.compressedBytes = compressedBytes;
+            event.inflatedBytes = inflatedBytes;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginBlobWrite () {
+        return begin(new BlobWrite());
+    }
+
+    @Override
+    public void commitBlobWrite (Object e, String blobType, int nEntities, int rawBytes, int blobBytes) {
+        BlobWrite event = (BlobWrite) e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.blobType = blobType;
+            event.entities = nEntities;
+            event.rawBytes = rawBytes;
+            event.blobBytes = blobBytes;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginDiffApply () {
+        return begin(new DiffApply());
+    }
+
+    @Override
+    public void commitDiffApply (Object e, String timescale, long sequenceNumber, long nChanges) {
+        DiffApply event = (DiffApply) e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.timescale = timescale;
+            event.sequenceNumber = sequenceNumber;
+            event.changes = nChanges;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginTileExtract () {
+        return begin(new TileExtract());
+    }
+
+    @Override
+    public void commitTileExtract (Object e, int minX, int minY, int maxX, int maxY,
+                                  long nNodes, long nWays, long nRelations) {
+        TileExtract event = (TileExtract) e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.minX = minX;
+            event.minY = minY;
+            event.maxX = maxX;
+            event.maxY = maxY;
+            event.nodes = nNodes;
+            event.ways = nWays;
+            event.relations = nRelations;
+            event.commit();
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class BlockCodecTest extends TestCase {
+
+    private static final BlockCodec[] CODECS = new BlockCodec[] {
+        BlockCodec.DEFLATE, BlockCodec.deflate(1), BlockCodec.deflate(9), BlockCodec.STORE, BlockCodec.LZ4
+    };
+
+    private static void assertRoundTrip(BlockCodec codec, byte[] data) {
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int compressedLength = codec.compress(data, data.length, compressed);
+        assertTrue(compressedLength >= 0);
+        // Leave stale bytes after the input and room after the output, neither of which must be used.
+        byte[] output = new byte[data.length + 100];
+        int length = codec.decompress(compressed, compressedLength, output);
+        assertEquals(data.length, length);
+        assertTrue(Arrays.equals(data, Arrays.copyOf(output, length)));
+    }
+
+    /** Every codec must reproduce its input, whether compressible, random, tiny or made of long repeated runs. */
+    public void testRoundTrip() {
+        Random random = new Random(42);
+        byte[] randomBytes = new byte[100_000];
+        random.nextBytes(randomBytes);
+        byte[] text = new byte[200_000];
+        String words = "highway residential footway building yes name Main Street ";
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) words.charAt((i * 7 + random.nextInt(3)) % words.length());
+        }
+        byte[] runs = new byte[300_000];
+        Arrays.fill(runs, 1000, 200_000, (byte) 7);
+        for (BlockCodec codec : CODECS) {
+            assertRoundTrip(codec, new byte[0]);
+            assertRoundTrip(codec, new byte[] { 1, 2, 3 });
+            assertRoundTrip(codec, Arrays.copyOf(text, 13));
+            assertRoundTrip(codec, randomBytes);
+            assertRoundTrip(codec, text);
+            assertRoundTrip(codec, runs);
+        }
+    }
+
+    /** Decompressing must fail cleanly rather than read or write beyond the bounds it is given. */
+    public void testCorruptLZ4() {
+        byte[] data = new byte[10_000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i % 100);
+        byte[] compressed = new byte[BlockCodec.LZ4.maxCompressedLength(data.length)];
+        int length = BlockCodec.LZ4.compress(data, data.length, compressed);
+        assertTrue(length < data.length / 10);
+        try {
+            BlockCodec.LZ4.decompress(compressed, length - 1, new byte[data.length]);
+            fail();
+        } catch (RuntimeException e) {
+            // Expected, the block is truncated.
+        }
+        try {
+            BlockCodec.LZ4.decompress(compressed, length, new byte[data.length - 1]);
+            fail();
+        } catch (RuntimeException e) {
+            // Expected, the output does not fit.
+        }
+    }
+
+    public void testForName() {
+        assertSame(BlockCodec.LZ4, BlockCodec.forName("lz4"));
+        assertSame(BlockCodec.STORE, BlockCodec.forName("store"));
+        assertEquals(9, ((DeflateCodec) BlockCodec.forName("deflate:9")).getLevel());
+        try {
+            BlockCodec.forName("deflate:x");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    /** VEX blocks record their codec, so files written with any codec read back the same way. */
+    public void testVexCodecs() throws IOException {
+        OSM osm = new OSM(OSM.ON_HEAP);
+        osm.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+        int[] sizes = new int[CODECS.length];
+        for (int c = 0; c < CODECS.length; c++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            VexOutput vexOutput = new VexOutput(out);
+            vexOutput.setCodec(CODECS[c]);
+            osm.copyTo(vexOutput);
+            byte[] vex = out.toByteArray();
+            sizes[c] = vex.length;
+            assertEquals(CODECS[c].getId(), (vex[4] & VexFormat.CODEC_MASK) >>> VexFormat.CODEC_SHIFT);
+            OSM copy = new OSM(OSM.ON_HEAP);
+            copy.readVex(new ByteArrayInputStream(vex));
+            assertEquals(osm.nodes.size(), copy.nodes.size());
+            assertEquals(osm.ways.size(), copy.ways.size());
+            assertEquals(osm.relations.size(), copy.relations.size());
+            osm.forEachWay((id, way) -> {
+                assertEquals(way, copy.getWay(id));
+                return true;
+            });
+        }
+        // Deflate at level 9, then lz4, then storing.
+        assertTrue(sizes[2] < sizes[4]);
+        assertTrue(sizes[4] < sizes[3]);
+        try {
+            new VexOutput(new ByteArrayOutputStream(), VexFormat.VERSION_1).setCodec(BlockCodec.LZ4);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected, version 1 blocks have no room for a codec ID.
+        }
+    }
+
+    /** A full block that the codec makes bigger must still be readable, not rejected as corrupted. */
+    public void testIncompressibleVexBlock() {
+        byte[] randomBytes = new byte[VEXBlock.BUFFER_SIZE];
+        new Random(42).nextBytes(randomBytes);
+        for (BlockCodec codec : CODECS) {
+            VEXBlock block = new VEXBlock();
+            block.version = VexFormat.VERSION_2;
+            block.codec = codec;
+            block.entityType = VexFormat.VEX_NODE;
+            block.nEntities = 1;
+            block.data = randomBytes;
+            block.nBytes = randomBytes.length;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            block.writeDeflated(out);
+            VEXBlock copy = new VEXBlock();
+            copy.readDeflated(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(codec.getId(), copy.codec.getId());
+            assertEquals(randomBytes.length, copy.nBytes);
+            assertTrue(Arrays.equals(randomBytes, copy.data));
+        }
+    }
+
+    /** PBF blobs can be stored uncompressed, which any PBF reader accepts. */
+    public void testPbfStore() throws IOException {
+        OSM osm = new OSM(OSM.ON_HEAP);
+        osm.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        osm.writePbf(deflated);
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        PBFOutput pbfOutput = new PBFOutput(stored);
+        pbfOutput.setCodec(BlockCodec.STORE);
+        osm.copyTo(pbfOutput);
+        assertTrue(stored.size() > deflated.size());
+        OSM copy = new OSM(OSM.ON_HEAP);
+        copy.readPbf(new ByteArrayInputStream(stored.toByteArray()));
+        assertEquals(osm.nodes.size(), copy.nodes.size());
+        assertEquals(osm.ways.size(), copy.ways.size());
+        try {
+            pbfOutput.setCodec(BlockCodec.LZ4);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected, PBF has no such blob type.
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class EntityCacheTest extends TestCase {
+
+    public void testLeastRecentlyUsedEviction() {
+        EntityMap<Way> store = new TroveEntityMap<>();
+        for (long id = 0; id < 10; id++) {
+            store.put(id, makeWay(id));
+        }
+        EntityCache<Way> cache = new EntityCache<>(store, 3, Long.MAX_VALUE);
+        Way way0 = cache.get(0L);
+        cache.get(1L);
+        cache.get(2L);
+        assertSame(way0, cache.get(0L)); // Hit, and 0 becomes the most recently used.
+        cache.get(3L); // Evicts 1, the least recently used.
+        assertEquals(3, cache.getCachedCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        cache.get(1L);
+        assertEquals(5, cache.getMissCount());
+        cache.get(0L);
+        cache.get(3L);
+        assertEquals(3, cache.getHitCount());
+        assertNull(cache.get(100L));
+    }
+
+    public void testByteLimit() {
+        EntityMap<Way> store = new TroveEntityMap<>();
+        for (long id = 0; id < 10; id++) {
+            store.put(id, makeWay(id));
+        }
+        int wayBytes = EntityCache.estimateBytes(store.get(0L));
+        EntityCache<Way> cache = new EntityCache<>(store, 100, wayBytes * 4);
+        for (long id = 0; id < 10; id++) {
+            cache.get(id);
+        }
+        assertEquals(4, cache.getCachedCount());
+        assertTrue(cache.getCachedBytes() <= wayBytes * 4);
+    }
+
+    public void testWritesInvalidate() {
+        EntityMap<Way> store = new TroveEntityMap<>();
+        EntityCache<Way> cache = new EntityCache<>(store, 10, Long.MAX_VALUE);
+        cache.put(1L, makeWay(1));
+        Way first = cache.get(1L);
+        Way replacement = makeWay(2);
+        cache.put(1L, replacement);
+        assertSame(replacement, cache.get(1L));
+        assertNotSame(first, cache.get(1L));
+        cache.remove(1L);
+        assertNull(cache.get(1L));
+        assertEquals(0, cache.getCachedCount());
+    }
+
+    /** A read that runs while a write is under way must not leave the old entity in the cache. */
+    public void testReadDuringWrite() throws Exception {
+        AtomicBoolean blockWrites = new AtomicBoolean(false);
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch finishWrite = new CountDownLatch(1);
+        EntityMap<Way> store = new TroveEntityMap<Way>() {
+            @Override
+            public Way put(long id, Way way) {
+                if (blockWrites.get()) {
+                    writeStarted.countDown();
+                    try {
+                        finishWrite.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return super.put(id, way);
+            }
+        };
+        store.put(1L, makeWay(1));
+        blockWrites.set(true);
+        EntityCache<Way> cache = new EntityCache<>(store, 10, Long.MAX_VALUE);
+        Way replacement = makeWay(2);
+        // TroveEntityMap is not threadsafe, so reads are only made while the writer is blocked before its write.
+        Thread writer = new Thread(() -> cache.put(1L, replacement));
+        writer.start();
+        writeStarted.await();
+        assertNotSame(replacement, cache.get(1L));
+        finishWrite.countDown();
+        writer.join();
+        assertSame(replacement, cache.get(1L));
+    }
+
+    /** Concurrent writes and reads of the same entities leave the cache in agreement with the store. */
+    public void testConcurrentPutAndGet() throws Exception {
+        EntityMap<Way> store = new TroveEntityMap<Way>() {
+            @Override
+            public synchronized Way get(long id) {
+                return super.get(id);
+            }
+            @Override
+            public synchronized Way put(long id, Way way) {
+                return super.put(id, way);
+            }
+        };
+        final int nIds = 64;
+        for (long id = 0; id < nIds; id++) {
+            store.put(id, makeWay(id));
+        }
+        EntityCache<Way> cache = new EntityCache<>(store, nIds, Long.MAX_VALUE);
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                try {
+                    for (long i = 0; !done.get(); i++) {
+                        assertNotNull(cache.get(i % nIds));
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            readers[r].start();
+        }
+        for (int round = 0; round < 200; round++) {
+            for (long id = 0; id < nIds; id++) {
+                cache.put(id, makeWay(id * 1000 + round));
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        for (long id = 0; id < nIds; id++) {
+            assertSame(store.get(id), cache.get(id));
+        }
+    }
+
+    private static Way makeWay(long id) {
+        Way way = new Way();
+        way.nodes = new long[] { id, id + 1, id + 2 };
+        way.addTag("highway", "residential");
+        return way;
+    }
+
+}
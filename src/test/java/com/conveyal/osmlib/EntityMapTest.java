@@ -0,0 +1,111 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import junit.framework.TestCase;
+import org.mapdb.DBMaker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class EntityMapTest extends TestCase {
+
+    public void testTroveEntityMap() {
+        checkEntityMap(new TroveEntityMap<>());
+    }
+
+    public void testBTreeEntityMap() {
+        checkEntityMap(new BTreeEntityMap<>(DBMaker.newHeapDB().make().<Long, Node>getTreeMap("nodes")));
+    }
+
+    /** Plain maps assigned to the OSM tables are viewed as EntityMaps, with writes going through to them. */
+    public void testPlainMaps() {
+        checkEntityMap(EntityMap.of(new HashMap<>()));
+        checkEntityMap(EntityMap.of(new TreeMap<>()));
+        EntityMap<Node> entityMap = new TroveEntityMap<>();
+        assertSame(entityMap, EntityMap.of(entityMap));
+
+        OSM osm = new OSM(OSM.ON_HEAP);
+        Map<Long, Node> nodes = new HashMap<>();
+        osm.nodes = nodes;
+        osm.writeNode(2, new Node(2, 2));
+        osm.getNodes().put(1, new Node(1, 1));
+        assertEquals(2, nodes.size());
+        assertEquals(1.0, osm.getNode(1).getLat(), 1e-6);
+        TLongList ids = new TLongArrayList();
+        osm.forEachNode((id, node) -> ids.add(id));
+        assertEquals(new TLongArrayList(new long[] { 1, 2 }), ids);
+    }
+
+    /** Puts through the boxed Map methods must be timed like the primitive ones. */
+    public void testBTreeEntityMapPutsTimed() {
+        int[] nTimed = new int[1];
+        EntityMap<Node> map = new BTreeEntityMap<>(DBMaker.newHeapDB().make().<Long, Node>getTreeMap("nodes"),
+                nanos -> nTimed[0] += 1);
+        map.put(1L, new Node(1, 1));
+        Map<Long, Node> more = new HashMap<>();
+        more.put(2L, new Node(2, 2));
+        more.put(3L, new Node(3, 3));
+        map.putAll(more);
+        assertEquals(3, map.size());
+        assertEquals(3, nTimed[0]);
+        // Only the first count entities of a batch are put, and each of them is timed.
+        map.putBatch(new long[] { 4, 5, 6 }, new Node[] { new Node(4, 4), new Node(5, 5), null }, 2);
+        assertEquals(5, map.size());
+        assertEquals(5.0, map.get(5).getLat(), 1e-6);
+        assertEquals(5, nTimed[0]);
+    }
+
+    private void checkEntityMap(EntityMap<Node> map) {
+        for (long id : new long[] { 50, 10, 40, 20, 30 }) {
+            map.put(id, new Node(id, id));
+        }
+        assertEquals(5, map.size());
+        assertEquals(20.0, map.get(20).getLat(), 1e-6);
+        assertTrue(map.containsKey(30));
+        assertNotNull(map.remove(30));
+        assertFalse(map.containsKey(Long.valueOf(30)));
+
+        TLongList ids = new TLongArrayList();
+        map.forEachEntry((id, node) -> ids.add(id));
+        assertEquals(new TLongArrayList(new long[] { 10, 20, 40, 50 }), ids);
+
+        ids.clear();
+        map.forEachEntryInRange(15, 40, (id, node) -> ids.add(id));
+        assertEquals(new TLongArrayList(new long[] { 20, 40 }), ids);
+
+        // Iteration stops when the procedure returns false.
+        ids.clear();
+        assertFalse(map.forEachEntry((id, node) -> ids.add(id) && id < 20));
+        assertEquals(2, ids.size());
+
+        // Ordered iteration sees IDs added and removed after an earlier iteration.
+        map.put(15, new Node(15, 15));
+        map.remove(40);
+        map.put(20, new Node(21, 21));
+        ids.clear();
+        map.forEachEntryInRange(15, 50, (id, node) -> ids.add(id));
+        assertEquals(new TLongArrayList(new long[] { 15, 20, 50 }), ids);
+        assertEquals(21.0, map.get(20).getLat(), 1e-6);
+    }
+
+    public void testHeapStorage() {
+        OSM heap = new OSM(OSM.ON_HEAP);
+        heap.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+        OSM mapdb = new OSM(null);
+        try {
+            mapdb.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+            assertEquals(mapdb.nodes.size(), heap.nodes.size());
+            assertEquals(mapdb.ways.size(), heap.ways.size());
+            assertEquals(mapdb.relations.size(), heap.relations.size());
+            mapdb.forEachWay((id, way) -> {
+                assertEquals(way, heap.getWay(id));
+                return true;
+            });
+        } finally {
+            mapdb.close();
+        }
+    }
+
+}
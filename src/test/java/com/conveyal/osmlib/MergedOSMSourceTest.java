@@ -0,0 +1,85 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class MergedOSMSourceTest extends TestCase {
+
+    static final String TEST_FILE = "./src/test/resources/bangor_maine.osm.pbf";
+
+    /** Merging a file with itself should yield exactly the contents of that file, every entity being a duplicate. */
+    public void testDuplicatesRemoved() {
+        OSM single = new OSM(OSM.ON_HEAP);
+        single.readFromFile(TEST_FILE);
+        OSM merged = new OSM(OSM.ON_HEAP);
+        merged.tileIndexing = true;
+        merged.readFromFiles(Arrays.asList(TEST_FILE, TEST_FILE, TEST_FILE));
+        assertEquals(single.nodes.size(), merged.nodes.size());
+        assertEquals(single.ways.size(), merged.ways.size());
+        assertEquals(single.relations.size(), merged.relations.size());
+        single.forEachWay((id, way) -> {
+            assertEquals(way, merged.getWay(id));
+            return true;
+        });
+        assertFalse(merged.index.isEmpty());
+    }
+
+    /** Entities split across two disjoint inputs should all arrive, in order, with the oldest timestamp. */
+    public void testDisjointInputsMerged() throws IOException {
+        OSM osm = new OSM(OSM.ON_HEAP);
+        osm.readFromFile(TEST_FILE);
+        OSM even = new OSM(OSM.ON_HEAP);
+        OSM odd = new OSM(OSM.ON_HEAP);
+        osm.forEachNode((id, node) -> {
+            (id % 2 == 0 ? even : odd).writeNode(id, node);
+            return true;
+        });
+        osm.forEachWay((id, way) -> {
+            (id % 2 == 0 ? even : odd).writeWay(id, way);
+            return true;
+        });
+        even.setReplicationTimestamp(2000);
+        odd.setReplicationTimestamp(1000);
+
+        long[] last = new long[] { -1, Long.MIN_VALUE };
+        int[] count = new int[1];
+        OSM merged = new OSM(OSM.ON_HEAP) {
+            @Override
+            public void writeNode (long id, Node node) {
+                assertTrue("Nodes should arrive in ID order.", id > last[1]);
+                last[1] = id;
+                count[0] += 1;
+                super.writeNode(id, node);
+            }
+        };
+        new MergedOSMSource(Arrays.asList(even, odd)).copyTo(merged);
+        assertEquals(osm.nodes.size(), count[0]);
+        assertEquals(osm.ways.size(), merged.ways.size());
+        assertEquals(1000, merged.getReplicationTimestamp());
+    }
+
+    /** An error in any one of the inputs should cause the whole merge to fail. */
+    public void testErrorPropagated() {
+        OSMEntitySource broken = sink -> {
+            sink.writeBegin();
+            sink.writeNode(1, new Node(45, -70));
+            throw new IOException("Truncated input.");
+        };
+        try {
+            new MergedOSMSource(Arrays.asList(OSMEntitySource.forFile(TEST_FILE), broken)).copyTo(new OSM(OSM.ON_HEAP));
+            fail("Merge should fail when one input is broken.");
+        } catch (IOException e) {
+            assertEquals("Truncated input.", e.getCause().getMessage());
+        }
+        try {
+            MergedOSMSource.forFiles(Collections.singletonList("file.unknown"));
+            fail("Unknown formats should be rejected.");
+        } catch (RuntimeException e) {
+            // Expected.
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import junit.framework.TestCase;
+
+public class NodeCounterTest extends TestCase {
+
+    /** Check the NodeCounter against a stock map of counts, including saturation and negative IDs. */
+    public void testAgainstMap() {
+        NodeCounter counter = new NodeCounter();
+        TLongIntMap counts = new TLongIntHashMap();
+        for (long i = -5000; i < 5000; i++) {
+            long nodeId = i * 37 + (i % 3 == 0 ? (1L << 35) : 0);
+            int n = (int) Math.abs(i % 20);
+            for (int j = 0; j < n; j++) {
+                counter.increment(nodeId);
+            }
+            counts.put(nodeId, Math.min(n, NodeCounter.MAX_COUNT));
+        }
+        counts.forEachEntry((nodeId, count) -> {
+            assertEquals(count, counter.getCount(nodeId));
+            return true;
+        });
+        assertEquals(0, counter.getCount(1));
+
+        long[] previous = new long[] { Long.MIN_VALUE };
+        int[] nonZero = new int[1];
+        counter.forEachCount((nodeId, count) -> {
+            assertTrue(nodeId > previous[0]);
+            assertEquals(counts.get(nodeId), count);
+            previous[0] = nodeId;
+            nonZero[0] += 1;
+            return true;
+        });
+        assertEquals(counts.size() - 500, nonZero[0]); // One in twenty counts is zero.
+
+        counter.setCount(37, 2);
+        assertEquals(2, counter.getCount(37));
+        counter.setCount(37, 100);
+        assertEquals(NodeCounter.MAX_COUNT, counter.getCount(37));
+    }
+
+}
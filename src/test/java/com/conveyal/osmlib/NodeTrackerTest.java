@@ -1,8 +1,14 @@
 package com.conveyal.osmlib;
 
 import com.beust.jcommander.internal.Sets;
+import gnu.trove.iterator.TLongIterator;
 import junit.framework.TestCase;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.util.Set;
 
 public class NodeTrackerTest extends TestCase {
@@ -44,4 +50,103 @@ public class NodeTrackerTest extends TestCase {
             assertEquals(numbers.size(), tracker.cardinality());
         }
     }
+
+    /** Check the bulk set operations and sorted iteration against stock Set<Long> operations. */
+    public void testSetOperations() {
+        NodeTracker referenced = new NodeTracker();
+        NodeTracker intersections = new NodeTracker();
+        Set<Long> expected = Sets.newHashSet();
+        long[] ids = new long[2000];
+        for (int i = 0; i < ids.length; i++) {
+            // Spread the IDs over two blocks, including some negative ones.
+            ids[i] = (i % 2 == 0) ? (1L << 33) + i * 7 : -i * 3;
+            if (i % 5 != 0) expected.add(ids[i]);
+            if (i % 5 == 0) intersections.add(ids[i]);
+        }
+        referenced.addAll(ids);
+        assertEquals(ids.length, referenced.cardinality());
+
+        NodeTracker notIntersections = referenced.copy();
+        notIntersections.andNot(intersections);
+        assertEquals(expected.size(), notIntersections.cardinality());
+        long prev = Long.MIN_VALUE;
+        int n = 0;
+        for (TLongIterator it = notIntersections.iterator(); it.hasNext(); ) {
+            long id = it.next();
+            assertTrue(id > prev);
+            assertTrue(expected.contains(id));
+            prev = id;
+            n++;
+        }
+        assertEquals(expected.size(), n);
+
+        NodeTracker both = referenced.copy();
+        both.and(intersections);
+        assertEquals(intersections.cardinality(), both.cardinality());
+        both.or(notIntersections);
+        both.runOptimize();
+        assertEquals(referenced.cardinality(), both.cardinality());
+        // The original must not have been modified by operations on its copies.
+        assertEquals(ids.length, referenced.cardinality());
+    }
+
+    /** Several threads adding to the same ConcurrentNodeTracker should not lose any IDs. */
+    public void testConcurrentAdd() throws Exception {
+        final int nThreads = 4;
+        final int perThread = 50000;
+        NodeTracker tracker = new ConcurrentNodeTracker();
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            final long offset = t;
+            threads[t] = new Thread(() -> {
+                for (long i = 0; i < perThread; i++) {
+                    // Interleave the threads' IDs so they contend for the same blocks.
+                    tracker.add(i * nThreads + offset + (1L << 32));
+                    tracker.contains(i * nThreads);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(nThreads * perThread, tracker.cardinality());
+    }
+
+    /** A NodeTracker written out and read back in, or memory-mapped, should contain exactly the same IDs. */
+    public void testSerialization() throws Exception {
+        NodeTracker tracker = new NodeTracker();
+        for (long i = 0; i < 10000; i++) {
+            tracker.add(i * i);
+            tracker.add((1L << 40) + i);
+        }
+        tracker.runOptimize();
+        File file = File.createTempFile("nodes", ".bin");
+        file.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            tracker.write(out);
+        }
+        NodeTracker copy;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            copy = NodeTracker.read(in);
+        }
+        try (MappedNodeTracker mapped = new MappedNodeTracker(file)) {
+            assertEquals(tracker.cardinality(), copy.cardinality());
+            assertEquals(tracker.cardinality(), mapped.cardinality());
+            for (long i = 0; i < 1000000; i++) {
+                assertEquals(tracker.contains(i), copy.contains(i));
+                assertEquals(tracker.contains(i), mapped.contains(i));
+            }
+            TLongIterator expected = tracker.iterator();
+            TLongIterator actual = mapped.iterator();
+            while (expected.hasNext()) {
+                assertEquals(expected.next(), actual.next());
+            }
+            assertFalse(actual.hasNext());
+            // The mapped set can be used as the argument of operations on heap sets.
+            NodeTracker difference = tracker.copy();
+            difference.andNot(mapped);
+            assertEquals(0, difference.cardinality());
+        }
+    }
 }
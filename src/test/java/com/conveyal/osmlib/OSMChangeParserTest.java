@@ -0,0 +1,93 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+import org.mapdb.Fun;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+public class OSMChangeParserTest extends TestCase {
+
+    private OSM osm;
+
+    @Override
+    public void setUp() throws Exception {
+        osm = new OSM(null);
+        osm.tileIndexing = true;
+        osm.intersectionDetection = true;
+        osm.nodeWayIndexing = true;
+        osm.writeBegin();
+        osm.writeNode(1, new Node(44.80, -68.77));
+        osm.writeNode(2, new Node(44.90, -68.57));
+        osm.writeNode(3, new Node(45.00, -68.37));
+        osm.writeWay(10, makeWay(1, 2));
+        osm.writeWay(11, makeWay(2, 3));
+        osm.writeEnd();
+    }
+
+    @Override
+    public void tearDown() {
+        osm.close();
+    }
+
+    private static Way makeWay (long... nodes) {
+        Way way = new Way();
+        way.addTag("highway", "residential");
+        way.nodes = nodes;
+        return way;
+    }
+
+    private void applyChange (String osmChange) throws Exception {
+        SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+        saxParser.parse(new ByteArrayInputStream(osmChange.getBytes(StandardCharsets.UTF_8)), new OSMChangeParser(osm));
+    }
+
+    private boolean isIndexedAt (long wayId, double lat, double lon) {
+        WebMercatorTile tile = new WebMercatorTile(lat, lon);
+        return osm.index.contains(new Fun.Tuple3<>(tile.xtile, tile.ytile, wayId));
+    }
+
+    /** Moving the first node of a way should move that way in the spatial index, without a full rebuild. */
+    public void testNodeMoveReindexesWays() throws Exception {
+        assertTrue(isIndexedAt(10, 44.80, -68.77));
+        applyChange("<osmChange><modify><node id='1' lat='45.50' lon='-69.50'/></modify></osmChange>");
+        assertFalse(isIndexedAt(10, 44.80, -68.77));
+        assertTrue(isIndexedAt(10, 45.50, -69.50));
+        // Way 11 does not begin at the moved node and should not have been touched.
+        assertTrue(isIndexedAt(11, 44.90, -68.57));
+        assertEquals(2, osm.index.size());
+    }
+
+    /** Modifying and deleting ways should update the set of intersection nodes incrementally. */
+    public void testIntersectionsMaintained() throws Exception {
+        assertTrue(osm.intersectionNodes.contains(2));
+        assertFalse(osm.intersectionNodes.contains(3));
+
+        // Way 12 shares node 3 with way 11, making it an intersection.
+        applyChange("<osmChange><create>" +
+                "<node id='4' lat='45.10' lon='-68.17'/>" +
+                "<way id='12'><nd ref='3'/><nd ref='4'/><tag k='highway' v='service'/></way>" +
+                "</create></osmChange>");
+        assertTrue(osm.intersectionNodes.contains(3));
+        assertTrue(isIndexedAt(12, 45.00, -68.37));
+
+        // Rerouting way 11 away from node 2 means node 2 is no longer an intersection.
+        applyChange("<osmChange><modify>" +
+                "<way id='11'><nd ref='4'/><nd ref='3'/><tag k='highway' v='residential'/></way>" +
+                "</modify></osmChange>");
+        assertFalse(osm.intersectionNodes.contains(2));
+        assertFalse(isIndexedAt(11, 44.90, -68.57));
+        assertTrue(isIndexedAt(11, 45.10, -68.17));
+
+        // Deleting way 12 leaves node 3 and 4 referenced only by way 11.
+        applyChange("<osmChange><delete><way id='12'/></delete></osmChange>");
+        assertFalse(osm.intersectionNodes.contains(3));
+        assertFalse(osm.intersectionNodes.contains(4));
+        assertEquals(2, osm.index.size());
+        assertEquals(1, osm.waysByNode.referenceCount(4));
+        assertEquals(1, osm.waysByNode.referenceCount(2));
+    }
+
+}
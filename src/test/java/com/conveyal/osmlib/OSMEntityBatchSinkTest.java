@@ -0,0 +1,137 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+public class OSMEntityBatchSinkTest extends TestCase {
+
+    static final String TEST_FILE = "./src/test/resources/bangor_maine.osm.pbf";
+
+    /** Counts the entities and batches it receives, checking that each batch is consistent with the database. */
+    private static class CountingBatchSink implements OSMEntityBatchSink {
+        final OSM expected;
+        int nBatches, nNodes, nWays, nRelations;
+        CountingBatchSink (OSM expected) {
+            this.expected = expected;
+        }
+        @Override public void writeBegin() { }
+        @Override public void setReplicationTimestamp(long secondsSinceEpoch) { }
+        @Override public void writeNodes(NodeBatch nodes) {
+            assertEquals(0, nWays + nRelations);
+            for (int i = 0; i < nodes.size; i++) {
+                assertEquals(expected.getNode(nodes.ids[i]), nodes.getNode(i));
+            }
+            nNodes += nodes.size;
+            nBatches++;
+        }
+        @Override public void writeWays(WayBatch ways) {
+            assertEquals(0, nRelations);
+            for (int i = 0; i < ways.size; i++) {
+                assertEquals(expected.getWay(ways.ids[i]), ways.getWay(i));
+            }
+            nWays += ways.size;
+            nBatches++;
+        }
+        @Override public void writeRelations(RelationBatch relations) {
+            nRelations += relations.size;
+            nBatches++;
+        }
+        @Override public void writeEnd() { }
+    }
+
+    public void testBatchesFromPbfAndVex() throws IOException {
+        OSM osm = new OSM(OSM.ON_HEAP);
+        osm.readFromFile(TEST_FILE);
+
+        CountingBatchSink pbfCounter = new CountingBatchSink(osm);
+        new PBFInput(new FileInputStream(TEST_FILE)).copyBatchesTo(pbfCounter);
+        assertEquals(osm.nodes.size(), pbfCounter.nNodes);
+        assertEquals(osm.ways.size(), pbfCounter.nWays);
+        assertEquals(osm.relations.size(), pbfCounter.nRelations);
+        assertTrue("Blocks should be passed through whole.", pbfCounter.nBatches < osm.ways.size() / 10);
+
+        ByteArrayOutputStream vex = new ByteArrayOutputStream();
+        osm.writeVex(vex);
+        CountingBatchSink vexCounter = new CountingBatchSink(osm);
+        new VexInput(new ByteArrayInputStream(vex.toByteArray())).copyBatchesTo(vexCounter);
+        assertEquals(osm.nodes.size(), vexCounter.nNodes);
+        assertEquals(osm.ways.size(), vexCounter.nWays);
+        assertEquals(osm.relations.size(), vexCounter.nRelations);
+    }
+
+    /** Loading whole blocks into a database must build the same tables and indexes as loading one entity at a time. */
+    public void testOSMLoadsBatches() throws IOException {
+        OSM batched = new OSM(null);
+        assertSame(batched, OSMEntityBatchSink.forSink(batched));
+        OSM single = new OSM(OSM.ON_HEAP);
+        for (OSM osm : new OSM[] { batched, single }) {
+            osm.tileIndexing = true;
+            osm.intersectionDetection = true;
+            osm.nodeWayIndexing = true;
+        }
+        batched.enableEntityCache(1000, 1024 * 1024);
+        batched.readFromFile(TEST_FILE);
+        // Hide the batch sink methods, so that PBFInput has to split its blocks into single entities.
+        new PBFInput(new FileInputStream(TEST_FILE)).copyTo(new OSMEntitySink() {
+            @Override public void writeBegin() throws IOException { single.writeBegin(); }
+            @Override public void setReplicationTimestamp(long secondsSinceEpoch) { }
+            @Override public void writeNode(long id, Node node) { single.writeNode(id, node); }
+            @Override public void writeWay(long id, Way way) { single.writeWay(id, way); }
+            @Override public void writeRelation(long id, Relation relation) { single.writeRelation(id, relation); }
+            @Override public void writeEnd() throws IOException { single.writeEnd(); }
+        });
+        assertEquals(single.nodes.size(), batched.nodes.size());
+        assertEquals(single.relations.size(), batched.relations.size());
+        assertEquals(single.ways.size(), batched.ways.size());
+        single.forEachWay((id, way) -> {
+            assertEquals(way, batched.getWay(id));
+            assertTrue(Arrays.equals(single.waysByNode.getWays(way.nodes[0]), batched.waysByNode.getWays(way.nodes[0])));
+            return true;
+        });
+        assertEquals(new TreeSet<>(single.index), new TreeSet<>(batched.index));
+        assertEquals(single.intersectionNodes.cardinality(), batched.intersectionNodes.cardinality());
+        assertTrue(single.intersectionNodes.cardinality() > 0);
+        assertEquals(single.waysByNode.size(), batched.waysByNode.size());
+        assertEquals(single.relationsByWay.size(), batched.relationsByWay.size());
+        batched.close();
+    }
+
+    /** Grouping single entities into batches and splitting them back up should change nothing. */
+    public void testAdaptersRoundTrip() throws IOException {
+        OSM osm = new OSM(OSM.ON_HEAP);
+        osm.readFromFile(TEST_FILE);
+        OSM copy = new OSM(OSM.ON_HEAP);
+        CountingBatchSink counter = new CountingBatchSink(osm);
+        osm.copyTo(new BatchingSink(new OSMEntityBatchSink() {
+            OSMEntityBatchSink toCopy = OSMEntityBatchSink.forSink(copy);
+            @Override public void writeBegin() throws IOException { toCopy.writeBegin(); }
+            @Override public void setReplicationTimestamp(long secondsSinceEpoch) { }
+            @Override public void writeNodes(NodeBatch nodes) throws IOException {
+                assertTrue(nodes.size <= 100);
+                counter.writeNodes(nodes);
+                toCopy.writeNodes(nodes);
+            }
+            @Override public void writeWays(WayBatch ways) throws IOException {
+                counter.writeWays(ways);
+                toCopy.writeWays(ways);
+            }
+            @Override public void writeRelations(RelationBatch relations) throws IOException {
+                counter.writeRelations(relations);
+                toCopy.writeRelations(relations);
+            }
+            @Override public void writeEnd() throws IOException { toCopy.writeEnd(); }
+        }, 100));
+        assertEquals(osm.nodes.size(), copy.nodes.size());
+        assertEquals(osm.ways.size(), copy.ways.size());
+        assertEquals(osm.relations.size(), copy.relations.size());
+        assertEquals((osm.nodes.size() + 99) / 100 + (osm.ways.size() + 99) / 100 + (osm.relations.size() + 99) / 100,
+                counter.nBatches);
+    }
+
+}
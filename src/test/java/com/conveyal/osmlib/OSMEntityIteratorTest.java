@@ -0,0 +1,77 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.stream.Stream;
+
+public class OSMEntityIteratorTest extends TestCase {
+
+    static final String TEST_FILE = "./src/test/resources/bangor_maine.osm.pbf";
+
+    public void testIteratorMatchesDatabase() throws IOException {
+        OSM osm = new OSM(OSM.ON_HEAP);
+        osm.readFromFile(TEST_FILE);
+        int n = 0;
+        OSMEntity.Type lastType = OSMEntity.Type.NODE;
+        try (OSMEntityIterator iterator = new PBFInput(new FileInputStream(TEST_FILE)).iterator()) {
+            while (iterator.hasNext()) {
+                EntityRecord record = iterator.next();
+                assertTrue(record.getType().compareTo(lastType) >= 0);
+                lastType = record.getType();
+                if (record.getType() == OSMEntity.Type.WAY) {
+                    assertEquals(osm.getWay(record.id), record.entity);
+                }
+                n++;
+            }
+        }
+        assertEquals(osm.nodes.size() + osm.ways.size() + osm.relations.size(), n);
+    }
+
+    /** Parallel streams over any source should give the same results as the database itself. */
+    public void testParallelStreams() throws IOException {
+        OSM osm = new OSM(OSM.ON_HEAP);
+        osm.readFromFile(TEST_FILE);
+        long expected = osm.ways.values().stream().filter(way -> way.hasTag("highway")).count();
+        assertTrue(expected > 0);
+        ByteArrayOutputStream vex = new ByteArrayOutputStream();
+        osm.writeVex(vex);
+        OSMEntitySource[] sources = new OSMEntitySource[] {
+            new PBFInput(new FileInputStream(TEST_FILE)),
+            new VexInput(new ByteArrayInputStream(vex.toByteArray())),
+            osm
+        };
+        for (OSMEntitySource source : sources) {
+            try (Stream<EntityRecord> stream = source.stream()) {
+                long count = stream.parallel()
+                        .filter(record -> record.getType() == OSMEntity.Type.WAY && record.entity.hasTag("highway"))
+                        .count();
+                assertEquals(expected, count);
+            }
+        }
+    }
+
+    /** Stopping early and closing the stream should stop the background thread without errors. */
+    public void testEarlyTermination() throws IOException {
+        try (Stream<EntityRecord> stream = new PBFInput(new FileInputStream(TEST_FILE)).stream()) {
+            assertTrue(stream.anyMatch(record -> record.getType() == OSMEntity.Type.NODE));
+        }
+        OSMEntitySource broken = sink -> {
+            sink.writeBegin();
+            sink.writeNode(1, new Node(45, -70));
+            throw new IOException("Truncated input.");
+        };
+        // Entities from sources without blocks of their own are grouped into batches, so the error comes first.
+        OSMEntityIterator iterator = broken.iterator();
+        try {
+            iterator.hasNext();
+            fail("Errors in the source should reach the consumer.");
+        } catch (RuntimeException e) {
+            assertEquals("Truncated input.", e.getCause().getMessage());
+        }
+    }
+
+}
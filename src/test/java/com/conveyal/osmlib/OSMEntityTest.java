@@ -2,6 +2,13 @@ package com.conveyal.osmlib;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
 public class OSMEntityTest extends TestCase{
     /**
      * Create the test case
@@ -48,4 +55,56 @@ public class OSMEntityTest extends TestCase{
     	assertEquals( tt.getTag("key"), "value" );
     	assertEquals( tt.getTag("foo"), "true" );
     }
+
+    public void testTagList() throws Exception {
+        Way way = new Way();
+        way.addTag("highway", "residential");
+        way.addTag("name", "Main Street");
+        way.addTag("oneway", null);
+        assertTrue(way.tags instanceof TagList);
+        assertEquals("residential", way.getTag("highway"));
+        assertEquals("", way.getTag("oneway"));
+        assertNull(way.getTag("building"));
+
+        way.addOrReplaceTag("HIGHWAY", "tertiary");
+        assertEquals("tertiary", way.getTag("highway"));
+        assertEquals(3, way.tags.size());
+
+        way.tags.remove(0);
+        assertEquals(new OSMEntity.Tag("name", "Main Street"), way.tags.get(0));
+        way.tags.add(0, new OSMEntity.Tag("highway", "primary"));
+        assertEquals("highway", ((TagList) way.tags).getKey(0));
+        assertEquals("primary", way.getTag("highway"));
+        assertEquals("oneway", ((TagList) way.tags).getKey(2));
+
+        // TagLists must compare equal to other lists with the same tags, and survive Java serialization.
+        List<OSMEntity.Tag> expected = new ArrayList<>(way.tags);
+        assertEquals(expected, way.tags);
+        assertEquals(expected.hashCode(), way.tags.hashCode());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ObjectOutputStream(bytes).writeObject(way);
+        Way copy = (Way) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertTrue(copy.tagsEqual(way));
+        assertEquals("primary", copy.getTag("highway"));
+
+        // Tags are immutable, and are changed in the list through set().
+        OSMEntity.Tag tag = way.tags.get(0);
+        assertEquals("primary", way.tags.set(0, new OSMEntity.Tag(tag.key, "secondary")).value);
+        assertEquals("secondary", way.getTag("highway"));
+    }
+
+    /** Only the fixed common strings are coded, whatever strings the tags hold. */
+    public void testTagDictionaryIsFixed() {
+        int size = TagDictionary.size();
+        assertTrue(TagDictionary.getCode("highway") >= 0);
+        assertEquals("highway", TagDictionary.getString(TagDictionary.getCode("highway")));
+        Way way = new Way();
+        for (int i = 0; i < 100; i++) {
+            way.addTag("note:" + i, "Rare value " + i);
+        }
+        assertEquals(size, TagDictionary.size());
+        assertEquals(TagDictionary.NONE, TagDictionary.getCode("note:1"));
+        assertEquals("Rare value 42", way.getTag("note:42"));
+        assertEquals(99, ((TagList) way.tags).indexOfKey("note:99"));
+    }
 }
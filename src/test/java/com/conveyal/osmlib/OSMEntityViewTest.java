@@ -0,0 +1,83 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class OSMEntityViewTest extends TestCase {
+
+    private OSM osm;
+
+    private byte[] vex;
+
+    @Override
+    protected void setUp() throws Exception {
+        osm = new OSM(OSM.ON_HEAP);
+        osm.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        osm.writeVex(out);
+        vex = out.toByteArray();
+    }
+
+    /** Copying every view should reproduce exactly what the VEX input produces as entities. */
+    public void testCopiedViewsMatchEntities() throws IOException {
+        OSM copy = new OSM(OSM.ON_HEAP);
+        new VexInput(new ByteArrayInputStream(vex)).copyViewsTo(OSMEntityViewSink.copying(copy));
+        assertEquals(osm.nodes.size(), copy.nodes.size());
+        assertEquals(osm.ways.size(), copy.ways.size());
+        assertEquals(osm.relations.size(), copy.relations.size());
+        osm.forEachNode((id, node) -> {
+            assertEquals(node, copy.getNode(id));
+            return true;
+        });
+        osm.forEachWay((id, way) -> {
+            assertEquals(way, copy.getWay(id));
+            return true;
+        });
+        osm.forEachRelation((id, relation) -> {
+            assertEquals(relation.toString(), copy.getRelation(id).toString());
+            return true;
+        });
+    }
+
+    /** Tag lookups on views must agree with lookups on the materialized entities. */
+    public void testTagLookups() throws IOException {
+        int[] counts = new int[2];
+        OSMEntityViewSink filter = new OSMEntityViewSink() {
+            @Override public void writeBegin() { }
+            @Override public void setReplicationTimestamp(long secondsSinceEpoch) { }
+            @Override public void writeNode(NodeView node) {
+                Node expected = osm.getNode(node.getId());
+                assertEquals(expected.fixedLat, node.getFixedLat());
+                assertEquals(expected.getTag("name"), node.getTag("name"));
+            }
+            @Override public void writeWay(WayView way) {
+                Way expected = osm.getWay(way.getId());
+                assertEquals(expected.hasTag("highway"), way.hasTag("highway"));
+                assertEquals(expected.hasTag("highway", "residential"), way.hasTag("highway", "residential"));
+                assertEquals(expected.getTag("name"), way.getTag("name"));
+                assertEquals(expected.nodes.length, way.getNodeCount());
+                assertEquals(expected.nodes[0], way.getNode(0));
+                if (way.hasTag("highway")) counts[0]++;
+            }
+            @Override public void writeRelation(RelationView relation) {
+                Relation expected = osm.getRelation(relation.getId());
+                assertEquals(expected.members.size(), relation.getMemberCount());
+                for (int i = 0; i < relation.getMemberCount(); i++) {
+                    assertEquals(expected.members.get(i).id, relation.getMemberId(i));
+                    assertEquals(expected.members.get(i).type, relation.getMemberType(i));
+                    assertEquals(expected.members.get(i).role, relation.getMemberRole(i));
+                }
+                assertEquals(expected.getTag("type"), relation.getTag("type"));
+                counts[1]++;
+            }
+            @Override public void writeEnd() { }
+        };
+        new VexInput(new ByteArrayInputStream(vex)).copyViewsTo(filter);
+        assertTrue(counts[0] > 0);
+        assertEquals(osm.relations.size(), counts[1]);
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+import org.mapdb.Fun;
+
+public class OSMStorageTest extends TestCase {
+
+    public void testMemoryStorageMatchesMapDB() {
+        OSM memory = OSM.forStorage(new MemoryStorage());
+        memory.tileIndexing = true;
+        memory.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+        OSM mapdb = OSM.forStorage(new MapDBStorage(null));
+        mapdb.tileIndexing = true;
+        mapdb.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+
+        assertEquals(mapdb.nodes.size(), memory.nodes.size());
+        assertEquals(mapdb.relations.size(), memory.relations.size());
+        assertEquals(mapdb.index, memory.index);
+        assertEquals(mapdb.relationsByNode, memory.relationsByNode);
+        assertEquals(mapdb.relationsByWay, memory.relationsByWay);
+        assertEquals(mapdb.relationsByRelation, memory.relationsByRelation);
+        mapdb.close();
+    }
+
+    public void testRelationIndexesMaintained() {
+        for (OSMStorage storage : new OSMStorage[] { new MemoryStorage(), new MapDBStorage(null) }) {
+            Relation relation = new Relation();
+            Relation.Member member = new Relation.Member();
+            member.type = OSMEntity.Type.WAY;
+            member.id = 10;
+            member.role = "outer";
+            relation.members.add(member);
+            storage.getRelations().put(1L, relation);
+            assertTrue(storage.getRelationsByWay().contains(Fun.t2(10L, 1L)));
+            storage.getRelations().remove(1L);
+            assertTrue(storage.getRelationsByWay().isEmpty());
+
+            storage.setTimestamp(1234);
+            storage.setSequenceNumber(56);
+            assertEquals(1234, storage.getTimestamp());
+            assertEquals(56, storage.getSequenceNumber());
+            assertFalse(storage.isReopened());
+            storage.close();
+        }
+    }
+
+}
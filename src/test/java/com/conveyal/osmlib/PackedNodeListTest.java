@@ -0,0 +1,77 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+public class PackedNodeListTest extends TestCase {
+
+    public void testRoundTrip() {
+        Random random = new Random(42);
+        for (int size : new int[] { 0, 1, 2, 15, 16, 17, 32, 33, 1000 }) {
+            long[] nodes = new long[size];
+            long id = 3_000_000_000L;
+            for (int i = 0; i < size; i++) {
+                // Mostly close IDs, with occasional large jumps in both directions and negative (new) IDs.
+                id += random.nextInt(10) == 0 ? random.nextLong() / 2 : random.nextInt(200) - 50;
+                nodes[i] = i == 5 ? -id : id;
+            }
+            PackedNodeList packed = PackedNodeList.pack(nodes);
+            assertEquals(size, packed.size());
+            assertTrue(Arrays.equals(nodes, packed.toArray()));
+            for (int i = size - 1; i >= 0; i--) {
+                assertEquals(nodes[i], packed.get(i));
+            }
+            PrimitiveIterator.OfLong iterator = packed.iterator();
+            for (long node : nodes) {
+                assertEquals(node, iterator.nextLong());
+            }
+            assertFalse(iterator.hasNext());
+            assertEquals(packed, PackedNodeList.pack(nodes.clone()));
+        }
+        try {
+            PackedNodeList.pack(new long[] { 1, 2 }).get(2);
+            fail("Out of bounds access should fail.");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+    }
+
+    public void testPackedWayMap() {
+        OSM osm = new OSM(OSM.ON_HEAP);
+        osm.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+        assertTrue(osm.ways instanceof PackedWayMap);
+        PackedWayMap ways = (PackedWayMap) osm.ways;
+        long[] bytes = new long[2];
+        ways.forEachEntry((id, way) -> {
+            PackedNodeList packed = ways.getNodes(id);
+            assertTrue(Arrays.equals(way.nodes, packed.toArray()));
+            bytes[0] += 16 + way.nodes.length * 8;
+            bytes[1] += 16 + packed.getBytes().length;
+            return true;
+        });
+        // The packed arrays should take well under half the space of the long arrays, counting array headers.
+        assertTrue("Packed node lists should be compact.", bytes[1] * 2 < bytes[0]);
+
+        Way way = new Way();
+        way.nodes = new long[] { 10, 11, 12 };
+        way.addTag("highway", "residential");
+        assertNull(ways.put(-1L, way));
+        Way fetched = ways.get(-1L);
+        assertEquals(way, fetched);
+        fetched.nodes[0] = 99;
+        fetched.addOrReplaceTag("highway", "primary");
+        fetched.addTag("oneway", "yes");
+        assertEquals(way, ways.get(-1L));
+        assertEquals("residential", ways.get(-1L).getTag("highway"));
+        // Changing the way that was put does not change the table either.
+        way.addTag("name", "Main Street");
+        assertNull(ways.get(-1L).getTag("name"));
+        way.tags.remove(1);
+        assertEquals(way, ways.remove(-1L));
+        assertFalse(ways.containsKey(-1L));
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import junit.framework.TestCase;
+import org.mapdb.Fun;
+import org.mapdb.Serializer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.NavigableSet;
+
+public class SnapshotStorageTest extends TestCase {
+
+    public void testSnapshotRoundTrip() throws Exception {
+        OSM osm = new OSM(OSM.ON_HEAP);
+        osm.tileIndexing = true;
+        osm.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+        osm.setReplicationTimestamp(1234567);
+
+        File directory = Files.createTempDirectory("snapshot").toFile();
+        SnapshotStorage.write(osm, directory);
+        assertTrue(SnapshotStorage.isSnapshot(directory));
+        SnapshotStorage storage = new SnapshotStorage(directory);
+        OSM snapshot = OSM.forStorage(storage);
+
+        assertEquals(1234567, snapshot.getReplicationTimestamp());
+        assertEquals(osm.nodes.size(), snapshot.nodes.size());
+        assertEquals(osm.ways.size(), snapshot.ways.size());
+        assertEquals(osm.relations.size(), snapshot.relations.size());
+        osm.forEachNode((id, node) -> {
+            assertEquals(node, snapshot.getNode(id));
+            return true;
+        });
+        osm.forEachWay((id, way) -> {
+            assertEquals(way, snapshot.getWay(id));
+            return true;
+        });
+        snapshot.forEachRelation((id, relation) -> {
+            assertEquals(osm.getRelation(id), relation);
+            return true;
+        });
+        assertNull(snapshot.getWay(-1));
+
+        assertEquals(osm.index, snapshot.index);
+        assertEquals(osm.relationsByWay, snapshot.relationsByWay);
+        assertEquals(osm.relationsByNode, snapshot.relationsByNode);
+        assertEquals(osm.relationsByRelation, snapshot.relationsByRelation);
+
+        // Range queries with wildcard bounds must behave as they do on the MapDB indexes.
+        Fun.Tuple3<Integer, Integer, Long> first = osm.index.first();
+        NavigableSet<Fun.Tuple3<Integer, Integer, Long>> expected = osm.index.subSet(
+                new Fun.Tuple3(first.a, first.b, null), true, new Fun.Tuple3(first.a, first.b + 1, Fun.HI), true);
+        NavigableSet<Fun.Tuple3<Integer, Integer, Long>> actual = snapshot.index.subSet(
+                new Fun.Tuple3(first.a, first.b, null), true, new Fun.Tuple3(first.a, first.b + 1, Fun.HI), true);
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.last(), actual.last());
+
+        try {
+            snapshot.nodes.put(1L, new Node());
+            fail("Snapshots should be read-only.");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+        storage.close();
+        for (File file : directory.listFiles()) file.delete();
+        directory.delete();
+    }
+
+    /**
+     * Tables with more than 2^31 entities, like a planet's nodes, must still be searched and scanned correctly. This
+     * uses buffers with no files behind them, holding the even IDs 0, 2, 4... and one byte of payload per entity.
+     */
+    public void testMoreThanIntMaxEntities() {
+        long nEntities = 3L << 30;
+        MappedBuffer ids = new MappedBuffer(nEntities * Long.BYTES) {
+            @Override
+            long getLong (long position) {
+                return position / Long.BYTES * 2;
+            }
+        };
+        MappedBuffer offsets = new MappedBuffer((nEntities + 1) * Long.BYTES) {
+            @Override
+            long getLong (long position) {
+                return position / Long.BYTES;
+            }
+        };
+        MappedBuffer data = new MappedBuffer(nEntities);
+        // The payload is never read, only the positions it is read from are recorded.
+        TLongList decodedAt = new TLongArrayList();
+        Serializer<Node> serializer = new Serializer<Node>() {
+            @Override
+            public void serialize (DataOutput out, Node node) {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public Node deserialize (DataInput in, int available) {
+                decodedAt.add(((MappedDataInput) in).getPosition());
+                return new Node(0, 0);
+            }
+            @Override
+            public int fixedSize () {
+                return -1;
+            }
+        };
+        SnapshotEntityMap<Node> nodes = new SnapshotEntityMap<>(ids, offsets, data, serializer);
+        assertEquals(Integer.MAX_VALUE, nodes.size());
+        assertFalse(nodes.isEmpty());
+
+        long lastId = (nEntities - 1) * 2;
+        assertTrue(nodes.containsKey(lastId));
+        assertTrue(nodes.containsKey(1L << 32));
+        assertFalse(nodes.containsKey(lastId - 1));
+        assertFalse(nodes.containsKey(lastId + 2));
+        assertNotNull(nodes.get(lastId));
+        assertEquals(new TLongArrayList(new long[] { nEntities - 1 }), decodedAt);
+
+        decodedAt.clear();
+        TLongList found = new TLongArrayList();
+        nodes.forEachEntryInRange(lastId - 5, Long.MAX_VALUE, (id, node) -> found.add(id));
+        assertEquals(new TLongArrayList(new long[] { lastId - 4, lastId - 2, lastId }), found);
+        assertEquals(new TLongArrayList(new long[] { nEntities - 3, nEntities - 2, nEntities - 1 }), decodedAt);
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TeeSinkTest extends TestCase {
+
+    static final String TEST_FILE = "./src/test/resources/bangor_maine.osm.pbf";
+
+    /** Every downstream sink should receive everything, as if it had read the source on its own. */
+    public void testAllSinksReceiveEverything() throws IOException {
+        OSM expected = new OSM(OSM.ON_HEAP);
+        expected.readFromFile(TEST_FILE);
+
+        OSM copy = new OSM(OSM.ON_HEAP);
+        ByteArrayOutputStream vex = new ByteArrayOutputStream();
+        OSMEntitySource.forFile(TEST_FILE).copyTo(new TeeSink(copy, new VexOutput(vex)));
+        assertEquals(expected.nodes.size(), copy.nodes.size());
+        assertEquals(expected.ways.size(), copy.ways.size());
+        assertEquals(expected.relations.size(), copy.relations.size());
+        assertEquals(expected.getReplicationTimestamp(), copy.getReplicationTimestamp());
+
+        OSM fromVex = new OSM(OSM.ON_HEAP);
+        fromVex.readVex(new ByteArrayInputStream(vex.toByteArray()));
+        expected.forEachWay((id, way) -> {
+            assertEquals(way, copy.getWay(id));
+            assertEquals(way, fromVex.getWay(id));
+            return true;
+        });
+    }
+
+    /** A failing sink should not prevent the others from finishing, and its failure should be reported at the end. */
+    public void testFailureReported() throws IOException {
+        OSM copy = new OSM(OSM.ON_HEAP);
+        AtomicBoolean failingEnded = new AtomicBoolean(false);
+        OSM failing = new OSM(OSM.ON_HEAP) {
+            @Override
+            public void writeWay(long id, Way way) {
+                throw new IllegalStateException("Sink failed.");
+            }
+            @Override
+            public void writeEnd() {
+                failingEnded.set(true);
+            }
+        };
+        try {
+            OSMEntitySource.forFile(TEST_FILE).copyTo(new TeeSink(failing, copy));
+            fail("The failure of a downstream sink should be reported.");
+        } catch (RuntimeException e) {
+            assertEquals("Sink failed.", e.getCause().getMessage());
+        }
+        assertTrue(copy.relations.size() > 0);
+        // The failed sink is still ended, so it can close its output.
+        assertTrue(failingEnded.get());
+    }
+
+    /** If the source fails, closing the tee should end every sink and stop all the downstream threads. */
+    public void testSourceFailure() throws IOException {
+        EndRecorder first = new EndRecorder();
+        EndRecorder second = new EndRecorder() {
+            @Override
+            public void writeNode(long id, Node node) {
+                throw new IllegalStateException("Sink failed.");
+            }
+        };
+        OSMEntitySource failingSource = new OSMEntitySource() {
+            @Override
+            public void copyTo(OSMEntitySink sink) throws IOException {
+                sink.writeBegin();
+                for (long id = 0; id < 10000; id++) {
+                    sink.writeNode(id, new Node(id, id));
+                }
+                throw new IOException("Source failed.");
+            }
+        };
+        try (TeeSink tee = new TeeSink(first, second)) {
+            failingSource.copyTo(tee);
+            fail("The failure of the source should be thrown.");
+        } catch (IOException e) {
+            assertEquals("Source failed.", e.getMessage());
+        }
+        for (EndRecorder sink : new EndRecorder[] { first, second }) {
+            assertNotNull("Every sink should be ended.", sink.endThread);
+            assertFalse("Downstream threads should stop.", sink.endThread.isAlive());
+        }
+    }
+
+    /** A sink that only records which thread ended it. */
+    private static class EndRecorder implements OSMEntitySink {
+        volatile Thread endThread;
+        @Override public void writeBegin() { }
+        @Override public void setReplicationTimestamp(long secondsSinceEpoch) { }
+        @Override public void writeNode(long id, Node node) { }
+        @Override public void writeWay(long id, Way way) { }
+        @Override public void writeRelation(long id, Relation relation) { }
+        @Override public void writeEnd() {
+            endThread = Thread.currentThread();
+        }
+    }
+
+}
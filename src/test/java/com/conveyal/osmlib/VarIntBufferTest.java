@@ -0,0 +1,90 @@
+package com.conveyal.osmlib;
+
+import com.conveyal.osmlib.serializer.StringDictionary;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class VarIntBufferTest extends TestCase {
+
+    /** Values of every encoded length, decoded both on the fast path and near the end of the data. */
+    public void testRoundTrip() throws IOException {
+        Random random = new Random(42);
+        long[] values = new long[2000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong() >> random.nextInt(64);
+        }
+        values[0] = 0;
+        values[1] = Long.MAX_VALUE;
+        values[2] = Long.MIN_VALUE;
+        values[values.length - 1] = Long.MIN_VALUE;
+        values[values.length - 2] = -1;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        VarIntOutputStream out = new VarIntOutputStream(bytes);
+        for (long value : values) {
+            out.writeSInt64(value);
+            out.writeUInt64(value);
+        }
+        VarIntBuffer in = new VarIntBuffer();
+        in.reset(bytes.toByteArray(), 0);
+        for (long value : values) {
+            assertEquals(value, in.readSInt64());
+            assertEquals(value, in.readUInt64());
+        }
+        assertEquals(0, in.remaining());
+    }
+
+    public void testTruncated() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new VarIntOutputStream(bytes).writeUInt64(Long.MAX_VALUE);
+        byte[] data = bytes.toByteArray();
+        VarIntBuffer in = new VarIntBuffer();
+        // The limit must be respected even though the array continues past it.
+        in.reset(Arrays.copyOf(data, 20), 0, data.length - 1);
+        try {
+            in.readUInt64();
+            fail("Decoding a truncated varint should fail.");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Expected.
+        }
+        in.reset(new byte[] { 5, 'a', 'b' }, 0);
+        try {
+            in.readString();
+            fail("Decoding a truncated string should fail.");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Expected.
+        }
+    }
+
+    /** Repeated strings should come back as the same instance, and dictionary strings as the dictionary's own. */
+    public void testStringCache() throws IOException {
+        StringDictionary dictionary = StringDictionary.defaultDictionary();
+        String common = dictionary.getString(0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        VarIntOutputStream out = new VarIntOutputStream(bytes);
+        for (int i = 0; i < 2; i++) {
+            out.writeString(new String(common));
+            out.writeString("Rue de l'Église");
+            out.writeString("a very long string that is not worth caching at all");
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.size());
+        direct.put(bytes.toByteArray());
+        direct.flip();
+        VarIntBuffer in = new VarIntBuffer(StringCache.withDictionary(dictionary));
+        in.reset(direct);
+        String[] first = new String[] { in.readString(), in.readString(), in.readString() };
+        String[] second = new String[] { in.readString(), in.readString(), in.readString() };
+        assertSame(common, first[0]);
+        assertSame(common, second[0]);
+        assertEquals("Rue de l'Église", first[1]);
+        assertSame(first[1], second[1]);
+        assertEquals(first[2], second[2]);
+        assertNotSame(first[2], second[2]);
+        assertEquals(0, direct.position());
+    }
+
+}
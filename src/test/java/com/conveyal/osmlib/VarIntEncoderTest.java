@@ -0,0 +1,78 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class VarIntEncoderTest extends TestCase {
+
+    /** The encoder must produce exactly the same bytes as VarIntOutputStream, growing as needed. */
+    public void testSameAsStream() throws IOException {
+        String[] strings = new String[] {
+            "", "highway", "Rue de l'Église", "東京", "emoji 🚌 bus", "broken \uD800 surrogate"
+        };
+        Random random = new Random(42);
+        VarIntEncoder encoder = new VarIntEncoder(4);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        VarIntOutputStream stream = new VarIntOutputStream(bytes);
+        for (int i = 0; i < 1000; i++) {
+            long value = random.nextLong() >> random.nextInt(64);
+            encoder.writeSInt64(value);
+            stream.writeSInt64(value);
+            encoder.writeUInt64(value);
+            stream.writeUInt64(value);
+            encoder.writeUInt32((int) value);
+            stream.writeUInt32((int) value);
+            encoder.writeString(strings[i % strings.length]);
+            stream.writeString(strings[i % strings.length]);
+        }
+        assertTrue(Arrays.equals(bytes.toByteArray(), Arrays.copyOf(encoder.getBuffer(), encoder.position())));
+    }
+
+    /**
+     * An entity too big for the block it is in should move to a new block, and one too big for any block should be
+     * left out, without affecting the entities around it.
+     */
+    public void testOversizedEntities() throws IOException {
+        OSM osm = new OSM(OSM.ON_HEAP);
+        for (long id = 1; id <= 1000; id++) {
+            Node node = new Node(44.8 + id * 1e-4, -68.8);
+            node.addTag("name", "node " + id);
+            osm.nodes.put(id, node);
+        }
+        // Each member takes 7 bytes, its role being an index into the string table.
+        // Relation 2 does not fit in the block after relation 1.
+        osm.relations.put(1L, relationWithMembers(70_000));
+        osm.relations.put(2L, relationWithMembers(90_000));
+        osm.relations.put(3L, relationWithMembers(200_000)); // More than a whole block.
+        osm.relations.put(4L, relationWithMembers(10));
+
+        ByteArrayOutputStream vex = new ByteArrayOutputStream();
+        osm.copyTo(new VexOutput(vex));
+        OSM copy = new OSM(OSM.ON_HEAP);
+        copy.readVex(new ByteArrayInputStream(vex.toByteArray()));
+        assertEquals(1000, copy.nodes.size());
+        assertEquals(osm.nodes.get(1000L), copy.nodes.get(1000L));
+        assertEquals(osm.relations.get(1L), copy.relations.get(1L));
+        assertEquals(osm.relations.get(2L), copy.relations.get(2L));
+        assertNull(copy.relations.get(3L));
+        assertEquals(osm.relations.get(4L), copy.relations.get(4L));
+    }
+
+    private static Relation relationWithMembers(int nMembers) {
+        Relation relation = new Relation();
+        for (int i = 0; i < nMembers; i++) {
+            Relation.Member member = new Relation.Member();
+            member.type = OSMEntity.Type.WAY;
+            member.id = 100_000_000L + i * 7919L;
+            member.role = "outer";
+            relation.members.add(member);
+        }
+        return relation;
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class VexFormatTest extends TestCase {
+
+    private OSM osm;
+
+    @Override
+    protected void setUp() throws Exception {
+        osm = new OSM(OSM.ON_HEAP);
+        osm.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+    }
+
+    private byte[] writeVex(int version) throws IOException {
+        return writeVex(version, version >= VexFormat.VERSION_2);
+    }
+
+    private byte[] writeVex(int version, boolean columnarNodes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VexOutput vexOutput = new VexOutput(out, version);
+        vexOutput.setColumnarNodes(columnarNodes);
+        osm.copyTo(vexOutput);
+        return out.toByteArray();
+    }
+
+    private void assertSameEntities(OSM copy) {
+        assertEquals(osm.nodes.size(), copy.nodes.size());
+        assertEquals(osm.ways.size(), copy.ways.size());
+        assertEquals(osm.relations.size(), copy.relations.size());
+        osm.forEachNode((id, node) -> {
+            assertEquals(node, copy.getNode(id));
+            return true;
+        });
+        osm.forEachWay((id, way) -> {
+            assertEquals(way, copy.getWay(id));
+            return true;
+        });
+        osm.forEachRelation((id, relation) -> {
+            assertEquals(relation.toString(), copy.getRelation(id).toString());
+            return true;
+        });
+    }
+
+    /** Every variant of the format must round trip, whether read as entities or as views. */
+    public void testRoundTrip() throws IOException {
+        for (byte[] vex : new byte[][] {
+                writeVex(VexFormat.VERSION_1),
+                writeVex(VexFormat.VERSION_2, false),
+                writeVex(VexFormat.VERSION_2, true) }) {
+            OSM copy = new OSM(OSM.ON_HEAP);
+            copy.readVex(new ByteArrayInputStream(vex));
+            assertSameEntities(copy);
+            OSM viewCopy = new OSM(OSM.ON_HEAP);
+            new VexInput(new ByteArrayInputStream(vex)).copyViewsTo(OSMEntityViewSink.copying(viewCopy));
+            assertSameEntities(viewCopy);
+        }
+    }
+
+    /** Version 2 blocks are marked as such and, with each string stored once per block, come out smaller. */
+    public void testVersion2Blocks() throws IOException {
+        byte[] v1 = writeVex(VexFormat.VERSION_1);
+        byte[] v2 = writeVex(VexFormat.VERSION_2);
+        assertEquals("VEXN", new String(v1, 0, 4));
+        assertEquals("VX2N", new String(v2, 0, 4));
+        assertEquals(VexFormat.FLAG_STRING_TABLE | VexFormat.FLAG_COLUMNAR, v2[4]);
+        assertTrue(v2.length < v1.length);
+    }
+
+    /** Node blocks laid out column by column compress better than with the fields of each node together. */
+    public void testColumnarNodes() throws IOException {
+        byte[] interleaved = writeVex(VexFormat.VERSION_2, false);
+        byte[] columnar = writeVex(VexFormat.VERSION_2, true);
+        assertEquals(VexFormat.FLAG_STRING_TABLE, interleaved[4]);
+        assertTrue(columnar.length < interleaved.length);
+    }
+
+}
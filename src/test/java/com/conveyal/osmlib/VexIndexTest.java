@@ -0,0 +1,137 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class VexIndexTest extends TestCase {
+
+    private static final int N_NODES = 500_000;
+
+    private static final int N_WAYS = 50_000;
+
+    private OSM osm;
+
+    @Override
+    protected void setUp() throws Exception {
+        // Enough entities for several node blocks.
+        osm = new OSM(OSM.ON_HEAP);
+        for (long id = 1; id <= N_NODES; id++) {
+            osm.nodes.put(id, new Node(44.8 + (id % 1000) * 1e-4, -68.8 + (id / 1000) * 1e-4));
+        }
+        for (long id = 1; id <= N_WAYS; id++) {
+            Way way = new Way();
+            way.nodes = new long[] { id, id + 1, id + 1000 };
+            way.addTag("highway", "residential");
+            osm.ways.put(id, way);
+        }
+    }
+
+    private File writeVex(boolean writeIndex) throws IOException {
+        File file = File.createTempFile("index", ".vex");
+        file.deleteOnExit();
+        VexOutput vexOutput = new VexOutput(new FileOutputStream(file));
+        vexOutput.setWriteIndex(writeIndex);
+        osm.copyTo(vexOutput);
+        return file;
+    }
+
+    /** The index lists every block in order, and streaming readers stop at it. */
+    public void testIndex() throws IOException {
+        File file = writeVex(true);
+        VexIndex index = VexIndex.read(file);
+        assertNotNull(index);
+        List<VexIndex.Entry> entries = index.getEntries();
+        assertTrue(entries.size() > 2);
+        long nNodes = 0, nWays = 0, offset = 0, previousMaxId = 0;
+        for (VexIndex.Entry entry : entries) {
+            assertEquals(offset, entry.offset);
+            offset += entry.length;
+            if (entry.entityType == VexFormat.VEX_NODE) {
+                assertEquals(0, nWays);
+                assertEquals(previousMaxId + 1, entry.minId);
+                nNodes += entry.nEntities;
+                previousMaxId = entry.maxId;
+            } else {
+                assertEquals(VexFormat.VEX_WAY, entry.entityType);
+                nWays += entry.nEntities;
+            }
+        }
+        assertEquals(N_NODES, nNodes);
+        assertEquals(N_WAYS, nWays);
+        assertTrue(offset < file.length());
+
+        OSM copy = new OSM(OSM.ON_HEAP);
+        copy.readVex(new FileInputStream(file));
+        assertEquals(N_NODES, copy.nodes.size());
+        assertEquals(N_WAYS, copy.ways.size());
+    }
+
+    public void testNoIndex() throws IOException {
+        File file = writeVex(false);
+        assertNull(VexIndex.read(file));
+        try {
+            VexInput.forRange(file, VexFormat.VEX_NODE, 0, Long.MAX_VALUE);
+            fail();
+        } catch (IOException e) {
+            // Expected, there is no index to find the range with.
+        }
+    }
+
+    /** Reading an ID range should only decode the blocks that overlap it. */
+    public void testRange() throws IOException {
+        File file = writeVex(true);
+        long minId = N_NODES / 2, maxId = N_NODES / 2 + 10;
+        OSM copy = new OSM(OSM.ON_HEAP);
+        VexInput.forRange(file, VexFormat.VEX_NODE, minId, maxId).copyTo(copy);
+        assertEquals(0, copy.ways.size());
+        assertTrue(copy.nodes.size() < N_NODES);
+        for (long id = minId; id <= maxId; id++) {
+            assertEquals(osm.nodes.get(id), copy.nodes.get(id));
+        }
+    }
+
+    /** Parts of a split file decoded in parallel should together hold every entity exactly once. */
+    public void testSplit() throws Exception {
+        File file = writeVex(true);
+        List<VexInput> parts = VexInput.split(file, 3);
+        assertEquals(3, parts.size());
+        List<OSM> copies = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        for (VexInput part : parts) {
+            OSM copy = new OSM(OSM.ON_HEAP);
+            copies.add(copy);
+            threads.add(new Thread(() -> {
+                try {
+                    part.copyTo(copy);
+                } catch (Exception e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) thread.join();
+        assertTrue(errors.isEmpty());
+        long nNodes = 0, nWays = 0;
+        for (OSM copy : copies) {
+            nNodes += copy.nodes.size();
+            nWays += copy.ways.size();
+        }
+        assertEquals(N_NODES, nNodes);
+        assertEquals(N_WAYS, nWays);
+        for (long id = 1; id <= N_NODES; id += 997) {
+            boolean found = false;
+            for (OSM copy : copies) found |= copy.nodes.containsKey(id);
+            assertTrue(found);
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.conveyal.osmlib.metrics;
+
+import com.conveyal.osmlib.OSM;
+import com.conveyal.osmlib.VexOutput;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class SimpleMetricsRegistryTest extends TestCase {
+
+    static final String TEST_FILE = "./src/test/resources/bangor_maine.osm.pbf";
+
+    public void testTextFormat() throws IOException {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        registry.counter("test.things").increment(3);
+        registry.counter("test.things").increment();
+        Histogram sizes = registry.histogram("test.size");
+        for (int i = 1; i <= 100; i++) {
+            sizes.record(i);
+        }
+        registry.timer("test.latency").recordNanos(2_000_000);
+
+        StringWriter text = new StringWriter();
+        registry.writeText(text);
+        String output = text.toString();
+        assertTrue(output.contains("osmlib_test_things_total 4\n"));
+        assertTrue(output.contains("osmlib_test_size_count 100\n"));
+        assertTrue(output.contains("osmlib_test_size_sum 5050\n"));
+        assertTrue(output.contains("osmlib_test_size_max 100\n"));
+        // The median of 1..100 is in the bucket from 32 to 63, and the 99th percentile is capped at the maximum.
+        assertTrue(output.contains("osmlib_test_size{quantile=\"0.5\"} 63\n"));
+        assertTrue(output.contains("osmlib_test_size{quantile=\"0.99\"} 100\n"));
+        assertTrue(output.contains("osmlib_test_latency_seconds_count 1\n"));
+        assertTrue(output.contains("osmlib_test_latency_seconds_max 0.002\n"));
+    }
+
+    /** Loading data should count the bytes and entities read and time the blocks, whatever the format. */
+    public void testLoadingIsMeasured() throws IOException {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        MetricsRegistry previous = Metrics.registry();
+        Metrics.setRegistry(registry);
+        try {
+            OSM osm = new OSM(OSM.ON_HEAP);
+            osm.readFromFile(TEST_FILE);
+            assertEquals(osm.nodes.size(), registry.getCount("input.nodes"));
+            assertEquals(osm.ways.size(), registry.getCount("input.ways"));
+            assertEquals(osm.relations.size(), registry.getCount("input.relations"));
+            assertTrue(registry.getCount("pbf.bytes_read") > 0);
+            assertTrue(registry.getCount("pbf.blocks") > 0);
+            assertTrue(registry.getHistogramCount("input.sink_write") > 0);
+
+            ByteArrayOutputStream vex = new ByteArrayOutputStream();
+            osm.copyTo(new VexOutput(vex));
+            assertEquals(vex.size(), registry.getCount("vex.bytes_written"));
+            OSM fromVex = new OSM(OSM.ON_HEAP);
+            fromVex.readVex(new ByteArrayInputStream(vex.toByteArray()));
+            assertEquals(vex.size(), registry.getCount("vex.bytes_read"));
+            assertEquals(registry.getCount("vex.blocks_written"), registry.getCount("vex.blocks_inflated"));
+            assertEquals(osm.nodes.size() * 2, registry.getCount("input.nodes"));
+        } finally {
+            Metrics.setRegistry(previous);
+        }
+    }
+
+}
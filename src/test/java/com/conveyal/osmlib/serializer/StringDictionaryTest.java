@@ -0,0 +1,75 @@
+package com.conveyal.osmlib.serializer;
+
+import com.conveyal.osmlib.OSMEntity;
+import com.conveyal.osmlib.Relation;
+import com.conveyal.osmlib.Way;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class StringDictionaryTest extends TestCase {
+
+    public void testDefaultDictionary() {
+        StringDictionary dictionary = StringDictionary.defaultDictionary();
+        assertEquals(0, dictionary.getCode("building"));
+        assertEquals("building", dictionary.getString(0));
+        assertEquals(-1, dictionary.getCode("Not a common string"));
+    }
+
+    public void testFromCounts() {
+        TObjectIntMap<String> counts = new TObjectIntHashMap<>();
+        counts.put("rare", 1);
+        counts.put("common", 10);
+        counts.put("most common", 100);
+        StringDictionary dictionary = StringDictionary.fromCounts(counts, 5);
+        assertEquals(2, dictionary.size());
+        assertEquals(0, dictionary.getCode("most common"));
+        assertEquals(1, dictionary.getCode("common"));
+        assertEquals(-1, dictionary.getCode("rare"));
+    }
+
+    public void testWaySerializer() throws IOException {
+        Way way = new Way();
+        way.nodes = new long[] { 10, 12, 11, 4000000000L };
+        way.addTag("highway", "residential");
+        way.addTag("name", "An uncommon street name");
+        StringDictionary dictionary = StringDictionary.defaultDictionary();
+        byte[] coded = serialize(new WaySerializer(dictionary), way);
+        byte[] inline = serialize(new WaySerializer(), way);
+        assertTrue(coded.length < inline.length);
+        for (byte[] bytes : new byte[][] { coded, inline }) {
+            WaySerializer serializer = bytes == coded ? new WaySerializer(dictionary) : new WaySerializer();
+            Way copy = serializer.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length);
+            assertEquals(way, copy);
+        }
+    }
+
+    public void testRelationSerializer() throws IOException {
+        Relation relation = new Relation();
+        relation.addTag("type", "multipolygon");
+        for (long id : new long[] { 5, 3, 900 }) {
+            Relation.Member member = new Relation.Member();
+            member.type = id == 900 ? OSMEntity.Type.NODE : OSMEntity.Type.WAY;
+            member.id = id;
+            member.role = id == 3 ? "inner" : "outer";
+            relation.members.add(member);
+        }
+        RelationSerializer serializer = new RelationSerializer(StringDictionary.defaultDictionary());
+        byte[] bytes = serialize(serializer, relation);
+        Relation copy = serializer.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length);
+        assertEquals(relation, copy);
+    }
+
+    private static <T> byte[] serialize(org.mapdb.Serializer<T> serializer, T value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.serialize(new DataOutputStream(bytes), value);
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.conveyal.osmlib.metrics;
+
+import com.conveyal.osmlib.OSM;
+import com.conveyal.osmlib.PBFOutput;
+import com.conveyal.osmlib.TileOSMSource;
+import com.conveyal.osmlib.VexOutput;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class FlightEventsTest extends TestCase {
+
+    static final String TEST_FILE = "./src/test/resources/bangor_maine.osm.pbf";
+
+    public void testEventsRecorded() throws IOException {
+        if (!FlightEvents.AVAILABLE) return;
+        OSM osm = new OSM(OSM.ON_HEAP);
+        osm.tileIndexing = true;
+        osm.readFromFile(TEST_FILE);
+
+        File file = File.createTempFile("osm-lib", ".jfr");
+        file.deleteOnExit();
+        try (Recording recording = new Recording()) {
+            recording.enable("com.conveyal.osmlib.BlockInflate");
+            recording.enable("com.conveyal.osmlib.BlobWrite");
+            recording.enable("com.conveyal.osmlib.TileExtract");
+            recording.start();
+            ByteArrayOutputStream vex = new ByteArrayOutputStream();
+            osm.copyTo(new VexOutput(vex));
+            new OSM(OSM.ON_HEAP).readVex(new ByteArrayInputStream(vex.toByteArray()));
+            osm.copyTo(new PBFOutput(new ByteArrayOutputStream()));
+            TileOSMSource tileSource = new TileOSMSource(osm);
+            tileSource.setBoundingBox(44.79, -68.79, 44.82, -68.75);
+            tileSource.copyTo(new PBFOutput(new ByteArrayOutputStream()));
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+
+        List<RecordedEvent> inflates = ofType(events, "com.conveyal.osmlib.BlockInflate");
+        assertFalse(inflates.isEmpty());
+        long nInflated = inflates.stream().mapToLong(e -> e.getInt("entities")).sum();
+        assertEquals(osm.nodes.size() + osm.ways.size() + osm.relations.size(), nInflated);
+        for (RecordedEvent inflate : inflates) {
+            assertTrue(inflate.getLong("inflatedBytes") > inflate.getLong("compressedBytes"));
+        }
+
+        List<RecordedEvent> blobs = ofType(events, "com.conveyal.osmlib.BlobWrite");
+        assertTrue(blobs.stream().anyMatch(e -> "OSMHeader".equals(e.getString("blobType"))));
+        assertTrue(blobs.stream().anyMatch(e -> e.getInt("entities") > 0));
+
+        List<RecordedEvent> extracts = ofType(events, "com.conveyal.osmlib.TileExtract");
+        assertEquals(1, extracts.size());
+        assertTrue(extracts.get(0).getLong("ways") > 0);
+        assertTrue(extracts.get(0).getLong("nodes") > extracts.get(0).getLong("ways"));
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(name)).collect(Collectors.toList());
+    }
+
+}